@@ -30,8 +30,9 @@ import kotlin.math.roundToInt
 
 /** Block */
 @kotlinx.serialization.Serializable class Block @JvmOverloads constructor(
-	/** Block color */
-	var color:COLOR? = null,
+	/** Block color (stored here; read and written through [color]) */
+	@kotlinx.serialization.SerialName("color")
+	private var colorValue:COLOR? = null,
 	/** Block type */
 	var type:TYPE = BLOCK,
 	/** Blockの絵柄 */
@@ -39,6 +40,19 @@ import kotlin.math.roundToInt
 	/** Blockの属性 */
 	var aint:Int = 0) {
 
+	/** Field holding this Block, told when the Block becomes empty or filled so that its occupancy bits stay right */
+	@kotlinx.serialization.Transient
+	internal var owner:Field? = null
+
+	/** Block color (null: empty) */
+	var color:COLOR?
+		get() = colorValue
+		set(v) {
+			val filled = colorValue!=null
+			colorValue = v
+			if(filled!=(v!=null)) owner?.blockOccupancyChanged()
+		}
+
 	/** Block color integer */
 	var cint:Int
 		get() = if(color==COLOR.RAINBOW) {
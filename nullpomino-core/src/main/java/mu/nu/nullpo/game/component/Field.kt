@@ -65,6 +65,67 @@ import kotlin.random.Random
 	/** 見えない部分のLine clear flag */
 	private var lineflagHidden:BooleanArray = BooleanArray(hiddenHeight)
 
+	/** Occupancy bitmask of every row (bit x is set when column x holds a block), indexed by y+hiddenHeight.
+	 * Updated by the thread that changes the field, never by a read, so other threads can read a field
+	 * (or copy it) while it is in use. A Block held by this field that is emptied or filled from outside
+	 * reports it through [Block.owner]. */
+	@kotlinx.serialization.Transient
+	private var rowBits:LongArray = LongArray(hiddenHeight+height)
+
+	/** true while a mutator of this class changes Blocks and updates [rowBits] itself */
+	@kotlinx.serialization.Transient
+	private var updatingBlocks:Boolean = false
+
+	/** Zobrist hash of [rowBits] (XOR of [zobristKey] over every filled cell), kept in step with it */
+	@kotlinx.serialization.Transient
+	private var zobrist:Long = 0L
+
+	/** Block objects detached by [restore], reused by [setBlock] instead of allocating new ones */
+	@kotlinx.serialization.Transient
+	private var spareBlocks:Array<Block?> = emptyArray()
+	@kotlinx.serialization.Transient
+	private var spareBlockCount:Int = 0
+
+	/** Stamp of the color cluster search that last visited each cell, indexed by [cellIndex] */
+	@kotlinx.serialization.Transient
+	private var clusterMark:IntArray = IntArray(0)
+
+	/** Stamp of the current color cluster search */
+	@kotlinx.serialization.Transient
+	private var clusterStamp:Int = 0
+
+	/** Cells of the color clusters found, also the queue of the flood fill */
+	@kotlinx.serialization.Transient
+	private var clusterCells:IntArray = IntArray(0)
+
+	/** End index in [clusterCells] of each color cluster found */
+	@kotlinx.serialization.Transient
+	private var clusterEnds:IntArray = IntArray(0)
+
+	/** true when the last flooded color cluster contains a gem block */
+	@kotlinx.serialization.Transient
+	private var clusterHasGem:Boolean = false
+
+	/** Linked group of each cell for the cascade gravity (-1 if empty), indexed by [cellIndex] */
+	@kotlinx.serialization.Transient
+	private var cascadeGroup:IntArray = IntArray(0)
+
+	/** Union-find parent of each cell while the linked groups are built */
+	@kotlinx.serialization.Transient
+	private var cascadeParent:IntArray = IntArray(0)
+
+	/** Cells of every linked group, each group from the bottom row up */
+	@kotlinx.serialization.Transient
+	private var cascadeCells:IntArray = IntArray(0)
+
+	/** Start index of each linked group in [cascadeCells] */
+	@kotlinx.serialization.Transient
+	private var cascadeStart:IntArray = IntArray(0)
+
+	/** Move count when each linked group was last found blocked, or [CASCADE_FELL] */
+	@kotlinx.serialization.Transient
+	private var cascadeChecked:IntArray = IntArray(0)
+
 	/** HURRY UP地面のcount */
 	var hurryupFloorLines:Int = 0; private set
 
@@ -108,6 +169,13 @@ import kotlin.random.Random
 	 */
 	val lines:Int get() = (hiddenHeight*-1 until heightWithoutHurryupFloor).count {getLineFlag(it)}
 
+	/** Whether the field is narrow enough to be represented by one Long per row
+	 * (otherwise the bitwise fast paths fall back to scanning Block objects) */
+	val isBitboardEnabled:Boolean get() = width in 1..Long.SIZE_BITS
+
+	/** Bitmask of a row with every column filled */
+	val fullRowBits:Long get() = if(width>=Long.SIZE_BITS) -1L else (1L shl width)-1
+
 	/** All clearだったらtrue
 	 * @return All clearだったらtrue
 	 */
@@ -120,7 +188,10 @@ import kotlin.random.Random
 	val howManyBlocks:Int
 		get() = (hiddenHeight*-1 until heightWithoutHurryupFloor)
 			.filter {!getLineFlag(it)}
-			.sumOf {getRow(it).count {b -> b?.isEmpty==false}}
+			.sumOf {
+				if(isBitboardEnabled) java.lang.Long.bitCount(getRowBits(it))
+				else rawRow(it)?.count {b -> b?.isEmpty==false} ?: 0
+			}
 
 	/** 左から何個のBlockが並んでいるか調べる
 	 * @return 左から並んでいるBlockの総count
@@ -128,7 +199,7 @@ import kotlin.random.Random
 	val howManyBlocksFromLeft:Int
 		get() = (hiddenHeight*-1 until heightWithoutHurryupFloor)
 			.filter {!getLineFlag(it)}
-			.sumOf {getRow(it).takeWhile {b -> b?.isEmpty==false}.size}
+			.sumOf {rawRow(it)?.takeWhile {b -> b?.isEmpty==false}?.size ?: 0}
 
 	/** 右から何個のBlockが並んでいるか調べる
 	 * @return 右から並んでいるBlockの総count
@@ -136,7 +207,7 @@ import kotlin.random.Random
 	val howManyBlocksFromRight:Int
 		get() = (hiddenHeight*-1 until heightWithoutHurryupFloor)
 			.filter {!getLineFlag(it)}
-			.sumOf {getRow(it).takeLastWhile {b -> b?.isEmpty==false}.size}
+			.sumOf {rawRow(it)?.takeLastWhile {b -> b?.isEmpty==false}?.size ?: 0}
 
 	/** 一番上にあるBlockのY-coordinateを取得
 	 * @return 一番上にあるBlockのY-coordinate
@@ -144,8 +215,7 @@ import kotlin.random.Random
 	val highestBlockY:Int
 		get() =
 			(hiddenHeight*-1 until heightWithoutHurryupFloor)
-				.filter {!getLineFlag(it)}
-				.firstOrNull {getRow(it).filterNotNull().any {b -> !b.isEmpty}} ?: height
+				.firstOrNull {!getLineFlag(it)&&hasBlockInRow(it)} ?: height
 
 	/** garbage blockが最初に現れるY-coordinateを取得
 	 * @return garbage blockが最初に現れるY-coordinate
@@ -154,7 +224,7 @@ import kotlin.random.Random
 		get() =
 			(hiddenHeight*-1 until heightWithoutHurryupFloor)
 				.filter {!getLineFlag(it)}
-				.firstOrNull {getRow(it).filterNotNull().any {b -> b.getAttribute(ATTRIBUTE.GARBAGE)}} ?: height
+				.firstOrNull {rawRow(it)?.any {b -> b?.getAttribute(ATTRIBUTE.GARBAGE)==true}==true} ?: height
 
 	val howManyBlocksCovered:Int
 		get() = (0 until width).sumOf {j ->
@@ -171,6 +241,19 @@ import kotlin.random.Random
 	val howManyHoles:Int
 		get() {
 			var hole = 0
+			if(isBitboardEnabled) {
+				// All columns at once: a bit of samehole stays set while we are under a lid in that column
+				var samehole = 0L
+				for(i in highestBlockY until heightWithoutHurryupFloor)
+					if(!getLineFlag(i)) {
+						val here = getValidRowBits(i)
+						val empty = here.inv() and fullRowBits
+						hole += java.lang.Long.bitCount(samehole and empty)
+						samehole = (here and getValidRowBits(i+1).inv()) or (samehole and empty)
+					}
+				return hole
+			}
+
 			var samehole:Boolean
 
 			for(j in 0 until width) {
@@ -242,6 +325,7 @@ import kotlin.random.Random
 						attack[y][x] = null
 				}
 			}
+			refreshRowBits()
 			return attack
 		}
 
@@ -366,6 +450,8 @@ import kotlin.random.Random
 		blockHidden = Array(hiddenHeight) {arrayOfNulls<Block?>(width)}
 		lineflagField = BooleanArray(height)
 		lineflagHidden = BooleanArray(hiddenHeight)
+		rowBits = LongArray(hiddenHeight+height)
+		zobrist = 0L
 		hurryupFloorLines = 0
 
 		colorClearExtraCount = 0
@@ -394,10 +480,13 @@ import kotlin.random.Random
 			hiddenHeight = o.hiddenHeight
 			ceiling = o.ceiling
 
-			blockField = o.blockField.map {x -> x.map {y -> y?.let {Block(it)}}.toTypedArray()}.toTypedArray()
-			blockHidden = o.blockHidden.map {x -> x.map {y -> y?.let {Block(it)}}.toTypedArray()}.toTypedArray()
+			blockField = o.blockField.map {x -> x.map {y -> y?.let {Block(it).also {b -> b.owner = this}}}.toTypedArray()}
+				.toTypedArray()
+			blockHidden = o.blockHidden.map {x -> x.map {y -> y?.let {Block(it).also {b -> b.owner = this}}}.toTypedArray()}
+				.toTypedArray()
 			lineflagField = o.lineflagField.clone()
 			lineflagHidden = o.lineflagField.clone()
+			refreshRowBits()
 			hurryupFloorLines = o.hurryupFloorLines
 
 			colorClearExtraCount = o.colorClearExtraCount
@@ -417,6 +506,98 @@ import kotlin.random.Random
 		} ?: reset()
 	}
 
+	/** Overwrite this field with the contents of another field, reusing this field's rows and Block objects.
+	 * Meant for trial placements (place, evaluate, restore) that would otherwise
+	 * allocate a full copy per candidate; falls back to [copy] when the sizes differ.
+	 * @param f Copy source
+	 */
+	fun restore(f:Field) {
+		if(f.width!=width||f.height!=height||f.hiddenHeight!=hiddenHeight) return copy(f)
+		if(spareBlocks.size<width*(height+hiddenHeight)) spareBlocks = arrayOfNulls(width*(height+hiddenHeight))
+		ceiling = f.ceiling
+		updateBlocks {
+			for(i in 0 until height) restoreRow(blockField[i], f.blockField[i])
+			for(i in 0 until hiddenHeight) restoreRow(blockHidden[i], f.blockHidden[i])
+		}
+		f.lineflagField.copyInto(lineflagField)
+		f.lineflagHidden.copyInto(lineflagHidden)
+		if(f.rowBits.size!=rowBits.size) refreshRowBits()
+		else {
+			f.rowBits.copyInto(rowBits)
+			zobrist = f.zobrist
+		}
+		hurryupFloorLines = f.hurryupFloorLines
+
+		colorClearExtraCount = f.colorClearExtraCount
+		colorsCleared = f.colorsCleared
+		gemsCleared = f.gemsCleared
+		lineColorsCleared = if(lineColorsCleared.size==f.lineColorsCleared.size)
+			f.lineColorsCleared.copyInto(lineColorsCleared) else f.lineColorsCleared.clone()
+		lastLinesCleared = if(f.lastLinesCleared.isEmpty()) f.lastLinesCleared else f.lastLinesCleared.clone()
+		garbageCleared = f.garbageCleared
+		lastLinesHeight = if(lastLinesHeight.size==f.lastLinesHeight.size)
+			f.lastLinesHeight.copyInto(lastLinesHeight) else f.lastLinesHeight.clone()
+		lastLinesSplited = f.lastLinesSplited
+
+		explodHeight = f.explodHeight
+		explodWidth = f.explodWidth
+		explodHeightBig = f.explodHeightBig
+		explodWidthBig = f.explodWidthBig
+	}
+
+	/** Copy a row into another one of the same width, reusing the destination Block objects
+	 * (detached ones are kept in [spareBlocks])
+	 * @param dst Destination row
+	 * @param src Source row
+	 */
+	private fun restoreRow(dst:Array<Block?>, src:Array<Block?>) {
+		for(x in dst.indices) {
+			val b = src[x]
+			val d = dst[x]
+			when {
+				b==null -> if(d!=null) {
+					d.owner = null
+					if(spareBlockCount<spareBlocks.size) spareBlocks[spareBlockCount++] = d
+					dst[x] = null
+				}
+				d!=null -> d.copy(b)
+				else -> dst[x] = newBlock(b)
+			}
+		}
+	}
+
+	/** Get a copy of a Block, reusing one of [spareBlocks] if available
+	 * @param b Copy source
+	 * @return Block
+	 */
+	private fun newBlock(b:Block?):Block {
+		if(spareBlockCount<=0) return Block(b).also {it.owner = this}
+		val blk = spareBlocks[--spareBlockCount]!!
+		spareBlocks[spareBlockCount] = null
+		blk.copy(b)
+		blk.owner = this
+		return blk
+	}
+
+	/** Run a change to the Blocks of this field that keeps [rowBits] up to date by itself
+	 * @param action The change
+	 * @return Result of [action]
+	 */
+	private inline fun <T> updateBlocks(action:() -> T):T {
+		val was = updatingBlocks
+		updatingBlocks = true
+		try {
+			return action()
+		} finally {
+			updatingBlocks = was
+		}
+	}
+
+	/** Called by a Block of this field that was emptied or filled without going through this class */
+	internal fun blockOccupancyChanged() {
+		if(!updatingBlocks) refreshRowBits()
+	}
+
 	/** プロパティセットに保存
 	 * @param p プロパティセット
 	 * @param id 適当なID
@@ -481,8 +662,7 @@ import kotlin.random.Random
 	/** @param y height of the row in the field
 	 * @return a reference to the row
 	 */
-	fun getRow(y:Int):Array<Block?> = (if(height>0&&y>=0) blockField.getOrNull(y)
-	else blockHidden.getOrNull(y*-1-1)) ?: arrayOfNulls<Block?>(10)
+	fun getRow(y:Int):Array<Block?> = rawRow(y) ?: arrayOfNulls(10)
 
 	/** 指定した座標にあるBlockを取得
 	 * @param x X-coordinate
@@ -491,6 +671,103 @@ import kotlin.random.Random
 	 */
 	fun getBlock(x:Int, y:Int):Block? = getRow(y).getOrNull(x)
 
+	/** Row reference for internal use
+	 * @param y Y-coordinate
+	 * @return the row, or null if out of range
+	 */
+	private fun rawRow(y:Int):Array<Block?>? = if(height>0&&y>=0) blockField.getOrNull(y)
+	else blockHidden.getOrNull(y*-1-1)
+
+	/** Block reference for internal use
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return Block, or null if out of range
+	 */
+	private fun blockAt(x:Int, y:Int):Block? = rawRow(y)?.getOrNull(x)
+
+	/** Get the occupancy bitmask of a row
+	 * @param y Y-coordinate
+	 * @return bit x is set when column x holds a block (0 if the row is out of range)
+	 */
+	fun getRowBits(y:Int):Long {
+		val i = y+hiddenHeight
+		return if(i>=0&&i<rowBits.size) rowBits[i] else 0L
+	}
+
+	/** Zobrist hash of the field occupancy (which cells hold a block; colors and attributes are ignored).
+	 * Maintained incrementally by the same mutators that keep the occupancy bits, so reading it is cheap;
+	 * two fields of the same size with the same filled cells always hash the same.
+	 * Meant as a transposition key for AI evaluation caches.
+	 */
+	val zobristHash:Long get() = zobrist
+
+	/** Occupancy bitmask of a row, treating rows that can't hold blocks (ceiling, vanish zone, below the floor)
+	 * as empty like [getBlockEmpty] does
+	 * @param y Y-coordinate
+	 * @return bit x is set when column x holds a block
+	 */
+	private fun getValidRowBits(y:Int):Long = if(getCoordVaild(0, y)) getRowBits(y) else 0L
+
+	/** Rebuild every row of [rowBits] from the Block objects */
+	private fun refreshRowBits() {
+		if(rowBits.size!=hiddenHeight+height) {
+			rowBits = LongArray(hiddenHeight+height)
+			zobrist = 0L
+		}
+		// Each row is replaced in one write, so a reader never sees it emptied halfway
+		for(y in hiddenHeight*-1 until height) updateRowBits(y)
+	}
+
+	/** Rebuild one row of [rowBits] from the Block objects
+	 * @param y Y-coordinate
+	 */
+	private fun updateRowBits(y:Int) {
+		val i = y+hiddenHeight
+		if(i<0||i>=rowBits.size) return
+		var bits = 0L
+		rawRow(y)?.forEachIndexed {x, b ->
+			if(b?.isEmpty==false&&x<Long.SIZE_BITS) bits = bits or (1L shl x)
+		}
+		zobrist = zobrist xor rowZobrist(i, rowBits[i] xor bits)
+		rowBits[i] = bits
+	}
+
+	/** XOR of the [zobristKey] of every set bit
+	 * @param i Row index in [rowBits]
+	 * @param bits Bits to hash
+	 * @return Hash contribution of those cells
+	 */
+	private fun rowZobrist(i:Int, bits:Long):Long {
+		var h = 0L
+		var b = bits
+		while(b!=0L) {
+			h = h xor zobristKey(i, java.lang.Long.numberOfTrailingZeros(b))
+			b = b and (b-1)
+		}
+		return h
+	}
+
+	/** Update a single bit of [rowBits]
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param filled true if the cell now holds a block
+	 */
+	private fun setRowBit(x:Int, y:Int, filled:Boolean) {
+		val i = y+hiddenHeight
+		if(i<0||i>=rowBits.size||x<0||x>=Long.SIZE_BITS) return
+		val bits = if(filled) rowBits[i] or (1L shl x) else rowBits[i] and (1L shl x).inv()
+		if(bits!=rowBits[i]) zobrist = zobrist xor zobristKey(i, x)
+		rowBits[i] = bits
+	}
+
+	/** Check if the row holds any block (regardless of coordinate attributes)
+	 * @param y Y-coordinate
+	 * @return true if there is at least one block
+	 */
+	private fun hasBlockInRow(y:Int):Boolean =
+		if(isBitboardEnabled) getRowBits(y)!=0L
+		else rawRow(y)?.any {b -> b?.isEmpty==false}==true
+
 	/** Set block to specific location
 	 * @param x X-coordinate
 	 * @param y Y-coordinate
@@ -498,9 +775,12 @@ import kotlin.random.Random
 	 * @return true if successful, false if failed
 	 */
 	fun setBlock(x:Int, y:Int, blk:Block?):Boolean = if(getCoordVaild(x, y)) try {
-		if(y<0) {
-			if((getBlock(x, y)?.copy(blk))==null) blockHidden[y*-1-1][x] = Block(blk)
-		} else if((getBlock(x, y)?.copy(blk))==null) blockField[y][x] = Block(blk)
+		updateBlocks {
+			if(y<0) {
+				if((blockAt(x, y)?.copy(blk))==null) blockHidden[y*-1-1][x] = newBlock(blk)
+			} else if((blockAt(x, y)?.copy(blk))==null) blockField[y][x] = newBlock(blk)
+		}
+		setRowBit(x, y, blockAt(x, y)?.isEmpty==false)
 		true
 	} catch(e:Throwable) {
 		log.error("setBlock($x,$y)", e)
@@ -516,7 +796,7 @@ import kotlin.random.Random
 	 * @return 指定した座標にあるBlock cint (失敗したらBLOCK_COLOR_INVALID）
 	 */
 	fun getBlockColor(x:Int, y:Int, gemSame:Boolean = false):Int =
-		if(getCoordVaild(x, y)) (getBlock(x, y)?.cint ?: Block.BLOCK_COLOR_NONE)
+		if(getCoordVaild(x, y)) (blockAt(x, y)?.cint ?: Block.BLOCK_COLOR_NONE)
 			.let {if(gemSame) Block.gemToNormalColor(it) else it}
 		else Block.BLOCK_COLOR_INVALID
 
@@ -528,7 +808,8 @@ import kotlin.random.Random
 	 */
 	fun setBlockColor(x:Int, y:Int, c:Int):Boolean =
 		if(getCoordVaild(x, y))
-			if(getBlock(x, y)?.also {it.cint = c}==null&&c>=1) setBlock(x, y, Block(c)) else true
+			if(blockAt(x, y)?.also {updateBlocks {it.cint = c};setRowBit(x, y, !it.isEmpty)}==null&&c>=1) setBlock(x, y, Block(c))
+			else true
 		else false
 
 	/** Line clear flagを取得
@@ -544,9 +825,33 @@ import kotlin.random.Random
 	 * @param y Y-coordinate
 	 * @return 指定した座標にあるBlockが空白ならtrue (指定した座標が範囲外の場合もtrue）
 	 */
-	fun getBlockEmpty(x:Int, y:Int, ob:Boolean = true):Boolean = if(getCoordVaild(x, y)) getBlock(x, y)?.isEmpty ?: true
+	fun getBlockEmpty(x:Int, y:Int, ob:Boolean = true):Boolean = if(getCoordVaild(x, y))
+		if(isBitboardEnabled) getRowBits(y) and (1L shl x)==0L else blockAt(x, y)?.isEmpty ?: true
 	else ob
 
+	/** Checks whether a piece block can't occupy the specified coordinate (wall, floor, ceiling or an existing block)
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @return true if a block placed here would collide
+	 */
+	fun isCollision(x:Int, y:Int):Boolean = when(getCoordAttribute(x, y)) {
+		COORD_WALL -> true
+		COORD_VANISH -> false
+		else -> !getBlockEmpty(x, y)
+	}
+
+	/** Checks whether piece blocks placed on a row would collide, several columns at once
+	 * @param y Y-coordinate
+	 * @param mask Bitmask of the columns to check (bit x is column x), all inside the field
+	 * @return true if any of them would collide
+	 */
+	fun isCollisionRow(y:Int, mask:Long):Boolean = when(getCoordAttribute(0, y)) {
+		COORD_WALL -> true
+		COORD_VANISH -> false
+		else -> if(isBitboardEnabled) getRowBits(y) and mask!=0L
+		else (0 until width).any {mask and (1L shl it)!=0L&&!getBlockEmpty(it, y)}
+	}
+
 	/** 指定した座標にあるBlockが空白かどうか判定 (指定した座標が範囲外の場合はfalse）
 	 * @param x X-coordinate
 	 * @param y Y-coordinate
@@ -574,7 +879,7 @@ import kotlin.random.Random
 	fun checkLine():Int {
 		val lines = checkLinesNoFlag()
 		if(height<=0||lines.isEmpty()) return 0
-		lastLinesCleared = lines.map {getRow(it)}.toTypedArray()
+		lastLinesCleared = lines.map {rawRow(it) ?: arrayOfNulls(width)}.toTypedArray()
 		lastLinesHeight = lines
 
 		lastLinesSplited = false
@@ -584,9 +889,7 @@ import kotlin.random.Random
 			setLineFlag(i, flag)
 			if(flag) {
 				if(inv) lastLinesSplited = true
-				for (it in getRow(i)) {
-					it?.setAttribute(true, ATTRIBUTE.ERASE)
-				}
+				rawRow(i)?.forEach {it?.setAttribute(true, ATTRIBUTE.ERASE)}
 			} else if(i>=lines.sortedArray().first()) inv = true
 		}
 		return lines.size
@@ -598,16 +901,22 @@ import kotlin.random.Random
 	fun checkLineNoFlag():Int = checkLinesNoFlag().size
 
 	fun checkLinesNoFlag():IntArray {
-		val lines = (hiddenHeight*-1 until heightWithoutHurryupFloor)
-			.filter {
-				getRow(it).all {b -> b?.isEmpty==false&&!b.getAttribute(ATTRIBUTE.WALL)}
-			}
+		val lines = (hiddenHeight*-1 until heightWithoutHurryupFloor).filter {isLineFull(it)}
 		garbageCleared = lines.count {
-			getRow(it).any {b -> b?.getAttribute(ATTRIBUTE.GARBAGE)==true}
+			rawRow(it)?.any {b -> b?.getAttribute(ATTRIBUTE.GARBAGE)==true}==true
 		}
 		return lines.toIntArray()
 	}
 
+	/** Check if the row is completely filled with non-wall blocks
+	 * @param y Y-coordinate
+	 * @return true if the row can be cleared
+	 */
+	private fun isLineFull(y:Int):Boolean =
+		// Most rows are rejected by the occupancy bits alone; only full ones need the wall check
+		(!isBitboardEnabled||getRowBits(y)==fullRowBits)&&
+			rawRow(y)?.all {b -> b?.isEmpty==false&&!b.getAttribute(ATTRIBUTE.WALL)}==true
+
 	/** Linesを消す
 	 * @return 消えたLinescount
 	 */
@@ -615,21 +924,25 @@ import kotlin.random.Random
 		val lines = checkLinesNoFlag()
 		// field内
 		lines.forEach {i ->
-			getRow(i).filterNotNull().forEach {
-				if(it.hard>0) {
-					it.hard--
-					setLineFlag(i, false)
-				} else it.color = null
+			updateBlocks {
+				rawRow(i)?.forEach {
+					if(it==null) return@forEach
+					if(it.hard>0) {
+						it.hard--
+						setLineFlag(i, false)
+					} else it.color = null
+				}
 			}
+			updateRowBits(i)
 			// 消えたLinesの上下のBlockの結合を解除
-			getRow(i+1).filterNotNull().forEachIndexed {j, blk ->
-				if(blk.getAttribute(ATTRIBUTE.CONNECT_UP)) {
+			rawRow(i+1)?.forEachIndexed {j, blk ->
+				if(blk?.getAttribute(ATTRIBUTE.CONNECT_UP)==true) {
 					blk.setAttribute(false, ATTRIBUTE.CONNECT_UP)
 					setBlockLinkBroken(j, i)
 				}
 			}
-			getRow(i-1).filterNotNull().forEachIndexed {j, blk ->
-				if(blk.getAttribute(ATTRIBUTE.CONNECT_DOWN)) {
+			rawRow(i-1)?.forEachIndexed {j, blk ->
+				if(blk?.getAttribute(ATTRIBUTE.CONNECT_DOWN)==true) {
 					blk.setAttribute(false, ATTRIBUTE.CONNECT_DOWN)
 					setBlockLinkBroken(j, i)
 				}
@@ -652,7 +965,7 @@ import kotlin.random.Random
 				// Blockを1段上からコピー
 				for(k in y downTo hiddenHeight*-1+1)
 					for(l in 0 until width) {
-						setBlock(l, k, getBlock(l, k-1) ?: Block())
+						setBlock(l, k, blockAt(l, k-1))
 						setLineFlag(k, getLineFlag(k-1))
 					}
 
@@ -675,7 +988,7 @@ import kotlin.random.Random
 				// Blockを1段上からコピー
 				for(k in y downTo hiddenHeight*-1+1)
 					for(l in 0 until width) {
-						setBlock(l, k, getBlock(l, k-1) ?: Block())
+						setBlock(l, k, blockAt(l, k-1))
 						setLineFlag(k, getLineFlag(k-1))
 					}
 
@@ -694,7 +1007,8 @@ import kotlin.random.Random
 	 * @return `true` if the specified line is completely empty,
 	 * `false` otherwise.
 	 */
-	fun isEmptyLine(y:Int):Boolean = (0 until width).all {getBlockEmpty(it, y)}
+	fun isEmptyLine(y:Int):Boolean =
+		if(isBitboardEnabled) getValidRowBits(y)==0L else (0 until width).all {getBlockEmpty(it, y)}
 
 	/** Twisterになる地形だったらtrue
 	 * @param x X-coordinate
@@ -894,7 +1208,7 @@ import kotlin.random.Random
 			for(i in hiddenHeight*-1 until heightWithoutHurryupFloor-1)
 			// Blockを1段下からコピー
 				for(j in 0 until width) {
-					setBlock(j, i, getBlock(j, i+1) ?: Block())
+					setBlock(j, i, blockAt(j, i+1))
 					setLineFlag(i, getLineFlag(i+1))
 				}
 
@@ -915,9 +1229,7 @@ import kotlin.random.Random
 			for(i in heightWithoutHurryupFloor-1 downTo hiddenHeight*-1+1)
 			// Blockを1段上からコピー
 				for(j in 0 until width) {
-					var blk = getBlock(j, i-1)
-					if(blk==null) blk = Block()
-					setBlock(j, i, blk)
+					setBlock(j, i, blockAt(j, i-1))
 					setLineFlag(i, getLineFlag(i+1))
 				}
 
@@ -936,7 +1248,7 @@ import kotlin.random.Random
 	fun cutLine(y:Int, lines:Int) {
 		for(k in 0 until lines) {
 			for(i in y downTo hiddenHeight*-1+1) {
-				for(j in 0 until width) setBlock(j, i, getBlock(j, i-1) ?: Block())
+				for(j in 0 until width) setBlock(j, i, blockAt(j, i-1))
 				setLineFlag(i, getLineFlag(i+1))
 			}
 
@@ -1013,7 +1325,7 @@ import kotlin.random.Random
 	fun setAllAttribute(status:Boolean, vararg attr:ATTRIBUTE) {
 		for(i in hiddenHeight*-1 until height)
 			for(j in 0 until width) {
-				getBlock(j, i)?.setAttribute(status, *attr)
+				blockAt(j, i)?.setAttribute(status, *attr)
 			}
 	}
 
@@ -1023,7 +1335,7 @@ import kotlin.random.Random
 	fun setAllSkin(skin:Int) {
 		for(i in hiddenHeight*-1 until height)
 			for(j in 0 until width)
-				getBlock(j, i)?.skin = skin
+				blockAt(j, i)?.skin = skin
 
 	}
 
@@ -1392,22 +1704,9 @@ import kotlin.random.Random
 	 * @return Total number of blocks cleared.
 	 */
 	fun gemClearColor(size:Int, garbageClear:Boolean, ignoreHidden:Boolean = false):Int {
-		val temp = Field(this)
-		var total = 0
-		var b:Block?
-
-		for(i in hiddenHeight*-1 until heightWithoutHurryupFloor)
-			for(j in 0 until width) {
-				b = getBlock(j, i)
-				if(b==null) continue
-				if(!b.isGemBlock) continue
-				val clear = temp.clearColor(j, i, false, garbageClear, true, ignoreHidden)
-				if(clear>=size) {
-					total += clear
-					clearColor(j, i, false, garbageClear, true, ignoreHidden)
-				}
-			}
-		return total
+		val clusters = findColorClusters(size, true, true, ignoreHidden)
+		eraseColorClusters(clusters, false, garbageClear, true, ignoreHidden)
+		return colorClusterTotal(clusters)
 	}
 
 	/** Performs all cint clears of sufficient size.
@@ -1418,17 +1717,9 @@ import kotlin.random.Random
 	 * @return Total number of blocks cleared.
 	 */
 	fun clearColor(size:Int, garbageClear:Boolean, gemSame:Boolean, ignoreHidden:Boolean = false):Int {
-		val temp = Field(this)
-		var total = 0
-		for(i in (if(ignoreHidden) 0 else hiddenHeight*-1) until heightWithoutHurryupFloor)
-			for(j in 0 until width) {
-				val clear = temp.clearColor(j, i, false, garbageClear, gemSame, ignoreHidden)
-				if(clear>=size) {
-					total += clear
-					clearColor(j, i, false, garbageClear, gemSame, ignoreHidden)
-				}
-			}
-		return total
+		val clusters = findColorClusters(size, gemSame, false, ignoreHidden)
+		eraseColorClusters(clusters, false, garbageClear, gemSame, ignoreHidden)
+		return colorClusterTotal(clusters)
 	}
 
 	/** Clears the block at the given position as well as all adjacent blocks of
@@ -1444,46 +1735,151 @@ import kotlin.random.Random
 	 * @return The number of blocks cleared.
 	 */
 	fun clearColor(x:Int, y:Int, flag:Boolean, garbageClear:Boolean, gemSame:Boolean, ignoreHidden:Boolean):Int {
-		val blockColor = getBlockColor(x, y, gemSame)
-		if(blockColor==Block.BLOCK_COLOR_NONE||blockColor==Block.BLOCK_COLOR_INVALID) return 0
-		return if(getBlock(x, y)?.getAttribute(ATTRIBUTE.GARBAGE)!=false) 0
-		else clearColor(x, y, blockColor, flag, garbageClear, gemSame, ignoreHidden)
-	}
-
-	/** Note: This method is private because calling it with a targetColor
-	 * parameter of BLOCK_COLOR_NONE or BLOCK_COLOR_INVALID may cause an
-	 * infinite loop and crash the game. This check is handled by the above
-	 * public method so as to avoid redundant checks. */
-	private fun clearColor(x:Int, y:Int, targetColor:Int, flag:Boolean, garbageClear:Boolean, gemSame:Boolean,
-		ignoreHidden:Boolean):Int {
 		if(ignoreHidden&&y<0) return 0
 		val blockColor = getBlockColor(x, y, gemSame)
-		if(blockColor==Block.BLOCK_COLOR_INVALID||blockColor==Block.BLOCK_COLOR_NONE) return 0
-		getBlock(x, y)?.also {b ->
-			if(flag&&b.getAttribute(ATTRIBUTE.ERASE)) return 0
-			if(garbageClear&&b.getAttribute(ATTRIBUTE.GARBAGE)
-				&&!b.getAttribute(ATTRIBUTE.WALL))
-				when {
-					flag -> {
-						b.setAttribute(true, ATTRIBUTE.ERASE)
-						garbageCleared++
-					}
-					b.hard>0 -> b.hard--
-					else -> setBlockColor(x, y, Block.BLOCK_COLOR_NONE)
+		if(blockColor==Block.BLOCK_COLOR_NONE||blockColor==Block.BLOCK_COLOR_INVALID) return 0
+		if(blockAt(x, y)?.getAttribute(ATTRIBUTE.GARBAGE)!=false) return 0
+		if(flag&&blockAt(x, y)?.getAttribute(ATTRIBUTE.ERASE)==true) return 0
+		prepareColorClusters()
+		clusterEnds[0] = floodColorCluster(x, y, blockColor, gemSame, ignoreHidden, 0)
+		eraseColorClusters(1, flag, garbageClear, gemSame, ignoreHidden)
+		return clusterEnds[0]
+	}
+
+	/** Makes sure the color cluster scratch arrays cover the field, and starts a new search
+	 * @return Stamp of the new search
+	 */
+	private fun prepareColorClusters():Int {
+		val cells = (hiddenHeight+height)*width
+		if(clusterMark.size<cells) {
+			clusterMark = IntArray(cells)
+			clusterCells = IntArray(cells)
+			clusterEnds = IntArray(cells)
+			clusterStamp = 0
+		}
+		if(clusterStamp==Int.MAX_VALUE) {
+			clusterMark.fill(0)
+			clusterStamp = 0
+		}
+		return ++clusterStamp
+	}
+
+	/** Collects one color cluster into [clusterCells] with an iterative flood fill.
+	 * Cells already stamped by the current search are left out.
+	 * @param x x-coordinate of a block in the cluster
+	 * @param y y-coordinate of a block in the cluster
+	 * @param color Color of the cluster
+	 * @param gemSame `true` to count gem blocks as normal blocks of the same color
+	 * @param ignoreHidden `true` to leave out the hidden rows
+	 * @param begin Index of [clusterCells] to store the cluster at
+	 * @return Index of [clusterCells] after the cluster (its size when [begin] is 0)
+	 */
+	private fun floodColorCluster(x:Int, y:Int, color:Int, gemSame:Boolean, ignoreHidden:Boolean, begin:Int):Int {
+		val stamp = clusterStamp
+		val top = if(ignoreHidden) 0 else -hiddenHeight
+		var head = begin
+		var end = begin
+		clusterHasGem = false
+		clusterMark[cellIndex(x, y)] = stamp
+		clusterCells[end++] = cellIndex(x, y)
+		while(head<end) {
+			val c = clusterCells[head++]
+			val cx = c%width
+			val cy = c/width-hiddenHeight
+			blockAt(cx, cy)?.let {if(it.isGemBlock&&!it.getAttribute(ATTRIBUTE.GARBAGE)) clusterHasGem = true}
+			for(d in 0..3) {
+				val nx = cx+NEIGHBOR_X[d]
+				val ny = cy+NEIGHBOR_Y[d]
+				if(ny<top||getBlockColor(nx, ny, gemSame)!=color) continue
+				val n = cellIndex(nx, ny)
+				if(clusterMark[n]==stamp) continue
+				clusterMark[n] = stamp
+				clusterCells[end++] = n
+			}
+		}
+		return end
+	}
+
+	/** Finds every color cluster of at least [size] blocks, labeling each cell only once.
+	 * The cells of cluster k end up in [clusterCells] up to clusterEnds[k].
+	 * @param size Minimum size of cluster
+	 * @param gemSame `true` to count gem blocks as normal blocks of the same color
+	 * @param gemOnly `true` to keep only the clusters containing a gem block
+	 * @param ignoreHidden `true` to leave out the hidden rows
+	 * @return Number of clusters found
+	 */
+	private fun findColorClusters(size:Int, gemSame:Boolean, gemOnly:Boolean, ignoreHidden:Boolean):Int {
+		val stamp = prepareColorClusters()
+		var end = 0
+		var clusters = 0
+		for(y in (if(ignoreHidden) 0 else -hiddenHeight) until heightWithoutHurryupFloor)
+			for(x in 0 until width) {
+				if(clusterMark[cellIndex(x, y)]==stamp) continue
+				val color = getBlockColor(x, y, gemSame)
+				if(color==Block.BLOCK_COLOR_NONE||color==Block.BLOCK_COLOR_INVALID) continue
+				if(blockAt(x, y)?.getAttribute(ATTRIBUTE.GARBAGE)!=false) continue
+				val next = floodColorCluster(x, y, color, gemSame, ignoreHidden, end)
+				if(next-end>=size&&(clusterHasGem||!gemOnly)) {
+					clusterEnds[clusters++] = next
+					end = next
 				}
-			if(blockColor!=targetColor) return 0
+			}
+		return clusters
+	}
+
+	/** @return Number of blocks in the first [clusters] clusters found */
+	private fun colorClusterTotal(clusters:Int):Int = if(clusters>0) clusterEnds[clusters-1] else 0
+
+	/** Clears (or flags) the blocks of the clusters found, and the garbage blocks next to them.
+	 * A garbage block loses one layer of hardness for each cleared block next to it.
+	 * @param clusters Number of clusters to clear
+	 * @param flag `true` to set BLOCK_ATTRIBUTE_ERASE instead of clearing
+	 * @param garbageClear `true` to clear garbage blocks adjacent to the clusters
+	 * @param gemSame `true` to count gem blocks as normal blocks of the same color
+	 * @param ignoreHidden `true` to leave out the hidden rows
+	 */
+	private fun eraseColorClusters(clusters:Int, flag:Boolean, garbageClear:Boolean, gemSame:Boolean,
+		ignoreHidden:Boolean) {
+		val top = if(ignoreHidden) 0 else -hiddenHeight
+		for(i in 0 until colorClusterTotal(clusters)) {
+			val x = clusterCells[i]%width
+			val y = clusterCells[i]/width-hiddenHeight
+			val color = getBlockColor(x, y, gemSame)
+			if(color==Block.BLOCK_COLOR_NONE) continue
+			val b = blockAt(x, y) ?: continue
+			if(garbageClear) eraseColorGarbage(x, y, b, flag)
 			when {
 				flag -> b.setAttribute(true, ATTRIBUTE.ERASE)
 				b.hard>0 -> b.hard--
 				else -> setBlockColor(x, y, Block.BLOCK_COLOR_NONE)
 			}
+			if(garbageClear) for(d in 0..3) {
+				val nx = x+NEIGHBOR_X[d]
+				val ny = y+NEIGHBOR_Y[d]
+				if(ny<top) continue
+				val c = getBlockColor(nx, ny, gemSame)
+				if(c==color||c==Block.BLOCK_COLOR_NONE||c==Block.BLOCK_COLOR_INVALID) continue
+				blockAt(nx, ny)?.let {eraseColorGarbage(nx, ny, it, flag)}
+			}
+		}
+	}
+
+	/** Wears down (or flags) a garbage block touched by a color clear */
+	private fun eraseColorGarbage(x:Int, y:Int, b:Block, flag:Boolean) {
+		if(!b.getAttribute(ATTRIBUTE.GARBAGE)||b.getAttribute(ATTRIBUTE.WALL)) return
+		when {
+			flag -> if(!b.getAttribute(ATTRIBUTE.ERASE)) {
+				b.setAttribute(true, ATTRIBUTE.ERASE)
+				garbageCleared++
+			}
+			b.hard>0 -> b.hard--
+			else -> setBlockColor(x, y, Block.BLOCK_COLOR_NONE)
 		}
-		return (1+clearColor(x+1, y, targetColor, flag, garbageClear, gemSame, ignoreHidden)
-			+clearColor(x-1, y, targetColor, flag, garbageClear, gemSame, ignoreHidden)
-			+clearColor(x, y+1, targetColor, flag, garbageClear, gemSame, ignoreHidden)
-			+clearColor(x, y-1, targetColor, flag, garbageClear, gemSame, ignoreHidden))
 	}
 
+	/** @return Index of the cell in the color cluster scratch arrays */
+	private fun cellIndex(x:Int, y:Int):Int = (y+hiddenHeight)*width+x
+
 	/** Clears all blocks of the same cint
 	 * @param targetColor The cint to clear
 	 * @param flag `true` to set BLOCK_ATTRIBUTE_ERASE to true on
@@ -1517,117 +1913,150 @@ import kotlin.random.Random
 	 * @return `true` if something falls. `false` if
 	 * nothing falls.
 	 */
-	fun doCascadeGravity():Boolean {
-		var result = false
-
-		setAllAttribute(false, ATTRIBUTE.CASCADE_FALL)
-
-		for(i in heightWithoutHurryupFloor-1 downTo hiddenHeight*-1)
-			for(j in 0 until width) getBlock(j, i)?.let {blk ->
-				if(!blk.isEmpty&&!blk.getAttribute(ATTRIBUTE.ANTIGRAVITY)) {
-					var fall = true
-					checkBlockLink(j, i)
-
-					for(k in heightWithoutHurryupFloor-1 downTo hiddenHeight*-1)
-						for(l in 0 until width) {
-							getBlock(l, k)?.let {
-								if(!it.isEmpty&&it.getAttribute(ATTRIBUTE.TEMP_MARK)
-									&&!it.getAttribute(ATTRIBUTE.CASCADE_FALL)) {
-									val bBelow = getBlock(l, k+1)
-
-									if(getCoordAttribute(l, k+1)==COORD_WALL||(bBelow!=null&&!bBelow.isEmpty
-											&&!bBelow.getAttribute(ATTRIBUTE.TEMP_MARK)))
-										fall = false
-
-								}
-							}
-						}
-
-					if(fall) {
-						result = true
-						for(k in heightWithoutHurryupFloor-1 downTo hiddenHeight*-1)
-							for(l in 0 until width)
-								getBlock(l, k)?.let {bTemp ->
-									getBlock(l, k+1)?.let {bBelow ->
-										if(getCoordAttribute(l, k+1)!=COORD_WALL&&!bTemp.isEmpty&&bBelow.isEmpty&&bTemp.getAttribute(
-												ATTRIBUTE.TEMP_MARK)&&!bTemp.getAttribute(ATTRIBUTE.CASCADE_FALL)) {
-											bTemp.setAttribute(false, ATTRIBUTE.TEMP_MARK)
-											bTemp.setAttribute(true, ATTRIBUTE.CASCADE_FALL)
-											bTemp.setAttribute(true, ATTRIBUTE.LAST_COMMIT)
-											setBlock(l, k+1, bTemp)
-											setBlock(l, k, Block())
-										}
-									}
-								}
-					}
-				}
-			}
-
-		setAllAttribute(false, ATTRIBUTE.TEMP_MARK, ATTRIBUTE.CASCADE_FALL)
-
-		/* for(int i = (hidden_height * -1); i < getHeightWithoutHurryupFloor();
-		 * i++) { setLineFlag(i, false); } */
-
-		return result
-	}
+	fun doCascadeGravity():Boolean = cascadeStep(true, true)
 
 	/** Routine for cascade gravity which checks from the top down for a slower
 	 * fall animation.
 	 * @return `true` if something falls. `false` if
 	 * nothing falls.
 	 */
-	fun doCascadeSlow():Boolean {
-		var result = false
-
-		setAllAttribute(false, ATTRIBUTE.CASCADE_FALL)
-
-		for(i in hiddenHeight*-1 until heightWithoutHurryupFloor)
-			for(j in 0 until width) {
-				val blk = getBlock(j, i)
-
-				if(blk!=null&&!blk.isEmpty&&!blk.getAttribute(ATTRIBUTE.ANTIGRAVITY)) {
-					var fall = true
-					checkBlockLink(j, i)
-
-					for(k in heightWithoutHurryupFloor-1 downTo hiddenHeight*-1)
-						for(l in 0 until width) {
-							val bTemp = getBlock(l, k)
-
-							if(bTemp!=null&&!bTemp.isEmpty&&bTemp.getAttribute(ATTRIBUTE.TEMP_MARK)
-								&&!bTemp.getAttribute(ATTRIBUTE.CASCADE_FALL)) {
-								val bBelow = getBlock(l, k+1)
+	fun doCascadeSlow():Boolean = cascadeStep(false, true)
 
-								if(getCoordAttribute(l, k+1)==COORD_WALL||(bBelow!=null&&!bBelow.isEmpty
-										&&!bBelow.getAttribute(ATTRIBUTE.TEMP_MARK)))
-									fall = false
-							}
-						}
-
-					if(fall) {
-						result = true
-						for(k in heightWithoutHurryupFloor-1 downTo hiddenHeight*-1)
-							for(l in 0 until width) {
-								val bTemp = getBlock(l, k)
-								val bBelow = getBlock(l, k+1)
-
-								if(getCoordAttribute(l, k+1)!=COORD_WALL&&bTemp!=null&&!bTemp.isEmpty&&bBelow!=null
-									&&bBelow.isEmpty
-									&&bTemp.getAttribute(ATTRIBUTE.TEMP_MARK)
-									&&!bTemp.getAttribute(ATTRIBUTE.CASCADE_FALL)) {
-									bTemp.setAttribute(false, ATTRIBUTE.TEMP_MARK)
-									bTemp.setAttribute(true, ATTRIBUTE.CASCADE_FALL)
-									bTemp.setAttribute(true, ATTRIBUTE.LAST_COMMIT)
-									setBlock(l, k+1, bTemp)
-									setBlock(l, k, Block())
-								}
-							}
+	/** Moves every linked group of blocks that is free to fall down by one cell.
+	 * Groups are checked in scan order, so a group may fall into the space left by
+	 * a group checked before it in the same step.
+	 * @param bottomUp `true` to scan from the bottom row, `false` from the top row
+	 * @param move `false` to only check whether something can fall
+	 * @return `true` if something falls
+	 */
+	private fun cascadeStep(bottomUp:Boolean, move:Boolean):Boolean {
+		linkCascadeGroups()
+		var result = false
+		// Number of groups moved so far; a blocked group is checked again only after something moved
+		var moves = 0
+		val top = hiddenHeight*-1
+		val bottom = heightWithoutHurryupFloor-1
+		for(r in 0..bottom-top) {
+			val y = if(bottomUp) bottom-r else top+r
+			for(x in 0 until width) {
+				val g = cascadeGroup[cellIndex(x, y)]
+				if(g<0||cascadeChecked[g]==CASCADE_FELL||cascadeChecked[g]==moves) continue
+				if(blockAt(x, y)?.getAttribute(ATTRIBUTE.ANTIGRAVITY)!=false) continue
+				if(!canCascadeGroup(g)) {
+					cascadeChecked[g] = moves
+					continue
+				}
+				if(!move) return true
+				result = true
+				for(i in cascadeStart[g] until cascadeStart[g+1]) {
+					val c = cascadeCells[i]
+					val cx = c%width
+					val cy = c/width-hiddenHeight
+					blockAt(cx, cy)?.let {
+						it.setAttribute(true, ATTRIBUTE.LAST_COMMIT)
+						setBlock(cx, cy+1, it)
 					}
+					setBlock(cx, cy, null)
+					cascadeGroup[c] = -1
+					cascadeGroup[c+width] = g
+					cascadeCells[i] = c+width
 				}
+				cascadeChecked[g] = CASCADE_FELL
+				moves++
 			}
+		}
+		return result
+	}
 
-		setAllAttribute(false, ATTRIBUTE.TEMP_MARK, ATTRIBUTE.CASCADE_FALL)
+	/** @return true if nothing but empty cells or the group itself is under the blocks of group [g] */
+	private fun canCascadeGroup(g:Int):Boolean {
+		for(i in cascadeStart[g] until cascadeStart[g+1]) {
+			val c = cascadeCells[i]
+			val x = c%width
+			val y = c/width-hiddenHeight+1
+			if(getCoordAttribute(x, y)==COORD_WALL) return false
+			if(blockAt(x, y)?.isEmpty==false&&cascadeGroup[c+width]!=g) return false
+		}
+		return true
+	}
 
-		return result
+	/** Groups the blocks linked by their CONNECT attributes with a union-find pass.
+	 * Afterwards [cascadeGroup] holds the group of each cell, and the cells of group g are
+	 * cascadeCells[cascadeStart[g] until cascadeStart[g+1]] from the bottom row up.
+	 * @return Number of groups
+	 */
+	private fun linkCascadeGroups():Int {
+		val cells = (hiddenHeight+height)*width
+		if(cascadeGroup.size<cells) {
+			cascadeGroup = IntArray(cells)
+			cascadeParent = IntArray(cells)
+			cascadeCells = IntArray(cells)
+			cascadeStart = IntArray(cells+1)
+			cascadeChecked = IntArray(cells)
+		}
+		val top = hiddenHeight*-1
+		val bottom = heightWithoutHurryupFloor-1
+		cascadeGroup.fill(-1)
+		for(y in top..bottom) for(x in 0 until width) {
+			val c = cellIndex(x, y)
+			cascadeParent[c] = if(blockAt(x, y)?.isEmpty==false) c else -1
+		}
+		for(y in top..bottom) for(x in 0 until width) {
+			val c = cellIndex(x, y)
+			if(cascadeParent[c]<0) continue
+			val b = blockAt(x, y) ?: continue
+			if(b.getAttribute(ATTRIBUTE.IGNORE_BLOCKLINK)) continue
+			if(y>top&&b.getAttribute(ATTRIBUTE.CONNECT_UP)) unionCascade(c, c-width)
+			if(y<bottom&&b.getAttribute(ATTRIBUTE.CONNECT_DOWN)) unionCascade(c, c+width)
+			if(x>0&&b.getAttribute(ATTRIBUTE.CONNECT_LEFT)) unionCascade(c, c-1)
+			if(x<width-1&&b.getAttribute(ATTRIBUTE.CONNECT_RIGHT)) unionCascade(c, c+1)
+		}
+		// Number the groups and count their blocks; a root's group number is kept in its own cell
+		var groups = 0
+		for(y in bottom downTo top) for(x in 0 until width) {
+			val c = cellIndex(x, y)
+			if(cascadeParent[c]<0) continue
+			val r = findCascade(c)
+			if(cascadeGroup[r]<0) {
+				cascadeGroup[r] = groups
+				cascadeChecked[groups++] = 0
+			}
+			cascadeGroup[c] = cascadeGroup[r]
+			cascadeChecked[cascadeGroup[c]]++
+		}
+		// Lay out the cells of each group, bottom row first
+		var sum = 0
+		for(g in 0 until groups) {
+			cascadeStart[g] = sum
+			sum += cascadeChecked[g]
+			cascadeChecked[g] = cascadeStart[g]
+		}
+		cascadeStart[groups] = sum
+		for(y in bottom downTo top) for(x in 0 until width) {
+			val c = cellIndex(x, y)
+			val g = cascadeGroup[c]
+			if(g>=0) cascadeCells[cascadeChecked[g]++] = c
+		}
+		cascadeChecked.fill(-1, 0, groups)
+		return groups
+	}
+
+	/** @return Root of the cascade group tree containing cell [c] */
+	private fun findCascade(c:Int):Int {
+		var i = c
+		while(cascadeParent[i]!=i) {
+			cascadeParent[i] = cascadeParent[cascadeParent[i]]
+			i = cascadeParent[i]
+		}
+		return i
+	}
+
+	/** Joins the cascade groups of cells [a] and [b] when both hold a block */
+	private fun unionCascade(a:Int, b:Int) {
+		if(cascadeParent[b]<0) return
+		val ra = findCascade(a)
+		val rb = findCascade(b)
+		if(ra!=rb) cascadeParent[rb] = ra
 	}
 
 	/** Checks the connection of blocks and set "mark" to each block.
@@ -1943,35 +2372,29 @@ import kotlin.random.Random
 	}
 
 	fun checkColor(size:Int, flag:Boolean, garbageClear:Boolean, gemSame:Boolean, ignoreHidden:Boolean):Int {
-		val temp = Field(this)
-		var total = 0
 		val colorsClearedArray = BooleanArray(7)
 		if(flag) {
 			setAllAttribute(false, ATTRIBUTE.ERASE)
 			garbageCleared = 0
 			colorClearExtraCount = 0
 			colorsCleared = 0
-			for(i in 0..6)
-				colorsClearedArray[i] = false
 		}
 
-		for(i in hiddenHeight*-1 until heightWithoutHurryupFloor)
-			for(j in 0 until width) {
-				val clear = temp.clearColor(j, i, false, garbageClear, gemSame, ignoreHidden)
-				if(clear>=size) {
-					total += clear
-					if(flag) {
-						val blockColor = getBlockColor(j, i, gemSame)
-						clearColor(j, i, true, garbageClear, gemSame, ignoreHidden)
-						colorClearExtraCount += clear-size
-						if(blockColor in 2..8) colorsClearedArray[blockColor-2] = true
-					}
-				}
-			}
-		if(flag)
+		val clusters = findColorClusters(size, gemSame, false, ignoreHidden)
+		if(flag) {
+			var begin = 0
+			for(i in 0 until clusters) {
+				val c = clusterCells[begin]
+				val blockColor = getBlockColor(c%width, c/width-hiddenHeight, gemSame)
+				colorClearExtraCount += clusterEnds[i]-begin-size
+				if(blockColor in 2..8) colorsClearedArray[blockColor-2] = true
+				begin = clusterEnds[i]
+			}
+			eraseColorClusters(clusters, true, garbageClear, gemSame, ignoreHidden)
 			for(i in 0..6)
 				if(colorsClearedArray[i]) colorsCleared++
-		return total
+		}
+		return colorClusterTotal(clusters)
 	}
 
 	@JvmOverloads
@@ -2050,34 +2473,7 @@ import kotlin.random.Random
 		return false
 	}
 
-	fun canCascade():Boolean {
-		for(i in heightWithoutHurryupFloor-1 downTo hiddenHeight*-1)
-			for(j in 0 until width) {
-				val blk = getBlock(j, i)
-
-				if(blk!=null&&!blk.isEmpty&&!blk.getAttribute(ATTRIBUTE.ANTIGRAVITY)) {
-					var fall = true
-					checkBlockLink(j, i)
-
-					for(k in heightWithoutHurryupFloor-1 downTo hiddenHeight*-1)
-						for(l in 0 until width) {
-							val bTemp = getBlock(l, k)
-
-							if(bTemp!=null&&!bTemp.isEmpty&&bTemp.getAttribute(ATTRIBUTE.TEMP_MARK)
-								&&!bTemp.getAttribute(ATTRIBUTE.CASCADE_FALL)) {
-								val bBelow = getBlock(l, k+1)
-
-								if(getCoordAttribute(l, k+1)==COORD_WALL||(bBelow!=null&&!bBelow.isEmpty
-										&&!bBelow.getAttribute(ATTRIBUTE.TEMP_MARK)))
-									fall = false
-							}
-						}
-
-					if(fall) return true
-				}
-			}
-		return false
-	}
+	fun canCascade():Boolean = cascadeStep(true, false)
 
 	fun addRandomHoverBlocks(engine:GameEngine, count:Int, colors:IntArray, minY:Int, avoidLines:Boolean,
 		flashMode:Boolean = false) {
@@ -2311,7 +2707,8 @@ import kotlin.random.Random
 
 	fun addHoverBlock(x:Int, y:Int, color:Int):Boolean {
 		getBlock(x, y)?.also {b ->
-			b.cint = color
+			updateBlocks {b.cint = color}
+			setRowBit(x, y, !b.isEmpty)
 			b.setAttribute(true, ATTRIBUTE.ANTIGRAVITY, ATTRIBUTE.BROKEN,
 				ATTRIBUTE.VISIBLE)
 			b.setAttribute(false, ATTRIBUTE.GARBAGE, ATTRIBUTE.ERASE,
@@ -2350,21 +2747,9 @@ import kotlin.random.Random
 	fun gemColorCheck(size:Int, flag:Boolean, garbageClear:Boolean, ignoreHidden:Boolean):Int {
 		if(flag) setAllAttribute(false, ATTRIBUTE.ERASE)
 
-		val temp = Field(this)
-		var total = 0
-		var b:Block?
-
-		for(i in hiddenHeight*-1 until heightWithoutHurryupFloor)
-			for(j in 0 until width) {
-				b = getBlock(j, i)
-				if(b?.isGemBlock!=true) continue
-				val clear = temp.clearColor(j, i, false, garbageClear, true, ignoreHidden)
-				if(clear>=size) {
-					total += clear
-					if(flag) clearColor(j, i, true, garbageClear, true, ignoreHidden)
-				}
-			}
-		return total
+		val clusters = findColorClusters(size, true, true, ignoreHidden)
+		if(flag) eraseColorClusters(clusters, true, garbageClear, true, ignoreHidden)
+		return colorClusterTotal(clusters)
 	}
 
 	/** Instant avalanche, skips intermediate (cascade falling animation) steps.
@@ -2469,6 +2854,7 @@ import kotlin.random.Random
 		}
 	}
 
+	/** Turn the stack upside down (the rows from [highestBlockY] to the bottom are swapped end for end) */
 	fun flipVertical() {
 		var temp:Array<Block?>
 		var yMin = highestBlockY
@@ -2483,9 +2869,10 @@ import kotlin.random.Random
 				blockField[yMin] = blockField[yMax]
 				blockField[yMax] = temp
 			}
-			yMin--
-			yMax++
+			yMin++
+			yMax--
 		}
+		refreshRowBits()
 	}
 
 	fun mirror() {
@@ -2516,6 +2903,25 @@ import kotlin.random.Random
 		/** default の幅 */
 		const val DEFAULT_WIDTH = 10
 
+		/** Offsets of the four neighbors visited by the color cluster flood fill */
+		private val NEIGHBOR_X = intArrayOf(1, -1, 0, 0)
+		private val NEIGHBOR_Y = intArrayOf(0, 0, 1, -1)
+
+		/** Random key of one cell for [zobristHash] (splitmix64 of the cell's position)
+		 * @param i Row index (y+hiddenHeight)
+		 * @param x X-coordinate
+		 * @return Key of that cell
+		 */
+		private fun zobristKey(i:Int, x:Int):Long {
+			var z = (i.toLong()*Long.SIZE_BITS+x+1)*-7046029254386353131L
+			z = (z xor (z ushr 30))*-4658895280553007687L
+			z = (z xor (z ushr 27))*-7723592293110705685L
+			return z xor (z ushr 31)
+		}
+
+		/** Mark of a linked group that fell in the current cascade step */
+		private const val CASCADE_FELL = -2
+
 		/** default の高さ */
 		const val DEFAULT_HEIGHT = 20
 
@@ -44,9 +44,23 @@ class Piece(
 
 	/** 相対X位置 (4Direction×nBlock) */
 	var dataX:Array<IntArray> = Array(DIRECTION_COUNT) {IntArray(maxBlock)}
+		set(value) {
+			field = value
+			clearShapeMask()
+		}
 
 	/** 相対Y位置 (4Direction×nBlock) */
 	var dataY:Array<IntArray> = Array(DIRECTION_COUNT) {IntArray(maxBlock)}
+		set(value) {
+			field = value
+			clearShapeMask()
+		}
+
+	/** Collision masks of [dataX]/[dataY], built on demand (normal size) */
+	@Transient private var shapeMask:ShapeMask? = null
+
+	/** Collision masks of [dataX]/[dataY], built on demand (Big) */
+	@Transient private var shapeMaskBig:ShapeMask? = null
 
 	/** ピースを構成するBlock (nBlock) */
 	var block:Array<Block> = Array(maxBlock) {Block()}
@@ -205,11 +219,14 @@ class Piece(
 		offsetApplied = p.offsetApplied
 		connectBlocks = p.connectBlocks
 
-		dataX = p.dataX.clone()
-		dataY = p.dataY.clone()
+		dataX = Array(p.dataX.size) {p.dataX[it].clone()}
+		dataY = Array(p.dataY.size) {p.dataY[it].clone()}
 		block = p.block.clone()
 		dataOffsetX = p.dataOffsetX.clone()
 		dataOffsetY = p.dataOffsetY.clone()
+		// Same block data, so the masks can be shared
+		shapeMask = p.shapeMask
+		shapeMaskBig = p.shapeMaskBig
 	}
 
 	/** すべてのBlock stateをbと同じに設定
@@ -323,6 +340,7 @@ class Piece(
 	 */
 	fun applyOffsetArrayX(offsetX:IntArray) {
 		offsetApplied = true
+		clearShapeMask()
 
 		for(i in 0 until DIRECTION_COUNT) {
 			for(j in 0 until maxBlock)
@@ -336,6 +354,7 @@ class Piece(
 	 */
 	fun applyOffsetArrayY(offsetY:IntArray) {
 		offsetApplied = true
+		clearShapeMask()
 
 		for(i in 0 until DIRECTION_COUNT) {
 			for(j in 0 until maxBlock)
@@ -355,8 +374,20 @@ class Piece(
 			dataOffsetY[i] = 0
 		}
 		offsetApplied = false
+		clearShapeMask()
+	}
+
+	/** Drops the collision masks after the block data changed */
+	private fun clearShapeMask() {
+		shapeMask = null
+		shapeMaskBig = null
 	}
 
+	/** @return Collision masks of the current block data and size */
+	private fun getShapeMask():ShapeMask =
+		if(big) shapeMaskBig ?: ShapeMask(dataX, dataY, maxBlock, 2).also {shapeMaskBig = it}
+		else shapeMask ?: ShapeMask(dataX, dataY, maxBlock, 1).also {shapeMask = it}
+
 	/** Blockの繋がり dataを更新 */
 	fun updateConnectData() {
 		for(j in 0 until maxBlock) {
@@ -476,7 +507,8 @@ class Piece(
 				for(l in 0 until size) {
 					val x3 = x2+k
 					val y3 = y2+l
-					val blk = Block(block[i])
+					// setBlock copies the block, so a temporary is only needed for the Big connections
+					val blk = if(big) Block(block[i]) else block[i]
 
 					// Set Big block connections
 					if(big) {
@@ -576,6 +608,7 @@ class Piece(
 	 */
 	fun checkCollision(x:Int, y:Int, rt:Int = direction, fld:Field?):Boolean {
 		fld?.let {
+			if(it.isBitboardEnabled) return checkCollisionMask(x, y, rt, it)
 			// Bigでは専用処理
 			if(big) return checkCollisionBig(x, y, rt, it)
 
@@ -583,14 +616,30 @@ class Piece(
 				val x2 = x+dataX[rt][i]
 				val y2 = y+dataY[rt][i]
 
-				if((x2>=it.width||y2>=it.height||it.getCoordAttribute(x2, y2)==Field.COORD_WALL)
-					||(it.getCoordAttribute(x2, y2)!=Field.COORD_VANISH&&it.getBlockColor(x2, y2)!=Block.BLOCK_COLOR_NONE))
-					return true
+				if(it.isCollision(x2, y2)) return true
 			}
 		}
 		return false
 	}
 
+	/** ピースの当たり判定 (bitboard field用, Bigも含む）
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rt Direction
+	 * @param fld field
+	 * @return Blockに重なっていたらtrue, 重なっていないならfalse
+	 */
+	private fun checkCollisionMask(x:Int, y:Int, rt:Int, fld:Field):Boolean {
+		val mask = getShapeMask()
+		val left = x+mask.minX[rt]
+		if(left<0||x+mask.maxX[rt]>=fld.width) return true
+		val rows = mask.rows[rt]
+		val top = y+mask.minY[rt]
+		for(r in rows.indices)
+			if(rows[r]!=0L&&fld.isCollisionRow(top+r, rows[r] shl left)) return true
+		return false
+	}
+
 	/** ピースの当たり判定 (Big用）
 	 * @param x X-coordinate
 	 * @param y Y-coordinate
@@ -609,9 +658,7 @@ class Piece(
 					val x3 = x2+k
 					val y3 = y2+l
 
-					if((x3>=fld.width||y3>=fld.height||fld.getCoordAttribute(x3, y3)==Field.COORD_WALL)
-						||(fld.getCoordAttribute(x3, y3)!=Field.COORD_VANISH&&fld.getBlockColor(x3, y3)!=Block.BLOCK_COLOR_NONE))
-						return true
+					if(fld.isCollision(x3, y3)) return true
 				}
 		}
 
@@ -706,6 +753,37 @@ class Piece(
 		return rt
 	}
 
+	/** Block positions of each direction as one bitmask per row: bit c of rows[rt][r] is the cell
+	 * (x+minX[rt]+c, y+minY[rt]+r) of a piece at (x, y)
+	 * @param size 2 for Big pieces
+	 */
+	private class ShapeMask(dataX:Array<IntArray>, dataY:Array<IntArray>, blocks:Int, size:Int) {
+		val minX = IntArray(DIRECTION_COUNT)
+		val maxX = IntArray(DIRECTION_COUNT)
+		val minY = IntArray(DIRECTION_COUNT)
+		val rows = Array(DIRECTION_COUNT) {rt ->
+			var top = Int.MAX_VALUE
+			var bottom = Int.MIN_VALUE
+			minX[rt] = Int.MAX_VALUE
+			maxX[rt] = Int.MIN_VALUE
+			for(i in 0 until blocks) {
+				minX[rt] = minOf(minX[rt], dataX[rt][i]*size)
+				maxX[rt] = maxOf(maxX[rt], dataX[rt][i]*size+size-1)
+				top = minOf(top, dataY[rt][i]*size)
+				bottom = maxOf(bottom, dataY[rt][i]*size+size-1)
+			}
+			minY[rt] = top
+			LongArray(if(blocks>0) bottom-top+1 else 0).also {r ->
+				for(i in 0 until blocks)
+					for(k in 0 until size)
+						for(l in 0 until size) {
+							val row = dataY[rt][i]*size+l-top
+							r[row] = r[row] or (1L shl (dataX[rt][i]*size+k-minX[rt]))
+						}
+			}
+		}
+	}
+
 	companion object {
 		/** Serial version ID */
 		private const val serialVersionUID = 1204901746632931186L
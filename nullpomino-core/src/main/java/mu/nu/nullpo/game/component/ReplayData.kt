@@ -24,6 +24,9 @@
 package mu.nu.nullpo.game.component
 
 import mu.nu.nullpo.util.CustomProperties
+import java.io.DataInput
+import java.io.DataOutput
+import java.io.IOException
 import java.io.Serializable
 import java.util.ArrayList
 
@@ -111,11 +114,73 @@ class ReplayData:Serializable {
 		}
 	}
 
+	/** Write the input data as runs of the same buttonBit (used by [ReplayFile])
+	 * @param out Output
+	 * @param maxFrame 保存する frame count (-1で全部保存）
+	 */
+	fun writeStream(out:DataOutput, maxFrame:Int = -1) {
+		val max = if(maxFrame<0||maxFrame>inputDataArray.size) inputDataArray.size else maxFrame
+		writeVarInt(out, max)
+		var i = 0
+		while(i<max) {
+			val input = inputDataArray[i]
+			var run = 1
+			while(i+run<max&&inputDataArray[i+run]==input) run++
+			writeVarInt(out, input)
+			writeVarInt(out, run)
+			i += run
+		}
+	}
+
+	/** Read the input data written by [writeStream]
+	 * @param `in` Input
+	 */
+	fun readStream(`in`:DataInput) {
+		reset()
+		val max = readVarInt(`in`)
+		inputDataArray.ensureCapacity(max)
+		while(inputDataArray.size<max) {
+			val input = readVarInt(`in`)
+			val run = readVarInt(`in`)
+			if(run<=0||inputDataArray.size+run>max) throw IOException("Broken replay input run")
+			repeat(run) {inputDataArray.add(input)}
+		}
+	}
+
 	companion object {
 		/** Serial version ID */
 		private const val serialVersionUID = 737226985994393117L
 
 		/** Button input dataの default の長さ */
 		const val DEFAULT_ARRAYLIST_SIZE = 60*60*10
+
+		/** Write a non-negative Int in 7-bit groups (1 byte for values below 128)
+		 * @param out Output
+		 * @param value Value
+		 */
+		fun writeVarInt(out:DataOutput, value:Int) {
+			var v = value
+			while(v and 0x7F.inv()!=0) {
+				out.writeByte(v and 0x7F or 0x80)
+				v = v ushr 7
+			}
+			out.writeByte(v)
+		}
+
+		/** Read an Int written by [writeVarInt]
+		 * @param `in` Input
+		 * @return Value
+		 */
+		fun readVarInt(`in`:DataInput):Int {
+			var v = 0
+			var shift = 0
+			while(shift<32) {
+				val b = `in`.readUnsignedByte()
+				v = v or (b and 0x7F shl shift)
+				if(b and 0x80==0) return v
+				shift += 7
+			}
+			throw IOException("Broken varint")
+		}
 	}
 }
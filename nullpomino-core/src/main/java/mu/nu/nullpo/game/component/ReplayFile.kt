@@ -0,0 +1,247 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.component
+
+import mu.nu.nullpo.util.CustomProperties
+import org.apache.log4j.Logger
+import java.io.*
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.GZIPInputStream
+import java.util.zip.InflaterInputStream
+
+/** Binary replay file format.
+ *
+ * Layout (version 2):
+ * - Magic "NPRP" and the format version
+ * - Header block: size-prefixed list of the properties needed to list a replay
+ * (name.*, timestamp.*, version.*, *.statistics.*), so it can be read without touching the rest
+ * - Body (deflated): the other properties, then the buttonBit stream of each player
+ * written by [ReplayData.writeStream]
+ *
+ * Property keys and values are written as a varint byte count and their UTF-8 bytes.
+ * Version 1 used [DataOutput.writeUTF], which can't hold more than 64 KB.
+ * Gzipped property files from older versions are still read by [load] and [loadHeader]. */
+object ReplayFile {
+	/** Log */
+	internal val log = Logger.getLogger(ReplayFile::class.java)
+
+	/** File signature ("NPRP") */
+	const val MAGIC = 0x4E505250
+
+	/** Current format version */
+	const val VERSION = 2
+
+	/** A replay as read by [read]
+	 * @param prop Replay properties. Input data read from a binary replay is kept in [inputs] instead,
+	 * so only its "<player>.r.max" key is set here.
+	 * @param inputs Input data of each player (empty for gzipped replays, whose input data is in [prop])
+	 */
+	class Replay(val prop:CustomProperties, val inputs:Map<Int, ReplayData> = emptyMap())
+
+	/** Input data keys of [ReplayData.writeProperty] */
+	private val inputKey = Regex("""\d+\.r\.\S+""")
+
+	/** Input data size keys of [ReplayData.writeProperty] */
+	private val inputMaxKey = Regex("""(\d+)\.r\.max""")
+
+	/** @return true if the property belongs to the header block */
+	fun isHeaderKey(key:String):Boolean = key.startsWith("name.")||key.startsWith("timestamp.")
+		||key.startsWith("version.")||key.contains(".statistics.")
+
+	/** Write a replay in the binary format
+	 * @param prop Replay properties (as made by [mu.nu.nullpo.game.play.GameManager.saveReplay])
+	 * @param out Output (closed when done)
+	 * @param inputs Input data of each player, used instead of the input data keys of [prop]
+	 */
+	fun write(prop:CustomProperties, out:OutputStream, inputs:Map<Int, ReplayData> = emptyMap()) {
+		val header = ArrayList<Pair<String, String>>()
+		val body = ArrayList<Pair<String, String>>()
+		val players = sortedSetOf<Int>().apply {addAll(inputs.keys)}
+		for(k in prop.stringPropertyNames()) {
+			inputMaxKey.matchEntire(k)?.let {players.add(it.groupValues[1].toInt())}
+			if(inputKey.matches(k)) continue
+			if(isHeaderKey(k)) header.add(k to prop.getProperty(k))
+			else body.add(k to prop.getProperty(k))
+		}
+
+		DataOutputStream(BufferedOutputStream(out)).use {dout ->
+			dout.writeInt(MAGIC)
+			dout.writeByte(VERSION)
+
+			val headerBytes = ByteArrayOutputStream()
+			writeEntries(DataOutputStream(headerBytes), header)
+			ReplayData.writeVarInt(dout, headerBytes.size())
+			headerBytes.writeTo(dout)
+
+			val def = Deflater(Deflater.BEST_SPEED)
+			val zout = DataOutputStream(DeflaterOutputStream(dout, def))
+			writeEntries(zout, body)
+			ReplayData.writeVarInt(zout, players.size)
+			for(id in players) {
+				val r = inputs[id] ?: ReplayData().apply {readProperty(prop, id)}
+				ReplayData.writeVarInt(zout, id)
+				r.writeStream(zout)
+			}
+			zout.close()
+			def.end()
+		}
+	}
+
+	/** Save a replay file in the binary format
+	 * @param prop Replay properties
+	 * @param filename Filename
+	 * @param inputs Input data of each player, used instead of the input data keys of [prop]
+	 * @return true if success
+	 */
+	fun save(prop:CustomProperties, filename:String, inputs:Map<Int, ReplayData> = emptyMap()):Boolean = try {
+		write(prop, FileOutputStream(filename), inputs)
+		true
+	} catch(e:IOException) {
+		log.error("Couldn't save replay file to $filename", e)
+		false
+	}
+
+	/** Read a replay in either format
+	 * @param `in` Input (closed when done)
+	 * @return Replay
+	 */
+	fun read(`in`:InputStream):Replay = readReplay(`in`, false)
+
+	/** Read only the header block of a replay.
+	 * Older gzipped replays have no header, so they are read whole.
+	 * @param `in` Input (closed when done)
+	 * @return Properties of the header (mode/rule names, timestamps, versions and statistics)
+	 */
+	fun readHeader(`in`:InputStream):CustomProperties = readReplay(`in`, true).prop
+
+	/** Load a replay file in either format
+	 * @param file File
+	 * @return Replay (null if failed)
+	 */
+	fun load(file:File):Replay? = try {
+		read(FileInputStream(file))
+	} catch(e:IOException) {
+		log.error("Failed to load replay file ($file)", e)
+		null
+	}
+
+	/** Load only the header block of a replay file
+	 * @param file File
+	 * @return Properties of the header (null if failed)
+	 */
+	fun loadHeader(file:File):CustomProperties? = try {
+		readHeader(FileInputStream(file))
+	} catch(e:IOException) {
+		log.error("Failed to load replay file ($file)", e)
+		null
+	}
+
+	/** @return true if the file is already in the binary format */
+	fun isBinary(file:File):Boolean = try {
+		DataInputStream(FileInputStream(file)).use {it.readInt()==MAGIC}
+	} catch(e:IOException) {
+		false
+	}
+
+	/** Convert an older gzipped replay file to the binary format
+	 * @param src Source file
+	 * @param dst Destination file (may be the same as src)
+	 * @return true if converted, false if it was already converted or couldn't be read
+	 */
+	fun convert(src:File, dst:File):Boolean {
+		if(isBinary(src)) return false
+		val replay = load(src) ?: return false
+		val tmp = File(dst.path+".tmp")
+		if(!save(replay.prop, tmp.path, replay.inputs)) return false
+		if(dst.exists()&&!dst.delete()||!tmp.renameTo(dst)) {
+			log.error("Couldn't replace $dst")
+			tmp.delete()
+			return false
+		}
+		return true
+	}
+
+	private fun readReplay(`in`:InputStream, headerOnly:Boolean):Replay {
+		val prop = CustomProperties()
+		val inputs = HashMap<Int, ReplayData>()
+		BufferedInputStream(`in`).use {bin ->
+			bin.mark(4)
+			val din = DataInputStream(bin)
+			if(din.readInt()!=MAGIC) {
+				// Gzipped properties
+				bin.reset()
+				GZIPInputStream(bin).use {prop.load(it)}
+				return Replay(prop)
+			}
+			val version = din.readUnsignedByte()
+			if(version>VERSION) throw IOException("Unsupported replay version $version")
+
+			ReplayData.readVarInt(din)
+			readEntries(din, prop, version)
+			if(headerOnly) return Replay(prop)
+
+			val zin = DataInputStream(InflaterInputStream(bin))
+			readEntries(zin, prop, version)
+			repeat(ReplayData.readVarInt(zin)) {
+				val id = ReplayData.readVarInt(zin)
+				val r = ReplayData()
+				r.readStream(zin)
+				inputs[id] = r
+				prop.setProperty("$id.r.max", r.inputDataArray.size)
+			}
+		}
+		return Replay(prop, inputs)
+	}
+
+	internal fun writeEntries(out:DataOutput, entries:List<Pair<String, String>>) {
+		ReplayData.writeVarInt(out, entries.size)
+		for((k, v) in entries) {
+			writeString(out, k)
+			writeString(out, v)
+		}
+	}
+
+	/** Read the entries written by [writeEntries]
+	 * @param version Format version of the entries (version 1 wrote them with [DataOutput.writeUTF])
+	 */
+	internal fun readEntries(`in`:DataInput, prop:CustomProperties, version:Int = VERSION) {
+		repeat(ReplayData.readVarInt(`in`)) {
+			val k = if(version<2) `in`.readUTF() else readString(`in`)
+			prop.setProperty(k, if(version<2) `in`.readUTF() else readString(`in`))
+		}
+	}
+
+	private fun writeString(out:DataOutput, s:String) {
+		val bytes = s.toByteArray(Charsets.UTF_8)
+		ReplayData.writeVarInt(out, bytes.size)
+		out.write(bytes)
+	}
+
+	private fun readString(`in`:DataInput):String {
+		val size = ReplayData.readVarInt(`in`)
+		if(size<0) throw IOException("Broken replay string")
+		return ByteArray(size).also {`in`.readFully(it)}.toString(Charsets.UTF_8)
+	}
+}
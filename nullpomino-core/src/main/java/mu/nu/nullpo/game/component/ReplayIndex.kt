@@ -0,0 +1,323 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.component
+
+import mu.nu.nullpo.util.CustomProperties
+import org.apache.log4j.Logger
+import java.io.*
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/** Sidecar index of the replay files in one folder.
+ * Keeps the mode/rule names and every player's statistics of each replay together with the file's
+ * modification time and size, so the replay list can be shown, sorted and filtered without opening every file.
+ * An entry is read again from its replay when the file's time or size changes.
+ *
+ * The index file is a journal: a header followed by put/remove records, later records replacing earlier ones.
+ * Saving a replay appends one record; the file is only rewritten when it holds too many stale records.
+ * @param folder Replay folder
+ */
+class ReplayIndex(val folder:File) {
+	/** Index entry of a replay file
+	 * @param name Filename (without folder)
+	 * @param modified Modification time of the file when it was indexed
+	 * @param size Size of the file when it was indexed
+	 * @param prop Indexed properties (name.*, timestamp.* and *.statistics.*)
+	 */
+	class Entry(val name:String, val modified:Long, val size:Long, val prop:CustomProperties) {
+		/** Mode name */
+		val mode:String get() = prop.getProperty("name.mode", "")
+
+		/** Rule name */
+		val rule:String get() = prop.getProperty("name.rule", "")
+
+		/** Number of players with statistics in the replay */
+		val players:Int by lazy {
+			prop.stringPropertyNames().maxOfOrNull {k ->
+				if(STATS_KEY.matches(k)) k.substringBefore('.').toIntOrNull()?.plus(1) ?: 0 else 0
+			} ?: 0
+		}
+
+		/** Statistics of each player, read when first asked for */
+		private val stats = arrayOfNulls<Statistics>(MAX_PLAYERS)
+
+		/** Statistics of Player 1 */
+		val statistics:Statistics get() = statistics(0)
+
+		/** Statistics of a player
+		 * @param player Player number (0 = Player 1)
+		 * @return Statistics (all zero if the replay has no such player)
+		 */
+		fun statistics(player:Int):Statistics =
+			if(player !in stats.indices) Statistics().apply {readProperty(prop, player)}
+			else stats[player] ?: Statistics().apply {readProperty(prop, player)}.also {stats[player] = it}
+
+		/** @return true if the entry still describes the file */
+		fun matches(file:File):Boolean = file.lastModified()==modified&&file.length()==size
+	}
+
+	/** Conditions for [filter]. Null conditions match everything.
+	 * @param mode Mode name
+	 * @param rule Rule name
+	 * @param player Player whose statistics [stats] is checked against; null checks every player and
+	 * matches if any of them passes
+	 * @param stats Condition on the statistics
+	 */
+	class Filter @JvmOverloads constructor(val mode:String? = null, val rule:String? = null, val player:Int? = null,
+		val stats:((Statistics) -> Boolean)? = null) {
+		/** @return true if the entry meets every condition */
+		fun matches(e:Entry):Boolean {
+			if(mode!=null&&e.mode!=mode) return false
+			if(rule!=null&&e.rule!=rule) return false
+			val test = stats ?: return player==null||player<e.players
+			return if(player!=null) player<e.players&&test(e.statistics(player))
+			else (0 until e.players).any {test(e.statistics(it))}
+		}
+	}
+
+	/** Entries by filename */
+	private val entries = LinkedHashMap<String, Entry>()
+
+	/** Records to append to the index file: an entry to put, or a filename (String) to remove */
+	private val pending = ArrayList<Any>()
+
+	/** Number of records in the index file */
+	private var records = 0
+
+	/** The index file has to be rewritten (missing, broken or from another version) */
+	private var rewrite = true
+
+	/** Index file */
+	val file:File get() = File(folder, FILENAME)
+
+	/** Read the index file. A missing or broken index is just treated as empty (or cut at the broken record). */
+	fun load() {
+		entries.clear()
+		pending.clear()
+		records = 0
+		rewrite = true
+		if(!file.isFile) return
+		try {
+			DataInputStream(BufferedInputStream(FileInputStream(file))).use {din ->
+				if(din.readInt()!=MAGIC||din.readUnsignedByte()!=VERSION) return
+				rewrite = false
+				while(true) {
+					val op = din.read()
+					if(op<0) break
+					val name = din.readUTF()
+					when(op) {
+						RECORD_PUT -> {
+							val modified = din.readLong()
+							val size = din.readLong()
+							val prop = CustomProperties()
+							ReplayFile.readEntries(din, prop)
+							entries[name] = Entry(name, modified, size, prop)
+						}
+						RECORD_REMOVE -> entries.remove(name)
+						else -> throw IOException("Unknown record $op")
+					}
+					records++
+				}
+			}
+		} catch(e:IOException) {
+			// Most likely a record cut by a crash while appending; keep what was read and write a clean file
+			log.debug("Replay index of $folder couldn't be read", e)
+			rewrite = true
+		}
+	}
+
+	/** Write the changes to the index file.
+	 * They are appended when possible; a full rewrite goes to a temporary file first,
+	 * so a crash can't leave a half-written index.
+	 * @return true if the index is up to date on disk
+	 */
+	fun save():Boolean {
+		if(!rewrite&&pending.isEmpty()) return true
+		if(rewrite||records+pending.size>entries.size*2+COMPACT_MIN) return rewriteFile()
+		return try {
+			DataOutputStream(BufferedOutputStream(FileOutputStream(file, true))).use {dout ->
+				for(r in pending) writeRecord(dout, r)
+			}
+			records += pending.size
+			pending.clear()
+			true
+		} catch(e:IOException) {
+			log.warn("Replay index of $folder couldn't be saved", e)
+			rewrite = true
+			false
+		}
+	}
+
+	/** Write every entry to a new index file */
+	private fun rewriteFile():Boolean {
+		val tmp = File(folder, "$FILENAME.tmp")
+		return try {
+			DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use {dout ->
+				dout.writeInt(MAGIC)
+				dout.writeByte(VERSION)
+				for(e in entries.values) writeRecord(dout, e)
+			}
+			try {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+			} catch(e:IOException) {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+			}
+			records = entries.size
+			pending.clear()
+			rewrite = false
+			true
+		} catch(e:IOException) {
+			log.warn("Replay index of $folder couldn't be saved", e)
+			tmp.delete()
+			false
+		}
+	}
+
+	/** Check the header of an existing index file before appending to it, without reading the records */
+	private fun checkHeader() {
+		rewrite = !file.isFile||try {
+			DataInputStream(FileInputStream(file)).use {din -> din.readInt()!=MAGIC||din.readUnsignedByte()!=VERSION}
+		} catch(e:IOException) {
+			true
+		}
+	}
+
+	/** Add or replace the entry of a replay file
+	 * @param file Replay file (already written)
+	 * @param prop Properties of the replay (only the indexed ones are kept)
+	 */
+	fun put(file:File, prop:CustomProperties) {
+		val p = CustomProperties()
+		for(k in prop.stringPropertyNames()) if(isIndexKey(k)) p.setProperty(k, prop.getProperty(k))
+		val e = Entry(file.name, file.lastModified(), file.length(), p)
+		entries[file.name] = e
+		pending.add(e)
+	}
+
+	/** Remove the entry of a replay file
+	 * @param name Filename
+	 */
+	fun remove(name:String) {
+		if(entries.remove(name)!=null) pending.add(name)
+	}
+
+	/** Bring the index up to date with the folder.
+	 * Only the replays that are new or changed since they were indexed are opened.
+	 * @return Entries of the replay files in the folder
+	 */
+	fun refresh():List<Entry> {
+		val files = folder.listFiles {f -> f.isFile&&f.name.endsWith(".rep")} ?: emptyArray()
+		val names = files.mapTo(HashSet()) {it.name}
+		entries.keys.filter {it !in names}.forEach {remove(it)}
+		return files.map {f ->
+			entries[f.name]?.takeIf {it.matches(f)} ?: run {
+				put(f, ReplayFile.loadHeader(f) ?: CustomProperties())
+				entries.getValue(f.name)
+			}
+		}
+	}
+
+	companion object {
+		/** Log */
+		internal val log = Logger.getLogger(ReplayIndex::class.java)
+
+		/** Filename of the index in each replay folder */
+		const val FILENAME = "replay.idx"
+
+		/** File signature ("NPRI") */
+		const val MAGIC = 0x4E505249
+
+		/** Current format version (3 writes the properties the way version 2 replays do) */
+		const val VERSION = 3
+
+		/** Record types */
+		private const val RECORD_PUT = 1
+		private const val RECORD_REMOVE = 2
+
+		/** Stale records tolerated (besides one per entry) before the file is rewritten */
+		private const val COMPACT_MIN = 64
+
+		/** Players whose statistics are cached by [Entry] */
+		private const val MAX_PLAYERS = 8
+
+		/** Pattern of the per-player statistics keys */
+		private val STATS_KEY = Regex("""\d+\.statistics\..*""")
+
+		/** @return true if the property is kept in the index */
+		fun isIndexKey(key:String):Boolean = key.startsWith("name.")||key.startsWith("timestamp.")
+			||STATS_KEY.matches(key)
+
+		/** Write one journal record
+		 * @param r Entry to put, or filename to remove
+		 */
+		private fun writeRecord(dout:DataOutputStream, r:Any) {
+			if(r is Entry) {
+				dout.writeByte(RECORD_PUT)
+				dout.writeUTF(r.name)
+				dout.writeLong(r.modified)
+				dout.writeLong(r.size)
+				ReplayFile.writeEntries(dout, r.prop.stringPropertyNames().sorted().map {it to r.prop.getProperty(it)})
+			} else {
+				dout.writeByte(RECORD_REMOVE)
+				dout.writeUTF(r.toString())
+			}
+		}
+
+		/** List the replays in a folder through its index, updating the index as needed
+		 * @param folder Replay folder
+		 * @return Entries of the replay files in the folder
+		 */
+		@Synchronized
+		fun list(folder:File):List<Entry> = ReplayIndex(folder).run {
+			load()
+			refresh().also {save()}
+		}
+
+		/** List the replays in a folder that meet a filter
+		 * @param folder Replay folder
+		 * @param filter Conditions
+		 * @return Matching entries
+		 */
+		fun list(folder:File, filter:Filter):List<Entry> = filter(list(folder), filter)
+
+		/** @return The entries that meet a filter */
+		fun filter(entries:List<Entry>, filter:Filter):List<Entry> = entries.filter {filter.matches(it)}
+
+		/** Record a replay that has just been saved.
+		 * Only appends its record to the index; the other entries are not read.
+		 * @param file Replay file
+		 * @param prop Properties of the replay
+		 */
+		@Synchronized
+		fun update(file:File, prop:CustomProperties) {
+			val folder = file.absoluteFile.parentFile ?: return
+			ReplayIndex(folder).run {
+				checkHeader()
+				put(file, prop)
+				// If the index has to be started over, it only gets this entry; list() adds the others as new files
+				save()
+			}
+		}
+	}
+}
@@ -254,7 +254,7 @@ class Statistics:Serializable {
 			scoreHD = b.scoreHD
 			scoreBonus = b.scoreBonus
 			lines = b.lines
-			attacks = b.lines
+			attacks = b.attacks
 			blocks = b.blocks
 			time = b.time
 			level = b.level
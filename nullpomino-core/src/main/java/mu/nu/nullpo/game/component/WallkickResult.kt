@@ -46,5 +46,39 @@ data class WallkickResult(
 	companion object {
 		/** Serial version ID */
 		private const val serialVersionUID = -7985029240622355609L
+
+		/** Packed wallkick result meaning that no kick was found */
+		const val NONE = Long.MIN_VALUE
+
+		/** Packs a wallkick result into a Long (see [Wallkick.probeWallkick])
+		 * @param offsetX X-coordinate補正量
+		 * @param offsetY Y-coordinate補正量
+		 * @param direction rotation後のピースのDirection
+		 * @return Packed result
+		 */
+		@JvmStatic
+		fun pack(offsetX:Int, offsetY:Int, direction:Int):Long =
+			(offsetX.toLong() shl 32) or ((offsetY.toLong() and 0xFFFF) shl 16) or (direction.toLong() and 0xFFFF)
+
+		/** @return [r] packed into a Long, or [NONE] if it is null */
+		@JvmStatic
+		fun pack(r:WallkickResult?):Long = r?.let {pack(it.offsetX, it.offsetY, it.direction)} ?: NONE
+
+		/** @return X-coordinate補正量 of a packed result */
+		@JvmStatic
+		fun offsetX(packed:Long):Int = (packed shr 32).toInt()
+
+		/** @return Y-coordinate補正量 of a packed result */
+		@JvmStatic
+		fun offsetY(packed:Long):Int = (packed shr 16).toShort().toInt()
+
+		/** @return rotation後のピースのDirection of a packed result */
+		@JvmStatic
+		fun direction(packed:Long):Int = (packed and 0xFFFF).toInt()
+
+		/** @return WallkickResult object of a packed result, or null if it is [NONE] */
+		@JvmStatic
+		fun unpack(packed:Long):WallkickResult? =
+			if(packed==NONE) null else WallkickResult(offsetX(packed), offsetY(packed), direction(packed))
 	}
 }
@@ -25,6 +25,8 @@ package mu.nu.nullpo.game.event
 
 import mu.nu.nullpo.game.component.Block
 import mu.nu.nullpo.game.component.Piece
+import mu.nu.nullpo.game.component.ReplayFile
+import mu.nu.nullpo.game.component.ReplayIndex
 import mu.nu.nullpo.game.play.GameEngine
 import mu.nu.nullpo.game.play.GameManager
 import mu.nu.nullpo.gui.common.PopupCombo
@@ -748,7 +750,7 @@ open class EventReceiver {
 	 * @param filename Filename
 	 * @return Properties you specified, or null if the file doesn't exist.
 	 */
-	fun loadProperties(filename:String):CustomProperties? {
+	open fun loadProperties(filename:String):CustomProperties? {
 		val prop = CustomProperties()
 
 		log.debug("load custom property file from $filename")
@@ -769,7 +771,7 @@ open class EventReceiver {
 	 * @param prop Properties you want to save
 	 * @return true if success
 	 */
-	fun saveProperties(filename:String, prop:CustomProperties):Boolean {
+	open fun saveProperties(filename:String, prop:CustomProperties):Boolean {
 		try {
 			val repfolder = File(filename).parentFile
 			if(!repfolder.exists())
@@ -1041,18 +1043,14 @@ open class EventReceiver {
 		val filename = "$folder/"+
 			GeneralUtil.getReplayFilename(prop.getProperty("name.rule")).lowercase()
 				.replace("[\\s-]".toRegex(), "_")
-		try {
-			val repfolder = File(folder)
-			if(!repfolder.exists())
-				if(repfolder.mkdirs()) log.info("Created replay folder: $folder")
-				else log.error("Couldn't create replay folder at $folder")
+		val repfolder = File(folder)
+		if(!repfolder.exists())
+			if(repfolder.mkdirs()) log.info("Created replay folder: $folder")
+			else log.error("Couldn't create replay folder at $folder")
 
-			val out = GZIPOutputStream(FileOutputStream(filename))
-			prop.store(out, "NullpoMino Replay")
-			out.close()
+		if(ReplayFile.save(prop, filename)) {
 			log.info("Saved replay file: $filename")
-		} catch(e:IOException) {
-			log.error("Couldn't save replay file to $filename", e)
+			ReplayIndex.update(File(filename), prop)
 		}
 
 	}
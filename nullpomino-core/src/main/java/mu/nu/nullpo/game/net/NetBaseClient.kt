@@ -25,17 +25,26 @@ package mu.nu.nullpo.game.net
 
 import org.apache.log4j.Logger
 import java.io.IOException
-import java.io.UnsupportedEncodingException
+import java.net.InetSocketAddress
 import java.net.Socket
-import java.nio.charset.StandardCharsets
+import java.nio.channels.Channels
+import java.nio.channels.SelectionKey
+import java.nio.channels.SocketChannel
 import java.util.*
 
-/** Client(Basic part) */
+/** Client(Basic part)
+ * Started as a thread ([start]), it reads with a blocking socket on its own thread.
+ * Started with [startNonBlocking], it has no thread of its own and is served by a shared [NetClientSelector]. */
 open class NetBaseClient:Thread {
 
-	/** trueThread moves between */
+	/** trueThread moves between
+	 * (Setting false closes a non-blocking client) */
 	@Volatile
 	var threadRunning:Boolean = false
+		set(value) {
+			field = value
+			if(!value) nioSelector?.let {if(channel?.isOpen==true) it.requestClose(this)}
+		}
 
 	/** Regular always While you are connectedtrue */
 	@Volatile
@@ -44,6 +53,16 @@ open class NetBaseClient:Thread {
 	/** Socket for connection */
 	protected var socket:Socket? = null
 
+	/** Channel for connection (non-blocking client only) */
+	internal var channel:SocketChannel? = null
+		private set
+
+	/** Loop serving this client (non-blocking client only) */
+	private var nioSelector:NetClientSelector? = null
+
+	/** Messages waiting to be written (non-blocking client only) */
+	private val sendQueue = NetSendQueue()
+
 	/** Destination host */
 	/** @return Destination host
 	 */
@@ -62,8 +81,8 @@ open class NetBaseClient:Thread {
 	var ip:String = ""
 		protected set
 
-	/** Previous incomplete packet */
-	protected var notCompletePacketBuffer:StringBuilder? = null
+	/** Received bytes not yet split into packets */
+	protected val packetBuffer = NetPacketBuffer(BUF_SIZE)
 
 	/** Interface receiving messages */
 	protected val listeners = LinkedList<NetMessageListener>()
@@ -72,15 +91,15 @@ open class NetBaseClient:Thread {
 	protected var pingCount:Int = 0
 
 	/** Ping task */
-	protected lateinit var taskPing:TimerTask
+	protected var taskPing:TimerTask? = null
 
-	/** AutomaticpingHitTimer */
-	protected lateinit var timerPing:Timer
+	/** AutomaticpingHitTimer (The non-blocking client uses the timer of its selector instead) */
+	protected var timerPing:Timer? = null
 
 	/** @return Regular always And are connectedtrue
 	 */
 	val isConnected:Boolean
-		get() = connectedFlag&&socket?.isConnected ?: false
+		get() = connectedFlag&&(socket?.isConnected ?: channel?.isConnected ?: false)
 
 	/** Default constructor */
 	constructor():super() {
@@ -124,48 +143,113 @@ open class NetBaseClient:Thread {
 			startPingTask()
 
 			// Message reception
-			val buf = ByteArray(BUF_SIZE)
-			val size:Int = socket!!.getInputStream().read(buf)
-
-			while(threadRunning&&(size)>0) {
-				val message = String(buf, 0, size, StandardCharsets.UTF_8)
-				//log.debug(message);
-
-				// The various processing depending on the received message
-				var packetBuffer = StringBuilder()
-				if(notCompletePacketBuffer!=null) packetBuffer.append(notCompletePacketBuffer)
-				packetBuffer.append(message)
-
-				var index:Int = packetBuffer.indexOf("\n")
-				while((index)!=-1) {
-					val msgNow = packetBuffer.substring(0, index)
-					processPacket(msgNow)
-					packetBuffer = packetBuffer.replace(0, index+1, "")
-					index = packetBuffer.indexOf("\n")
-				}
+			val input = Channels.newChannel(socket!!.getInputStream())
 
-				// If there is an incomplete packet
-				notCompletePacketBuffer = packetBuffer.ifEmpty {null}
-			}
-		} catch(e:UnsupportedEncodingException) {
-			throw Error("UTF-8 Not Supported", e)
+			// The various processing depending on the received message. The incomplete rest stays in the buffer
+			while(threadRunning&&packetBuffer.read(input)>0)
+				packetBuffer.forEachPacket {processPacket(it)}
 		} catch(e:Exception) {
 			log.info("Socket disconnected", e)
 			exDisconnectReason = e
 		}
 
-		timerPing.cancel()
+		disconnected(exDisconnectReason)
+	}
+
+	/** Connect without a thread of its own. Messages are received and processed on the selector's thread.
+	 * @param selector Loop serving this client
+	 * @throws IOException When the connection can't be started
+	 */
+	@JvmOverloads
+	@Throws(IOException::class)
+	fun startNonBlocking(selector:NetClientSelector = NetClientSelector.shared) {
+		check(!threadRunning&&channel==null) {"Client is already started"}
+		threadRunning = true
+		connectedFlag = false
+		log.info("Connecting to $host:$port (non-blocking)")
+
+		val ch = SocketChannel.open()
+		try {
+			ch.configureBlocking(false)
+			ch.connect(InetSocketAddress(host, port))
+		} catch(e:IOException) {
+			ch.close()
+			threadRunning = false
+			throw e
+		}
+		channel = ch
+		nioSelector = selector
+		selector.register(this)
+	}
+
+	/** Called by the selector when the connection is established */
+	internal fun nioConnected(key:SelectionKey) {
+		val ch = channel ?: return
+		ip = ch.socket().inetAddress.hostAddress
+		// Messages sent while connecting
+		val empty = synchronized(sendQueue) {sendQueue.isEmpty}
+		key.interestOps(if(empty) SelectionKey.OP_READ else SelectionKey.OP_READ or SelectionKey.OP_WRITE)
+		connectedFlag = true
+
+		// pingHitTimerPreparation
+		startPingTask()
+	}
+
+	/** Called by the selector when the connection can be finished */
+	@Throws(IOException::class)
+	internal fun nioFinishConnect(key:SelectionKey) {
+		if(channel?.finishConnect()==true) nioConnected(key)
+	}
+
+	/** Called by the selector when there is something to read
+	 * @return Number of bytes read, -1 if the server closed the connection
+	 */
+	@Throws(IOException::class)
+	internal fun nioRead():Int {
+		val n = packetBuffer.read(channel ?: return -1)
+		if(n>0) packetBuffer.forEachPacket {processPacket(it)}
+		return n
+	}
+
+	/** Called by the selector when the channel accepts writes */
+	@Throws(IOException::class)
+	internal fun nioWrite(key:SelectionKey) {
+		val ch = channel ?: return
+		synchronized(sendQueue) {
+			sendQueue.write(ch)
+			if(sendQueue.isEmpty) key.interestOps(SelectionKey.OP_READ)
+		}
+	}
+
+	/** Called by the selector after it stopped watching this client
+	 * @param ex Exception that caused the disconnection (null if unknown or normal)
+	 */
+	internal fun nioClosed(ex:Throwable?) {
+		try {
+			channel?.close()
+		} catch(e:IOException) {
+			log.debug("Exception on closing the channel", e)
+		}
+		synchronized(sendQueue) {sendQueue.clear()}
+		packetBuffer.clear()
+		disconnected(ex)
+	}
+
+	/** Stop the client and tell the listeners
+	 * @param ex Exception that caused the disconnection (null if unknown or normal)
+	 */
+	private fun disconnected(ex:Throwable?) {
+		stopPingTask()
 		connectedFlag = false
 		threadRunning = false
 
 		// Listener
 		for(i in listeners.indices)
 			try {
-				listeners[i].netOnDisconnect(this, exDisconnectReason)
+				listeners[i].netOnDisconnect(this, ex)
 			} catch(e2:Exception) {
 				log.debug("Uncaught Exception on NetMessageListener #$i (disconnect event)", e2)
 			}
-
 	}
 
 	/** The various processing depending on the received message
@@ -193,10 +277,11 @@ open class NetBaseClient:Thread {
 	}
 
 	/** Send a message to the server
-	 * @param bytes Message to be sent
+	 * @param bytes Message to be sent (A non-blocking client may keep it until it is written, so don't modify it afterwards)
 	 * @return true if successful
 	 */
 	fun send(bytes:ByteArray):Boolean {
+		if(nioSelector!=null) return enqueue(bytes)
 		try {
 			socket!!.getOutputStream().write(bytes)
 		} catch(e:Exception) {
@@ -212,6 +297,7 @@ open class NetBaseClient:Thread {
 	 * @return true if successful
 	 */
 	fun send(msg:String):Boolean {
+		if(nioSelector!=null) return enqueue(NetUtil.stringToBytes(msg))
 		try {
 			socket!!.getOutputStream().write(NetUtil.stringToBytes(msg))
 		} catch(e:Exception) {
@@ -222,6 +308,23 @@ open class NetBaseClient:Thread {
 		return true
 	}
 
+	/** Queue a message of the non-blocking client
+	 * @param bytes Message to be sent
+	 * @return true if queued
+	 */
+	private fun enqueue(bytes:ByteArray):Boolean {
+		val selector = nioSelector ?: return false
+		if(channel?.isOpen!=true) {
+			log.error("Failed to send message (not connected)")
+			return false
+		}
+		val wasEmpty = synchronized(sendQueue) {
+			sendQueue.isEmpty.also {sendQueue.add(bytes)}
+		}
+		if(wasEmpty) selector.requestWrite(this)
+		return true
+	}
+
 	/** NewNetMessageListenerAdd
 	 * @param l AddNetMessageListener
 	 */
@@ -242,17 +345,19 @@ open class NetBaseClient:Thread {
 	@JvmOverloads
 	fun startPingTask(interval:Long = PING_INTERVAL) {
 		log.debug("Ping interval:$interval")
-		timerPing.cancel()
+		stopPingTask()
 		if(interval<=0) return
 		pingCount = 0
-		taskPing = PingTask()
-		timerPing = Timer(true)
-		timerPing.schedule(taskPing, interval, interval)
+		val timer = nioSelector?.timer ?: Timer(true).also {timerPing = it}
+		taskPing = PingTask().also {timer.schedule(it, interval, interval)}
 	}
 
 	/** Stop the Ping timer task */
 	fun stopPingTask() {
-		timerPing.cancel()
+		taskPing?.cancel()
+		taskPing = null
+		timerPing?.cancel()
+		timerPing = null
 	}
 
 	/** Ping task */
@@ -262,9 +367,9 @@ open class NetBaseClient:Thread {
 				if(isConnected) {
 					if(pingCount>=PING_AUTO_DISCONNECT_COUNT) {
 						log.error("Ping timeout")
+						cancel()
 						threadRunning = false
 						connectedFlag = false
-						timerPing.cancel()
 					} else {
 						send("ping\n")
 						pingCount++
@@ -274,11 +379,11 @@ open class NetBaseClient:Thread {
 					}
 				} else {
 					log.info("Ping Timer Cancelled")
-					timerPing.cancel()
+					cancel()
 				}
 			} catch(e:Exception) {
 				log.error("Exception in Ping Timer. Stopping the task.", e)
-				timerPing.cancel()
+				cancel()
 			}
 
 		}
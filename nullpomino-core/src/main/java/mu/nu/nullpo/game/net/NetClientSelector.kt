@@ -0,0 +1,185 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.net
+
+import org.apache.log4j.Logger
+import java.io.IOException
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+
+/** Shared I/O loop of non-blocking clients.
+ * One thread and one selector serve any number of [NetBaseClient]s started with [NetBaseClient.startNonBlocking].
+ * Their packets are framed with a [NetPacketBuffer] each, and processed and passed to the listeners on this thread,
+ * so listeners should not block.
+ * @param name Thread name
+ */
+class NetClientSelector @JvmOverloads constructor(name:String = "NetClientSelector"):Thread(name) {
+	/** The selector of this loop */
+	private val selector:Selector = Selector.open()
+
+	/** Requests from other threads, done by this thread */
+	private val changes = LinkedList<Change>()
+
+	/** Timer shared by the ping tasks of the clients */
+	internal val timer = Timer("$name-Ping", true)
+
+	/** Number of clients being served */
+	private val clients = AtomicInteger()
+
+	/** true when the loop should stop */
+	@Volatile
+	var shutdownRequested = false
+		private set
+
+	/** @return Number of clients connecting or connected through this loop
+	 */
+	val clientCount:Int get() = clients.get()
+
+	init {
+		isDaemon = true
+	}
+
+	/** Start watching the channel of a client */
+	internal fun register(client:NetBaseClient) = addChange(Change(client, Change.REGISTER))
+
+	/** Write the queued messages of a client when its channel accepts them */
+	internal fun requestWrite(client:NetBaseClient) = addChange(Change(client, Change.WRITE))
+
+	/** Close a client */
+	internal fun requestClose(client:NetBaseClient) = addChange(Change(client, Change.CLOSE))
+
+	/** Stop the loop and close every client */
+	fun shutdown() {
+		shutdownRequested = true
+		selector.wakeup()
+	}
+
+	private fun addChange(change:Change) {
+		synchronized(changes) {
+			changes.add(change)
+		}
+		selector.wakeup()
+	}
+
+	override fun run() {
+		while(!shutdownRequested)
+			try {
+				processChanges()
+				selector.select()
+
+				val selectedKeys = selector.selectedKeys().iterator()
+				while(selectedKeys.hasNext()) {
+					val key = selectedKeys.next()
+					selectedKeys.remove()
+					if(!key.isValid) continue
+					val client = key.attachment() as NetBaseClient
+
+					try {
+						if(key.isConnectable) client.nioFinishConnect(key)
+						if(key.isValid&&key.isReadable&&client.nioRead()==-1) close(key, client, null)
+						if(key.isValid&&key.isWritable) client.nioWrite(key)
+					} catch(e:Exception) {
+						log.info("Socket disconnected", e)
+						close(key, client, e)
+					}
+				}
+			} catch(e:Throwable) {
+				log.fatal("Exception on client I/O loop", e)
+			}
+
+		for(key in selector.keys().toList())
+			if(key.isValid) close(key, key.attachment() as NetBaseClient, null)
+		timer.cancel()
+		try {
+			selector.close()
+		} catch(e:IOException) {
+			log.debug("Exception on closing the selector of client I/O loop", e)
+		}
+	}
+
+	private fun processChanges() {
+		val list = synchronized(changes) {
+			if(changes.isEmpty()) return
+			ArrayList(changes).also {changes.clear()}
+		}
+		for(change in list) {
+			val client = change.client
+			val channel = client.channel ?: continue
+			if(change.type==Change.REGISTER) {
+				if(!channel.isOpen) continue
+				clients.incrementAndGet()
+				try {
+					if(channel.isConnected) {
+						val key = channel.register(selector, SelectionKey.OP_READ, client)
+						client.nioConnected(key)
+					} else channel.register(selector, SelectionKey.OP_CONNECT, client)
+				} catch(e:Exception) {
+					log.info("Failed to register the client", e)
+					clients.decrementAndGet()
+					client.nioClosed(e)
+				}
+				continue
+			}
+			val key = channel.keyFor(selector)
+			if(key==null||!key.isValid) continue
+			when(change.type) {
+				Change.WRITE ->
+					// Still connecting; nioFinishConnect watches for writes when the queue isn't empty
+					if((key.interestOps() and SelectionKey.OP_CONNECT)==0)
+						key.interestOps(SelectionKey.OP_READ or SelectionKey.OP_WRITE)
+				Change.CLOSE -> close(key, client, null)
+			}
+		}
+	}
+
+	/** Stop watching the channel and close the client */
+	private fun close(key:SelectionKey, client:NetBaseClient, ex:Throwable?) {
+		key.cancel()
+		clients.decrementAndGet()
+		client.nioClosed(ex)
+	}
+
+	/** Request from another thread
+	 * @param client Client
+	 * @param type Type of the request
+	 */
+	private class Change(val client:NetBaseClient, val type:Int) {
+		companion object {
+			const val REGISTER = 1
+			const val WRITE = 2
+			const val CLOSE = 3
+		}
+	}
+
+	companion object {
+		/** Log */
+		internal val log = Logger.getLogger(NetClientSelector::class.java)
+
+		/** Loop used when none is given, started on first use */
+		@JvmStatic
+		val shared:NetClientSelector by lazy {NetClientSelector("NetClientSelector-Shared").also {it.start()}}
+	}
+}
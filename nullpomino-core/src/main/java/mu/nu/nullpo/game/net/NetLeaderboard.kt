@@ -0,0 +1,216 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.net
+
+import kotlin.random.Random
+
+/** Leaderboard that keeps at most one entry per player in ranking order.
+ * Entries are kept in a skip list that knows how many entries each link skips,
+ * so adding, removing, finding the place of a player and getting the n-th entry all take O(log n).
+ * Entries that are equal by [comparator] are ordered by when they were added (older first).
+ * An entry must not change its sort order while it is on the leaderboard.
+ * @param nameOf Gets the player name of an entry
+ * @param comparator Ranking order (better entries first)
+ */
+class NetLeaderboard<T:Any>(private val nameOf:(T)->String, private val comparator:Comparator<in T>):AbstractList<T>() {
+	private class Node<T>(val item:T?, val seq:Long, level:Int) {
+		/** Next node of each level */
+		val next = arrayOfNulls<Node<T>>(level)
+		/** Number of entries each link of [next] skips over (including the next node) */
+		val span = IntArray(level)
+	}
+
+	/** Node before the first entry */
+	private val head = Node<T>(null, 0, MAX_LEVEL)
+
+	/** Number of levels in use */
+	private var level = 1
+
+	/** Count of entries ever added, used to order equal entries */
+	private var seqCount = 0L
+
+	/** Node of each player */
+	private val nodes = HashMap<String, Node<T>>()
+
+	override var size = 0; private set
+
+	/** @return true if [a] comes before the entry [b] */
+	private fun before(a:T, aSeq:Long, b:Node<T>):Boolean {
+		val c = comparator.compare(a, b.item!!)
+		return c<0||c==0&&aSeq<b.seq
+	}
+
+	/** Get the entry at a place
+	 * @param index Place (0=first)
+	 */
+	override fun get(index:Int):T {
+		if(index<0||index>=size) throw IndexOutOfBoundsException("Index $index, size $size")
+		var x = head
+		var traversed = -1
+		for(i in level-1 downTo 0) {
+			while(true) {
+				val n = x.next[i] ?: break
+				if(traversed+x.span[i]>index) break
+				traversed += x.span[i]
+				x = n
+			}
+			if(traversed==index) return x.item!!
+		}
+		throw IllegalStateException()
+	}
+
+	override fun iterator():Iterator<T> = object:Iterator<T> {
+		var x = head.next[0]
+		override fun hasNext():Boolean = x!=null
+		override fun next():T {
+			val n = x ?: throw NoSuchElementException()
+			x = n.next[0]
+			return n.item!!
+		}
+	}
+
+	/** Get the entry of a player
+	 * @param name Player name
+	 * @return Entry (null if not found)
+	 */
+	fun getByName(name:String):T? = nodes[name]?.item
+
+	/** Get the place of a player
+	 * @param name Player name
+	 * @return Place (0=first, -1 if not found)
+	 */
+	fun rankOf(name:String):Int {
+		val node = nodes[name] ?: return -1
+		val item = node.item!!
+		var x = head
+		var rank = -1
+		for(i in level-1 downTo 0)
+			while(true) {
+				val n = x.next[i] ?: break
+				if(n!==node&&!before(item, node.seq, n)) {
+					rank += x.span[i]
+					x = n
+				} else {
+					if(n===node) return rank+x.span[i]
+					break
+				}
+			}
+		return -1
+	}
+
+	/** Add an entry, replacing the player's old entry
+	 * @param item Entry
+	 * @return Place of the entry (0=first)
+	 */
+	fun put(item:T):Int {
+		remove(nameOf(item))
+		val seq = ++seqCount
+		val update = arrayOfNulls<Node<T>>(MAX_LEVEL)
+		val rank = IntArray(MAX_LEVEL)
+		var x = head
+		for(i in level-1 downTo 0) {
+			rank[i] = if(i==level-1) 0 else rank[i+1]
+			while(true) {
+				val n = x.next[i] ?: break
+				if(before(item, seq, n)) break
+				rank[i] += x.span[i]
+				x = n
+			}
+			update[i] = x
+		}
+		val lvl = randomLevel()
+		if(lvl>level) {
+			for(i in level until lvl) {
+				rank[i] = 0
+				update[i] = head
+				head.span[i] = size
+			}
+			level = lvl
+		}
+		val node = Node(item, seq, lvl)
+		for(i in 0 until lvl) {
+			val u = update[i]!!
+			node.next[i] = u.next[i]
+			u.next[i] = node
+			node.span[i] = u.span[i]-(rank[0]-rank[i])
+			u.span[i] = rank[0]-rank[i]+1
+		}
+		for(i in lvl until level) update[i]!!.span[i]++
+		nodes[nameOf(item)] = node
+		size++
+		return rank[0]
+	}
+
+	/** Remove the entry of a player
+	 * @param name Player name
+	 * @return Removed entry (null if not found)
+	 */
+	fun remove(name:String):T? {
+		val node = nodes.remove(name) ?: return null
+		val item = node.item!!
+		var x = head
+		for(i in level-1 downTo 0) {
+			while(true) {
+				val n = x.next[i] ?: break
+				if(n===node||before(item, node.seq, n)) break
+				x = n
+			}
+			if(x.next[i]===node) {
+				x.span[i] += node.span[i]-1
+				x.next[i] = node.next[i]
+			} else x.span[i]--
+		}
+		while(level>1&&head.next[level-1]==null) level--
+		size--
+		return item
+	}
+
+	/** Remove the entries after a place
+	 * @param max Number of entries to keep (-1: Unlimited)
+	 */
+	fun trim(max:Int) {
+		if(max<0) return
+		while(size>max) remove(nameOf(get(size-1)))
+	}
+
+	/** Remove all entries */
+	fun clear() {
+		head.next.fill(null)
+		head.span.fill(0)
+		level = 1
+		nodes.clear()
+		size = 0
+	}
+
+	private fun randomLevel():Int {
+		var lvl = 1
+		while(lvl<MAX_LEVEL&&Random.nextInt(4)==0) lvl++
+		return lvl
+	}
+
+	companion object {
+		/** Max number of levels (enough for 4^16 entries) */
+		private const val MAX_LEVEL = 16
+	}
+}
@@ -74,7 +74,7 @@ class NetObserverClient:NetBaseClient {
 			val pingInterval:Long = if(message.size>6) message[6].toLong() else PING_INTERVAL
 			if(pingInterval!=PING_INTERVAL) startPingTask(pingInterval)
 
-			send("observerlogin\t${GameManager.versionMajor}\t${GameManager.isDevBuild}\n")
+			send("observerlogin\t${GameManager.versionMajor}\t${GameManager.versionMinor}\t${GameManager.isDevBuild}\n")
 		}
 		// 人count更新
 		if(message[0]=="observerupdate") {
@@ -0,0 +1,111 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.net
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.ReadableByteChannel
+import java.nio.charset.StandardCharsets
+
+/** Receive buffer of one connection that splits the incoming bytes into newline-terminated packets.
+ * Bytes stay in the buffer until a whole packet has arrived, and each packet is decoded to a String only once,
+ * so multi-byte characters split between two reads are kept intact.
+ * @param initialSize Initial (and usual) size of the buffer
+ * @param maxSize Largest packet accepted
+ */
+class NetPacketBuffer(private val initialSize:Int = NetServer.BUF_SIZE, private val maxSize:Int = MAX_PACKET_SIZE) {
+	/** Received bytes. Position is the end of the received data */
+	private var buf:ByteBuffer = ByteBuffer.allocate(initialSize)
+
+	/** Bytes before this position are already known not to contain a newline */
+	private var scanPos = 0
+
+	/** Number of bytes of the incomplete packet */
+	val pending:Int get() = buf.position()
+
+	/** Read from a channel into the buffer
+	 * @param channel Channel
+	 * @return Number of bytes read, -1 if the channel has reached end-of-stream
+	 * @throws IOException When the channel fails, or a packet is longer than the maximum size
+	 */
+	@Throws(IOException::class)
+	fun read(channel:ReadableByteChannel):Int {
+		if(!buf.hasRemaining()) grow()
+		return channel.read(buf)
+	}
+
+	/** Pass every complete packet in the buffer, without the newline, to the action,
+	 * then keep only the incomplete rest.
+	 * @param action Called for each packet in order. If it throws, the packets after it are left in the buffer.
+	 */
+	fun forEachPacket(action:(String)->Unit) {
+		val a = buf.array()
+		val end = buf.position()
+		var start = 0
+		var scanned = false
+		try {
+			var i = scanPos
+			while(i<end) {
+				if(a[i]==NEWLINE) {
+					val from = start
+					start = i+1
+					action(String(a, from, i-from, StandardCharsets.UTF_8))
+				}
+				i++
+			}
+			scanned = true
+		} finally {
+			if(start>0) {
+				System.arraycopy(a, start, a, 0, end-start)
+				buf.position(end-start)
+			}
+			// The rest is known to have no newline only if the loop wasn't cut short
+			scanPos = if(scanned) end-start else 0
+			// Let go of the memory of a large packet
+			if(buf.position()==0&&buf.capacity()>initialSize) buf = ByteBuffer.allocate(initialSize)
+		}
+	}
+
+	/** Discard everything in the buffer */
+	fun clear() {
+		if(buf.capacity()>initialSize) buf = ByteBuffer.allocate(initialSize) else buf.clear()
+		scanPos = 0
+	}
+
+	private fun grow() {
+		if(buf.capacity()>=maxSize) throw IOException("Packet is too large (over $maxSize bytes)")
+		val newBuf = ByteBuffer.allocate(minOf(buf.capacity()*2, maxSize))
+		buf.flip()
+		newBuf.put(buf)
+		buf = newBuf
+	}
+
+	companion object {
+		/** Packet delimiter */
+		private const val NEWLINE = '\n'.code.toByte()
+
+		/** Default maximum packet size */
+		const val MAX_PACKET_SIZE = 16*1024*1024
+	}
+}
@@ -0,0 +1,213 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.net
+
+import mu.nu.nullpo.util.CustomProperties
+import org.apache.log4j.Logger
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.zip.GZIPOutputStream
+
+/** Writes the data files of the server in the background.
+ * Each save request replaces the pending one of the same file, and the pending files are written together
+ * [interval] milliseconds after the first request, so a burst of changes becomes one write per file.
+ * Files are written to a temporary file and then moved over the old one.
+ * The writers are run on another thread, so they must only use data that the caller won't change anymore.
+ * @param interval Delay in milliseconds before the pending files are written (0: write at once on the caller's thread)
+ */
+class NetPersistence(val interval:Long) {
+	/** Writers of the files waiting to be written (by filename) */
+	private val pending = LinkedHashMap<String, (OutputStream)->Unit>()
+
+	/** Properties files kept by [openXML] (by filename) */
+	private val documents = HashMap<String, XMLDocument>()
+
+	/** A flush is scheduled */
+	private var flushScheduled = false
+
+	/** Only one flush writes at a time */
+	private val writeLock = Any()
+
+	/** Thread that writes the files */
+	private val timer:ScheduledExecutorService? = if(interval>0)
+		Executors.newSingleThreadScheduledExecutor {r -> Thread(r, "NetServer-save").apply {isDaemon = true}}
+	else null
+
+	/** Request a file to be written
+	 * @param filename Filename
+	 * @param writer Writes the whole file to the stream (not closing it)
+	 */
+	fun save(filename:String, writer:(OutputStream)->Unit) {
+		val t = timer
+		if(t!=null) synchronized(pending) {
+			pending[filename] = writer
+			if(flushScheduled) return
+			try {
+				t.schedule({flush()}, interval, TimeUnit.MILLISECONDS)
+				flushScheduled = true
+				return
+			} catch(e:RejectedExecutionException) {
+				pending.remove(filename)
+			}
+		}
+		writeFile(filename, writer)
+	}
+
+	/** Start keeping a properties file in memory, to be written as a gzipped XML file by [updateXML].
+	 * The properties are copied once here; later saves only pass the changed entries.
+	 * @param filename Filename
+	 * @param prop Current contents of the file
+	 * @param comments Comment of the file
+	 */
+	fun openXML(filename:String, prop:CustomProperties, comments:String) {
+		val doc = XMLDocument(prop.clone() as CustomProperties, comments)
+		synchronized(documents) {documents[filename] = doc}
+	}
+
+	/** Request changed entries of a file opened by [openXML] to be written.
+	 * The changes are queued by key, so later changes of a key replace the earlier ones,
+	 * and the writer merges them into its copy of the file just before writing it.
+	 * @param filename Filename
+	 * @param changes New values by key (null: remove the key)
+	 */
+	fun updateXML(filename:String, changes:Map<String, String?>) {
+		val doc = synchronized(documents) {documents[filename]} ?: throw IllegalStateException("$filename is not opened")
+		synchronized(doc.changes) {doc.changes.putAll(changes)}
+		save(filename) {out -> doc.write(out)}
+	}
+
+	/** Request changed entries of a file opened by [openXML] to be written
+	 * @param filename Filename
+	 * @param changes New values
+	 */
+	fun updateXML(filename:String, changes:CustomProperties) =
+		updateXML(filename, changes.stringPropertyNames().associateWith {changes.getProperty(it)})
+
+	/** Run a task on the writer thread, such as compacting a log file.
+	 * It is run at once on the caller's thread if there is no writer thread.
+	 * @param name Name of the task for the log
+	 * @param task Task
+	 */
+	fun execute(name:String, task:()->Unit) {
+		val job = {
+			try {
+				task()
+			} catch(e:Exception) {
+				log.error("Failed to $name", e)
+			}
+		}
+		timer?.let {
+			try {
+				it.execute(job)
+				return
+			} catch(e:RejectedExecutionException) {
+			}
+		}
+		job()
+	}
+
+	/** Write all pending files now */
+	fun flush() {
+		synchronized(writeLock) {
+			val jobs = synchronized(pending) {
+				flushScheduled = false
+				LinkedHashMap(pending).also {pending.clear()}
+			}
+			jobs.forEach {(filename, writer) -> writeFile(filename, writer)}
+		}
+	}
+
+	/** Write all pending files and stop the background thread */
+	fun shutdown() {
+		timer?.shutdown()
+		flush()
+	}
+
+	/** Properties file kept in memory by the writer, with the changes not merged into it yet
+	 * @param prop Contents of the file (only used by the writer)
+	 * @param comments Comment of the file
+	 */
+	private class XMLDocument(val prop:CustomProperties, val comments:String) {
+		/** Changed values waiting to be merged (null: removed) */
+		val changes = LinkedHashMap<String, String?>()
+
+		/** Merge the changes and write the whole file
+		 * @param out Output stream
+		 */
+		fun write(out:OutputStream) = synchronized(prop) {
+			synchronized(changes) {
+				changes.forEach {(key, value) -> if(value!=null) prop.setProperty(key, value) else prop.remove(key)}
+				changes.clear()
+			}
+			GZIPOutputStream(out).let {
+				prop.storeToXML(it, comments)
+				it.finish()
+			}
+		}
+	}
+
+	companion object {
+		/** Log */
+		internal val log = Logger.getLogger(NetPersistence::class.java)
+
+		/** Write a file through a temporary file, so that a crash can't leave it half-written
+		 * @param filename Filename
+		 * @param writer Writes the whole file to the stream (not closing it)
+		 * @return true if success
+		 */
+		fun writeFile(filename:String, writer:(OutputStream)->Unit):Boolean {
+			val file = File(filename)
+			val tmp = File("$filename.tmp")
+			return try {
+				FileOutputStream(tmp).use {fout ->
+					BufferedOutputStream(fout).let {
+						writer(it)
+						it.flush()
+					}
+					// On the disk before it replaces the old file, so that a crash leaves one of the two whole
+					fout.channel.force(true)
+				}
+				try {
+					Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+				} catch(e:IOException) {
+					Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+				}
+				true
+			} catch(e:Exception) {
+				log.error("Failed to write $filename", e)
+				tmp.delete()
+				false
+			}
+		}
+	}
+}
@@ -142,7 +142,8 @@ class NetPlayerClient:NetBaseClient {
 			val pingInterval:Long = if(message.size>6) message[6].toLong() else PING_INTERVAL
 			if(pingInterval!=PING_INTERVAL) startPingTask(pingInterval)
 
-			send("login\t${GameManager.versionMajor}\t${NetUtil.urlEncode(playerName)}\t${Locale.getDefault().country}\t${NetUtil.urlEncode(playerTeam)}\n")
+			send("login\t${GameManager.versionMajor}\t${NetUtil.urlEncode(playerName)}\t${Locale.getDefault().country}\t"
+				+"${NetUtil.urlEncode(playerTeam)}\t${GameManager.versionMinor}\t${GameManager.isDevBuild}\n")
 		}
 		// 人count更新
 		if(message[0]=="observerupdate") {
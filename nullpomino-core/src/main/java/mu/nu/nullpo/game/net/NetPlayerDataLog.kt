@@ -0,0 +1,368 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.net
+
+import mu.nu.nullpo.util.CustomProperties
+import org.apache.log4j.Logger
+import java.io.*
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.zip.GZIPInputStream
+
+/** Player data store that appends every change to a log file.
+ * Only the position of each player's latest record is kept in memory, and the record is read when the player logs in,
+ * so a change costs one small append no matter how many players there are.
+ * The log is rewritten without the old records on the writer thread of [persistence]
+ * once they take more space than the live ones.
+ *
+ * Record: op (1 byte), name length (2 bytes), name (UTF-8), data length (4 bytes), data
+ * Data: number of entries (variable-length), then key and value of each entry (modified UTF-8)
+ * @param filename Filename
+ * @param persistence Runs the compaction
+ */
+class NetPlayerDataLog(val filename:String, private val persistence:NetPersistence):NetPlayerDataStore {
+	/** Position of a record in the log
+	 * @param pos Position of the record
+	 * @param size Size of the whole record
+	 * @param dataPos Position of the data
+	 */
+	private class Slot(val pos:Long, val size:Int, val dataPos:Long)
+
+	/** Latest record of each player */
+	private val index = HashMap<String, Slot>()
+
+	/** Bytes of records that are replaced or deleted */
+	private var garbage = 0L
+
+	/** Log file */
+	private var channel:FileChannel
+
+	/** End of the log */
+	private var end = 0L
+
+	/** A compaction is scheduled or running */
+	private var compacting = false
+
+	/** [close] was called */
+	private var closed = false
+
+	/** true if no player has data */
+	val isEmpty:Boolean @Synchronized get() = index.isEmpty()
+
+	init {
+		channel = open()
+	}
+
+	@Synchronized
+	override fun load(name:String):CustomProperties? {
+		val slot = index[name] ?: return null
+		val len = readFully(ByteBuffer.allocate(4), slot.dataPos).getInt(0)
+		val data = readFully(ByteBuffer.allocate(len), slot.dataPos+4)
+		return decode(data.array())
+	}
+
+	@Synchronized
+	override fun store(name:String, prop:CustomProperties) {
+		append(OP_PUT, name, encode(prop))
+	}
+
+	@Synchronized
+	override fun delete(name:String):Boolean {
+		if(!index.containsKey(name)) return false
+		append(OP_DELETE, name, ByteArray(0))
+		return true
+	}
+
+	/** Every change is already handed to the OS when it is made, so there's nothing to do. */
+	override fun flush() {}
+
+	@Synchronized
+	override fun close() {
+		closed = true
+		if(!channel.isOpen) return
+		try {
+			channel.force(false)
+			channel.close()
+		} catch(e:IOException) {
+			log.error("Failed to close $filename", e)
+		}
+	}
+
+	/** Copy the players of a gzipped XML player data file that aren't in the log yet
+	 * @param xmlFilename Filename of the XML file
+	 */
+	@Synchronized
+	fun importXML(xmlFilename:String) {
+		val old = CustomProperties()
+		try {
+			GZIPInputStream(FileInputStream(xmlFilename)).use {old.loadFromXML(it)}
+		} catch(e:IOException) {
+			return
+		}
+		val players = HashMap<String, CustomProperties>()
+		for(k in old.stringPropertyNames()) {
+			val name = NetPlayerDataStore.playerOf(k) ?: continue
+			players.getOrPut(name) {CustomProperties()}.setProperty(k, old.getProperty(k))
+		}
+		for((name, p) in players) if(!index.containsKey(name)) store(name, p)
+		log.info("Imported the data of ${players.size} players from $xmlFilename")
+	}
+
+	/** Open the log and index its records. A broken record at the end (from a crash while writing) is cut off. */
+	private fun open():FileChannel {
+		val file = File(filename)
+		val ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+		if(ch.size()<HEADER_SIZE) {
+			ch.truncate(0)
+			ch.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION.toByte()).flip(), 0)
+			end = HEADER_SIZE.toLong()
+			return ch
+		}
+		val din = DataInputStream(BufferedInputStream(FileInputStream(file)))
+		din.use {
+			if(it.readInt()!=MAGIC||it.readUnsignedByte()!=VERSION) {
+				ch.close()
+				throw IOException("$filename is not a player data log")
+			}
+			var pos = HEADER_SIZE.toLong()
+			val size = ch.size()
+			try {
+				while(pos<size) {
+					val op = it.readUnsignedByte()
+					val nameBytes = ByteArray(it.readUnsignedShort())
+					it.readFully(nameBytes)
+					val len = it.readInt()
+					val recSize = 1+2+nameBytes.size+4+len
+					if(len<0||pos+recSize>size) throw EOFException()
+					if(it.skipBytes(len)!=len) throw EOFException()
+					indexRecord(op, String(nameBytes, StandardCharsets.UTF_8), Slot(pos, recSize, pos+3+nameBytes.size))
+					pos += recSize
+				}
+			} catch(e:EOFException) {
+				log.warn("$filename: broken record at $pos was cut off")
+				ch.truncate(pos)
+			}
+			end = pos
+		}
+		return ch
+	}
+
+	/** Update [index] with a record */
+	private fun indexRecord(op:Int, name:String, slot:Slot) {
+		index.remove(name)?.let {garbage += it.size}
+		if(op==OP_PUT) index[name] = slot else garbage += slot.size
+	}
+
+	/** Append a record to the log */
+	private fun append(op:Int, name:String, data:ByteArray) {
+		val nameBytes = name.toByteArray(StandardCharsets.UTF_8)
+		val recSize = 1+2+nameBytes.size+4+data.size
+		val buf = ByteBuffer.allocate(recSize).put(op.toByte()).putShort(nameBytes.size.toShort())
+			.put(nameBytes).putInt(data.size).put(data).flip()
+		var pos = end
+		while(buf.hasRemaining()) pos += channel.write(buf, pos)
+		indexRecord(op, name, Slot(end, recSize, end+3+nameBytes.size))
+		end = pos
+		if(!compacting&&garbage>COMPACT_MIN_GARBAGE&&garbage>end-garbage) {
+			compacting = true
+			persistence.execute("compact $filename") {compact()}
+		}
+	}
+
+	/** Rewrite the log with only the latest record of each player.
+	 * The live records are copied without holding the lock, so the server can keep appending;
+	 * the records appended meanwhile are copied under the lock before the new log replaces the old one.
+	 */
+	private fun compact() {
+		val file = File(filename)
+		val tmp = File("$filename.tmp")
+		val (slots, copiedEnd) = synchronized(this) {
+			if(closed) {
+				compacting = false
+				return
+			}
+			index.values.sortedBy {it.pos} to end
+		}
+		// New position of each copied record, by old position
+		val moved = HashMap<Long, Long>()
+		try {
+			FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE).use {out ->
+				var pos = out.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION.toByte()).flip()).toLong()
+				for(slot in slots) {
+					moved[slot.pos] = pos
+					pos += transfer(slot.pos, slot.size.toLong(), out)
+				}
+				synchronized(this) {
+					if(closed) throw IOException("$filename is closed")
+					// Records appended while copying
+					val tailPos = pos
+					pos += transfer(copiedEnd, end-copiedEnd, out)
+					out.force(false)
+
+					val live = HashMap<String, Slot>(index.size)
+					var liveSize = 0L
+					for((name, slot) in index) {
+						val newPos = if(slot.pos>=copiedEnd) slot.pos-copiedEnd+tailPos else moved[slot.pos]!!
+						live[name] = Slot(newPos, slot.size, slot.dataPos-slot.pos+newPos)
+						liveSize += slot.size
+					}
+
+					// The log is closed first because an open file can't be replaced on some systems
+					channel.close()
+					try {
+						Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+					} catch(e:IOException) {
+						Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+					}
+					channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+					index.clear()
+					index.putAll(live)
+					end = pos
+					garbage = pos-HEADER_SIZE-liveSize
+					compacting = false
+					log.info("Compacted $filename (${index.size} players, $end bytes)")
+				}
+			}
+		} catch(e:IOException) {
+			log.error("Failed to compact $filename", e)
+			tmp.delete()
+			synchronized(this) {
+				// Keep using the old log (reopened if it was closed for the move), and don't try again until as much garbage piles up again
+				if(!closed&&!channel.isOpen) {
+					index.clear()
+					channel = open()
+				}
+				garbage = 0
+				compacting = false
+			}
+		}
+	}
+
+	/** Copy a part of the log to another file
+	 * @param pos Position in the log
+	 * @param size Number of bytes
+	 * @param out Destination (written at its current position)
+	 * @return Number of bytes copied
+	 */
+	private fun transfer(pos:Long, size:Long, out:FileChannel):Long {
+		var done = 0L
+		while(done<size) done += channel.transferTo(pos+done, size-done, out)
+		return done
+	}
+
+	private fun readFully(buf:ByteBuffer, pos:Long):ByteBuffer {
+		var p = pos
+		while(buf.hasRemaining()) {
+			val n = channel.read(buf, p)
+			if(n<0) throw EOFException("$filename: record at $pos is cut off")
+			p += n
+		}
+		return buf
+	}
+
+	companion object {
+		/** Log */
+		internal val log = Logger.getLogger(NetPlayerDataLog::class.java)
+
+		/** Encode the data of a player
+		 * @param prop Player data
+		 * @return Data of a record
+		 */
+		fun encode(prop:CustomProperties):ByteArray {
+			val keys = prop.stringPropertyNames().sorted()
+			val bytes = ByteArrayOutputStream()
+			DataOutputStream(bytes).use {out ->
+				writeCount(out, keys.size)
+				for(k in keys) {
+					out.writeUTF(k)
+					out.writeUTF(prop.getProperty(k))
+				}
+			}
+			return bytes.toByteArray()
+		}
+
+		/** Decode the data of a player
+		 * @param data Data of a record
+		 * @return Player data
+		 */
+		fun decode(data:ByteArray):CustomProperties {
+			val prop = CustomProperties()
+			val din = DataInputStream(ByteArrayInputStream(data))
+			repeat(readCount(din)) {
+				val k = din.readUTF()
+				prop.setProperty(k, din.readUTF())
+			}
+			return prop
+		}
+
+		/** Write a count in 7-bit groups, low group first */
+		private fun writeCount(out:DataOutputStream, count:Int) {
+			var v = count
+			while(v and 0x7F.inv()!=0) {
+				out.writeByte(v and 0x7F or 0x80)
+				v = v ushr 7
+			}
+			out.writeByte(v)
+		}
+
+		/** Read a count written by [writeCount] */
+		private fun readCount(`in`:DataInputStream):Int {
+			var v = 0
+			var shift = 0
+			while(true) {
+				val b = `in`.readUnsignedByte()
+				v = v or (b and 0x7F shl shift)
+				if(b and 0x80==0) return v
+				shift += 7
+				if(shift>28) throw IOException("Broken player data")
+			}
+		}
+
+		/** Default filename */
+		const val FILENAME = "config/setting/netserver_playerdata.log"
+
+		/** File signature ("NPPL") */
+		const val MAGIC = 0x4E50504C
+
+		/** Current format version */
+		const val VERSION = 1
+
+		/** Size of the file header */
+		private const val HEADER_SIZE = 5
+
+		/** Record that sets the data of a player */
+		private const val OP_PUT = 1
+
+		/** Record that deletes the data of a player */
+		private const val OP_DELETE = 2
+
+		/** The log isn't compacted until the old records take this many bytes */
+		const val COMPACT_MIN_GARBAGE = 1L shl 20
+	}
+}
@@ -0,0 +1,81 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.net
+
+import mu.nu.nullpo.util.CustomProperties
+
+/** Storage of the player data (rating, play/win counts and personal bests) of tripcode users.
+ * The data of a player is a CustomProperties with the same keys as the old netserver_playerdata
+ * ("p.rating.<style>.<name>", "sppersonal.<name>.<n>", ...), and is only read when the player logs in. */
+interface NetPlayerDataStore {
+	/** Read the data of a player
+	 * @param name Player name
+	 * @return Player data (null if the player has no data)
+	 */
+	fun load(name:String):CustomProperties?
+
+	/** Replace the data of a player
+	 * @param name Player name
+	 * @param prop Player data (all keys of the player)
+	 */
+	fun store(name:String, prop:CustomProperties)
+
+	/** Delete the data of a player
+	 * @param name Player name
+	 * @return true if the player had data
+	 */
+	fun delete(name:String):Boolean
+
+	/** Send the changes to the disk (may be done in the background) */
+	fun flush()
+
+	/** Finish writing and release the files */
+	fun close()
+
+	companion object {
+		/** Get the player name from a player data key
+		 * @param key Key
+		 * @return Player name (null if the key isn't player data)
+		 */
+		fun playerOf(key:String):String? = when {
+			key.startsWith("p.rating.")||key.startsWith("p.playCount.")||key.startsWith("p.winCount.") ->
+				key.indexOf('.', key.indexOf('.', 2)+1).takeIf {it>=0}?.let {key.substring(it+1)}
+			key.startsWith("sppersonal.") ->
+				key.lastIndexOf('.').takeIf {it>"sppersonal.".length}?.let {key.substring("sppersonal.".length, it)}
+			else -> null
+		}
+
+		/** Open the player data store selected by the server setting
+		 * @param type "xml": the whole data in one file (old format), "log": append-only log file
+		 * @param persistence Writes the XML file, or compacts the log file
+		 * @return Player data store
+		 */
+		fun open(type:String, persistence:NetPersistence):NetPlayerDataStore = when(type.lowercase()) {
+			"xml" -> NetPlayerDataXML(NetPlayerDataXML.FILENAME, persistence)
+			else -> NetPlayerDataLog(NetPlayerDataLog.FILENAME, persistence).apply {
+				if(isEmpty) importXML(NetPlayerDataXML.FILENAME)
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.net
+
+import mu.nu.nullpo.util.CustomProperties
+import java.io.FileInputStream
+import java.io.IOException
+import java.util.zip.GZIPInputStream
+
+/** Player data store that keeps the data of all players in one gzipped XML file.
+ * The whole file is read at startup; each [flush] sends only the changed keys to the writer,
+ * which merges them into its copy and writes the file again.
+ * [flush] is also called from the shutdown hook, so every access to the data is synchronized.
+ * @param filename Filename
+ * @param persistence Writes the file
+ */
+class NetPlayerDataXML(val filename:String, private val persistence:NetPersistence):NetPlayerDataStore {
+	/** Data of all players */
+	private val prop = CustomProperties()
+
+	/** Keys changed since the last [flush] (null: removed) */
+	private val changes = LinkedHashMap<String, String?>()
+
+	init {
+		try {
+			GZIPInputStream(FileInputStream(filename)).use {prop.loadFromXML(it)}
+		} catch(e:IOException) {
+		}
+		persistence.openXML(filename, prop, "NullpoMino NetServer PlayerData")
+	}
+
+	@Synchronized
+	override fun load(name:String):CustomProperties? = prop
+
+	@Synchronized
+	override fun store(name:String, prop:CustomProperties) {
+		for(key in prop.stringPropertyNames()) {
+			val value = prop.getProperty(key)
+			this.prop.setProperty(key, value)
+			changes[key] = value
+		}
+	}
+
+	@Synchronized
+	override fun delete(name:String):Boolean {
+		val keys = prop.stringPropertyNames().filter {NetPlayerDataStore.playerOf(it)==name}
+		keys.forEach {
+			prop.remove(it)
+			changes[it] = null
+		}
+		return keys.isNotEmpty()
+	}
+
+	@Synchronized
+	override fun flush() {
+		if(changes.isEmpty()) return
+		persistence.updateXML(filename, changes)
+		changes.clear()
+	}
+
+	override fun close() = flush()
+
+	companion object {
+		/** Default filename */
+		const val FILENAME = "config/setting/netserver_playerdata"
+	}
+}
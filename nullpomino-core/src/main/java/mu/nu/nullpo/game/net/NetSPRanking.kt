@@ -1,6 +1,9 @@
 package mu.nu.nullpo.game.net
 
 import mu.nu.nullpo.util.CustomProperties
+import java.io.IOException
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
 import java.io.Serializable
 import java.util.*
 
@@ -25,8 +28,11 @@ class NetSPRanking:Serializable {
 	/** Max number of records (-1:Unlimited) */
 	var maxRecords:Int = 0
 
-	/** Records */
-	var listRecord:LinkedList<NetSPRecord> = LinkedList()
+	/** Records (best first).
+	 * The leaderboard isn't serializable, so [writeObject] writes the records and [readObject] builds it again. */
+	@Transient
+	var listRecord:NetLeaderboard<NetSPRecord> = newLeaderboard()
+		private set
 
 	/** Default Constructor */
 	constructor() {
@@ -66,7 +72,7 @@ class NetSPRanking:Serializable {
 		style = 0
 		rankingType = 0
 		maxRecords = 100
-		listRecord = LinkedList()
+		listRecord.clear()
 	}
 
 	/** Copy from other NetSPRankingData
@@ -79,19 +85,16 @@ class NetSPRanking:Serializable {
 		style = s.style
 		rankingType = s.rankingType
 		maxRecords = s.maxRecords
-		listRecord = LinkedList()
-		for(i in s.listRecord.indices)
-			listRecord.add(NetSPRecord(s.listRecord[i]))
+		listRecord.clear()
+		for(r in s.listRecord)
+			listRecord.put(NetSPRecord(r))
 	}
 
 	/** Get specific player's record
 	 * @param strPlayerName Player Name
 	 * @return NetSPRecord (null if not found)
 	 */
-	fun getRecord(strPlayerName:String):NetSPRecord? {
-		val index = indexOf(strPlayerName)
-		return if(index==-1) null else listRecord[index]
-	}
+	fun getRecord(strPlayerName:String):NetSPRecord? = listRecord.getByName(strPlayerName)
 
 	/** Get specific player's record
 	 * @param pInfo NetPlayerInfo
@@ -103,13 +106,7 @@ class NetSPRanking:Serializable {
 	 * @param strPlayerName Player Name
 	 * @return Index (-1 if not found)
 	 */
-	fun indexOf(strPlayerName:String):Int {
-		for(i in listRecord.indices) {
-			val r = listRecord[i]
-			if(r.strPlayerName==strPlayerName) return i
-		}
-		return -1
-	}
+	fun indexOf(strPlayerName:String):Int = listRecord.rankOf(strPlayerName)
 
 	/** Get specific player's index
 	 * @param pInfo NetPlayerInfo
@@ -121,21 +118,7 @@ class NetSPRanking:Serializable {
 	 * @param strPlayerName Player Name
 	 * @return Number of records removed (0 if not found)
 	 */
-	fun removeRecord(strPlayerName:String):Int {
-		var count = 0
-
-		val list = LinkedList(listRecord)
-		for(i in list.indices) {
-			val r = list[i]
-
-			if(r.strPlayerName==strPlayerName) {
-				listRecord.removeAt(i)
-				count++
-			}
-		}
-
-		return count
-	}
+	fun removeRecord(strPlayerName:String):Int = if(listRecord.remove(strPlayerName)!=null) 1 else 0
 
 	/** Remove specific player's record
 	 * @param pInfo NetPlayerInfo
@@ -160,32 +143,14 @@ class NetSPRanking:Serializable {
 	fun registerRecord(r1:NetSPRecord):Int {
 		if(!isNewRecord(r1)) return -1
 
-		// Remove older records
-		removeRecord(r1.strPlayerName)
-
-		// Insert new record
-		val list = LinkedList(listRecord)
-		var rank = -1
-
-		for(i in list.indices)
-			if(r1.compare(rankingType, list[i])) {
-				listRecord.add(i, r1)
-				rank = i
-				break
-			}
-
-		// Couldn't rank in? Add to last.
-		if(rank==-1) {
-			listRecord.add(r1)
-			rank = listRecord.size-1
-		}
+		// Replace older record
+		val rank = listRecord.put(r1)
 
 		// Remove anything after maxRecords
-		while(listRecord.size>=maxRecords)
-			listRecord.removeLast()
+		listRecord.trim(maxRecords)
 
 		// Done
-		return if(rank>=maxRecords) -1 else rank
+		return if(maxRecords in 0..rank) -1 else rank
 	}
 
 	/** Write to a CustomProperties
@@ -216,11 +181,34 @@ class NetSPRanking:Serializable {
 			if(strRecordCompressed!=null) {
 				val strRecord = NetUtil.decompressString(strRecordCompressed)
 				val record = NetSPRecord(strRecord)
-				listRecord.add(record)
+				listRecord.put(record)
 			}
 		}
 	}
 
+	/** Make an empty leaderboard ordered by [rankingType] */
+	private fun newLeaderboard() = NetLeaderboard<NetSPRecord>({it.strPlayerName}, Comparator {a, b ->
+		when {
+			a.compare(rankingType, b) -> -1
+			b.compare(rankingType, a) -> 1
+			else -> 0
+		}
+	})
+
+	@Throws(IOException::class)
+	private fun writeObject(out:ObjectOutputStream) {
+		out.defaultWriteObject()
+		out.writeObject(ArrayList(listRecord))
+	}
+
+	@Throws(IOException::class, ClassNotFoundException::class)
+	private fun readObject(`in`:ObjectInputStream) {
+		`in`.defaultReadObject()
+		listRecord = newLeaderboard()
+		@Suppress("UNCHECKED_CAST")
+		(`in`.readObject() as List<NetSPRecord>).forEach {listRecord.put(it)}
+	}
+
 	companion object {
 		/** serialVersionUID for Serialize */
 		private const val serialVersionUID = 1L
@@ -233,8 +221,8 @@ class NetSPRanking:Serializable {
 			if(s.isNullOrEmpty()) return null
 			val acc = NetSPRanking(s[0])
 			for(r in s)
-				for(i in r.listRecord.indices)
-					acc.registerRecord(NetSPRecord(r.listRecord[i]))
+				for(record in r.listRecord)
+					acc.registerRecord(NetSPRecord(record))
 			return acc
 		}
 	}
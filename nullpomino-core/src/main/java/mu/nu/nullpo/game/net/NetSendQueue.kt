@@ -0,0 +1,113 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.net
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.GatheringByteChannel
+
+/** Outgoing data of one connection.
+ * Small messages are copied together into shared buffers, larger ones are queued as they are,
+ * and everything queued is written with one gathering write per call of [write].
+ * Not thread-safe; the owner synchronizes. */
+class NetSendQueue {
+	/** Buffers ready to be written, in order */
+	private val queue = ArrayDeque<ByteBuffer>()
+
+	/** Buffer small messages are being copied into (not in [queue] yet) */
+	private var tail:ByteBuffer? = null
+
+	/** Number of bytes waiting to be written */
+	var size:Long = 0; private set
+
+	/** true if nothing is waiting to be written */
+	val isEmpty:Boolean get() = size==0L
+
+	/** Queue a message
+	 * @param bytes Message (not copied if it is large, so it must not be modified afterwards)
+	 */
+	fun add(bytes:ByteArray) {
+		if(bytes.isEmpty()) return
+		if(bytes.size<COALESCE_SIZE) {
+			val t = tail?.takeIf {it.remaining()>=bytes.size} ?: run {
+				seal()
+				ByteBuffer.allocate(CHUNK_SIZE).also {tail = it}
+			}
+			t.put(bytes)
+		} else {
+			seal()
+			queue.addLast(ByteBuffer.wrap(bytes))
+		}
+		size += bytes.size
+	}
+
+	/** Write as much as the channel accepts
+	 * @param channel Channel
+	 * @return Number of bytes written
+	 * @throws IOException When the channel fails
+	 */
+	@Throws(IOException::class)
+	fun write(channel:GatheringByteChannel):Long {
+		seal()
+		var total = 0L
+		while(queue.isNotEmpty()) {
+			val bufs = queue.take(MAX_GATHER).toTypedArray()
+			val n = channel.write(bufs)
+			total += n
+			size -= n
+			// Release the buffers that are written completely
+			while(queue.isNotEmpty()&&!queue.first().hasRemaining()) queue.removeFirst()
+			// The socket's buffer is full
+			if(bufs.last().hasRemaining()) break
+		}
+		return total
+	}
+
+	/** Discard everything */
+	fun clear() {
+		queue.clear()
+		tail = null
+		size = 0
+	}
+
+	/** Move the buffer being filled to the queue */
+	private fun seal() {
+		tail?.let {
+			it.flip()
+			queue.addLast(it)
+			tail = null
+		}
+	}
+
+	companion object {
+		/** Messages shorter than this are copied together */
+		const val COALESCE_SIZE = 1024
+
+		/** Size of the buffers small messages are copied into */
+		const val CHUNK_SIZE = 8192
+
+		/** Maximum number of buffers handed to one gathering write */
+		const val MAX_GATHER = 64
+	}
+}
@@ -35,10 +35,14 @@ import org.apache.log4j.PropertyConfigurator
 import org.cacas.java.gnu.tools.Crypt
 import java.io.*
 import java.net.InetSocketAddress
-import java.nio.ByteBuffer
 import java.nio.channels.*
 import java.nio.channels.spi.SelectorProvider
 import java.util.LinkedList
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
 import java.util.Calendar
 import java.util.TimeZone
 import java.util.zip.*
@@ -59,12 +63,18 @@ import kotlin.random.Random
 	/** Last communication time */
 	private val lastCommTimeMap = HashMap<SocketChannel, Long>()
 
-	/** Incomplete packet buffer */
-	private val notCompletePacketMap = HashMap<SocketChannel, StringBuilder>()
+	/** Receive buffer of each connection (holds the incomplete packet) */
+	private val packetBufferMap = HashMap<SocketChannel, NetPacketBuffer>()
 
 	/** Player info */
 	private val playerInfoMap = HashMap<SocketChannel, NetPlayerInfo>()
 
+	/** SocketChannel of each logged-in player (by UID) */
+	private val playerChannelMap = HashMap<Int, SocketChannel>()
+
+	/** SocketChannels of the logged-in players in each room (by room ID, -1:Lobby) */
+	private val roomChannelMap = HashMap<Int, LinkedHashSet<SocketChannel>>()
+
 	/** Room info list */
 	private val roomInfoList = LinkedList<NetRoomInfo>()
 
@@ -84,7 +94,7 @@ import kotlin.random.Random
 	private val rand = Random.Default
 
 	/** true if shutdown is requested by the admin */
-	private var shutdownRequested = false
+	@Volatile private var shutdownRequested = false
 
 	/** The port to listen on */
 	private var port:Int = 0
@@ -95,14 +105,24 @@ import kotlin.random.Random
 	/** The selector we'll be monitoring */
 	private var selector:Selector? = null
 
-	/** The buffer into which we'll read data when it's available */
-	private var readBuffer:ByteBuffer? = null
-
 	/** A list of ChangeRequest instances */
 	private val pendingChanges = LinkedList<ChangeRequest>()
 
-	/** Maps a SocketChannel to a list of ByteBuffer instances */
-	private val pendingData = HashMap<SocketChannel, List<ByteBuffer>>()
+	/** Outgoing data of each SocketChannel */
+	private val pendingData = HashMap<SocketChannel, NetSendQueue>()
+
+	/** I/O event loops (empty if everything runs on the main thread) */
+	private var ioLoops:List<IOLoop> = emptyList()
+
+	/** I/O event loop of each SocketChannel */
+	private val channelLoopMap = ConcurrentHashMap<SocketChannel, IOLoop>()
+
+	/** Index of the I/O event loop the next connection goes to */
+	private var nextLoop = 0
+
+	/** Single thread that runs processPacket and everything else that touches the lobby, room and game state
+	 * (only when [ioLoops] are used) */
+	private var gameExecutor:ExecutorService? = null
 
 	/** Constructor */
 	constructor() {
@@ -122,15 +142,6 @@ import kotlin.random.Random
 	private fun init(port:Int) {
 		this.port = port
 
-		// Load player data file
-		propPlayerData = CustomProperties()
-		try {
-			val `in` = GZIPInputStream(FileInputStream("config/setting/netserver_playerdata"))
-			propPlayerData.loadFromXML(`in`)
-			`in`.close()
-		} catch(e:IOException) {
-		}
-
 		// Load multiplayer leaderboard file
 		propMPRanking = CustomProperties()
 		try {
@@ -182,6 +193,16 @@ import kotlin.random.Random
 		spMinGameRate = propServer.getProperty("netserver.spMinGameRate", DEFAULT_MIN_GAMERATE)
 		maxLobbyChatHistory = propServer.getProperty("netserver.maxLobbyChatHistory", DEFAULT_MAX_LOBBYCHAT_HISTORY)
 		maxRoomChatHistory = propServer.getProperty("netserver.maxRoomChatHistory", DEFAULT_MAX_ROOMCHAT_HISTORY)
+		ioThreads = propServer.getProperty("netserver.ioThreads", 0)
+		persistence = NetPersistence(propServer.getProperty("netserver.saveInterval", DEFAULT_SAVE_INTERVAL))
+
+		// Open player data
+		try {
+			playerDataStore = NetPlayerDataStore.open(propServer.getProperty("netserver.playerDataStore", "log"), persistence)
+		} catch(e:IOException) {
+			log.fatal("Failed to open player data", e)
+			throw UncheckedIOException(e)
+		}
 
 		// Load rules for rated game
 		loadRuleList()
@@ -192,11 +213,11 @@ import kotlin.random.Random
 		// Load multiplayer leaderboard
 		loadMPRankingList()
 		propMPRanking.clear() // Clear all entries in order to reduce file size
+		persistence.openXML(MPRANKING_FILE, propMPRanking, "NullpoMino NetServer Multiplayer Leaderboard")
 
 		// Load single player leaderboard
 		loadSPRankingList()
-		propSPRankingAlltime.clear() // Clear all entries in order to reduce file size
-		propSPRankingDaily.clear()
+		openSPRankingFiles()
 
 		// Load ban list
 		loadBanList()
@@ -241,24 +262,39 @@ import kotlin.random.Random
 			log.fatal("Failed to startup the server", e)
 			return
 		}
+		if(ioThreads>0) startIOLoops(ioThreads)
+		// Write the pending data files even if the server is killed
+		val saver = persistence
+		val players = playerDataStore
+		Runtime.getRuntime().addShutdownHook(Thread({
+			players.flush()
+			saver.flush()
+		}, "NetServer-save-on-exit"))
 
 		// Mainloop
 		while(!shutdownRequested)
 			try {
 				try {
 					// Process any pending changes
+					val rerouted = ArrayList<ChangeRequest>()
 					synchronized(pendingChanges) {
 						val changes = pendingChanges.iterator()
 						while(changes.hasNext()) {
 							val change = changes.next()
 							val key = change.socket.keyFor(selector)
+							if(key==null) {
+								// Not on this selector: hand it to the I/O loop that owns the channel, or drop it
+								changes.remove()
+								rerouted.add(change)
+								continue
+							}
 
 							if(key.isValid)
 								when(change.type) {
 									ChangeRequest.DISCONNECT -> {
 										// Delayed disconnect
-										val queue = pendingData[change.socket]
-										if(queue==null||queue.isEmpty())
+										val queue = synchronized(pendingData) {pendingData[change.socket]}
+										if(queue==null||synchronized(pendingData) {queue.isEmpty})
 											try {
 												changes.remove()
 												logout(key)
@@ -278,6 +314,7 @@ import kotlin.random.Random
 						}
 						//this.pendingChanges.clear();
 					}
+					for(change in rerouted) channelLoopMap[change.socket]?.addChange(change)
 
 					// Wait for an event one of the registered channels
 					selector!!.select()
@@ -292,10 +329,10 @@ import kotlin.random.Random
 
 						try {
 							// Check what event is available and deal with it
-							when {
-								key.isAcceptable -> doAccept(key)
-								key.isReadable -> doRead(key)
-								key.isWritable -> doWrite(key)
+							if(key.isAcceptable) doAccept(key)
+							else {
+								if(key.isReadable) doRead(key)
+								if(key.isValid&&key.isWritable) doWrite(key)
 							}
 						} catch(e:NetServerDisconnectRequestedException) {
 							// Intended Disconnect
@@ -321,9 +358,79 @@ import kotlin.random.Random
 				log.fatal("Non-IOException throwed on server mainloop", e)
 			}
 
+		ioLoops.forEach {it.selector.wakeup()}
+		gameExecutor?.shutdown()
+		try {
+			gameExecutor?.awaitTermination(10, TimeUnit.SECONDS)
+		} catch(e:InterruptedException) {
+		}
+		playerDataStore.close()
+		persistence.shutdown()
 		log.warn("Server Shutdown!")
 	}
 
+	/** Start the I/O event loops and the game state thread
+	 * @param threads Number of I/O event loops
+	 */
+	private fun startIOLoops(threads:Int) {
+		gameExecutor = Executors.newSingleThreadExecutor {r -> Thread(r, "NetServer-game")}
+		ioLoops = List(threads) {IOLoop(it)}
+		ioLoops.forEach {it.thread.start()}
+		log.info("Using $threads I/O threads")
+	}
+
+	/** Run a task on the game state thread, or right away if there is none
+	 * @param task Task
+	 */
+	private fun runGameTask(task:()->Unit) {
+		val ex = gameExecutor
+		if(ex==null) task() else try {
+			ex.execute {
+				try {
+					task()
+				} catch(e:Throwable) {
+					log.warn("Exception on game state thread", e)
+				}
+			}
+		} catch(e:RejectedExecutionException) {
+			log.debug("Game state thread is stopped", e)
+		}
+	}
+
+	/** Process a packet on the game state thread, and logout the client if it fails
+	 * @param client The SocketChannel who sent this packet
+	 * @param msg The string of packet
+	 */
+	private fun processPacketTask(client:SocketChannel, msg:String) {
+		if(!client.isOpen) return
+		try {
+			processPacket(client, msg)
+		} catch(e:NetServerDisconnectRequestedException) {
+			log.debug("Socket disconnected by NetServerDisconnectRequestedException")
+			logout(client)
+		} catch(e:IOException) {
+			log.info("Socket disconnected by IOException", e)
+			logout(client)
+		} catch(e:Exception) {
+			log.warn("Socket disconnected by Non-IOException", e)
+			logout(client)
+		}
+	}
+
+	/** Queue a ChangeRequest to the thread that owns the channel's selector
+	 * @param change ChangeRequest
+	 */
+	private fun addChangeRequest(change:ChangeRequest) {
+		val loop = channelLoopMap[change.socket]
+		if(loop!=null) loop.addChange(change)
+		else {
+			synchronized(pendingChanges) {
+				pendingChanges.add(change)
+			}
+			selector?.wakeup()
+		}
+	}
+
 	/** Accept a new client
 	 * @param key SelectionKey
 	 * @throws IOException When something bad happens
@@ -334,13 +441,29 @@ import kotlin.random.Random
 		val serverSocketChannel = key.channel() as ServerSocketChannel
 
 		// Accept the connection and make it non-blocking
-		val socketChannel = serverSocketChannel.accept()
+		val socketChannel = serverSocketChannel.accept() ?: return
 		socketChannel.configureBlocking(false)
 
-		// Register the new SocketChannel with our Selector, indicating
-		// we'd like to be notified when there's data waiting to be read
-		socketChannel.register(selector, SelectionKey.OP_READ)
+		if(ioLoops.isEmpty()) {
+			// Register the new SocketChannel with our Selector, indicating
+			// we'd like to be notified when there's data waiting to be read
+			socketChannel.register(selector, SelectionKey.OP_READ)
+			onAccept(socketChannel)
+		} else {
+			// Hand it to the next I/O event loop. The client is set up on the game state thread first,
+			// so that it is ready before any packet from it arrives there
+			val loop = ioLoops[nextLoop]
+			nextLoop = (nextLoop+1)%ioLoops.size
+			channelLoopMap[socketChannel] = loop
+			runGameTask {onAccept(socketChannel)}
+			loop.addChange(ChangeRequest(socketChannel, ChangeRequest.REGISTER, SelectionKey.OP_READ))
+		}
+	}
 
+	/** Set up a newly accepted client
+	 * @param socketChannel SocketChannel
+	 */
+	private fun onAccept(socketChannel:SocketChannel) {
 		// Add to list
 		channelList.add(socketChannel)
 		lastCommTimeMap[socketChannel] = System.currentTimeMillis()
@@ -354,9 +477,7 @@ import kotlin.random.Random
 			val strStart = GeneralUtil.exportCalendarString(ban.startDate)
 			val strExpire = GeneralUtil.exportCalendarString(endDate)
 			send(socketChannel, "banned\t$strStart\t$strExpire\n")
-			synchronized(pendingChanges) {
-				pendingChanges.add(ChangeRequest(socketChannel, ChangeRequest.DISCONNECT, 0))
-			}
+			addChangeRequest(ChangeRequest(socketChannel, ChangeRequest.DISCONNECT, 0))
 		} else {
 			// Send welcome message
 			log.debug("Accept:"+getHostName(socketChannel))
@@ -375,44 +496,18 @@ import kotlin.random.Random
 	private fun doRead(key:SelectionKey) {
 		val socketChannel = key.channel() as SocketChannel
 
-		// Clear out our read buffer so it's ready for new data
-		if(readBuffer==null) readBuffer = ByteBuffer.allocate(BUF_SIZE)
-		else readBuffer?.clear()
+		val packetBuffer = packetBufferMap.getOrPut(socketChannel) {NetPacketBuffer()}
 
 		// Attempt to read off the channel
-		val numRead:Int = socketChannel.read(readBuffer)
+		val numRead:Int = packetBuffer.read(socketChannel)
 
 		if(numRead==-1)
 		// Remote entity shut the socket down cleanly. Do the
 		// same from our end and cancel the channel.
 			throw NetServerDisconnectRequestedException("Connection is closed (numBytesRead is -1)")
 
-		// Process the packet
-		readBuffer!!.flip()
-
-		val bytes = ByteArray(readBuffer!!.limit())
-		readBuffer!!.get(bytes)
-
-		val message = NetUtil.bytesToString(bytes)
-
-		// Previous incomplete packet buffer (null if none are present)
-		val notCompletePacketBuffer = notCompletePacketMap.remove(socketChannel)
-
-		// The new packet buffer
-		var packetBuffer = StringBuilder()
-		if(notCompletePacketBuffer!=null) packetBuffer.append(notCompletePacketBuffer)
-		packetBuffer.append(message)
-
-		var index:Int = packetBuffer.indexOf("\n")
-		while(index!=-1) {
-			val msgNow = packetBuffer.substring(0, index)
-			processPacket(socketChannel, msgNow)
-			packetBuffer = packetBuffer.replace(0, index+1, "")
-			index = packetBuffer.indexOf("\n")
-		}
-
-		// Place new incomplete packet buffer
-		if(packetBuffer.isNotEmpty()) notCompletePacketMap[socketChannel] = packetBuffer
+		// Process the complete packets. The incomplete rest stays in the buffer
+		packetBuffer.forEachPacket {processPacket(socketChannel, it)}
 	}
 
 	/** Write message(s) to client
@@ -426,23 +521,14 @@ import kotlin.random.Random
 		synchronized(pendingData) {
 			val queue = pendingData[socketChannel]
 
-			// Write until there's not more data ...
-			if(queue!=null) {
-				while(queue.isNotEmpty()) {
-					val buf = queue[0]
-					socketChannel.write(buf)
-					if(buf.remaining()>0)
-					// ... or the socket's buffer fills up
-						break
-					queue.drop(0)
-				}
+			// Write until there's not more data or the socket's buffer fills up
+			queue?.write(socketChannel)
 
-				if(queue.isNullOrEmpty())
-				// We wrote away all data, so we're no longer interested
-				// in writing on this socket. Switch back to waiting for
-				// data.
-					key.interestOps(SelectionKey.OP_READ)
-			}
+			if(queue==null||queue.isEmpty)
+			// We wrote away all data, so we're no longer interested
+			// in writing on this socket. Switch back to waiting for
+			// data.
+				key.interestOps(SelectionKey.OP_READ)
 		}
 	}
 
@@ -461,11 +547,14 @@ import kotlin.random.Random
 	 */
 	private fun logout(channel:SocketChannel?) {
 		if(channel==null) return
+		// Already logged out
+		if(ioLoops.isNotEmpty()&&channelLoopMap.remove(channel)==null) return
 
 		val remoteAddr = getHostFull(channel)
 		log.info("Logout: $remoteAddr")
 
-		try {
+		// Channels of the I/O event loops are dropped from their selectors by close()
+		if(ioLoops.isEmpty()) try {
 			channel.register(selector, 0)
 		} catch(e:CancelledKeyException) {
 			// CancelledKeyException. This is normal
@@ -488,11 +577,16 @@ import kotlin.random.Random
 		try {
 			channelList.remove(channel)
 			lastCommTimeMap.remove(channel)
-			notCompletePacketMap.remove(channel)
+			packetBufferMap.remove(channel)
+			synchronized(pendingData) {
+				pendingData.remove(channel)
+			}
 
 			val pInfo = playerInfoMap.remove(channel)
 			if(pInfo!=null) {
 				log.info(pInfo.strName+" has logged out")
+				playerChannelMap.remove(pInfo.uid)
+				leaveRoomIndex(channel, pInfo.roomID)
 
 				playerDead(pInfo)
 				pInfo.connected = false
@@ -545,15 +639,16 @@ import kotlin.random.Random
 
 		channelList.clear()
 		lastCommTimeMap.clear()
-		notCompletePacketMap.clear()
+		packetBufferMap.clear()
 		observerList.clear()
 		adminList.clear()
 		playerInfoMap.clear()
+		playerChannelMap.clear()
+		roomChannelMap.clear()
 		roomInfoList.clear()
 		synchronized(pendingData) {
 			pendingData.clear()
 		}
-		if(readBuffer!=null) readBuffer!!.clear()
 
 		System.gc()
 	}
@@ -591,18 +686,17 @@ import kotlin.random.Random
 	 * @param bytes Message to send (byte[])
 	 */
 	fun send(client:SocketChannel, bytes:ByteArray) {
-		synchronized(pendingChanges) {
-			// Indicate we want the interest ops set changed
-			pendingChanges.add(ChangeRequest(client, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE))
-
-			// And queue the data we want written
-			synchronized(pendingData) {
-				var queue = (pendingData as Map<SocketChannel, List<ByteBuffer>>).getOrDefault(client, emptyList())+ByteBuffer.wrap(bytes)
-			}
+		if(!client.isOpen) return
+		// Queue the data we want written
+		val wasEmpty = synchronized(pendingData) {
+			val queue = pendingData.getOrPut(client) {NetSendQueue()}
+			queue.isEmpty.also {queue.add(bytes)}
 		}
+		if(!wasEmpty) return
 
-		// Finally, wake up our selecting thread so it can make the required changes
-		selector!!.wakeup()
+		// Indicate we want the interest ops set changed (keep reading while writing),
+		// and wake up the selecting thread so it can make the required changes
+		addChangeRequest(ChangeRequest(client, ChangeRequest.CHANGEOPS, SelectionKey.OP_READ or SelectionKey.OP_WRITE))
 	}
 
 	/** Send a message
@@ -635,12 +729,9 @@ import kotlin.random.Random
 	 * @param msg Message to send (String)
 	 */
 	private fun broadcast(msg:String) {
+		val bytes = NetUtil.stringToBytes(msg)
 		synchronized(channelList) {
-			for(ch in channelList) {
-				val p = playerInfoMap[ch]
-
-				if(p!=null) send(ch, msg)
-			}
+			for(ch in playerInfoMap.keys) send(ch, bytes)
 		}
 	}
 
@@ -649,12 +740,9 @@ import kotlin.random.Random
 	 * @param roomID Room ID (-1:Lobby)
 	 */
 	private fun broadcast(msg:String, roomID:Int) {
+		val bytes = NetUtil.stringToBytes(msg)
 		synchronized(channelList) {
-			for(ch in channelList) {
-				val p = playerInfoMap[ch]
-
-				if(p!=null&&roomID==p.roomID) send(ch, msg)
-			}
+			roomChannelMap[roomID]?.forEach {send(it, bytes)}
 		}
 	}
 
@@ -665,12 +753,10 @@ import kotlin.random.Random
 	 * @param pInfo The player to avoid sending message
 	 */
 	private fun broadcast(msg:String, roomID:Int, pInfo:NetPlayerInfo) {
+		val bytes = NetUtil.stringToBytes(msg)
+		val except = playerChannelMap[pInfo.uid]
 		synchronized(channelList) {
-			for(ch in channelList) {
-				val p = playerInfoMap[ch]
-
-				if(p!=null&&p.uid!=pInfo.uid&&roomID==p.roomID) send(ch, msg)
-			}
+			roomChannelMap[roomID]?.forEach {if(it!=except) send(it, bytes)}
 		}
 	}
 
@@ -678,8 +764,9 @@ import kotlin.random.Random
 	 * @param msg Message to send (String)
 	 */
 	private fun broadcastObserver(msg:String) {
+		val bytes = NetUtil.stringToBytes(msg)
 		for(ch in observerList)
-			send(ch, msg)
+			send(ch, bytes)
 	}
 
 	/** Broadcast client count (observers and players) to everyone */
@@ -694,23 +781,45 @@ import kotlin.random.Random
 	 * @param msg Message to send (String)
 	 */
 	private fun broadcastAdmin(msg:String) {
+		val bytes = NetUtil.stringToBytes(msg)
 		for(ch in adminList)
-			send(ch, msg)
+			send(ch, bytes)
 	}
 
 	/** Get SocketChannel from NetPlayerInfo
 	 * @param pInfo Player
 	 * @return SocketChannel (null if not found)
 	 */
-	private fun getSocketChannelByPlayer(pInfo:NetPlayerInfo):SocketChannel? {
-		synchronized(channelList) {
-			for(ch in channelList) {
-				val p = playerInfoMap[ch]
+	private fun getSocketChannelByPlayer(pInfo:NetPlayerInfo):SocketChannel? = playerChannelMap[pInfo.uid]
 
-				if(p!=null&&p.uid==pInfo.uid) return ch
-			}
+	/** Move a player to another room (or the lobby)
+	 * @param client SocketChannel of the player
+	 * @param pInfo Player
+	 * @param roomID Room ID (-1:Lobby)
+	 */
+	private fun setPlayerRoom(client:SocketChannel, pInfo:NetPlayerInfo, roomID:Int) {
+		leaveRoomIndex(client, pInfo.roomID)
+		pInfo.roomID = roomID
+		joinRoomIndex(client, roomID)
+	}
+
+	/** Add a player's SocketChannel to the room index
+	 * @param client SocketChannel
+	 * @param roomID Room ID (-1:Lobby)
+	 */
+	private fun joinRoomIndex(client:SocketChannel, roomID:Int) {
+		roomChannelMap.getOrPut(roomID) {LinkedHashSet()}.add(client)
+	}
+
+	/** Remove a player's SocketChannel from the room index
+	 * @param client SocketChannel
+	 * @param roomID Room ID (-1:Lobby)
+	 */
+	private fun leaveRoomIndex(client:SocketChannel, roomID:Int) {
+		roomChannelMap[roomID]?.let {
+			it.remove(client)
+			if(it.isEmpty()) roomChannelMap.remove(roomID)
 		}
-		return null
 	}
 
 	/** Find longest matching player name matching a word boundary in msg.
@@ -938,6 +1047,8 @@ import kotlin.random.Random
 
 			// Success
 			playerInfoMap[client] = pInfo
+			playerChannelMap[pInfo.uid] = client
+			joinRoomIndex(client, pInfo.roomID)
 			playerCount++
 			send(client, "loginsuccess\t${NetUtil.urlEncode(pInfo.strName)}\t${pInfo.uid}\n")
 			log.info(pInfo.strName+" has logged in (Host:${getHostName(client)} Team:${pInfo.strTeam})")
@@ -1120,8 +1231,7 @@ import kotlin.random.Random
 			val strPData = StringBuilder()
 			var prevRating = -1
 			var nowRank = 0
-			for(i in 0 until mpRankingList!![style].size) {
-				val p = mpRankingList!![style][i]
+			mpRankingList!![style].forEachIndexed {i, p ->
 				if(i==0||p.rating[style]<prevRating) {
 					prevRating = p.rating[style]
 					nowRank = i
@@ -1172,7 +1282,7 @@ import kotlin.random.Random
 
 				roomInfoList.add(roomInfo)
 
-				pInfo.roomID = roomInfo.roomID
+				setPlayerRoom(client, pInfo, roomInfo.roomID)
 				pInfo.resetPlayState()
 				pInfo.playCountNow = 0
 				pInfo.winCountNow = 0
@@ -1237,7 +1347,7 @@ import kotlin.random.Random
 
 				roomInfoList.add(roomInfo)
 
-				pInfo.roomID = roomInfo.roomID
+				setPlayerRoom(client, pInfo, roomInfo.roomID)
 				pInfo.resetPlayState()
 				pInfo.playCountNow = 0
 				pInfo.winCountNow = 0
@@ -1289,7 +1399,7 @@ import kotlin.random.Random
 
 				roomInfoList.add(roomInfo)
 
-				pInfo.roomID = roomInfo.roomID
+				setPlayerRoom(client, pInfo, roomInfo.roomID)
 				pInfo.resetPlayState()
 				pInfo.playCountNow = 0
 				pInfo.winCountNow = 0
@@ -1336,7 +1446,7 @@ import kotlin.random.Random
 								}
 						}
 					}
-					pInfo.roomID = -1
+					setPlayerRoom(client, pInfo, -1)
 					pInfo.seatID = -1
 					pInfo.queueID = -1
 					pInfo.resetPlayState()
@@ -1366,7 +1476,7 @@ import kotlin.random.Random
 								}
 						}
 					}
-					pInfo.roomID = newRoom.roomID
+					setPlayerRoom(client, pInfo, newRoom.roomID)
 					pInfo.resetPlayState()
 					pInfo.playCountNow = 0
 					pInfo.winCountNow = 0
@@ -1619,8 +1729,12 @@ import kotlin.random.Random
 						if((ranking!=null||rankingDaily!=null)&&gamerate>=spMinGameRate) {
 							if(ranking!=null) rank = ranking.registerRecord(record)
 							if(rankingDaily!=null) rankDaily = rankingDaily.registerRecord(record)
+							if(rank!=-1) spRankingAllRulesAlltime["${record.strModeName}.${record.gameType}"]?.registerRecord(NetSPRecord(record))
+							if(rankDaily!=-1) spRankingAllRulesDaily["${record.strModeName}.${record.gameType}"]?.registerRecord(NetSPRecord(record))
 
-							if(rank!=-1||rankDaily!=-1||isDailyWiped) writeSPRankingToFile()
+							if(rank!=-1||rankDaily!=-1||isDailyWiped)
+								writeSPRankingToFile(if(rank!=-1) listOf(ranking) else emptyList(),
+									if(isDailyWiped) spRankingListDaily!! else if(rankDaily!=-1) listOf(rankingDaily) else emptyList())
 
 							var isPB = false
 							if(ranking!=null) {
@@ -1647,7 +1761,7 @@ import kotlin.random.Random
 			val gameType = message[3].toInt()
 			val isDaily = message[4].toBoolean()
 
-			if(isDaily) if(updateSPDailyRanking()) writeSPRankingToFile()
+			if(isDaily) if(updateSPDailyRanking()) writeSPRankingToFile(emptyList(), spRankingListDaily!!)
 
 			var myRank = -1
 			val ranking = getSPRanking(strRule, strMode, gameType, isDaily)
@@ -1657,11 +1771,10 @@ import kotlin.random.Random
 
 				val strData = StringBuilder()
 
-				for(i in 0 until maxRecord) {
+				ranking.listRecord.forEachIndexed {i, record ->
 					var strRow = ""
 					if(i>0) strRow = ";"
 
-					val record = ranking.listRecord[i]
 					strRow += "$i${","+NetUtil.urlEncode(record.strPlayerName)},"
 					strRow += record.strTimeStamp+",${record.stats!!.gamerate},"
 					strRow += record.getStatRow(ranking.rankingType)
@@ -1710,7 +1823,7 @@ import kotlin.random.Random
 				if(roomInfo!=null&&!roomInfo.rated) strRule = "any"
 			}
 
-			if(isDaily) if(updateSPDailyRanking()) writeSPRankingToFile()
+			if(isDaily) if(updateSPDailyRanking()) writeSPRankingToFile(emptyList(), spRankingListDaily!!)
 
 			val ranking = getSPRanking(strRule, strMode, gameType, isDaily)
 			if(ranking!=null) {
@@ -1911,22 +2024,12 @@ import kotlin.random.Random
 			val strName = message[1]
 			val pInfo = searchPlayerByName(strName)
 
-			var playerDataChange = false
+			val playerDataChange = playerDataStore.delete(strName)
 			var mpRankingDataChange = false
-			var spRankingDataChange = false
+			val spRankingChangedAlltime = HashSet<NetSPRanking>()
+			val spRankingChangedDaily = HashSet<NetSPRanking>()
 
 			for(i in 0 until GameEngine.MAX_GAMESTYLE) {
-				if(propPlayerData.getProperty("p.rating.$i.$strName")!=null) {
-					propPlayerData.setProperty("p.rating.$i.$strName", ratingDefault)
-					propPlayerData.setProperty("p.playCount.$i.$strName", 0)
-					propPlayerData.setProperty("p.winCount.$i.$strName", 0)
-					playerDataChange = true
-				}
-				if(propPlayerData.getProperty("sppersonal.$strName.numRecords")!=null) {
-					propPlayerData.setProperty("sppersonal.$strName.numRecords", 0)
-					playerDataChange = true
-				}
-
 				if(pInfo!=null) {
 					pInfo.rating[i] = ratingDefault
 					pInfo.playCount[i] = 0
@@ -1934,33 +2037,25 @@ import kotlin.random.Random
 					pInfo.spPersonalBest.listRecord.clear()
 				}
 
-				val mpIndex = mpRankingIndexOf(i, strName)
-				if(mpIndex!=-1) {
-					mpRankingList!![i].removeAt(mpIndex)
-					mpRankingDataChange = true
-				}
+				if(mpRankingList!![i].remove(strName)!=null) mpRankingDataChange = true
 
-				for(ranking in spRankingListAlltime!!) {
-					val record = ranking.getRecord(strName)
-					if(record!=null) {
-						ranking.listRecord.remove(record)
-						spRankingDataChange = true
-					}
-				}
-				for(ranking in spRankingListDaily!!) {
-					val record = ranking.getRecord(strName)
-					if(record!=null) {
-						ranking.listRecord.remove(record)
-						spRankingDataChange = true
-					}
-				}
+				for(ranking in spRankingListAlltime!!)
+					if(ranking.removeRecord(strName)>0) spRankingChangedAlltime.add(ranking)
+				for(ranking in spRankingListDaily!!)
+					if(ranking.removeRecord(strName)>0) spRankingChangedDaily.add(ranking)
+			}
+
+			val spRankingDataChange = spRankingChangedAlltime.isNotEmpty()||spRankingChangedDaily.isNotEmpty()
+			if(spRankingDataChange) {
+				spRankingAllRulesAlltime.clear()
+				spRankingAllRulesDaily.clear()
 			}
 
 			sendAdminResult(client, "playerdelete\t$strName")
 
 			if(playerDataChange) writePlayerDataToFile()
 			if(mpRankingDataChange) writeMPRankingToFile()
-			if(spRankingDataChange) writeSPRankingToFile()
+			if(spRankingDataChange) writeSPRankingToFile(spRankingChangedAlltime, spRankingChangedDaily)
 		}
 		// Room delete
 		if(message[0]=="roomdelete") {
@@ -1980,6 +2075,7 @@ import kotlin.random.Random
 			log.warn("Shutdown requested by the admin (${getHostFull(client)})")
 			shutdownRequested = true
 			selector!!.wakeup()
+			ioLoops.forEach {it.selector.wakeup()}
 		}
 		// Announce
 		if(message[0]=="announce")
@@ -2337,8 +2433,7 @@ import kotlin.random.Random
 	 * @param uid ID
 	 * @return NetPlayerInfo (null if not found)
 	 */
-	private fun searchPlayerByUID(uid:Int):NetPlayerInfo? =
-		channelList.map {playerInfoMap[it]}.firstOrNull {it?.uid==uid}
+	private fun searchPlayerByUID(uid:Int):NetPlayerInfo? = playerChannelMap[uid]?.let {playerInfoMap[it]}
 
 	/** Move queue player(s) to the game seat if possible
 	 * @param roomInfo The room
@@ -2554,6 +2649,130 @@ import kotlin.random.Random
 
 			/** interestOps change action */
 			const val CHANGEOPS = 2
+
+			/** Register a new channel to an I/O event loop */
+			const val REGISTER = 3
+		}
+	}
+
+	/** I/O event loop: reads and writes the channels registered to its own selector.
+	 * Complete packets are handed to the game state thread.
+	 * @param id Loop number (for the thread name)
+	 */
+	private inner class IOLoop(id:Int):Runnable {
+		/** The selector of this loop */
+		val selector:Selector = SelectorProvider.provider().openSelector()
+
+		/** ChangeRequests for the channels of this loop */
+		private val changes = LinkedList<ChangeRequest>()
+
+		/** Thread of this loop */
+		val thread = Thread(this, "NetServer-IO-$id")
+
+		/** Queue a ChangeRequest and wake the loop up
+		 * @param change ChangeRequest
+		 */
+		fun addChange(change:ChangeRequest) {
+			synchronized(changes) {
+				changes.add(change)
+			}
+			selector.wakeup()
+		}
+
+		override fun run() {
+			while(!shutdownRequested)
+				try {
+					processChanges()
+					selector.select()
+
+					val selectedKeys = selector.selectedKeys().iterator()
+					while(selectedKeys.hasNext()) {
+						val key = selectedKeys.next()
+						selectedKeys.remove()
+						if(!key.isValid) continue
+
+						try {
+							if(key.isReadable) doRead(key)
+							if(key.isValid&&key.isWritable) doWrite(key)
+						} catch(e:NetServerDisconnectRequestedException) {
+							log.debug("Socket disconnected by NetServerDisconnectRequestedException")
+							close(key)
+						} catch(e:IOException) {
+							log.info("Socket disconnected by IOException", e)
+							close(key)
+						} catch(e:Exception) {
+							log.warn("Socket disconnected by Non-IOException", e)
+							close(key)
+						}
+					}
+				} catch(e:Throwable) {
+					log.fatal("Exception on I/O loop", e)
+				}
+			try {
+				selector.close()
+			} catch(e:IOException) {
+				log.debug("Exception on closing the selector of I/O loop", e)
+			}
+		}
+
+		private fun processChanges() {
+			synchronized(changes) {
+				// New channels first, as the other requests for them may have been queued before
+				var it = changes.iterator()
+				while(it.hasNext()) {
+					val change = it.next()
+					if(change.type==ChangeRequest.REGISTER) {
+						it.remove()
+						if(change.socket.isOpen) change.socket.register(selector, change.ops, NetPacketBuffer())
+					}
+				}
+				it = changes.iterator()
+				while(it.hasNext()) {
+					val change = it.next()
+					val key = change.socket.keyFor(selector)
+					if(key==null) {
+						// Not registered yet
+						if(!change.socket.isOpen) it.remove()
+						continue
+					}
+					if(!key.isValid) {
+						it.remove()
+						continue
+					}
+					when(change.type) {
+						ChangeRequest.DISCONNECT -> {
+							// Delayed disconnect
+							val empty = synchronized(pendingData) {pendingData[change.socket]?.isEmpty ?: true}
+							if(empty) {
+								it.remove()
+								close(key)
+							}
+						}
+						ChangeRequest.CHANGEOPS -> {
+							key.interestOps(change.ops)
+							it.remove()
+						}
+					}
+				}
+			}
+		}
+
+		@Throws(IOException::class)
+		private fun doRead(key:SelectionKey) {
+			val socketChannel = key.channel() as SocketChannel
+			val packetBuffer = key.attachment() as NetPacketBuffer
+
+			if(packetBuffer.read(socketChannel)==-1)
+				throw NetServerDisconnectRequestedException("Connection is closed (numBytesRead is -1)")
+
+			packetBuffer.forEachPacket {msg -> runGameTask {processPacketTask(socketChannel, msg)}}
+		}
+
+		/** Stop watching the channel, and logout its client on the game state thread */
+		private fun close(key:SelectionKey) {
+			key.cancel()
+			val ch = key.channel() as SocketChannel
+			runGameTask {logout(ch)}
 		}
 	}
 
@@ -2594,14 +2813,26 @@ import kotlin.random.Random
 		/** Default number of room chat histories */
 		const val DEFAULT_MAX_ROOMCHAT_HISTORY = 10
 
+		/** Default delay before changed data files are written (1000=1sec) */
+		const val DEFAULT_SAVE_INTERVAL = 10000L
+
+		/** Multiplayer leaderboard file */
+		private const val MPRANKING_FILE = "config/setting/netserver_mpranking"
+
+		/** Single player all-time leaderboard file */
+		private const val SPRANKING_FILE = "config/setting/netserver_spranking"
+
+		/** Single player daily leaderboard file */
+		private const val SPRANKING_DAILY_FILE = "config/setting/netserver_spranking_daily"
+
 		/** Server config file */
 		private var propServer:CustomProperties = CustomProperties()
 
 		/** Server Rated presets file */
 		private var propPresets:CustomProperties = CustomProperties()
 
-		/** Properties of player data list (mainly for rating) */
-		private var propPlayerData:CustomProperties = CustomProperties()
+		/** Player data (mainly for rating) */
+		private lateinit var playerDataStore:NetPlayerDataStore
 
 		/** Properties of multiplayer leaderboard */
 		private var propMPRanking:CustomProperties = CustomProperties()
@@ -2624,6 +2855,12 @@ import kotlin.random.Random
 		/** Client's ping interval */
 		private var clientPingInterval:Long = 0
 
+		/** Number of I/O threads (0=Everything on the main thread) */
+		private var ioThreads:Int = 0
+
+		/** Writes the data files */
+		private var persistence = NetPersistence(0)
+
 		/** Default rating */
 		private var ratingDefault:Int = 0
 
@@ -2669,7 +2906,7 @@ import kotlin.random.Random
 		private var ruleSettingIDList:Array<LinkedList<Int>>? = null
 
 		/** Multiplayer leaderboard list. */
-		private var mpRankingList:Array<LinkedList<NetPlayerInfo>>? = null
+		private var mpRankingList:Array<NetLeaderboard<NetPlayerInfo>>? = null
 
 		/** Multiplayer mode list */
 		private var mpModeList:Array<LinkedList<String>>? = null
@@ -2686,6 +2923,12 @@ import kotlin.random.Random
 		/** Single player daily leaderboard list */
 		private var spRankingListDaily:LinkedList<NetSPRanking>? = null
 
+		/** Merged "all rules" all-time leaderboards made so far (by "mode.gametype") */
+		private val spRankingAllRulesAlltime = HashMap<String, NetSPRanking>()
+
+		/** Merged "all rules" daily leaderboards made so far (by "mode.gametype") */
+		private val spRankingAllRulesDaily = HashMap<String, NetSPRanking>()
+
 		/** Last-update time of single player daily leaderboard */
 		private var spDailyLastUpdate:Calendar? = null
 
@@ -2823,7 +3066,9 @@ import kotlin.random.Random
 
 			// Load leaderboard
 			log.info("Loading Multiplayer Ranking...")
-			mpRankingList = Array(GameEngine.MAX_GAMESTYLE) {LinkedList<NetPlayerInfo>()}
+			mpRankingList = Array(GameEngine.MAX_GAMESTYLE) {style ->
+				NetLeaderboard<NetPlayerInfo>({it.strName}, compareByDescending {it.rating[style]})
+			}
 
 			for(style in 0 until GameEngine.MAX_GAMESTYLE) {
 				var count = propMPRanking.getProperty("$style.mpranking.count", 0)
@@ -2836,7 +3081,7 @@ import kotlin.random.Random
 						playCount[style] = propMPRanking.getProperty("$style.mpranking.playCount.$i", 0)
 						winCount[style] = propMPRanking.getProperty("$style.mpranking.winCount.$i", 0)
 					}
-					mpRankingList!![style].add(p)
+					mpRankingList!![style].put(p)
 				}
 			}
 		}
@@ -2853,14 +3098,8 @@ import kotlin.random.Random
 		 * @param name Player name in String (can be null, returns -1 if so)
 		 * @return Index in mpRankingList[style] (-1 if not found)
 		 */
-		private fun mpRankingIndexOf(style:Int, name:String?):Int {
-			if(name==null) return -1
-			for(i in 0 until mpRankingList!![style].size) {
-				val p2 = mpRankingList!![style][i]
-				if(name==p2.strName) return i
-			}
-			return -1
-		}
+		private fun mpRankingIndexOf(style:Int, name:String?):Int =
+			if(name==null) -1 else mpRankingList!![style].rankOf(name)
 
 		/** Update multiplayer leaderboard.
 		 * @param style Game Style
@@ -2868,45 +3107,31 @@ import kotlin.random.Random
 		 * @return New place (-1 if not ranked)
 		 */
 		private fun mpRankingUpdate(style:Int, p:NetPlayerInfo):Int {
-			// Remove existing record
-			val prevRecord = mpRankingIndexOf(style, p)
-			if(prevRecord!=-1) mpRankingList!![style].removeAt(prevRecord)
-
-			// Insert new record
-			var place = -1
-			var rankin = false
-			for(i in 0 until mpRankingList!![style].size) {
-				val p2 = mpRankingList!![style][i]
-				if(p.rating[style]>p2.rating[style]) {
-					mpRankingList!![style].add(i, p)
-					place = i
-					rankin = true
-					break
-				}
-			}
-
-			// Couldn't rank in? Add to last.
-			if(!rankin) {
-				mpRankingList!![style].addLast(p)
-				place = mpRankingList!![style].size-1
-			}
+			// Replace existing record with a copy, so the ratings can't change while it is on the leaderboard
+			val place = mpRankingList!![style].put(NetPlayerInfo().apply {
+				strName = p.strName
+				rating[style] = p.rating[style]
+				playCount[style] = p.playCount[style]
+				winCount[style] = p.winCount[style]
+			})
 
 			// Remove anything after maxMPRanking
-			while(mpRankingList!![style].size>=maxMPRanking) mpRankingList!![style].removeLast()
+			mpRankingList!![style].trim(maxMPRanking)
 
 			// Done
 			return if(place>=maxMPRanking) -1 else place
 		}
 
-		/** Write player data properties (propPlayerData) to a file */
+		/** Write multiplayer leaderboard properties (propMPRanking) to a file.
+		 * Only the leaderboard entries are sent to the writer, which keeps the rest of the file. */
 		private fun writeMPRankingToFile() {
+			propMPRanking.clear()
 			for(style in 0 until GameEngine.MAX_GAMESTYLE) {
 				var count = mpRankingList!![style].size
 				if(count>maxMPRanking) count = maxMPRanking
 				propMPRanking.setProperty("$style.mpranking.count", count)
 
-				for(i in 0 until count) {
-					val p = mpRankingList!![style][i]
+				mpRankingList!![style].take(count).forEachIndexed {i, p ->
 					propMPRanking.setProperty("$style.mpranking.strName.$i", p.strName)
 					propMPRanking.setProperty("$style.mpranking.rating.$i", p.rating[style])
 					propMPRanking.setProperty("$style.mpranking.playCount.$i", p.playCount[style])
@@ -2914,14 +3139,7 @@ import kotlin.random.Random
 				}
 			}
 
-			try {
-				val out = GZIPOutputStream(FileOutputStream("config/setting/netserver_mpranking"))
-				propMPRanking.storeToXML(out, "NullpoMino NetServer Multiplayer Leaderboard")
-				out.close()
-			} catch(e:IOException) {
-				log.error("Failed to write multiplayer ranking data", e)
-			}
-
+			persistence.updateXML(MPRANKING_FILE, propMPRanking)
 		}
 
 		/** Load single player leaderboard */
@@ -3027,20 +3245,25 @@ import kotlin.random.Random
 			return null
 		}
 
-		/** Get NetSPRanking for all rule types
+		/** Get NetSPRanking for all rule types.
+		 * The merged ranking is made on the first request, and kept up to date as new records are registered.
 		 * @param mode Mode Name
 		 * @param gtype Game Type
 		 * @param isDaily `true` to get daily ranking, `false`
 		 * to get all-time ranking
 		 * @return NetSPRanking (null if not found or there are none)
 		 */
-		private fun getSPRankingAllRules(mode:String, gtype:Int, isDaily:Boolean):NetSPRanking {
+		private fun getSPRankingAllRules(mode:String, gtype:Int, isDaily:Boolean):NetSPRanking? {
+			val cache = if(isDaily) spRankingAllRulesDaily else spRankingAllRulesAlltime
+			cache["$mode.$gtype"]?.let {return it}
+
 			val list = if(isDaily) spRankingListDaily else spRankingListAlltime
 			val allRanks = LinkedList<NetSPRanking>()
 			for(r in list!!)
 				if(r.strModeName==mode&&r.gameType==gtype) allRanks.add(r)
-			val merged = NetSPRanking.mergeRankings(allRanks)
-			merged!!.strRuleName = "all"
+			val merged = NetSPRanking.mergeRankings(allRanks) ?: return null
+			merged.strRuleName = "all"
+			cache["$mode.$gtype"] = merged
 			return merged
 		}
 
@@ -3054,7 +3277,6 @@ import kotlin.random.Random
 			val oldLastUpdate = spDailyLastUpdate
 
 			spDailyLastUpdate = c
-			propSPRankingDaily.setProperty("daily.lastupdate", GeneralUtil.exportCalendarString(spDailyLastUpdate!!))
 
 			if(oldLastUpdate!=null) log.debug("SP daily ranking previous-update:"+GeneralUtil.getCalendarString(oldLastUpdate))
 			log.debug("SP daily ranking last-update:"+GeneralUtil.getCalendarString(c))
@@ -3063,42 +3285,57 @@ import kotlin.random.Random
 
 			for(r in spRankingListDaily!!)
 				r.listRecord.clear()
+			spRankingAllRulesDaily.clear()
 			log.info("SP daily ranking wiped")
 
 			return true
 		}
 
-		/** Write single player ranking to a file */
-		private fun writeSPRankingToFile() {
-			// All-time
+		/** Hand the loaded single player rankings to [persistence], dropping the entries of rankings that no longer exist */
+		private fun openSPRankingFiles() {
+			propSPRankingAlltime.clear() // Clear all entries in order to reduce file size
 			for(r in spRankingListAlltime!!)
 				r.writeProperty(propSPRankingAlltime)
-			try {
-				val out = GZIPOutputStream(FileOutputStream("config/setting/netserver_spranking"))
-				propSPRankingAlltime.storeToXML(out, "NullpoMino NetServer Single Player All-time Leaderboard")
-				out.close()
-			} catch(e:IOException) {
-				log.error("Failed to write single player all-time ranking data", e)
-			}
+			persistence.openXML(SPRANKING_FILE, propSPRankingAlltime, "NullpoMino NetServer Single Player All-time Leaderboard")
+			propSPRankingAlltime.clear()
 
-			// Daily
+			val lastUpdate = propSPRankingDaily.getProperty("daily.lastupdate")
+			propSPRankingDaily.clear()
+			if(lastUpdate!=null) propSPRankingDaily.setProperty("daily.lastupdate", lastUpdate)
 			for(r in spRankingListDaily!!)
 				r.writeProperty(propSPRankingDaily)
-			try {
-				val out = GZIPOutputStream(FileOutputStream("config/setting/netserver_spranking_daily"))
-				propSPRankingDaily.storeToXML(out, "NullpoMino NetServer Single Player Daily Leaderboard")
-				out.close()
-			} catch(e:IOException) {
-				log.error("Failed to write single player daily ranking data", e)
+			persistence.openXML(SPRANKING_DAILY_FILE, propSPRankingDaily, "NullpoMino NetServer Single Player Daily Leaderboard")
+			propSPRankingDaily.clear()
+		}
+
+		/** Write changed single player rankings to the files.
+		 * Only the entries of the given rankings are sent to the writer, which keeps the rest of the files.
+		 * @param alltime Changed all-time rankings
+		 * @param daily Changed daily rankings
+		 */
+		private fun writeSPRankingToFile(alltime:Collection<NetSPRanking?>, daily:Collection<NetSPRanking?>) {
+			if(alltime.isNotEmpty()) {
+				propSPRankingAlltime.clear()
+				for(r in alltime)
+					r?.writeProperty(propSPRankingAlltime)
+				persistence.updateXML(SPRANKING_FILE, propSPRankingAlltime)
 			}
 
+			if(daily.isNotEmpty()) {
+				propSPRankingDaily.clear()
+				spDailyLastUpdate?.let {propSPRankingDaily.setProperty("daily.lastupdate", GeneralUtil.exportCalendarString(it))}
+				for(r in daily)
+					r?.writeProperty(propSPRankingDaily)
+				persistence.updateXML(SPRANKING_DAILY_FILE, propSPRankingDaily)
+			}
 		}
 
-		/** Get player data from propPlayerData
+		/** Get player data from playerDataStore
 		 * @param pInfo NetPlayerInfo
 		 */
 		private fun getPlayerDataFromProperty(pInfo:NetPlayerInfo) {
-			if(pInfo.isTripUse) {
+			val propPlayerData = if(pInfo.isTripUse) playerDataStore.load(pInfo.strName) else null
+			if(propPlayerData!=null) {
 				for(i in 0 until GameEngine.MAX_GAMESTYLE) {
 					pInfo.rating[i] = propPlayerData.getProperty("p.rating.$i."+pInfo.strName, ratingDefault)
 					pInfo.playCount[i] = propPlayerData.getProperty("p.playCount.$i."+pInfo.strName, 0)
@@ -3116,11 +3353,12 @@ import kotlin.random.Random
 			}
 		}
 
-		/** Set player data to propPlayerData
+		/** Set player data to playerDataStore
 		 * @param pInfo NetPlayerInfo
 		 */
 		private fun setPlayerDataToProperty(pInfo:NetPlayerInfo) {
 			if(pInfo.isTripUse) {
+				val propPlayerData = CustomProperties()
 				for(i in 0 until GameEngine.MAX_GAMESTYLE) {
 					propPlayerData.setProperty("p.rating.$i."+pInfo.strName, pInfo.rating[i])
 					propPlayerData.setProperty("p.playCount.$i."+pInfo.strName, pInfo.playCount[i])
@@ -3128,19 +3366,13 @@ import kotlin.random.Random
 				}
 				pInfo.spPersonalBest.strPlayerName = pInfo.strName
 				pInfo.spPersonalBest.writeProperty(propPlayerData)
+				playerDataStore.store(pInfo.strName, propPlayerData)
 			}
 		}
 
-		/** Write player data properties (propPlayerData) to a file */
+		/** Write the changed player data to the disk */
 		private fun writePlayerDataToFile() {
-			try {
-				val out = GZIPOutputStream(FileOutputStream("config/setting/netserver_playerdata"))
-				propPlayerData.storeToXML(out, "NullpoMino NetServer PlayerData")
-				out.close()
-			} catch(e:IOException) {
-				log.error("Failed to write player data", e)
-			}
-
+			playerDataStore.flush()
 		}
 
 		/** Load ban list from a file */
@@ -3167,21 +3399,21 @@ import kotlin.random.Random
 
 		/** Write ban list to a file */
 		private fun saveBanList() {
-			try {
-				val outFile = FileWriter("config/setting/netserver_banned.lst")
-				val out = PrintWriter(outFile)
-
-				for(ban in banList!!)
-					out.println(ban.exportString())
-
-				out.flush()
-				out.close()
+			saveLines("config/setting/netserver_banned.lst", banList!!.map {it.exportString()})
+			log.info("Ban list saved")
+		}
 
-				log.info("Ban list saved")
-			} catch(e:Exception) {
-				log.error("Failed to save ban list", e)
+		/** Save lines of text through [persistence]
+		 * @param filename Filename
+		 * @param lines Lines
+		 */
+		private fun saveLines(filename:String, lines:List<String>) {
+			persistence.save(filename) {out ->
+				PrintWriter(OutputStreamWriter(out)).let {
+					lines.forEach {l -> it.println(l)}
+					it.flush()
+				}
 			}
-
 		}
 
 		/** Load lobby chat history file */
@@ -3212,23 +3444,8 @@ import kotlin.random.Random
 
 		/** Save lobby chat history file */
 		private fun saveLobbyChatHistory() {
-			try {
-				val outFile = FileWriter("config/setting/netserver_lobbychat.log")
-				val out = PrintWriter(outFile)
-
-				while(lobbyChatList!!.size>maxLobbyChatHistory) lobbyChatList!!.removeFirst()
-
-				for(chat in lobbyChatList!!)
-					out.println(chat.exportString())
-
-				out.flush()
-				out.close()
-
-				log.debug("Lobby chat history saved")
-			} catch(e:Exception) {
-				log.error("Failed to save lobby chat history file", e)
-			}
-
+			while(lobbyChatList!!.size>maxLobbyChatHistory) lobbyChatList!!.removeFirst()
+			saveLines("config/setting/netserver_lobbychat.log", lobbyChatList!!.map {it.exportString()})
 		}
 
 		/** Get IP address
@@ -109,6 +109,9 @@ class GameEngine
 	/** Show internal state of AI */
 	var aiShowState:Boolean = false
 
+	/** Split the AI search across worker threads (Only for AIs that support it) */
+	var aiParallelThink:Boolean = false
+
 	/** AI Hint piece (copy of current or hold) */
 	var aiHintPiece:Piece? = null
 
@@ -187,16 +190,50 @@ class GameEngine
 	/** Allow/Disallow certain piece */
 	var nextPieceEnable:BooleanArray = BooleanArray(Piece.PIECE_COUNT) {i:Int -> i<Piece.PIECE_STANDARD_COUNT}
 
-	/** Preferred size of next piece array
-	 * Might be ignored by certain Randomizer. (Default:1400) */
+	/** Number of pieces made by the randomizer before the sequence repeats
+	 * (Default:0 = never repeats. Replays made before the sequence became endless use 1400) */
 	var nextPieceArraySize:Int = 0
 
-	/** Array of next piece IDs */
+	/** Fixed sequence of next piece IDs, repeated from the start after its end
+	 * (Empty: made by the randomizer as they are needed) */
 	var nextPieceArrayID:IntArray = IntArray(0)
+		set(value) {
+			field = value
+			clearNextPieceObjects()
+		}
 
-	/** Array of next piece Objects */
+	/** Next piece Objects set from outside (e.g. received from the net), repeated like [nextPieceArrayID]
+	 * (Empty: made from the IDs as they are needed) */
 	var nextPieceArrayObject:Array<Piece?> = emptyArray()
 
+	/** Called with the position in the sequence and the piece whenever a next piece Object is made */
+	var nextPieceInit:((Int, Piece)->Unit)? = null
+		set(value) {
+			field = value
+			clearNextPieceObjects()
+		}
+
+	/** true once the sequence of next pieces is ready */
+	private var nextPieceReady = false
+
+	/** Piece IDs made by the randomizer so far */
+	private var nextPieceGenID = IntArray(0)
+
+	/** Number of valid IDs in [nextPieceGenID] */
+	@Volatile private var nextPieceGenCount = 0
+
+	/** First position made by the last [prepareNextPieces] */
+	private var nextPiecePreparedStart = 0
+
+	/** End of the positions made by the last [prepareNextPieces] (written last, so the AI threads see the pieces) */
+	@Volatile private var nextPiecePreparedEnd = 0
+
+	/** Recently used next piece Objects, indexed by position in the sequence modulo [NEXT_PIECE_RING_SIZE] */
+	private val nextPieceRing = arrayOfNulls<Piece>(NEXT_PIECE_RING_SIZE)
+
+	/** Position in the sequence of each Object in [nextPieceRing] (-1: none) */
+	private val nextPieceRingPos = IntArray(NEXT_PIECE_RING_SIZE) {-1}
+
 	/** Number of pieces put (Used by next piece sequence) */
 	var nextPieceCount:Int = 0
 
@@ -765,7 +802,8 @@ class GameEngine
 			versionMinor = owner.replayProp.getProperty("version.core.minor", 0)
 			versionMinorOld = owner.replayProp.getProperty("version.core.minor", 0f)
 
-			replayData.readProperty(owner.replayProp, playerID)
+			val inputs = owner.replayInputs[playerID]
+			if(inputs!=null) replayData.copy(inputs) else replayData.readProperty(owner.replayProp, playerID)
 
 			owRotateButtonDefaultRight =
 				owner.replayProp.getProperty("$playerID.tuning.owRotateButtonDefaultRight", -1)
@@ -803,10 +841,15 @@ class GameEngine
 		nowPieceBottomY = 0
 		nowPieceColorOverride = -1
 
-		nextPieceArraySize = 1400
+		nextPieceArraySize = 0
 		nextPieceEnable = BooleanArray(Piece.PIECE_COUNT) {it<Piece.PIECE_STANDARD_COUNT}
 		nextPieceArrayID = IntArray(0)
 		nextPieceArrayObject = emptyArray()
+		nextPieceInit = null
+		nextPieceReady = false
+		nextPieceGenID = IntArray(0)
+		nextPieceGenCount = 0
+		nextPiecePreparedEnd = 0
 		nextPieceCount = 0
 
 		holdPieceObject = null
@@ -1017,26 +1060,49 @@ class GameEngine
 	 * @return NEXTピースのID
 	 */
 	fun getNextID(c:Int):Int {
-		if(nextPieceArrayObject.isNullOrEmpty()) return Piece.PIECE_NONE
-		nextPieceArrayID.let {
-			var c2 = c
-			while(it.size in 1..c2) c2 -= it.size
-			return it[c2]
+		if(c<0) return Piece.PIECE_NONE
+		nextPieceArrayObject.let {if(it.isNotEmpty()) return it[c%it.size]?.id ?: Piece.PIECE_NONE}
+		if(!nextPieceReady) return Piece.PIECE_NONE
+		nextPieceArrayID.let {if(it.isNotEmpty()) return it[c%it.size]}
+
+		// Make the IDs up to this position
+		val pos = if(nextPieceArraySize>0) c%nextPieceArraySize else c
+		if(pos>=nextPieceGenCount) {
+			if(pos>=nextPieceGenID.size)
+				nextPieceGenID = nextPieceGenID.copyOf(maxOf(pos+1, nextPieceGenID.size*2, NEXT_PIECE_RING_SIZE))
+			while(nextPieceGenCount<=pos) {
+				nextPieceGenID[nextPieceGenCount] = randomizer.next()
+				nextPieceGenCount++
+			}
 		}
+		return nextPieceGenID[pos]
 	}
 
 	/** NEXTピースのオブジェクトを取得
+	 * Objects are made when they are first needed, and the recently used ones are kept (with any changes made to them).
 	 * @param c 取得したいNEXTの位置
 	 * @return NEXTピースのオブジェクト
 	 */
 	fun getNextObject(c:Int):Piece? {
-		if(nextPieceArrayObject.isNullOrEmpty()) return null
-		nextPieceArrayObject.let {
-			var c2 = c
-			while(it.size in 1..c2)
-				c2 -= it.size
-			return it[c2]
+		if(c<0) return null
+		nextPieceArrayObject.let {if(it.isNotEmpty()) return it[c%it.size]}
+		if(!nextPieceReady) return null
+
+		val pos = nextPieceArrayID.size.let {
+			when {
+				it>0 -> c%it
+				nextPieceArraySize>0 -> c%nextPieceArraySize
+				else -> c
+			}
 		}
+		val slot = pos and (NEXT_PIECE_RING_SIZE-1)
+		if(nextPieceRingPos[slot]!=pos) {
+			// Each position has its own random numbers, so a piece comes out the same whenever it is made
+			nextPieceRing[slot] = createNextPiece(pos, getNextID(pos),
+				lazy(LazyThreadSafetyMode.NONE) {Random(randSeed xor pos*NEXT_PIECE_SEED_STEP)})
+			nextPieceRingPos[slot] = pos
+		}
+		return nextPieceRing[slot]
 	}
 
 	/** NEXTピースのオブジェクトのコピーを取得
@@ -1045,6 +1111,99 @@ class GameEngine
 	 */
 	fun getNextObjectCopy(c:Int):Piece? = getNextObject(c)?.let {Piece(it)}
 
+	/** Make the next pieces from the current one up to [depth] pieces ahead.
+	 * Called on the game thread whenever a piece appears, so that [peekNextID] and [peekNextObject] can read them.
+	 * @param depth Number of positions to make
+	 */
+	fun prepareNextPieces(depth:Int) {
+		val start = nextPieceCount
+		for(c in start until start+minOf(depth, NEXT_PIECE_RING_SIZE)) getNextObject(c)
+		nextPiecePreparedStart = start
+		nextPiecePreparedEnd = start+minOf(depth, NEXT_PIECE_RING_SIZE)
+	}
+
+	/** Get a next piece ID without making any, for AI threads.
+	 * @param c Position
+	 * @return Piece ID ([Piece.PIECE_NONE] if it isn't made by [prepareNextPieces] yet)
+	 */
+	fun peekNextID(c:Int):Int {
+		if(c<0) return Piece.PIECE_NONE
+		nextPieceArrayObject.let {if(it.isNotEmpty()) return it[c%it.size]?.id ?: Piece.PIECE_NONE}
+		if(!nextPieceReady) return Piece.PIECE_NONE
+		nextPieceArrayID.let {if(it.isNotEmpty()) return it[c%it.size]}
+
+		val pos = if(nextPieceArraySize>0) c%nextPieceArraySize else c
+		val count = nextPieceGenCount
+		val ids = nextPieceGenID
+		return if(pos<count&&pos<ids.size) ids[pos] else Piece.PIECE_NONE
+	}
+
+	/** Get a next piece Object without making any, for AI threads.
+	 * The Object is shared with the game and must not be changed.
+	 * @param c Position
+	 * @return Next piece Object (null if it isn't made by [prepareNextPieces] yet)
+	 */
+	fun peekNextObject(c:Int):Piece? {
+		if(c<0) return null
+		nextPieceArrayObject.let {if(it.isNotEmpty()) return it[c%it.size]}
+		val end = nextPiecePreparedEnd
+		if(!nextPieceReady||c>=end||c<nextPiecePreparedStart) return null
+
+		val pos = nextPieceArrayID.size.let {
+			when {
+				it>0 -> c%it
+				nextPieceArraySize>0 -> c%nextPieceArraySize
+				else -> c
+			}
+		}
+		val slot = pos and (NEXT_PIECE_RING_SIZE-1)
+		return if(nextPieceRingPos[slot]==pos) nextPieceRing[slot] else null
+	}
+
+	/** Get a copy of a next piece Object without making any, for AI threads.
+	 * @param c Position
+	 * @return Copy of the next piece Object (null if it isn't made by [prepareNextPieces] yet)
+	 */
+	fun peekNextObjectCopy(c:Int):Piece? = peekNextObject(c)?.let {Piece(it)}
+
+	/** Forget the next piece Objects made so far, so they are made again from the IDs */
+	fun clearNextPieceObjects() {
+		nextPiecePreparedEnd = 0
+		nextPieceRing.fill(null)
+		nextPieceRingPos.fill(-1)
+	}
+
+	/** Make a next piece Object
+	 * @param pos Position in the sequence
+	 * @param id Piece ID
+	 * @param rand Random numbers for the direction and colors (only used if the rule or mode needs them)
+	 * @return Piece
+	 */
+	private fun createNextPiece(pos:Int, id:Int, rand:Lazy<Random>):Piece = Piece(id).also {p ->
+		p.direction = ruleopt.pieceDefaultDirection[p.id]
+		if(p.direction>=Piece.DIRECTION_COUNT)
+			p.direction = rand.value.nextInt(Piece.DIRECTION_COUNT)
+		p.connectBlocks = connectBlocks
+		p.setColor(ruleopt.pieceColor[p.id])
+		p.setSkin(skin)
+		p.updateConnectData()
+		p.setAttribute(true, Block.ATTRIBUTE.VISIBLE)
+		p.setAttribute(bone, Block.ATTRIBUTE.BONE)
+
+		if(randomBlockColor) {
+			if(blockColors.size<numColors||numColors<1) numColors = blockColors.size
+			val size = p.maxBlock
+			val colors = IntArray(size)
+			for(j in 0 until size)
+				colors[j] = blockColors[rand.value.nextInt(numColors)]
+			p.setColor(colors)
+			p.updateConnectData()
+		}
+		if(clearMode==ClearType.LINE_GEM_BOMB||clearMode==ClearType.LINE_GEM_SPARK)
+			p.block[rand.value.nextInt(p.maxBlock)].cint += 7
+		nextPieceInit?.invoke(pos, p)
+	}
+
 	/** 見え／消えRoll 状態のfieldを通常状態に戻す */
 	fun resetFieldVisible() {
 		field?.let {f ->
@@ -1395,7 +1554,8 @@ class GameEngine
 		owner.replayProp.setProperty("version.core.minor", versionMinor)
 		owner.replayProp.setProperty("version.core.dev", versionIsDevBuild)
 
-		owner.replayProp.setProperty("$playerID.replay.randSeed", 16.toString())
+		owner.replayProp.setProperty("$playerID.replay.randSeed", randSeed.toString(16))
+		owner.replayProp.setProperty("$playerID.replay.nextPieceArraySize", nextPieceArraySize)
 
 		replayData.writeProperty(owner.replayProp, playerID, replayTimer)
 		statistics.writeProperty(owner.replayProp, playerID)
@@ -1673,44 +1833,31 @@ class GameEngine
 				nextPieceArrayObject = emptyArray()
 			}
 			// NEXTピース作成
+			// Replays made before the sequence became endless made all of it here, drawing from the game's random numbers
+			val legacyNext = owner.replayMode&&!owner.replayProp.containsKey("$playerID.replay.nextPieceArraySize")
+			if(owner.replayMode)
+				nextPieceArraySize = owner.replayProp.getProperty("$playerID.replay.nextPieceArraySize", 1400)
 			if(nextPieceArrayID.isEmpty()) {
 				// 出現可能なピースが1つもない場合は全て出現できるようにする
 				if(nextPieceEnable.all {false}) nextPieceEnable = BooleanArray(Piece.PIECE_COUNT) {true}
 
+				// A randomizer shared with another player would be drawn from by both
+				if(owner.engine.any {it!==this&&it.randomizer===randomizer})
+					randomizer = randomizer.newInstance()
+
 				// NEXTピースの出現順を作成
 				randomizer.setState(nextPieceEnable, randSeed)
+				nextPieceGenID = IntArray(0)
+				nextPieceGenCount = 0
 
-				nextPieceArrayID = IntArray(nextPieceArraySize) {randomizer.next()}
-
+				if(legacyNext) nextPieceArrayID = IntArray(nextPieceArraySize) {randomizer.next()}
 			}
+			clearNextPieceObjects()
+			nextPieceReady = true
 			// NEXTピースのオブジェクトを作成
-			if(nextPieceArrayObject.isEmpty()) {
-				nextPieceArrayObject = Array(nextPieceArrayID.size) {
-					Piece(nextPieceArrayID[it]).also {p ->
-						p.direction = ruleopt.pieceDefaultDirection[p.id]
-						if(p.direction>=Piece.DIRECTION_COUNT)
-							p.direction = random.nextInt(Piece.DIRECTION_COUNT)
-						p.connectBlocks = connectBlocks
-						p.setColor(ruleopt.pieceColor[p.id])
-						p.setSkin(skin)
-						p.updateConnectData()
-						p.setAttribute(true, Block.ATTRIBUTE.VISIBLE)
-						p.setAttribute(bone, Block.ATTRIBUTE.BONE)
-
-						if(randomBlockColor) {
-							if(blockColors.size<numColors||numColors<1) numColors = blockColors.size
-							val size = p.maxBlock
-							val colors = IntArray(size)
-							for(j in 0 until size)
-								colors[j] = blockColors[random.nextInt(numColors)]
-							p.setColor(colors)
-							p.updateConnectData()
-						}
-						if(clearMode==ClearType.LINE_GEM_BOMB||clearMode==ClearType.LINE_GEM_SPARK)
-							p.block[random.nextInt(p.maxBlock)].cint += 7
-					}
-				}
-
+			if(legacyNext&&nextPieceArrayObject.isEmpty()) {
+				val rand = lazyOf(random)
+				nextPieceArrayObject = Array(nextPieceArrayID.size) {createNextPiece(it, nextPieceArrayID[it], rand)}
 			}
 
 			if(!readyDone) {
@@ -1882,6 +2029,8 @@ class GameEngine
 			twistType = null
 
 			getNextObject(nextPieceCount+ruleopt.nextDisplay-1)?.setAttribute(bone, Block.ATTRIBUTE.BONE)
+			// Made here even without an AI, so that pieces are made in the same order in replays
+			prepareNextPieces(maxOf(ruleopt.nextDisplay, NEXT_PIECE_PREPARE_DEPTH))
 
 			if(ending==0) timerActive = true
 
@@ -2738,8 +2887,8 @@ class GameEngine
 					field.getRow(y).filterNotNull().filter {!it.isEmpty}.forEachIndexed {x, blk ->
 						owner.mode?.blockBreak(this, playerID, x, y, blk)
 						owner.receiver.blockBreak(this, x, y, blk)
-						blk.color = null
 					}
+					for(x in 0 until field.width) field.setBlockColor(x, y, Block.BLOCK_COLOR_NONE)
 				}
 			}
 
@@ -3140,6 +3289,15 @@ class GameEngine
 
 		const val HANABI_INTERVAL = 10
 
+		/** Number of next piece Objects kept (power of two) */
+		const val NEXT_PIECE_RING_SIZE = 64
+
+		/** Number of next pieces made when a piece appears, for the AIs to read */
+		const val NEXT_PIECE_PREPARE_DEPTH = 8
+
+		/** Mixes the position in the sequence into the seed of the random numbers of a next piece */
+		private const val NEXT_PIECE_SEED_STEP = -0x61c8864680b583ebL
+
 		val EXPLOD_SIZE_DEFAULT =
 			arrayOf(intArrayOf(4, 3), intArrayOf(3, 0), intArrayOf(3, 1), intArrayOf(3, 2), intArrayOf(3, 3), intArrayOf(4, 4),
 				intArrayOf(5, 5), intArrayOf(5, 5), intArrayOf(6, 6), intArrayOf(6, 6), intArrayOf(7, 7))
@@ -25,6 +25,7 @@ package mu.nu.nullpo.game.play
 
 import mu.nu.nullpo.game.component.BGMStatus
 import mu.nu.nullpo.game.component.BackgroundStatus
+import mu.nu.nullpo.game.component.ReplayData
 import mu.nu.nullpo.game.event.EventReceiver
 import mu.nu.nullpo.game.subsystem.mode.GameMode
 import mu.nu.nullpo.util.CustomProperties
@@ -60,6 +61,9 @@ class GameManager
 
 	/** Properties for replay file */
 	var replayProp:CustomProperties = CustomProperties()
+	/** Input data of each player read from a binary replay (see [mu.nu.nullpo.game.component.ReplayFile.Replay]).
+	 * Players missing here read theirs from [replayProp]. */
+	var replayInputs:Map<Int, ReplayData> = emptyMap()
 	/** true if replay mode */
 	var replayMode:Boolean = false
 
@@ -145,7 +149,10 @@ class GameManager
 		menuOnly = false
 		bgmStatus.reset()
 		backgroundStatus.reset()
-		if(!replayMode) replayProp.clear()
+		if(!replayMode) {
+			replayProp.clear()
+			replayInputs = emptyMap()
+		}
 		engine.forEach {it.init()}
 	}
 
@@ -159,6 +166,7 @@ class GameManager
 			mode = null
 			modeConfig.clear()
 			replayProp.clear()
+			replayInputs = emptyMap()
 			bgmStatus.reset()
 			backgroundStatus.reset()
 		} catch(e:Throwable) {
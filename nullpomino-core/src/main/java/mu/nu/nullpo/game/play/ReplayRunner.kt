@@ -0,0 +1,195 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.play
+
+import mu.nu.nullpo.game.component.ReplayData
+import mu.nu.nullpo.game.component.ReplayFile
+import mu.nu.nullpo.game.component.RuleOptions
+import mu.nu.nullpo.game.component.Statistics
+import mu.nu.nullpo.game.event.EventReceiver
+import mu.nu.nullpo.game.subsystem.mode.GameMode
+import mu.nu.nullpo.util.CustomProperties
+import mu.nu.nullpo.util.GeneralUtil
+import mu.nu.nullpo.util.ModeManager
+import org.apache.log4j.Logger
+import org.apache.log4j.PropertyConfigurator
+import java.io.BufferedReader
+import java.io.File
+import java.io.FileReader
+import java.io.IOException
+
+/** Re-simulates replays without any screen, sound or input device.
+ * The replay is set up the same way as StateInGame.startReplayGame, then [GameManager.updateAll] is called
+ * as fast as possible until every player reaches the result screen.
+ * @param modeManager Mode list used to look up the mode of each replay. A new instance of the mode is made for
+ * every run, so one runner may be used from several threads.
+ */
+class ReplayRunner(private val modeManager:ModeManager) {
+
+	/** Result of a run
+	 * @param mode Mode name
+	 * @param rule Rule name (Player 1)
+	 * @param statistics Final statistics of each player
+	 * @param frames Number of frames simulated
+	 * @param nanos Time taken in nanoseconds
+	 * @param mismatches Statistics (and input lengths) that differ from the ones stored in the replay,
+	 * as "key: stored != simulated"
+	 * @param error Why the replay couldn't be run (null if it ran)
+	 */
+	class Result(val mode:String, val rule:String, val statistics:List<Statistics>, val frames:Int, val nanos:Long,
+		val mismatches:List<String>, val error:String? = null) {
+		/** true if the simulation didn't reproduce the stored results */
+		val desync:Boolean get() = error!=null||mismatches.isNotEmpty()
+
+		/** Frames simulated per second */
+		val fps:Double get() = if(nanos>0) frames*1e9/nanos else 0.0
+	}
+
+	/** Run a replay
+	 * @param prop Replay properties (of a replay read by [ReplayFile.load])
+	 * @param inputs Input data of each player read from a binary replay
+	 * @return Result
+	 */
+	fun run(prop:CustomProperties, inputs:Map<Int, ReplayData> = emptyMap()):Result {
+		val modeName = prop.getProperty("name.mode", "")
+		val ruleName = prop.getProperty("name.rule", "")
+		val mode = newMode(modeName) ?: return Result(modeName, ruleName, emptyList(), 0, 0, emptyList(),
+			"Couldn't find mode:$modeName")
+
+		val manager = GameManager(Receiver())
+		val start = System.nanoTime()
+		var frames = 0
+		try {
+			manager.replayMode = true
+			// GameManager.shutdown clears it
+			manager.replayProp = CustomProperties().apply {putAll(prop)}
+			manager.replayInputs = inputs
+			manager.mode = mode
+			manager.init()
+
+			for(i in 0 until manager.players) manager.engine[i].let {
+				val ruleopt = RuleOptions()
+				ruleopt.readProperty(prop, i)
+				it.ruleopt = ruleopt
+				if(ruleopt.strRandomizer.isNotEmpty()) it.randomizer = GeneralUtil.loadRandomizer(ruleopt.strRandomizer)
+				if(ruleopt.strWallkick.isNotEmpty()) it.wallkick = GeneralUtil.loadWallkick(ruleopt.strWallkick)
+				it.init()
+			}
+
+			// Give up a while after the inputs have run out
+			val maxFrames = (0 until manager.players).maxOf {prop.getProperty("$it.r.max", 0)}+FRAMES_AFTER_INPUT
+			while(frames<maxFrames&&!manager.quitFlag&&!manager.engine.all {it.stat==GameEngine.Status.RESULT}) {
+				manager.updateAll()
+				frames++
+			}
+			val nanos = System.nanoTime()-start
+
+			val stats = manager.engine.map {Statistics(it.statistics)}
+			return Result(modeName, ruleName, stats, frames, nanos, compare(prop, manager, stats))
+		} catch(e:Throwable) {
+			log.debug("Replay ($modeName) stopped at frame $frames", e)
+			return Result(modeName, ruleName, manager.engine.map {Statistics(it.statistics)}, frames,
+				System.nanoTime()-start, emptyList(), e.toString())
+		} finally {
+			manager.shutdown()
+		}
+	}
+
+	/** Compare the simulated results with the ones stored in the replay
+	 * @return List of differences
+	 */
+	private fun compare(prop:CustomProperties, manager:GameManager, stats:List<Statistics>):List<String> {
+		val list = ArrayList<String>()
+		val sim = CustomProperties()
+		stats.forEachIndexed {i, it ->
+			it.writeProperty(sim, i)
+			val max = prop.getProperty("$i.r.max", 0)
+			if(manager.engine[i].replayTimer!=max) list.add("$i.r.max: $max != ${manager.engine[i].replayTimer}")
+		}
+		for(k in sim.stringPropertyNames().sorted()) {
+			// Game rate depends on the speed of the machine
+			if(k.endsWith(".gamerate")) continue
+			val stored = prop.getProperty(k) ?: continue
+			val v = sim.getProperty(k)
+			if(stored!=v) list.add("$k: $stored != $v")
+		}
+		return list
+	}
+
+	/** Make a new instance of a mode, so that concurrent runs don't share its state
+	 * @param name Mode name
+	 * @return Mode (null if not found)
+	 */
+	private fun newMode(name:String):GameMode? = try {
+		modeManager.getMode(name)?.javaClass?.getDeclaredConstructor()?.newInstance()
+	} catch(e:Exception) {
+		log.warn("Mode class of $name couldn't be created", e)
+		null
+	}
+
+	/** EventReceiver that draws nothing and doesn't touch records or settings on disk */
+	class Receiver:EventReceiver() {
+		override fun loadProperties(filename:String):CustomProperties? = null
+		override fun saveProperties(filename:String, prop:CustomProperties):Boolean = false
+		override fun saveReplay(owner:GameManager, prop:CustomProperties, foldername:String) {}
+	}
+
+	companion object {
+		/** Log */
+		internal val log = Logger.getLogger(ReplayRunner::class.java)
+
+		/** Frames to keep running after the recorded inputs end (for results and ending screens) */
+		const val FRAMES_AFTER_INPUT = 60*60
+
+		/** Load the mode list
+		 * @param filename Mode list file
+		 * @return ModeManager (empty if the file couldn't be read)
+		 */
+		fun loadModeManager(filename:String = "config/list/mode.lst"):ModeManager = ModeManager().apply {
+			try {
+				BufferedReader(FileReader(filename)).use {loadGameModes(it)}
+			} catch(e:IOException) {
+				log.error("Mode list load failed", e)
+			}
+		}
+
+		/** Re-simulate the given replay files and print the results
+		 * @param args Replay files
+		 */
+		@JvmStatic
+		fun main(args:Array<String>) {
+			PropertyConfigurator.configure("config/etc/log.cfg")
+			val runner = ReplayRunner(loadModeManager())
+			for(name in args) {
+				val replay = ReplayFile.load(File(name)) ?: continue
+				val r = runner.run(replay.prop, replay.inputs)
+				val s = r.statistics.firstOrNull()
+				println("$name: ${r.mode} ${r.rule} score:${s?.score} lines:${s?.lines} time:${s?.time}"+
+					" frames:${r.frames} fps:${r.fps.toInt()} ${if(r.desync) "DESYNC" else "OK"}")
+				r.error?.let {println("  $it")}
+				r.mismatches.forEach {println("  $it")}
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.subsystem.ai
+
+import org.apache.log4j.Logger
+import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/** Worker pool shared by every threaded AI player.
+ * Instead of one polling thread per player, think requests are handed to a fixed number of workers,
+ * so CPU and thread usage follow the amount of thinking rather than the number of AI players. */
+object AIExecutor {
+	/** Log */
+	internal val log = Logger.getLogger(AIExecutor::class.java)
+
+	/** Number of worker threads */
+	val parallelism:Int = maxOf(1, Runtime.getRuntime().availableProcessors()-1)
+
+	/** Worker pool (daemon threads) */
+	val pool:ForkJoinPool by lazy {
+		ForkJoinPool(parallelism, {p ->
+			ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p).apply {name = "AI_worker_$poolIndex"}
+		}, {_, e -> log.error("AI worker died", e)}, true)
+	}
+
+	/** Timer used for requests delayed by [mu.nu.nullpo.game.play.GameEngine.aiThinkDelay] */
+	private val timer:ScheduledExecutorService by lazy {
+		Executors.newSingleThreadScheduledExecutor {r -> Thread(r, "AI_timer").apply {isDaemon = true}}
+	}
+
+	/** Run a task on the pool
+	 * @param task Task
+	 * @param delay Delay in milliseconds before the task is handed to the pool
+	 */
+	fun execute(task:Runnable, delay:Int = 0) {
+		if(delay>0) timer.schedule({pool.execute(task)}, delay.toLong(), TimeUnit.MILLISECONDS)
+		else pool.execute(task)
+	}
+
+	/** Think request handle of one AI player.
+	 * Requests made while the think routine is queued or running are merged into one more run,
+	 * the same way the old polling loop handled its request flag.
+	 * At most one run loop exists per handle, so the think routine never runs twice at once,
+	 * even across [cancel] and [start].
+	 * @param name Name used in log messages
+	 * @param think The think routine
+	 */
+	class Request(private val name:String, private val think:Runnable) {
+		/** Delay in milliseconds before each run starts */
+		var delay:Int = 0
+
+		/** true between [start] and [cancel] */
+		@Volatile var active:Boolean = false; private set
+
+		/** true while the think routine is running */
+		@Volatile var running:Boolean = false; private set
+
+		/** A request arrived since the current run started */
+		private var requested:Boolean = false
+
+		/** A run loop is queued or running; stays set until that loop exits, even after [cancel] */
+		private var scheduled:Boolean = false
+
+		/** Accept requests from now on
+		 * @param delay Delay in milliseconds before each run starts
+		 */
+		@Synchronized fun start(delay:Int = 0) {
+			this.delay = delay
+			active = true
+		}
+
+		/** Ask for the think routine to be run */
+		@Synchronized fun request() {
+			if(!active) return
+			requested = true
+			if(!scheduled) {
+				scheduled = true
+				execute({runLoop()}, delay)
+			}
+		}
+
+		/** Drop pending requests and stop accepting new ones.
+		 * A run that has already started is left to finish; requests made after the next [start]
+		 * are picked up by the same loop once it does, instead of starting a second one. */
+		@Synchronized fun cancel() {
+			active = false
+			requested = false
+		}
+
+		private fun runLoop() {
+			while(true) {
+				synchronized(this) {
+					if(!active||!requested) {
+						scheduled = false
+						return
+					}
+					requested = false
+					running = true
+				}
+				try {
+					think.run()
+				} catch(e:Throwable) {
+					log.error("$name: think routine failed", e)
+				} finally {
+					running = false
+				}
+			}
+		}
+	}
+}
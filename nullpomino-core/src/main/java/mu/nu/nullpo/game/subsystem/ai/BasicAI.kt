@@ -23,12 +23,15 @@
  * POSSIBILITY OF SUCH DAMAGE. */
 package mu.nu.nullpo.game.subsystem.ai
 
+import mu.nu.nullpo.game.component.Block
 import mu.nu.nullpo.game.component.Controller
 import mu.nu.nullpo.game.component.Field
 import mu.nu.nullpo.game.component.Piece
 import mu.nu.nullpo.game.play.GameEngine
 import mu.nu.nullpo.game.play.GameManager
 import org.apache.log4j.Logger
+import java.util.concurrent.Callable
+import java.util.concurrent.ForkJoinTask
 import kotlin.math.abs
 
 /** CommonAI */
@@ -43,6 +46,15 @@ open class BasicAI:DummyAI(), Runnable {
 	/** After that I was groundedDirection(-1: None) */
 	var bestRtSub:Int = 0
 
+	/** Moves to make after the drop ([MoveGenerator.INPUT_LEFT] etc.) */
+	var bestPath:IntArray = IntArray(0)
+
+	/** Position after each move of [bestPath]: X-coordinate, Y-coordinate and direction */
+	var bestPathPositions:IntArray = IntArray(0)
+
+	/** Index of the move of [bestPath] being made (-1: still on the way to the drop) */
+	var pathPos:Int = -1
+
 	/** The best moveEvaluation score */
 	var bestPts:Int = 0
 
@@ -55,21 +67,28 @@ open class BasicAI:DummyAI(), Runnable {
 	/** The GameManager that owns this AI */
 	var gManager:GameManager? = null
 
-	/** When true,To threadThink routineInstructing the execution of the */
-	var thinkRequest:Boolean = false
+	/** Think routine requests handed to [AIExecutor] */
+	val thinkRequest by lazy {AIExecutor.Request(name, this)}
 
-	/** true when thread is executing the think routine. */
+	/** true when a worker is executing the think routine. */
+	@Volatile
 	var thinking:Boolean = false
 
-	/** To stop a thread time */
+	/** Delay before a requested think routine starts */
 	var thinkDelay:Int = 0
 
-	/** When true,Running thread */
+	/** When true, think requests are accepted by the worker pool */
 	@Volatile
 	var threadRunning:Boolean = false
 
-	/** Thread for executing the think routine */
-	var thread:Thread? = null
+	/** Scores of the placements already evaluated, shared by the worker threads */
+	val evalCache = TranspositionTable()
+
+	/** true if [thinkMain] depends only on its arguments, so its scores can be kept in [evalCache] */
+	protected open val cacheEvaluations:Boolean get() = true
+
+	/** Hold request made by [thinkMain] for the candidate being evaluated on this thread */
+	private val holdRequest = ThreadLocal.withInitial {BooleanArray(1)}
 
 	/* AIOfName */
 	override val name:String = "BASIC"
@@ -85,28 +104,25 @@ open class BasicAI:DummyAI(), Runnable {
 		delay = 0
 		gEngine = engine
 		gManager = engine.owner
-		thinkRequest = false
+		thinkRequest.cancel()
 		thinking = false
 		threadRunning = false
+		evalCache.clear()
 
-		if(thread?.isAlive!=true&&engine.aiUseThread) {
-			thread = Thread(this, "AI_$playerID").apply {
-				isDaemon = true
-				start()
-			}
+		if(engine.aiUseThread) {
 			thinkDelay = engine.aiThinkDelay
 			thinkCurrentPieceNo = 0
 			thinkLastPieceNo = 0
+			thinkRequest.start(thinkDelay)
+			threadRunning = true
 		}
 	}
 
 	/* End processing */
 	override fun shutdown() {
-		if(thread?.isAlive==true) {
-			thread?.interrupt()
-			threadRunning = false
-			thread = null
-		}
+		thinkRequest.cancel()
+		threadRunning = false
+		evalCache.clear()
 	}
 
 	/* Called whenever a new piece is spawned */
@@ -114,8 +130,8 @@ open class BasicAI:DummyAI(), Runnable {
 		if(!engine.aiUseThread)
 			thinkBestPosition(engine, playerID)
 		else {
-			thinkRequest = true
 			thinkCurrentPieceNo++
+			thinkRequest.request()
 		}
 	}
 
@@ -140,6 +156,9 @@ open class BasicAI:DummyAI(), Runnable {
 			if((bestHold||forceHold)&&engine.isHoldOK)
 			// Hold
 				input = input or Controller.BUTTON_BIT_D
+			else if(pathPos>=0)
+			// Moves after the drop
+				input = input or followPath(engine, ctrl, nowX, nowY, rt)
 			else {
 				// rotation
 				if(rt!=bestRt) {
@@ -165,23 +184,14 @@ open class BasicAI:DummyAI(), Runnable {
 				if((bestX<minX-1||bestX>maxX+1||bestY<nowY)&&rt==bestRt)
 				// Again because it is thought unreachable
 				//thinkBestPosition(engine, playerID);
-					thinkRequest = true
+					thinkRequest.request()
 				else {
 					// If you are able to reach
-					if(nowX==bestX&&pieceTouchGround&&rt==bestRt) {
-						// Groundrotation
-						if(bestRtSub!=-1) {
-							bestRt = bestRtSub
-							bestRtSub = -1
-						}
-						// Shift move
-						if(bestX!=bestXSub) {
-							bestX = bestXSub
-							bestY = bestYSub
-						}
-					}
-
-					if(nowX>bestX) {
+					if(nowX==bestX&&pieceTouchGround&&rt==bestRt&&bestPath.isNotEmpty()) {
+						// Down at the drop: make the moves after it one at a time
+						pathPos = 0
+						input = input or followPath(engine, ctrl, nowX, nowY, rt)
+					} else if(nowX>bestX) {
 						// Left
 						if(!ctrl.isPress(Controller.BUTTON_LEFT)||engine.aiMoveDelay>=0) input = input or Controller.BUTTON_BIT_LEFT
 					} else if(nowX<bestX) {
@@ -190,7 +200,7 @@ open class BasicAI:DummyAI(), Runnable {
 							input = input or Controller.BUTTON_BIT_RIGHT
 					} else if(nowX==bestX&&rt==bestRt)
 					// Funnel
-						if(bestRtSub==-1&&bestX==bestXSub) {
+						if(bestPath.isEmpty()) {
 							if(engine.ruleopt.harddropEnable&&!ctrl.isPress(Controller.BUTTON_UP))
 								input = input or Controller.BUTTON_BIT_UP
 							else if(engine.ruleopt.softdropEnable||engine.ruleopt.softdropLock) input = input or Controller.BUTTON_BIT_DOWN
@@ -209,6 +219,37 @@ open class BasicAI:DummyAI(), Runnable {
 		}
 	}
 
+	/** Input for the next move of [bestPath], or for locking the piece once all of them are made
+	 * @return Button input
+	 */
+	private fun followPath(engine:GameEngine, ctrl:Controller, nowX:Int, nowY:Int, rt:Int):Int {
+		// Skip the moves already made (a drop may have taken the piece further than one cell)
+		while(pathPos<bestPath.size&&nowX==bestPathPositions[pathPos*3]&&nowY>=bestPathPositions[pathPos*3+1]
+			&&rt==bestPathPositions[pathPos*3+2]) pathPos++
+		val opt = engine.ruleopt
+		if(pathPos>=bestPath.size)
+			return if(opt.harddropEnable&&!ctrl.isPress(Controller.BUTTON_UP)) Controller.BUTTON_BIT_UP
+			else if(opt.softdropEnable||opt.softdropLock) Controller.BUTTON_BIT_DOWN else 0
+
+		val fromX = if(pathPos>0) bestPathPositions[pathPos*3-3] else bestX
+		val fromRt = if(pathPos>0) bestPathPositions[pathPos*3-1] else bestRt
+		if(nowX!=fromX||rt!=fromRt) {
+			// Off the path (another kick was taken), so think again from here
+			pathPos = -1
+			thinkRequest.request()
+			return 0
+		}
+		val move = bestPath[pathPos]
+		val button = MoveGenerator.toButtonBit(engine, move)
+		return when {
+			// Without a soft drop that keeps the piece movable, gravity makes the drop
+			MoveGenerator.isDrop(move) -> if(opt.softdropEnable&&!opt.softdropLock) button else 0
+			// A rotation needs a new press
+			MoveGenerator.isRotation(move) -> if(ctrl.buttonBit and button==0) button else 0
+			else -> button
+		}
+	}
+
 	/** Search for the best choice
 	 * @param engine The GameEngine that owns this AI
 	 * @param playerID Player ID
@@ -221,221 +262,233 @@ open class BasicAI:DummyAI(), Runnable {
 		bestXSub = 0
 		bestYSub = 0
 		bestRtSub = -1
+		bestPath = IntArray(0)
+		bestPathPositions = IntArray(0)
+		pathPos = -1
 		bestPts = 0
 		forceHold = false
+		evalCache.newSearch()
 
 		val pieceNow = engine.nowPieceObject
 		val nowX = engine.nowPieceX
 		val nowY = engine.nowPieceY
 		val holdOK = engine.isHoldOK
-		var holdEmpty = false
-		var pieceHold = engine.holdPieceObject
-		val pieceNext = engine.getNextObject(engine.nextPieceCount)
-		if(pieceHold==null) holdEmpty = true
-		if(engine.field==null) return
-		val fld = Field(engine.field!!)
-
-		for(depth in 0 until maxThinkDepth) {
-			for(rt in 0 until Piece.DIRECTION_COUNT) {
-				// Peace for now
-				val minX = pieceNow!!.getMostMovableLeft(nowX, nowY, rt, engine.field!!)
-				val maxX = pieceNow.getMostMovableRight(nowX, nowY, rt, engine.field!!)
-
-				for(x in minX..maxX) {
-					fld.copy(engine.field)
-					val y = pieceNow.getBottom(x, nowY, rt, fld)
-
-					if(!pieceNow.checkCollision(x, y, rt, fld)) {
-						// As it is
-						var pts = thinkMain(engine, x, y, rt, -1, fld, pieceNow, pieceNext, pieceHold, depth)
-
-						if(pts>=bestPts) {
-							bestHold = false
-							bestX = x
-							bestY = y
-							bestRt = rt
-							bestXSub = x
-							bestYSub = y
-							bestRtSub = -1
-							bestPts = pts
-						}
-
-						if(depth>0||bestPts<=10||pieceNow.id==Piece.PIECE_T) {
-							// Left shift
-							fld.copy(engine.field)
-							if(!pieceNow.checkCollision(x-1, y, rt, fld)&&pieceNow.checkCollision(x-1, y-1, rt, fld)) {
-								pts = thinkMain(engine, x-1, y, rt, -1, fld, pieceNow, pieceNext, pieceHold, depth)
-
-								if(pts>bestPts) {
-									bestHold = false
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = x-1
-									bestYSub = y
-									bestRtSub = -1
-									bestPts = pts
-								}
-							}
-
-							// Right shift
-							fld.copy(engine.field)
-							if(!pieceNow.checkCollision(x+1, y, rt, fld)&&pieceNow.checkCollision(x+1, y-1, rt, fld)) {
-								pts = thinkMain(engine, x+1, y, rt, -1, fld, pieceNow, pieceNext, pieceHold, depth)
-
-								if(pts>bestPts) {
-									bestHold = false
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = x+1
-									bestYSub = y
-									bestRtSub = -1
-									bestPts = pts
-								}
-							}
-
-							// Leftrotation
-							if(!engine.isRotateButtonDefaultRight||engine.ruleopt.rotateButtonAllowReverse) {
-								val rot = pieceNow.getRotateDirection(-1, rt)
-								var newX = x
-								var newY = y
-								fld.copy(engine.field)
-								pts = 0
-
-								if(!pieceNow.checkCollision(x, y, rot, fld))
-									pts = thinkMain(engine, x, y, rot, rt, fld, pieceNow, pieceNext, pieceHold, depth)
-								else if(engine.wallkick!=null&&engine.ruleopt.rotateWallkick) {
-									val allowUpward = engine.ruleopt.rotateMaxUpwardWallkick<0||engine.nowUpwardWallkickCount<engine.ruleopt.rotateMaxUpwardWallkick
-									val kick = engine.wallkick!!.executeWallkick(x, y, -1, rt, rot, allowUpward, pieceNow, fld, null)
-
-									if(kick!=null) {
-										newX = x+kick.offsetX
-										newY = y+kick.offsetY
-										pts = thinkMain(engine, newX, newY, rot, rt, fld, pieceNow, pieceNext, pieceHold, depth)
-									}
-								}
-
-								if(pts>bestPts) {
-									bestHold = false
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = newX
-									bestYSub = newY
-									bestRtSub = rot
-									bestPts = pts
-								}
-							}
-
-							// Rightrotation
-							if(engine.isRotateButtonDefaultRight||engine.ruleopt.rotateButtonAllowReverse) {
-								val rot = pieceNow.getRotateDirection(1, rt)
-								var newX = x
-								var newY = y
-								fld.copy(engine.field)
-								pts = 0
-
-								if(!pieceNow.checkCollision(x, y, rot, fld))
-									pts = thinkMain(engine, x, y, rot, rt, fld, pieceNow, pieceNext, pieceHold, depth)
-								else if(engine.wallkick!=null&&engine.ruleopt.rotateWallkick) {
-									val allowUpward = engine.ruleopt.rotateMaxUpwardWallkick<0||engine.nowUpwardWallkickCount<engine.ruleopt.rotateMaxUpwardWallkick
-									val kick = engine.wallkick!!.executeWallkick(x, y, 1, rt, rot, allowUpward, pieceNow, fld, null)
-
-									if(kick!=null) {
-										newX = x+kick.offsetX
-										newY = y+kick.offsetY
-										pts = thinkMain(engine, newX, newY, rot, rt, fld, pieceNow, pieceNext, pieceHold, depth)
-									}
-								}
-
-								if(pts>bestPts) {
-									bestHold = false
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = newX
-									bestYSub = newY
-									bestRtSub = rot
-									bestPts = pts
-								}
-							}
-
-							// 180-degree rotation
-							if(engine.ruleopt.rotateButtonAllowDouble) {
-								val rot = pieceNow.getRotateDirection(2, rt)
-								var newX = x
-								var newY = y
-								fld.copy(engine.field)
-								pts = 0
-
-								if(!pieceNow.checkCollision(x, y, rot, fld))
-									pts = thinkMain(engine, x, y, rot, rt, fld, pieceNow, pieceNext, pieceHold, depth)
-								else if(engine.wallkick!=null&&engine.ruleopt.rotateWallkick) {
-									val allowUpward = engine.ruleopt.rotateMaxUpwardWallkick<0||engine.nowUpwardWallkickCount<engine.ruleopt.rotateMaxUpwardWallkick
-									val kick = engine.wallkick!!.executeWallkick(x, y, 2, rt, rot, allowUpward, pieceNow, fld, null)
-
-									if(kick!=null) {
-										newX = x+kick.offsetX
-										newY = y+kick.offsetY
-										pts = thinkMain(engine, newX, newY, rot, rt, fld, pieceNow, pieceNext, pieceHold, depth)
-									}
-								}
-
-								if(pts>bestPts) {
-									bestHold = false
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = newX
-									bestYSub = newY
-									bestRtSub = rot
-									bestPts = pts
-								}
-							}
-						}
-					}
+		val pieceHold = engine.holdPieceObject
+		val pieceNext = engine.peekNextObject(engine.nextPieceCount)
+		// The next piece takes the place of an empty hold after the first direction has been tried
+		val pieceHoldNext = pieceHold ?: engine.peekNextObject(engine.nextPieceCount)
+		val pieceNextHold = engine.peekNextObject(engine.nextPieceCount+if(pieceHold==null) 1 else 0)
+		if(engine.field==null||pieceNow==null) return
+
+		val parallel = engine.aiParallelThink&&AIExecutor.parallelism>1
+		// The game thread keeps changing its field while this runs, so the search works on a copy
+		val src = Field(engine.field!!)
+		// Reachable placements, by the direction they are dropped in
+		val plans = splitPlans(moveGenerator.plans(engine, src, pieceNow, nowX, nowY, pieceNow.direction))
+		val holdPlans = if(holdOK&&pieceHoldNext!=null)
+			splitPlans(moveGenerator.plans(engine, src, pieceHoldNext).filter {it.isDrop}) else null
+
+		if(parallel) {
+			for(depth in 0 until maxThinkDepth) {
+				thinkParallel(engine, depth, src, plans, holdPlans, pieceNow, pieceNext, if(depth==0) pieceHold else pieceHoldNext,
+					pieceHoldNext, pieceNextHold)
+				if(bestPts>0) break
+			}
+		} else {
+			val fld = Field(src)
+			for(depth in 0 until maxThinkDepth) {
+				for(rt in 0 until Piece.DIRECTION_COUNT) {
+					thinkMoves(engine, depth, plans[rt], src, fld, pieceNow, pieceNext,
+						if(depth==0&&rt==0) pieceHold else pieceHoldNext) {offerCandidate(it, depth, pieceNow)}
+					// Hold Peace
+					if(holdPlans!=null&&depth==0)
+						thinkHoldMoves(engine, holdPlans[rt], src, fld, pieceHoldNext!!, pieceNextHold) {offerCandidate(it, depth, pieceNow)}
 				}
 
-				if(pieceHold==null) pieceHold = engine.getNextObject(engine.nextPieceCount)
-				// Hold Peace
-				if(holdOK&&pieceHold!=null&&depth==0) {
-					val spawnX = engine.getSpawnPosX(engine.field, pieceHold)
-					val spawnY = engine.getSpawnPosY(pieceHold)
-					val minHoldX = pieceHold.getMostMovableLeft(spawnX, spawnY, rt, engine.field)
-					val maxHoldX = pieceHold.getMostMovableRight(spawnX, spawnY, rt, engine.field)
-
-					for(x in minHoldX..maxHoldX) {
-						fld.copy(engine.field)
-						val y = pieceHold.getBottom(x, spawnY, rt, fld)
-
-						if(!pieceHold.checkCollision(x, y, rt, fld)) {
-							var pieceNext2 = engine.getNextObject(engine.nextPieceCount)
-							if(holdEmpty) pieceNext2 = engine.getNextObject(engine.nextPieceCount+1)
-
-							val pts = thinkMain(engine, x, y, rt, -1, fld, pieceHold, pieceNext2, null, depth)
-
-							if(pts>bestPts) {
-								bestHold = true
-								bestX = x
-								bestY = y
-								bestRt = rt
-								bestRtSub = -1
-								bestPts = pts
-							}
-						}
+				if(bestPts>0) break
+			}
+		}
+
+		thinkLastPieceNo++
+
+		//System.out.println("X:" + bestX + " Y:" + bestY + " R:" + bestRt + " H:" + bestHold + " Pts:" + bestPts);
+	}
+
+	/** Evaluate the candidates of one depth on [AIExecutor.pool].
+	 * Each direction (and its hold moves) is searched by its own worker with its own Field and Piece copies,
+	 * then the results are merged in the same order as the sequential search, so the choice doesn't change.
+	 * @param engine GameEngine
+	 * @param depth Compromise level
+	 * @param src Field to search on (read only)
+	 * @param plans Placements of the current piece by direction
+	 * @param holdPlans Placements of the HOLD piece by direction (null if hold can't be used)
+	 * @param pieceNow Current piece
+	 * @param pieceNext Next piece
+	 * @param pieceHold HOLD piece passed to the first direction
+	 * @param pieceHoldNext HOLD piece passed to the other directions, and used for hold moves
+	 * @param pieceNextHold Next piece after using hold
+	 */
+	private fun thinkParallel(engine:GameEngine, depth:Int, src:Field, plans:Array<List<MoveGenerator.Plan>>,
+		holdPlans:Array<List<MoveGenerator.Plan>>?, pieceNow:Piece, pieceNext:Piece?, pieceHold:Piece?, pieceHoldNext:Piece?,
+		pieceNextHold:Piece?) {
+		val tasks = ArrayList<ForkJoinTask<List<Candidate>>>()
+		for(rt in 0 until Piece.DIRECTION_COUNT) {
+			val hold = if(rt==0) pieceHold else pieceHoldNext
+			tasks.add(ForkJoinTask.adapt(Callable {
+				ArrayList<Candidate>().also {list ->
+					thinkMoves(engine, depth, plans[rt], src, Field(src), copyPiece(pieceNow)!!, copyPiece(pieceNext),
+						copyPiece(hold)) {list.add(it)}
+				}
+			}))
+			if(holdPlans!=null&&depth==0)
+				tasks.add(ForkJoinTask.adapt(Callable {
+					ArrayList<Candidate>().also {list ->
+						thinkHoldMoves(engine, holdPlans[rt], src, Field(src), copyPiece(pieceHoldNext)!!,
+							copyPiece(pieceNextHold)) {list.add(it)}
 					}
+				}))
+		}
+
+		// Forked from the worker running this think, so the worker helps with them instead of blocking
+		if(ForkJoinTask.getPool()===AIExecutor.pool) ForkJoinTask.invokeAll(tasks)
+		else AIExecutor.pool.invoke(ForkJoinTask.adapt(Runnable {ForkJoinTask.invokeAll(tasks)}))
+
+		for(task in tasks) {
+			var shift = true
+			for(c in task.join())
+				if(c.kind!=CANDIDATE_SHIFT||shift) {
+					val r = offerCandidate(c, depth, pieceNow)
+					if(c.kind==CANDIDATE_DROP) shift = r
 				}
+		}
+	}
+
+	/** Evaluate the reachable placements of a piece dropped in one direction, with the shifts and rotations after the drop
+	 * @param engine GameEngine
+	 * @param depth Compromise level
+	 * @param plans Placements from [MoveGenerator.plans] dropped in this direction
+	 * @param src Field to search on (read only)
+	 * @param fld Work Field
+	 * @param piece Piece
+	 * @param pieceNext NEXTPeace
+	 * @param pieceHold HOLDPeace(nullMay be)
+	 * @param out Receives the candidates; when it returns false for a dropped candidate, its shifts and rotations are skipped
+	 */
+	private fun thinkMoves(engine:GameEngine, depth:Int, plans:List<MoveGenerator.Plan>, src:Field, fld:Field, piece:Piece,
+		pieceNext:Piece?, pieceHold:Piece?, out:(Candidate) -> Boolean) {
+		var skip = false
+		for(p in plans) {
+			fld.copy(src)
+			if(p.isDrop) {
+				// As it is
+				val pts = evaluate(engine, p.x, p.y, p.rt, -1, fld, piece, pieceNext, pieceHold, depth)
+				skip = !out(Candidate(CANDIDATE_DROP, pts, p.x, p.y, p.rt, p.x, p.y, -1, takeHoldRequest()))
+			} else if(!skip) {
+				// Shifts and rotations on the ground
+				val pts = evaluate(engine, p.xSub, p.ySub, p.rtEnd, if(p.rtSub!=-1) p.rt else -1, fld, piece, pieceNext,
+					pieceHold, depth)
+				out(Candidate(CANDIDATE_SHIFT, pts, p.x, p.y, p.rt, p.xSub, p.ySub, p.rtSub, takeHoldRequest(), p.path,
+					p.positions))
 			}
+		}
+	}
 
-			if(bestPts>0) break
+	/** Evaluate the reachable drop positions of the HOLD piece in one direction
+	 * @param engine GameEngine
+	 * @param plans Drops from [MoveGenerator.plans] in this direction
+	 * @param src Field to search on (read only)
+	 * @param fld Work Field
+	 * @param pieceHold HOLDPeace
+	 * @param pieceNext NEXTPeace after using hold
+	 * @param out Receives the candidates
+	 */
+	private fun thinkHoldMoves(engine:GameEngine, plans:List<MoveGenerator.Plan>, src:Field, fld:Field, pieceHold:Piece,
+		pieceNext:Piece?, out:(Candidate) -> Boolean) {
+		for(p in plans) {
+			fld.copy(src)
+			out(Candidate(CANDIDATE_HOLD, evaluate(engine, p.x, p.y, p.rt, -1, fld, pieceHold, pieceNext, null, 0),
+				p.x, p.y, p.rt, p.x, p.y, -1, takeHoldRequest()))
 		}
+	}
 
-		thinkLastPieceNo++
+	/** @return [plans] by the direction they are dropped in */
+	private fun splitPlans(plans:List<MoveGenerator.Plan>):Array<List<MoveGenerator.Plan>> =
+		Array(Piece.DIRECTION_COUNT) {rt -> plans.filter {it.rt==rt}}
 
-		//System.out.println("X:" + bestX + " Y:" + bestY + " R:" + bestRt + " H:" + bestHold + " Pts:" + bestPts);
+	/** Score a placement with [thinkMain], reusing the score of an identical one evaluated before.
+	 * The key covers the field before placement, the pieces, the position, whether it was rotated (twist),
+	 * the compromise level and [evaluationInputs].
+	 * @return Evaluation score
+	 */
+	private fun evaluate(engine:GameEngine, x:Int, y:Int, rt:Int, rtOld:Int, fld:Field, piece:Piece, nextpiece:Piece?,
+		holdpiece:Piece?, depth:Int):Int {
+		if(!cacheEvaluations) return thinkMain(engine, x, y, rt, rtOld, fld, piece, nextpiece, holdpiece, depth)
+		var key = TranspositionTable.placementKey(fld, piece, x, y, rt)
+		key = TranspositionTable.mix(key, (nextpiece?.id ?: -1).toLong() shl 32 or ((holdpiece?.id ?: -1).toLong() and 0xFFFFFFFFL))
+		key = TranspositionTable.mix(key, evaluationInputs(engine))
+		key = TranspositionTable.mix(key, depth.toLong() shl 1 or (if(rtOld!=-1) 1L else 0L))
+		return evalCache.getOrPut(key) {thinkMain(engine, x, y, rt, rtOld, fld, piece, nextpiece, holdpiece, depth)}
+	}
+
+	/** What [thinkMain] reads from the game besides its arguments, for the keys of [evalCache].
+	 * Overrides of [thinkMain] that read more of the game (or of the mode) add it here.
+	 * @param engine GameEngine
+	 * @return Hash of the inputs
+	 */
+	protected open fun evaluationInputs(engine:GameEngine):Long =
+		engine.combo.toLong() shl 1 or (if(engine.comboType==GameEngine.COMBO_TYPE_DISABLE) 1L else 0L)
+
+	/** Update the best move if the candidate is better
+	 * @param c Candidate
+	 * @param depth Compromise level
+	 * @param piece Current piece
+	 * @return false if the shifts and rotations after this dropped candidate are not worth trying
+	 */
+	private fun offerCandidate(c:Candidate, depth:Int, piece:Piece):Boolean {
+		if(c.forceHold) forceHold = true
+		if(if(c.kind==CANDIDATE_DROP) c.pts>=bestPts else c.pts>bestPts) {
+			bestHold = c.kind==CANDIDATE_HOLD
+			bestX = c.x
+			bestY = c.y
+			bestRt = c.rt
+			if(!bestHold) {
+				bestXSub = c.xSub
+				bestYSub = c.ySub
+			}
+			bestRtSub = c.rtSub
+			bestPath = c.path
+			bestPathPositions = c.positions
+			bestPts = c.pts
+		}
+		return c.kind!=CANDIDATE_DROP||depth>0||bestPts<=10||piece.id==Piece.PIECE_T
 	}
 
+	/** Ask for the current piece to be held. Called by [thinkMain] overrides instead of setting [forceHold],
+	 * so that the request comes back with the candidate and is applied on the thread merging the results.
+	 */
+	protected fun requestForceHold() {
+		holdRequest.get()[0] = true
+	}
+
+	/** @return true if [thinkMain] called [requestForceHold] on this thread since the last call */
+	private fun takeHoldRequest():Boolean {
+		val r = holdRequest.get()
+		return r[0].also {r[0] = false}
+	}
+
+	/** Copy of a piece with its own Blocks, for use on another thread */
+	private fun copyPiece(p:Piece?):Piece? = p?.let {Piece(it).apply {block = Array(block.size) {i -> Block(block[i])}}}
+
+	/** Move evaluated by [thinkMoves] and [thinkHoldMoves]
+	 * @param kind [CANDIDATE_DROP], [CANDIDATE_SHIFT] or [CANDIDATE_HOLD]
+	 * @param pts Evaluation score
+	 * @param forceHold true if [thinkMain] asked for a hold while evaluating it
+	 * @param path Moves after the drop (see [MoveGenerator.Plan])
+	 * @param positions Position after each move of [path]
+	 */
+	private class Candidate(val kind:Int, val pts:Int, val x:Int, val y:Int, val rt:Int, val xSub:Int, val ySub:Int,
+		val rtSub:Int, val forceHold:Boolean, val path:IntArray = IntArray(0), val positions:IntArray = IntArray(0))
+
 	/** Think routine
 	 * @param engine GameEngine
 	 * @param x X-coordinate
@@ -570,39 +623,26 @@ open class BasicAI:DummyAI(), Runnable {
 		return pts
 	}
 
-	/* Processing of the thread */
+	/* Think routine run by a worker of [AIExecutor] */
 	override fun run() {
-		log.info("BasicAI: Thread start")
-		threadRunning = true
-
-		while(threadRunning) {
-			if(thinkRequest) {
-				thinkRequest = false
-				thinking = true
-				try {
-					thinkBestPosition(gEngine, gEngine.playerID)
-				} catch(e:Throwable) {
-					log.debug("BasicAI: thinkBestPosition Failed", e)
-				}
-
-				thinking = false
-			}
-
-			if(thinkDelay>0)
-				try {
-					Thread.sleep(thinkDelay.toLong())
-				} catch(e:InterruptedException) {
-					break
-				}
-
+		thinking = true
+		try {
+			thinkBestPosition(gEngine, gEngine.playerID)
+		} catch(e:Throwable) {
+			log.debug("BasicAI: thinkBestPosition Failed", e)
 		}
-
-		threadRunning = false
-		log.info("BasicAI: Thread end")
+		thinking = false
 	}
 
 	companion object {
 		/** Log */
 		internal val log = Logger.getLogger(BasicAI::class.java)
+
+		/** Candidate kind: piece dropped as it is */
+		private const val CANDIDATE_DROP = 0
+		/** Candidate kind: shifted or rotated after the drop */
+		private const val CANDIDATE_SHIFT = 1
+		/** Candidate kind: HOLD piece dropped */
+		private const val CANDIDATE_HOLD = 2
 	}
 }
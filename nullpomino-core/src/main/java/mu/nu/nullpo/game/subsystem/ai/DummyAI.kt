@@ -52,6 +52,9 @@ open class DummyAI:AIPlayer {
 	/** Did the thinking thread finish successfully? */
 	open var thinkComplete:Boolean = false
 
+	/** Reachable placement search shared by this AI's think routines (created on first use) */
+	val moveGenerator:MoveGenerator by lazy {MoveGenerator()}
+
 	override val name:String = "DummyAI"
 
 	override fun init(engine:GameEngine, playerID:Int) {}
@@ -0,0 +1,522 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.subsystem.ai
+
+import mu.nu.nullpo.game.component.Controller
+import mu.nu.nullpo.game.component.Field
+import mu.nu.nullpo.game.component.Piece
+import mu.nu.nullpo.game.component.WallkickResult
+import mu.nu.nullpo.game.play.GameEngine
+import mu.nu.nullpo.game.subsystem.wallkick.Wallkick
+import java.util.concurrent.atomic.LongAdder
+
+/** Move generator for the AIs.
+ * Searches every (x, y, direction) a piece can reach by shifting, rotating (with the engine's wallkick)
+ * and dropping. The search is breadth first, so each placement comes with one of its shortest input
+ * sequences. Placements that fill the same cells are reported once.
+ * Results are memoized per field, piece and start position.
+ * Safe to use from several threads at once: each thread searches with its own scratch arrays.
+ * @param memoSize Number of searches kept in the memo
+ */
+class MoveGenerator @JvmOverloads constructor(val memoSize:Int = 32) {
+	/** A place where the piece can lock
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rt Direction
+	 * @param inputs Moves from the start position ([INPUT_LEFT] etc.)
+	 * @param positions Position after each move of [inputs]: X-coordinate, Y-coordinate and direction
+	 * @param rotated true if the last move is a rotation (for twist checks)
+	 * @param prevX X-coordinate before the last move
+	 * @param prevY Y-coordinate before the last move
+	 * @param prevRt Direction before the last move
+	 */
+	class Placement(val x:Int, val y:Int, val rt:Int, val inputs:IntArray, val positions:IntArray, val rotated:Boolean,
+		val prevX:Int, val prevY:Int, val prevRt:Int)
+
+	/** A placement as the AI controllers carry it out: rotate and shift to ([x], [rt]) and drop to [y],
+	 * then make the moves of [path] on the ground to ([xSub], [ySub]).
+	 * @param x X-coordinate of the drop
+	 * @param y Y-coordinate of the drop
+	 * @param rt Direction of the drop
+	 * @param xSub Final X-coordinate
+	 * @param ySub Final Y-coordinate
+	 * @param rtSub Final direction if the last move is a rotation (-1: no rotation)
+	 * @param isDrop true if the piece is locked where it is dropped
+	 * @param path Moves after the drop ([INPUT_LEFT] etc.), which may be tucks, twists or several moves of a spin
+	 * @param positions Position after each move of [path]: X-coordinate, Y-coordinate and direction
+	 */
+	class Plan(val x:Int, val y:Int, val rt:Int, val xSub:Int, val ySub:Int, val rtSub:Int, val isDrop:Boolean,
+		val path:IntArray = IntArray(0), val positions:IntArray = IntArray(0)) {
+		/** Final direction */
+		val rtEnd:Int get() = if(positions.isEmpty()) rt else positions[positions.size-1]
+
+		/** true if at most one move is made after the drop, so that [xSub], [ySub] and [rtSub] tell all of it */
+		val isSingleMove:Boolean get() = path.size<=1
+	}
+
+	/** Memoized searches, least recently used first */
+	private val memo = object:LinkedHashMap<MemoKey, List<Placement>>(16, 0.75f, true) {
+		override fun removeEldestEntry(eldest:MutableMap.MutableEntry<MemoKey, List<Placement>>?):Boolean = size>memoSize
+	}
+
+	private val hitCount = LongAdder()
+	private val missCount = LongAdder()
+
+	/** Number of searches answered from the memo */
+	val memoHits:Long get() = hitCount.sum()
+
+	/** Number of searches run */
+	val memoMisses:Long get() = missCount.sum()
+
+	/** Scratch arrays of each thread */
+	private val scratch = ThreadLocal.withInitial {Search()}
+
+	/** Find the placements of a piece from its spawn position
+	 * @param engine GameEngine (rules, wallkick and speed)
+	 * @param fld Field
+	 * @param piece Piece
+	 * @return Placements
+	 */
+	fun generate(engine:GameEngine, fld:Field, piece:Piece):List<Placement> =
+		generate(engine, fld, piece, engine.getSpawnPosX(fld, piece), engine.getSpawnPosY(piece), piece.direction)
+
+	/** Find the placements of a piece
+	 * @param engine GameEngine (rules, wallkick and speed)
+	 * @param fld Field
+	 * @param piece Piece
+	 * @param x Start X-coordinate
+	 * @param y Start Y-coordinate
+	 * @param rt Start direction
+	 * @return Placements (empty if the piece collides at the start position)
+	 */
+	fun generate(engine:GameEngine, fld:Field, piece:Piece, x:Int, y:Int, rt:Int):List<Placement> {
+		val opt = engine.ruleopt
+		val instant = isInstant(engine, fld)
+		val canDrop = engine.speed.gravity!=0||opt.softdropEnable||opt.harddropEnable
+		val flags = (if(piece.big) 1 else 0) or (if(engine.bigmove) 2 else 0) or (if(instant) 4 else 0) or
+			(if(canDrop) 8 else 0) or (if(fld.ceiling) 16 else 0) or (if(opt.rotateWallkick) 32 else 0) or
+			(if(engine.isRotateButtonDefaultRight) 64 else 0) or (if(opt.rotateButtonAllowReverse) 128 else 0) or
+			(if(opt.rotateButtonAllowDouble) 256 else 0) or (if(allowUpward(engine)) 512 else 0)
+
+		val key = if(fld.isBitboardEnabled)
+			MemoKey(LongArray(fld.hiddenHeight+fld.height) {fld.getRowBits(it-fld.hiddenHeight)},
+				intArrayOf(fld.width, fld.hiddenHeight, piece.id, piece.dataOffsetX.contentHashCode(),
+					piece.dataOffsetY.contentHashCode(), x, y, rt, flags), engine.wallkick)
+		else null
+		if(key!=null) synchronized(memo) {memo[key]}?.let {
+			hitCount.increment()
+			return it
+		}
+		missCount.increment()
+		val result = scratch.get().run(engine, fld, piece, x, y, rt, instant, canDrop)
+		if(key!=null) synchronized(memo) {memo[key] = result}
+		return result
+	}
+
+	/** Find the placements of a piece that the AI controllers can carry out (see [Plan]).
+	 * Every drop comes first, followed by the placements reached by moving on from it.
+	 * A placement is left out when its path leaves the drop before reaching the ground.
+	 * @param engine GameEngine (rules, wallkick and speed)
+	 * @param fld Field
+	 * @param piece Piece
+	 * @param x Start X-coordinate
+	 * @param y Start Y-coordinate
+	 * @param rt Start direction
+	 * @return Plans, ordered by the direction, X and Y-coordinate of the drop
+	 */
+	fun plans(engine:GameEngine, fld:Field, piece:Piece, x:Int, y:Int, rt:Int):List<Plan> {
+		val instant = isInstant(engine, fld)
+		// Moves on the ground by the drop they are made from
+		val drops = HashMap<Long, ArrayList<Plan>>()
+		for(p in generate(engine, fld, piece, x, y, rt)) {
+			var i = 0
+			if(!instant) {
+				while(i<p.inputs.size&&!isDrop(p.inputs[i])) i++
+				while(i<p.inputs.size&&isDrop(p.inputs[i])) i++
+			}
+			if(instant||i==p.inputs.size) {
+				drops.getOrPut(planKey(p.x, p.y, p.rt)) {ArrayList()}
+				continue
+			}
+			// The path has dropped the piece before it moves on
+			val d = (i-1)*3
+			val dx = p.positions[d]
+			val dy = p.positions[d+1]
+			val drt = p.positions[d+2]
+			if(!piece.checkCollision(dx, dy+1, drt, fld)) continue
+			drops.getOrPut(planKey(dx, dy, drt)) {ArrayList()}.add(Plan(dx, dy, drt, p.x, p.y, if(p.rotated) p.rt else -1,
+				false, p.inputs.copyOfRange(i, p.inputs.size), p.positions.copyOfRange(i*3, p.positions.size)))
+		}
+		val result = ArrayList<Plan>()
+		for(k in drops.keys.sorted()) {
+			val dx = (k shr 16 and 0xFFFFL).toInt()-PLAN_OFFSET
+			val dy = (k and 0xFFFFL).toInt()-PLAN_OFFSET
+			val drt = (k shr 32).toInt()
+			result.add(Plan(dx, dy, drt, dx, dy, -1, true))
+			result.addAll(drops[k]!!)
+		}
+		return result
+	}
+
+	/** Find the placements of a piece from its spawn position that the AI controllers can carry out
+	 * @param engine GameEngine (rules, wallkick and speed)
+	 * @param fld Field
+	 * @param piece Piece
+	 * @return Plans
+	 */
+	fun plans(engine:GameEngine, fld:Field, piece:Piece):List<Plan> =
+		plans(engine, fld, piece, engine.getSpawnPosX(fld, piece), engine.getSpawnPosY(piece), piece.direction)
+
+	/** Drop every memoized search */
+	fun clearMemo() {
+		synchronized(memo) {memo.clear()}
+	}
+
+	/** Scratch arrays and state of a breadth first search over (x, y, direction), used by one thread at a time */
+	private class Search {
+		/** Stamp of the state visited by the current search */
+		var seen = IntArray(0)
+		var stamp = 0
+		/** State and move each state was first reached from */
+		var parent = IntArray(0)
+		var parentMove = IntArray(0)
+		/** State and rotation that also reach a state by rotating, when the first path did not (-1 if none) */
+		var spinParent = IntArray(0)
+		var spinMove = IntArray(0)
+		var queue = IntArray(0)
+		var tail = 0
+
+		/** Geometry of the state space of the current search */
+		var minX = 0
+		var minY = 0
+		var spanX = 0
+		var spanY = 0
+
+		/** Sorted cells and the rotated flag of each placement found, [keyLength] ints each */
+		var foundKeys = IntArray(0)
+		var foundCount = 0
+		var keyLength = 0
+		/** Open addressing table of the placements found, by the hash of their cells (number of the placement+1, 0: empty) */
+		var foundTable = IntArray(64)
+		/** Cells of the placement being added */
+		var cells = IntArray(0)
+
+		fun run(engine:GameEngine, fld:Field, piece:Piece, startX:Int, startY:Int, startRt:Int, instant:Boolean,
+			canDrop:Boolean):List<Placement> {
+			val opt = engine.ruleopt
+			val wallkick:Wallkick? = if(opt.rotateWallkick) engine.wallkick else null
+			val upward = allowUpward(engine)
+			val shift = if(piece.big&&engine.bigmove) 2 else 1
+			val size = if(piece.big) 2 else 1
+			val rotations = ArrayList<Int>(3).apply {
+				if(!engine.isRotateButtonDefaultRight||opt.rotateButtonAllowReverse) add(-1)
+				if(engine.isRotateButtonDefaultRight||opt.rotateButtonAllowReverse) add(1)
+				if(opt.rotateButtonAllowDouble) add(2)
+			}.toIntArray()
+
+			val pad = 4*size+4
+			minX = -pad
+			minY = -fld.hiddenHeight-pad
+			spanX = fld.width+pad*2
+			spanY = fld.hiddenHeight+fld.height+pad
+			prepare(spanX*spanY*Piece.DIRECTION_COUNT, piece.maxBlock+1)
+
+			val y0 = if(instant) piece.getBottom(startX, startY, startRt, fld) else startY
+			if(piece.checkCollision(startX, y0, startRt, fld)) return emptyList()
+			val start = stateIndex(startX, y0, startRt)
+			if(start<0) return emptyList()
+			val result = ArrayList<Placement>()
+
+			seen[start] = stamp
+			parent[start] = -1
+			parentMove[start] = -1
+			spinParent[start] = -1
+			var head = 0
+			tail = 0
+			queue[tail++] = start
+			while(head<tail) {
+				val s = queue[head++]
+				val rt = s%Piece.DIRECTION_COUNT
+				val x = s/Piece.DIRECTION_COUNT%spanX+minX
+				val y = s/Piece.DIRECTION_COUNT/spanX+minY
+
+				// Shifts
+				if(!piece.checkCollision(x-shift, y, rt, fld)) visit(piece, fld, instant, s, x-shift, y, rt, INPUT_LEFT)
+				if(!piece.checkCollision(x+shift, y, rt, fld)) visit(piece, fld, instant, s, x+shift, y, rt, INPUT_RIGHT)
+				// Rotations
+				for(dir in rotations) {
+					val rot = piece.getRotateDirection(dir, rt)
+					val move = when(dir) {
+						-1 -> INPUT_ROTATE_LEFT
+						1 -> INPUT_ROTATE_RIGHT
+						else -> INPUT_ROTATE_180
+					}
+					if(!piece.checkCollision(x, y, rot, fld)) visit(piece, fld, instant, s, x, y, rot, move)
+					else if(wallkick!=null) {
+						val kick = wallkick.probeWallkick(x, y, dir, rt, rot, upward, piece, fld, null)
+						if(kick!=WallkickResult.NONE)
+							visit(piece, fld, instant, s, x+WallkickResult.offsetX(kick), y+WallkickResult.offsetY(kick),
+								WallkickResult.direction(kick), move)
+					}
+				}
+				// Drops
+				val grounded = piece.checkCollision(x, y+1, rt, fld)
+				if(!instant&&canDrop&&!grounded) {
+					visit(piece, fld, instant, s, x, y+1, rt, INPUT_DOWN)
+					val bottom = piece.getBottom(x, y, rt, fld)
+					if(bottom>y+1) visit(piece, fld, instant, s, x, bottom, rt, INPUT_DROP)
+				}
+				if(grounded) addPlacement(piece, s, x, y, rt, size, false, result)
+			}
+
+			// Placements that a rotation can also reach (twists), for the pieces that care
+			if(piece.id==Piece.PIECE_T)
+				for(i in 0 until tail) {
+					val s = queue[i]
+					if(spinParent[s]<0) continue
+					val rt = s%Piece.DIRECTION_COUNT
+					val x = s/Piece.DIRECTION_COUNT%spanX+minX
+					val y = s/Piece.DIRECTION_COUNT/spanX+minY
+					if(piece.checkCollision(x, y+1, rt, fld)) addPlacement(piece, s, x, y, rt, size, true, result)
+				}
+			return result
+		}
+
+		/** Queue a state reached from state [s] by [move] (dropped to the ground first when gravity is instant) */
+		private fun visit(piece:Piece, fld:Field, instant:Boolean, s:Int, x:Int, y:Int, rt:Int, move:Int) {
+			val n = stateIndex(x, if(instant) piece.getBottom(x, y, rt, fld) else y, rt)
+			if(n<0) return
+			if(seen[n]==stamp) {
+				if(isRotation(move)&&!isRotation(parentMove[n])&&spinParent[n]<0) {
+					spinParent[n] = s
+					spinMove[n] = move
+				}
+				return
+			}
+			seen[n] = stamp
+			parent[n] = s
+			parentMove[n] = move
+			spinParent[n] = -1
+			queue[tail++] = n
+		}
+
+		/** Add a placement unless the same cells were already found */
+		private fun addPlacement(piece:Piece, s:Int, x:Int, y:Int, rt:Int, size:Int, spin:Boolean, result:ArrayList<Placement>) {
+			val n = piece.maxBlock
+			for(i in 0 until n) {
+				val c = (y+piece.dataY[rt][i]*size-minY)*spanX+x+piece.dataX[rt][i]*size-minX
+				// Insertion sort, the pieces have only a few blocks
+				var j = i
+				while(j>0&&cells[j-1]>c) {
+					cells[j] = cells[j-1]
+					j--
+				}
+				cells[j] = c
+			}
+			// Placements ending with a rotation are kept apart for the twist checks
+			val rotated = spin||isRotation(parentMove[s])
+			cells[n] = if(piece.id==Piece.PIECE_T&&rotated) 1 else 0
+			if(!addFound()) return
+
+			val prev = if(spin) spinParent[s] else if(parent[s]>=0) parent[s] else s
+			val moves = path(s, spin)
+			result.add(Placement(x, y, rt, moves, positions(s, spin, moves.size), rotated,
+				prev/Piece.DIRECTION_COUNT%spanX+minX, prev/Piece.DIRECTION_COUNT/spanX+minY, prev%Piece.DIRECTION_COUNT))
+		}
+
+		/** Record [cells] as found
+		 * @return false if they were found before in this search
+		 */
+		private fun addFound():Boolean {
+			if(foundTable.size<(foundCount+1)*2) growFound()
+			val mask = foundTable.size-1
+			var h = hashCells(cells, 0) and mask
+			while(true) {
+				val e = foundTable[h]
+				if(e==0) break
+				if(sameCells(e-1)) return false
+				h = (h+1) and mask
+			}
+			if(foundKeys.size<(foundCount+1)*keyLength) foundKeys = foundKeys.copyOf(maxOf(foundKeys.size*2, keyLength*64))
+			System.arraycopy(cells, 0, foundKeys, foundCount*keyLength, keyLength)
+			foundTable[h] = ++foundCount
+			return true
+		}
+
+		/** @return true if placement [i] has the same cells as [cells] */
+		private fun sameCells(i:Int):Boolean {
+			val base = i*keyLength
+			for(k in 0 until keyLength) if(foundKeys[base+k]!=cells[k]) return false
+			return true
+		}
+
+		/** Double the size of [foundTable] */
+		private fun growFound() {
+			val table = IntArray(foundTable.size*2)
+			val mask = table.size-1
+			for(i in 0 until foundCount) {
+				var h = hashCells(foundKeys, i*keyLength) and mask
+				while(table[h]!=0) h = (h+1) and mask
+				table[h] = i+1
+			}
+			foundTable = table
+		}
+
+		/** Hash of [keyLength] ints of [a] from [from] */
+		private fun hashCells(a:IntArray, from:Int):Int {
+			var h = 0
+			for(k in from until from+keyLength) h = h*31+a[k]
+			return h xor (h ushr 16)
+		}
+
+		/** @return Moves from the start to state [s]; [spin] to end with the rotation recorded in [spinParent] */
+		private fun path(s:Int, spin:Boolean):IntArray {
+			var count = if(spin) 1 else 0
+			var i = if(spin) spinParent[s] else s
+			while(parent[i]>=0) {
+				count++
+				i = parent[i]
+			}
+			val moves = IntArray(count)
+			i = s
+			if(spin) {
+				moves[--count] = spinMove[s]
+				i = spinParent[s]
+			}
+			while(parent[i]>=0) {
+				moves[--count] = parentMove[i]
+				i = parent[i]
+			}
+			return moves
+		}
+
+		/** @return Position after each of the [count] moves of [path] ([spin] as in [path]), 3 ints each */
+		private fun positions(s:Int, spin:Boolean, count:Int):IntArray {
+			val positions = IntArray(count*3)
+			var i = s
+			for(n in count-1 downTo 0) {
+				positions[n*3] = i/Piece.DIRECTION_COUNT%spanX+minX
+				positions[n*3+1] = i/Piece.DIRECTION_COUNT/spanX+minY
+				positions[n*3+2] = i%Piece.DIRECTION_COUNT
+				i = if(spin&&n==count-1) spinParent[s] else parent[i]
+			}
+			return positions
+		}
+
+		/** @return Index of a state, or -1 if it is outside the searched area */
+		private fun stateIndex(x:Int, y:Int, rt:Int):Int {
+			val ix = x-minX
+			val iy = y-minY
+			if(ix<0||ix>=spanX||iy<0||iy>=spanY) return -1
+			return (iy*spanX+ix)*Piece.DIRECTION_COUNT+rt
+		}
+
+		/** Makes sure the scratch arrays hold [states] states and placement keys of [keyLength] ints, and starts a new search */
+		private fun prepare(states:Int, keyLength:Int) {
+			if(seen.size<states) {
+				seen = IntArray(states)
+				parent = IntArray(states)
+				parentMove = IntArray(states)
+				spinParent = IntArray(states)
+				spinMove = IntArray(states)
+				queue = IntArray(states)
+				stamp = 0
+			}
+			if(stamp==Int.MAX_VALUE) {
+				seen.fill(0)
+				stamp = 0
+			}
+			stamp++
+
+			if(cells.size<keyLength) cells = IntArray(keyLength)
+			this.keyLength = keyLength
+			foundCount = 0
+			foundTable.fill(0)
+		}
+	}
+
+	/** Memo key: field rows, search parameters and the wallkick in use */
+	private class MemoKey(val rows:LongArray, val params:IntArray, val wallkick:Wallkick?) {
+		private val hash = (rows.contentHashCode()*31+params.contentHashCode())*31+System.identityHashCode(wallkick)
+
+		override fun hashCode():Int = hash
+
+		override fun equals(other:Any?):Boolean =
+			other is MemoKey&&hash==other.hash&&wallkick===other.wallkick&&rows.contentEquals(other.rows)&&
+				params.contentEquals(other.params)
+	}
+
+	companion object {
+		/** Moves of [Placement.inputs] */
+		const val INPUT_LEFT = 0
+		const val INPUT_RIGHT = 1
+		const val INPUT_ROTATE_LEFT = 2
+		const val INPUT_ROTATE_RIGHT = 3
+		const val INPUT_ROTATE_180 = 4
+		/** Soft drop by one cell */
+		const val INPUT_DOWN = 5
+		/** Soft drop down to the ground */
+		const val INPUT_DROP = 6
+
+		/** Added to the coordinates in the keys of [plans] so that they aren't negative */
+		private const val PLAN_OFFSET = 0x8000
+
+		/** @return true if [move] is a rotation */
+		@JvmStatic
+		fun isRotation(move:Int):Boolean = move in INPUT_ROTATE_LEFT..INPUT_ROTATE_180
+
+		/** @return true if [move] is a drop */
+		@JvmStatic
+		fun isDrop(move:Int):Boolean = move==INPUT_DOWN||move==INPUT_DROP
+
+		/** @return true if upward wallkicks are still allowed for the current piece */
+		@JvmStatic
+		fun allowUpward(engine:GameEngine):Boolean =
+			engine.ruleopt.rotateMaxUpwardWallkick<0||engine.nowUpwardWallkickCount<engine.ruleopt.rotateMaxUpwardWallkick
+
+		/** @return true if the piece falls to the ground at once (20G) */
+		@JvmStatic
+		fun isInstant(engine:GameEngine, fld:Field):Boolean =
+			engine.speed.gravity<0||engine.speed.gravity>=engine.speed.denominator*fld.height
+
+		/** Key of a drop in [plans], ordered by direction, X and Y-coordinate */
+		private fun planKey(x:Int, y:Int, rt:Int):Long =
+			rt.toLong() shl 32 or ((x+PLAN_OFFSET).toLong() and 0xFFFFL shl 16) or ((y+PLAN_OFFSET).toLong() and 0xFFFFL)
+
+		/** Controller button bit that performs a move
+		 * @param engine GameEngine (for the rotation button setting)
+		 * @param move Move of [Placement.inputs]
+		 * @return Button bit ([Controller.BUTTON_BIT_LEFT] etc.)
+		 */
+		@JvmStatic
+		fun toButtonBit(engine:GameEngine, move:Int):Int = when(move) {
+			INPUT_LEFT -> Controller.BUTTON_BIT_LEFT
+			INPUT_RIGHT -> Controller.BUTTON_BIT_RIGHT
+			INPUT_ROTATE_LEFT -> if(engine.isRotateButtonDefaultRight) Controller.BUTTON_BIT_B else Controller.BUTTON_BIT_A
+			INPUT_ROTATE_RIGHT -> if(engine.isRotateButtonDefaultRight) Controller.BUTTON_BIT_A else Controller.BUTTON_BIT_B
+			INPUT_ROTATE_180 -> Controller.BUTTON_BIT_E
+			else -> Controller.BUTTON_BIT_DOWN
+		}
+	}
+}
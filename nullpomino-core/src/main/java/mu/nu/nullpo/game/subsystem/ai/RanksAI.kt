@@ -24,6 +24,7 @@
 package mu.nu.nullpo.game.subsystem.ai
 
 import mu.nu.nullpo.game.component.Controller
+import mu.nu.nullpo.game.component.Field
 import mu.nu.nullpo.game.component.Piece
 import mu.nu.nullpo.game.play.GameEngine
 import mu.nu.nullpo.game.play.GameManager
@@ -60,8 +61,9 @@ open class RanksAI:DummyAI(), Runnable {
 
 	var gManager:GameManager? = null
 
-	var thinkRequest:Boolean = false
+	val thinkRequest by lazy {AIExecutor.Request(name, this)}
 
+	@Volatile
 	var thinking:Boolean = false
 
 	var thinkDelay:Int = 0
@@ -73,8 +75,6 @@ open class RanksAI:DummyAI(), Runnable {
 	@Volatile
 	var threadRunning:Boolean = false
 
-	var thread:Thread? = null
-
 	private var ranks:Ranks? = null
 	private var skipNextFrame:Boolean = false
 
@@ -94,6 +94,10 @@ open class RanksAI:DummyAI(), Runnable {
 	private var allowHold:Boolean = false
 	private var speedLimit:Int = 0
 
+	/** Columns the current piece ([0]) and the hold piece ([1]) can reach, by rotation and Ranks column.
+	 * null when there is no engine to search on (AIRanksTester), in which case every column is tried. */
+	private var reachable:Array<Array<BooleanArray>>? = null
+
 	override val name:String = "RANKSAI"
 
 	/** Get max think level
@@ -170,7 +174,7 @@ open class RanksAI:DummyAI(), Runnable {
 	fun initRanks() {
 		delay = 0
 
-		thinkRequest = false
+		thinkRequest.cancel()
 		thinking = false
 		threadRunning = false
 		val propRanksAI = CustomProperties()
@@ -225,33 +229,29 @@ open class RanksAI:DummyAI(), Runnable {
 		// Inits the ranks
 		initRanks()
 
-		//Starts the thread
-		if((thread==null||!thread!!.isAlive)&&engine.aiUseThread) {
-			thread = Thread(this, "AI_$playerID")
-			thread!!.isDaemon = true
-			thread!!.start()
+		//Accepts think requests on the shared worker pool
+		if(engine.aiUseThread) {
 			thinkDelay = engine.aiThinkDelay
 			thinkCurrentPieceNo = 0
 			thinkLastPieceNo = 0
+			thinkRequest.start(thinkDelay)
+			threadRunning = true
 		}
 
 	}
 
 	override fun shutdown() {
 		ranks = null
-		if(thread!=null&&thread!!.isAlive) {
-			thread!!.interrupt()
-			threadRunning = false
-			thread = null
-		}
+		thinkRequest.cancel()
+		threadRunning = false
 	}
 
 	override fun newPiece(engine:GameEngine, playerID:Int) {
 		if(!engine.aiUseThread)
 			thinkBestPosition(engine, playerID)
 		else {
-			thinkRequest = true
 			thinkCurrentPieceNo++
+			thinkRequest.request()
 		}
 	}
 
@@ -300,7 +300,7 @@ open class RanksAI:DummyAI(), Runnable {
 						skipNextFrame = true
 
 						if((bestX<minX-1||bestX>maxX+1||bestY<nowY)&&rt==bestRt)
-							thinkRequest = true
+							thinkRequest.request()
 						else {
 
 							if(nowX==bestX&&pieceTouchGround&&rt==bestRt) {
@@ -407,10 +407,11 @@ open class RanksAI:DummyAI(), Runnable {
 			heights[i] = engine.field!!.height-engine.field!!.getHighestBlockY(i)
 
 		// Initialization of the pieces array (contains the current piece and the next pieces)
-		val pieces = IntArray(engine.nextPieceArraySize)
+		// Only the pieces the search looks at (one more for the hold)
+		val pieces = IntArray(previewsMax+2)
 		pieces[0] = pieceNow!!.id
 		for(i in 1 until pieces.size)
-			pieces[i] = engine.getNextObject(engine.nextPieceCount+i-1)!!.id
+			pieces[i] = engine.peekNextID(engine.nextPieceCount+i-1)
 
 		val holdPiece = IntArray(1)
 		holdPiece[0] = engine.holdPieceObject?.id ?: -1
@@ -419,8 +420,19 @@ open class RanksAI:DummyAI(), Runnable {
 
 		allowHold = allowHold and engine.ruleopt.holdEnable
 
+		// Only try the columns the pieces can actually be moved to
+		// Searched on a copy, as the game thread keeps changing its field
+		val fld = Field(engine.field!!)
+		val pieceHold = engine.holdPieceObject ?: engine.peekNextObject(engine.nextPieceCount)
+		reachable = arrayOf(reachableColumns(pieceNow, moveGenerator.plans(engine, fld, pieceNow, engine.nowPieceX, nowY,
+			pieceNow.direction)), reachableColumns(pieceHold, pieceHold?.let {moveGenerator.plans(engine, fld, it)}))
+
 		// Call the main method (that actually does the work, on the heights and pieces
-		thinkBestPosition(heights, pieces, holdPiece, holdOK)
+		try {
+			thinkBestPosition(heights, pieces, holdPiece, holdOK)
+		} finally {
+			reachable = null
+		}
 
 		// Convert the best chosen move to the engine representation
 		bestX -= pieceNow.dataOffsetX[bestRt]+Ranks.PIECES_LEFTMOSTS[pieceNow.id][bestRt]
@@ -432,13 +444,40 @@ open class RanksAI:DummyAI(), Runnable {
 
 		// If we cant fit the pieces anymore without creating holes, try hold
 		//bestHold=false;
-		if(bestScore.rankStacking==0f) threadRunning = false
+		if(bestScore.rankStacking==0f) {
+			threadRunning = false
+			thinkRequest.cancel()
+		}
 		//bestHold=true;
 		thinkLastPieceNo++
 		log.debug("nowX : ${engine.nowPieceX} X:$bestX Y:$bestY R:$bestRt H:$bestHold Pts:$bestScore")
 
 	}
 
+	/** Convert the drops found by [MoveGenerator] to Ranks columns
+	 * @param piece Piece
+	 * @param plans Placements of the piece
+	 * @return Reachable columns by rotation, or null if every column should be tried
+	 */
+	private fun reachableColumns(piece:Piece?, plans:List<MoveGenerator.Plan>?):Array<BooleanArray>? {
+		if(piece==null||plans==null||piece.id>=Ranks.PIECES_NUM_ROTATIONS.size) return null
+		val columns = Array(Ranks.PIECES_NUM_ROTATIONS[piece.id]) {BooleanArray(ranks!!.stackWidth+1)}
+		for(p in plans) {
+			if(!p.isDrop) continue
+			// Directions with the same shape share a Ranks rotation, told apart by their leftmost column
+			val x = p.x+piece.dataOffsetX[p.rt]+Ranks.PIECES_LEFTMOSTS[piece.id][p.rt]
+			val r = columns[p.rt%columns.size]
+			if(x in r.indices) r[x] = true
+		}
+		return columns
+	}
+
+	/** @return true if the move can be made, as far as [reachable] knows */
+	private fun isReachable(useHold:Int, rt:Int, x:Int):Boolean {
+		val r = reachable?.get(useHold)?.getOrNull(rt) ?: return true
+		return x in r.indices&&r[x]
+	}
+
 	/** Main method that will return the best move for the current piece, by
 	 * calling the recursive method thinkmain on each possible move
 	 * @param heights Array containing the heights of the columns in the field
@@ -526,6 +565,7 @@ open class RanksAI:DummyAI(), Runnable {
 					val minX = 0
 					val maxX = ranks!!.stackWidth-Ranks.PIECES_WIDTHS[pieceNow][rt]
 					for(x in minX..maxX) {
+						if(!isReachable(useHold, rt, x)) continue
 
 						// Run thinkmain on that move to get its score
 						score = thinkMain(x, rt, heights, piecesCopy, holdPiece, useHold!=1, numPreviews)
@@ -546,7 +586,7 @@ open class RanksAI:DummyAI(), Runnable {
 					}
 
 					// If we can score a 4-Line, try it
-					if(pieceNow==Piece.PIECE_I&&(rt==1||rt==3)&&currentHeightMin>=4) {
+					if(pieceNow==Piece.PIECE_I&&(rt==1||rt==3)&&currentHeightMin>=4&&isReachable(useHold, rt, maxX+1)) {
 
 						// What are the consequences of scoring a 4-Line ?
 						score = thinkMain(maxX+1, rt, heights, piecesCopy, holdPiece, useHold!=1, numPreviews)
@@ -742,38 +782,18 @@ open class RanksAI:DummyAI(), Runnable {
 
 	}
 
-	/* Thread routine for this AI */
+	/* Think routine run by a worker of [AIExecutor] */
 	override fun run() {
-		log.info("RanksAI: Thread start")
-		threadRunning = true
-
-		while(threadRunning) {
-			if(thinkRequest) {
-				thinkRequest = false
-				thinking = true
-				try {
-					thinkBestPosition(gEngine, gEngine.playerID)
-
-				} catch(e:Throwable) {
-					log.debug("RanksAI: thinkBestPosition Failed", e)
-				}
-
-				thinking = false
-				skipNextFrame = false
-			}
-
-			if(thinkDelay>0)
-				try {
-					Thread.sleep(thinkDelay.toLong())
-				} catch(e:InterruptedException) {
-					break
-				}
+		thinking = true
+		try {
+			thinkBestPosition(gEngine, gEngine.playerID)
 
+		} catch(e:Throwable) {
+			log.debug("RanksAI: thinkBestPosition Failed", e)
 		}
 
-		threadRunning = false
-		ranks = null
-		log.info("RanksAI: Thread end")
+		thinking = false
+		skipNextFrame = false
 	}
 
 	companion object {
@@ -0,0 +1,190 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.subsystem.ai
+
+import mu.nu.nullpo.game.component.Field
+import mu.nu.nullpo.game.component.Piece
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
+
+/** Fixed size cache of evaluation scores, keyed by a 64-bit hash (usually built from [Field.zobristHash]).
+ * Lock free: each entry is stored as (key xor data, data), so an entry torn by a concurrent write
+ * fails the key check and reads as a miss instead of returning a wrong score.
+ * Each key may go in one of two slots; a store replaces the slot that was used least recently,
+ * counted in searches ([newSearch]).
+ * @param bits log2 of the number of entries
+ */
+class TranspositionTable @JvmOverloads constructor(bits:Int = 16) {
+	/** Number of entries */
+	val capacity:Int = 1 shl bits.coerceIn(1, 24)
+
+	/** Two longs per entry: key xor data, then data */
+	private val table = AtomicLongArray(capacity*2)
+
+	/** Current search generation, stored in each entry to find the old ones */
+	private val generation = AtomicInteger(1)
+
+	private val hitCount = LongAdder()
+	private val missCount = LongAdder()
+
+	/** Number of lookups answered from the table */
+	val hits:Long get() = hitCount.sum()
+
+	/** Number of lookups not found */
+	val misses:Long get() = missCount.sum()
+
+	/** Ratio of lookups answered from the table (0 before the first lookup) */
+	val hitRate:Double
+		get() {
+			val h = hits
+			val total = h+misses
+			return if(total>0) h.toDouble()/total else 0.0
+		}
+
+	/** Start a new search. Entries not used since are replaced first. */
+	fun newSearch() {
+		generation.updateAndGet {if(it>=GENERATION_MASK) 1 else it+1}
+	}
+
+	/** Remove every entry and reset the counters */
+	fun clear() {
+		for(i in 0 until table.length()) table.set(i, 0L)
+		hitCount.reset()
+		missCount.reset()
+	}
+
+	/** Look up a score
+	 * @param key Hash of the evaluated position
+	 * @return The score, or [NONE] if it is not in the table
+	 */
+	operator fun get(key:Long):Long {
+		val first = slot(key)
+		for(i in first..first+2 step 2) {
+			val data = table.get(i+1)
+			if(data!=0L&&table.get(i) xor data==key) {
+				hitCount.increment()
+				// Mark it as used by this search so that it isn't replaced soon
+				val gen = generation.get()
+				if((data and GENERATION_MASK.toLong()).toInt()!=gen) write(i, key, data and GENERATION_MASK.toLong().inv() or gen.toLong())
+				return data shr 32
+			}
+		}
+		missCount.increment()
+		return NONE
+	}
+
+	/** Store a score
+	 * @param key Hash of the evaluated position
+	 * @param score Evaluation score
+	 */
+	operator fun set(key:Long, score:Int) {
+		val first = slot(key)
+		val gen = generation.get()
+		val data = score.toLong() shl 32 or gen.toLong()
+		var oldest = first
+		var oldestAge = -1
+		for(i in first..first+2 step 2) {
+			val d = table.get(i+1)
+			if(d==0L||table.get(i) xor d==key) return write(i, key, data)
+			val age = (gen-(d and GENERATION_MASK.toLong()).toInt()) and GENERATION_MASK
+			if(age>oldestAge) {
+				oldest = i
+				oldestAge = age
+			}
+		}
+		write(oldest, key, data)
+	}
+
+	/** Look up a score, evaluating and storing it if it is not in the table
+	 * @param key Hash of the evaluated position
+	 * @param eval Evaluation
+	 * @return Evaluation score
+	 */
+	inline fun getOrPut(key:Long, eval:() -> Int):Int {
+		val found = get(key)
+		if(found!=NONE) return found.toInt()
+		return eval().also {set(key, it)}
+	}
+
+	/** Index of the first slot of the bucket of a key */
+	private fun slot(key:Long):Int = ((key ushr 32).toInt() xor key.toInt()) and (capacity-2)*2
+
+	private fun write(i:Int, key:Long, data:Long) {
+		table.lazySet(i, key xor data)
+		table.lazySet(i+1, data)
+	}
+
+	companion object {
+		/** Returned by [get] when the key is not in the table */
+		const val NONE = Long.MIN_VALUE
+
+		/** Bits of the data word holding the generation */
+		private const val GENERATION_MASK = 0xFFFF
+
+		/** Hash of a piece for use in a key: kind, size and the offsets of the direction
+		 * @param piece Piece
+		 * @param rt Direction
+		 * @return Hash
+		 */
+		@JvmStatic
+		fun pieceHash(piece:Piece?, rt:Int):Long {
+			if(piece==null) return -1L
+			var h = piece.id.toLong()
+			if(piece.big) h = h or 0x100L
+			if(rt in 0 until Piece.DIRECTION_COUNT)
+				h = h or (piece.dataOffsetX[rt].toLong() and 0xFFFFL shl 16) or (piece.dataOffsetY[rt].toLong() and 0xFFFFL shl 32)
+			return h
+		}
+
+		/** Mix a value into a key
+		 * @param key Key so far
+		 * @param v Value
+		 * @return New key
+		 */
+		@JvmStatic
+		fun mix(key:Long, v:Long):Long {
+			var z = (key xor v)*-7046029254386353131L
+			z = (z xor (z ushr 30))*-4658895280553007687L
+			z = (z xor (z ushr 27))*-7723592293110705685L
+			return z xor (z ushr 31)
+		}
+
+		/** Key of a placement on a field
+		 * @param fld Field before placement (its blocks, size, hurry-up floor and ceiling)
+		 * @param piece Piece
+		 * @param x X-coordinate
+		 * @param y Y-coordinate
+		 * @param rt Direction
+		 * @return Key
+		 */
+		@JvmStatic
+		fun placementKey(fld:Field, piece:Piece?, x:Int, y:Int, rt:Int):Long {
+			var k = mix(fld.zobristHash, fld.width.toLong() shl 32 or (fld.height.toLong() shl 16) or fld.hiddenHeight.toLong())
+			k = mix(k, fld.hurryupFloorLines.toLong() shl 1 or (if(fld.ceiling) 1L else 0L))
+			k = mix(k, pieceHash(piece, rt))
+			return mix(k, (x.toLong() and 0xFFFFL) or (y.toLong() and 0xFFFFL shl 16) or (rt.toLong() shl 32))
+		}
+	}
+}
@@ -31,6 +31,9 @@ import mu.nu.nullpo.game.play.GameEngine
 class TwistAI:BasicAI() {
 	override val name:String = "TWISTER"
 
+	/* thinkMain may ask for a hold as a side effect, so its scores can't be reused */
+	override val cacheEvaluations:Boolean get() = false
+
 	override fun thinkMain(engine:GameEngine, x:Int, y:Int, rt:Int, rtOld:Int, fld:Field, piece:Piece,
 		nextpiece:Piece?, holdpiece:Piece?, depth:Int):Int {
 		var pts = 0
@@ -111,7 +114,7 @@ class TwistAI:BasicAI() {
 				newtslot = true
 
 				// HoldTBe sure to give
-				if(nextpiece!!.id!=Piece.PIECE_T&&holdpiece!=null&&holdpiece.id==Piece.PIECE_T) forceHold = true
+				if(nextpiece!!.id!=Piece.PIECE_T&&holdpiece!=null&&holdpiece.id==Piece.PIECE_T) requestForceHold()
 			} else if(tslotAfter<tslotBefore&&!twist&&!danger)
 			// TwisterBreaking holeNG
 				return 0
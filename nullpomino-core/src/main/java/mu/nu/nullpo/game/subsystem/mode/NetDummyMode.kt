@@ -13,6 +13,7 @@ import org.apache.log4j.Logger
 import java.io.IOException
 import java.util.*
 import java.util.zip.Adler32
+import java.util.zip.Deflater
 
 /** Special base class for netplay */
 open class NetDummyMode:AbstractMode(), NetLobbyListener {
@@ -48,6 +49,25 @@ open class NetDummyMode:AbstractMode(), NetLobbyListener {
 	 * field (Declared in NetDummyMode) */
 	internal var netAlwaysSendFieldAttributes:Boolean = false
 
+	/** NET: Rows of the field as they were last sent, from y=-1 (Declared in NetDummyMode) */
+	private var netPrevFieldRows:Array<String>? = null
+
+	/** NET: true if the last sent field had attributes (Declared in NetDummyMode) */
+	private var netPrevFieldAttr:Boolean = false
+
+	/** NET: Sequence number of the last sent field (Declared in NetDummyMode) */
+	private var netFieldSeq:Int = 0
+
+	/** NET: Number of field deltas sent since the last full field (Declared in NetDummyMode) */
+	private var netFieldDeltaCount:Int = 0
+
+	/** NET: Number of spectators when the last full field was sent (Declared in NetDummyMode) */
+	private var netFieldKeyframeSpectators:Int = 0
+
+	/** NET: Sequence number of the last received field of each player (-1: a full field is needed) (Declared in
+	 * NetDummyMode) */
+	private val netRecvFieldSeq = HashMap<Int, Int>()
+
 	/** NET: Player name (Declared in NetDummyMode) */
 	protected var netPlayerName:String? = null
 
@@ -473,7 +493,7 @@ open class NetDummyMode:AbstractMode(), NetLobbyListener {
 				// Change game options
 				if(message[3]=="option") netRecvOptions(engine, message)
 				// Field
-				if(message[3]=="field"||message[3]=="fieldattr") netRecvField(engine, message)
+				if(message[3]=="field"||message[3]=="fieldattr"||message[3]=="fielddelta") netRecvField(engine, message)
 				// Stats
 				if(message[3]=="stats") netRecvStats(engine, message)
 				// Current Piece
@@ -531,6 +551,8 @@ open class NetDummyMode:AbstractMode(), NetLobbyListener {
 		netIsNetPlay = true
 		netIsWatch = netLobby!!.netPlayerClient!!.yourPlayerInfo!!.seatID==-1
 		netNumSpectators = 0
+		netPrevFieldRows = null
+		netRecvFieldSeq.clear()
 		netUpdatePlayerExist()
 
 		if(netIsWatch) {
@@ -707,52 +729,103 @@ open class NetDummyMode:AbstractMode(), NetLobbyListener {
 			engine.nowPieceObject = null
 	}
 
-	/** NET: Send field to all spectators
+	/** NET: Send field to all spectators.
+	 * Only the rows changed since the last send are sent (nothing if none has changed), with the whole field
+	 * sent again every [NET_FIELD_KEYFRAME_INTERVAL] times and whenever the number of spectators has grown.
 	 * @param engine GameEngine
 	 */
 	protected open fun netSendField(engine:GameEngine) {
-		if(owner.receiver.isStickySkin(engine)||netAlwaysSendFieldAttributes) {
-			// Send with attributes
-			val strSrcFieldData = engine.field!!.attrFieldToString()
-			val nocompSize = strSrcFieldData.length
-
-			val strCompFieldData = NetUtil.compressString(strSrcFieldData)
-			val compSize = strCompFieldData.length
-
-			var strFieldData = strSrcFieldData
-			var isCompressed = false
-			if(compSize<nocompSize) {
-				strFieldData = strCompFieldData
-				isCompressed = true
-			}
+		val field = engine.field!!
+		val isAttr = owner.receiver.isStickySkin(engine)||netAlwaysSendFieldAttributes
+		val rows = Array(field.height+1) {
+			val row = field.getRow(it-1)
+			if(isAttr) field.attrRowToString(row) else field.rowToString(row)
+		}
+		val prevRows = netPrevFieldRows
+		netPrevFieldRows = rows
+
+		if(prevRows!=null&&prevRows.size==rows.size&&netPrevFieldAttr==isAttr
+			&&netFieldDeltaCount<NET_FIELD_KEYFRAME_INTERVAL&&netNumSpectators<=netFieldKeyframeSpectators) {
+			// Send changed rows only
+			val strDelta = StringBuilder()
+			for(i in rows.indices)
+				if(rows[i]!=prevRows[i]) {
+					if(strDelta.isNotEmpty()) strDelta.append(",")
+					strDelta.append(i-1).append(",").append(rows[i])
+				}
+			netFieldDeltaCount++
+			// Someone who joins after a spectator has left still needs a full field
+			netFieldKeyframeSpectators = minOf(netFieldKeyframeSpectators, netNumSpectators)
+			// Nothing has changed, but it still counts toward the next full field
+			if(strDelta.isEmpty()) return
+			netFieldSeq++
+			val (strFieldData, isCompressed) = netCompressFieldData("$strDelta")
+			netLobby!!.netPlayerClient!!.send(
+				"game\tfielddelta\t${engine.skin}\t${field.heightWithoutHurryupFloor}\t$netFieldSeq\t$isAttr\t$strFieldData\t$isCompressed\n")
+			return
+		}
+		netFieldSeq++
+		netPrevFieldAttr = isAttr
+		netFieldDeltaCount = 0
+		netFieldKeyframeSpectators = netNumSpectators
 
-			netLobby!!.netPlayerClient!!.send("game\tfieldattr\t${engine.skin}\t$strFieldData\t$isCompressed\n")
+		if(isAttr) {
+			// Send with attributes
+			val (strFieldData, isCompressed) = netCompressFieldData(field.attrFieldToString())
+			netLobby!!.netPlayerClient!!.send("game\tfieldattr\t${engine.skin}\t$strFieldData\t$isCompressed\t$netFieldSeq\n")
 		} else {
 			// Send without attributes
-			val strSrcFieldData = engine.field!!.fieldToString()
-			val nocompSize = strSrcFieldData.length
-
-			val strCompFieldData = NetUtil.compressString(strSrcFieldData)
-			val compSize = strCompFieldData.length
-
-			var strFieldData = strSrcFieldData
-			var isCompressed = false
-			if(compSize<nocompSize) {
-				strFieldData = strCompFieldData
-				isCompressed = true
-			}
-
+			val (strFieldData, isCompressed) = netCompressFieldData(field.fieldToString())
 			netLobby!!.netPlayerClient!!.send(
-				"game\tfield\t${engine.skin}\t${engine.field!!.heightWithoutHurryupFloor}\t$strFieldData\t$isCompressed\n")
+				"game\tfield\t${engine.skin}\t${field.heightWithoutHurryupFloor}\t$strFieldData\t$isCompressed\t$netFieldSeq\n")
 		}
 	}
 
+	/** NET: Compress field data if it gets shorter
+	 * @param strSrcFieldData Field data
+	 * @return Data to send and whether it is compressed
+	 */
+	private fun netCompressFieldData(strSrcFieldData:String):Pair<String, Boolean> {
+		// The data is small and sent often, so speed matters more than size here
+		val strCompFieldData = NetUtil.compressString(strSrcFieldData, Deflater.BEST_SPEED)
+		return if(strCompFieldData.length<strSrcFieldData.length) strCompFieldData to true else strSrcFieldData to false
+	}
+
 	/** NET: Receive field message
 	 * @param engine GameEngine
 	 * @param message Message array
 	 */
 	protected open fun netRecvField(engine:GameEngine, message:Array<String>) {
-		if(message[3]=="fieldattr") {
+		if(message[3]=="fielddelta") {
+			// Changed rows
+			if(message.size>9) {
+				val seq = message[6].toInt()
+				// Wait for the next full field if a message was missed
+				if(netRecvFieldSeq[engine.playerID]!=seq-1) {
+					netRecvFieldSeq[engine.playerID] = -1
+					return
+				}
+				netRecvFieldSeq[engine.playerID] = seq
+				engine.nowPieceObject = null
+				engine.holdDisable = false
+				if(engine.stat==GameEngine.Status.SETTING) engine.stat = GameEngine.Status.MOVE
+				val skin = message[4].toInt()
+				val highestWallY = message[5].toInt()
+				val isAttr = message[7].toBoolean()
+				netPlayerSkin = skin
+				var strFieldData = message[8]
+				if(message[9].toBoolean()) strFieldData = NetUtil.decompressString(strFieldData)
+				val field = engine.field!!
+				val strArray = strFieldData.split(",")
+				for(i in 0 until strArray.size-1 step 2) {
+					val y = strArray[i].toInt()
+					val row:Array<out Block?> = if(isAttr) field.attrStringToRow(strArray[i+1], skin)
+					else field.stringToRow(strArray[i+1], skin, y>=highestWallY, y>=highestWallY)
+					for(x in 0 until field.width)
+						field.setBlock(x, y, row[x])
+				}
+			}
+		} else if(message[3]=="fieldattr") {
 			// With attributes
 			if(message.size>4) {
 				engine.nowPieceObject = null
@@ -766,6 +839,7 @@ open class NetDummyMode:AbstractMode(), NetLobbyListener {
 					if(isCompressed) strFieldData = NetUtil.decompressString(strFieldData)
 					engine.field!!.attrStringToField(strFieldData, skin)
 				}
+				netRecvFieldSeq[engine.playerID] = if(message.size>7) message[7].toInt() else -1
 			}
 		} else // Without attributes
 			if(message.size>5) {
@@ -782,6 +856,7 @@ open class NetDummyMode:AbstractMode(), NetLobbyListener {
 					engine.field!!.stringToField(strFieldData, skin, highestWallY, highestWallY)
 				} else
 					engine.field!!.reset()
+				netRecvFieldSeq[engine.playerID] = if(message.size>8) message[8].toInt() else -1
 			}
 	}
 
@@ -1267,5 +1342,8 @@ open class NetDummyMode:AbstractMode(), NetLobbyListener {
 	companion object {
 		/** Log (Declared in NetDummyMode) */
 		internal val log = Logger.getLogger(NetDummyMode::class.java)
+
+		/** NET: The whole field is sent again after this many field deltas */
+		const val NET_FIELD_KEYFRAME_INTERVAL = 30
 	}
 }
@@ -1237,7 +1237,7 @@ open class NetDummyVSMode:NetDummyMode() {
 			if(engine.field==null) engine.createFieldIfNeeded()
 
 			// Field
-			if(message[3]=="field"||message[3]=="fieldattr") netRecvField(engine, message)
+			if(message[3]=="field"||message[3]=="fieldattr"||message[3]=="fielddelta") netRecvField(engine, message)
 			// Stats
 			if(message[3]=="stats") netRecvStats(engine, message)
 			// Current Piece
@@ -560,7 +560,7 @@ class AvalancheVSSPF:AvalancheVSDummyMode() {
 				engine.field!!.getBlock(x, y)?.also {b ->
 					if(b.getAttribute(Block.ATTRIBUTE.GARBAGE)&&b.hard<4) {
 						b.hard = 0
-						b.cint = b.secondaryColor
+						engine.field!!.setBlockColor(x, y, b.secondaryColor)
 						b.countdown = 0
 						b.setAttribute(false, Block.ATTRIBUTE.GARBAGE)
 					}
@@ -596,7 +596,7 @@ class AvalancheVSSPF:AvalancheVSDummyMode() {
 						b.countdown = 0
 						b.hard = 0
 						b.setAttribute(false, Block.ATTRIBUTE.GARBAGE)
-						b.cint = b.secondaryColor
+						engine.field!!.setBlockColor(x, y, b.secondaryColor)
 						result = true
 					}
 				}
@@ -612,12 +612,11 @@ class SPF:AbstractMode() {
 					}
 				}
 			} else if(engine.field!=null) engine.field!!.reset()
-		} else if(engine.statc[0]==1&&diamondPower[playerID]>0) {
-			var x = 24
-			while(x<engine.nextPieceArraySize) {
-				engine.nextPieceArrayObject[x]!!.block[1].cint = DIAMOND_COLOR
-				x += 25
-			}
+
+			// Every 25th piece carries a diamond
+			if(diamondPower[playerID]>0)
+				engine.nextPieceInit = {pos, piece -> if(pos%25==24) piece.block[1].cint = DIAMOND_COLOR}
+			else engine.nextPieceInit = null
 		}
 		return false
 	}
@@ -851,7 +850,7 @@ class SPF:AbstractMode() {
 				else if(b.countdown==1) {
 					b.countdown = 0
 					b.setAttribute(false, Block.ATTRIBUTE.GARBAGE)
-					b.cint = b.secondaryColor
+					engine.field!!.setBlockColor(x, y, b.secondaryColor)
 					result = true
 				}
 			}
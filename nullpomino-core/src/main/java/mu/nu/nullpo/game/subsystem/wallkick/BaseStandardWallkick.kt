@@ -23,24 +23,24 @@ open class BaseStandardWallkick:Wallkick {
 		field:Field, ctrl:Controller?):Array<Array<IntArray>>? = null
 
 	/* Wallkick */
-	@Suppress("UNREACHABLE_CODE") override fun executeWallkick(x:Int, y:Int, rtDir:Int, rtOld:Int, rtNew:Int, allowUpward:Boolean,
+	override fun executeWallkick(x:Int, y:Int, rtDir:Int, rtOld:Int, rtNew:Int, allowUpward:Boolean,
 		piece:Piece,
-		field:Field, ctrl:Controller?):WallkickResult? {
-		getKickTable(x, y, rtDir, rtOld, rtNew, allowUpward, piece, field, ctrl)?.let {kicktable ->
-			for(i in kicktable[rtOld].indices) {
-				var x2 = kicktable[rtOld][i][0]
-				var y2 = kicktable[rtOld][i][1]
+		field:Field, ctrl:Controller?):WallkickResult? =
+		WallkickResult.unpack(probeWallkick(x, y, rtDir, rtOld, rtNew, allowUpward, piece, field, ctrl))
 
-				if(piece.big) {
-					x2 *= 2
-					y2 *= 2
-				}
+	/* Wallkick without a result object */
+	override fun probeWallkick(x:Int, y:Int, rtDir:Int, rtOld:Int, rtNew:Int, allowUpward:Boolean, piece:Piece,
+		field:Field, ctrl:Controller?):Long {
+		val kicktable = getKickTable(x, y, rtDir, rtOld, rtNew, allowUpward, piece, field, ctrl) ?: return WallkickResult.NONE
+		val size = if(piece.big) 2 else 1
+		for(kick in kicktable[rtOld]) {
+			val x2 = kick[0]*size
+			val y2 = kick[1]*size
 
-				if(y2>=0||allowUpward)
-					if(!piece.checkCollision(x+x2, y+y2, rtNew, field))
-						return WallkickResult(x2, y2, rtNew)
-			}
+			if(y2>=0||allowUpward)
+				if(!piece.checkCollision(x+x2, y+y2, rtNew, field))
+					return WallkickResult.pack(x2, y2, rtNew)
 		}
-		return null
+		return WallkickResult.NONE
 	}
 }
\ No newline at end of file
@@ -43,4 +43,12 @@ interface Wallkick {
 	 */
 	fun executeWallkick(x:Int, y:Int, rtDir:Int, rtOld:Int, rtNew:Int, allowUpward:Boolean, piece:Piece,
 		field:Field, ctrl:Controller?):WallkickResult?
+
+	/** Execute a wallkick without allocating a result object (for AI searches).
+	 * Parameters are the same as [executeWallkick].
+	 * @return Result packed by [WallkickResult.pack], or [WallkickResult.NONE] if there is no kick
+	 */
+	fun probeWallkick(x:Int, y:Int, rtDir:Int, rtOld:Int, rtNew:Int, allowUpward:Boolean, piece:Piece,
+		field:Field, ctrl:Controller?):Long =
+		WallkickResult.pack(executeWallkick(x, y, rtDir, rtOld, rtNew, allowUpward, piece, field, ctrl))
 }
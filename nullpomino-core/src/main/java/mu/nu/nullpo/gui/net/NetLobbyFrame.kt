@@ -23,6 +23,7 @@
  * POSSIBILITY OF SUCH DAMAGE. */
 package mu.nu.nullpo.gui.net
 
+import mu.nu.nullpo.game.component.ReplayFile
 import mu.nu.nullpo.game.component.RuleOptions
 import mu.nu.nullpo.game.net.*
 import mu.nu.nullpo.game.play.GameEngine
@@ -42,7 +43,6 @@ import java.net.URL
 import java.text.SimpleDateFormat
 import java.util.*
 import java.util.zip.Adler32
-import java.util.zip.GZIPOutputStream
 import javax.imageio.ImageIO
 import javax.swing.*
 import javax.swing.table.DefaultTableModel
@@ -4319,13 +4319,8 @@ class NetLobbyFrame:JFrame(), ActionListener, NetMessageListener {
 				val prop = CustomProperties()
 				prop.decode(strReplay)
 
-				try {
-					val out = GZIPOutputStream(FileOutputStream("replay/netreplay.rep"))
-					prop.store(out, "NullpoMino NetReplay from "+netPlayerClient!!.host!!)
+				if(ReplayFile.save(prop, "replay/netreplay.rep"))
 					addSystemChatLog(currentChatLogTextPane, getUIText("SysMsg_ReplaySaved"), Color.magenta)
-				} catch(e:IOException) {
-					log.error("Failed to write replay to replay/netreplay.rep", e)
-				}
 
 			}
 		}
@@ -128,6 +128,9 @@ abstract class DummyMenuChooseState:BaseGameState() {
 		if(GameKey.gamekey[0].isPushKey(GameKeyDummy.BUTTON_D)) {
 			if(onPushButtonD(container, game, delta)) return
 		}
+		if(GameKey.gamekey[0].isPushKey(GameKeyDummy.BUTTON_E)) {
+			if(onPushButtonE(container, game, delta)) return
+		}
 
 		// Cancel button
 		if(GameKey.gamekey[0].isPushKey(GameKeyDummy.BUTTON_B)||MouseInput.isMouseRightClicked) {
@@ -186,6 +189,11 @@ abstract class DummyMenuChooseState:BaseGameState() {
 	 */
 	protected open fun onPushButtonD(container:GameContainer, game:StateBasedGame, delta:Int):Boolean = false
 
+	/** Called when E button is pushed.
+	 * @return True to skip all further update processing, false otherwise.
+	 */
+	protected open fun onPushButtonE(container:GameContainer, game:StateBasedGame, delta:Int):Boolean = false
+
 	companion object {
 		private var ig = Image(1, 1)
 	}
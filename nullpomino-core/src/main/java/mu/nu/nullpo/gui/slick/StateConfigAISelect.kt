@@ -68,6 +68,8 @@ class StateConfigAISelect:BaseGameState() {
 
 	private var aiShowState = false
 
+	private var aiParallelThink = false
+
 	/** Cursor position */
 	private var cursor = 0
 
@@ -96,6 +98,7 @@ class StateConfigAISelect:BaseGameState() {
 		aiShowHint = NullpoMinoSlick.propGlobal.getProperty("$player.aiShowHint", false)
 		aiPrethink = NullpoMinoSlick.propGlobal.getProperty("$player.aiPrethink", false)
 		aiShowState = NullpoMinoSlick.propGlobal.getProperty("$player.aiShowState", false)
+		aiParallelThink = NullpoMinoSlick.propGlobal.getProperty("$player.aiParallelThink", false)
 
 		aiID = -1
 		for(i in aiPathList.indices)
@@ -162,6 +165,7 @@ class StateConfigAISelect:BaseGameState() {
 		FontNormal.printFontGrid(2, 7, "AI show hint:"+GeneralUtil.getONorOFF(aiShowHint), cursor==4)
 		FontNormal.printFontGrid(2, 8, "AI pre-think:"+GeneralUtil.getONorOFF(aiPrethink), cursor==5)
 		FontNormal.printFontGrid(2, 9, "AI show info:"+GeneralUtil.getONorOFF(aiShowState), cursor==6)
+		FontNormal.printFontGrid(2, 10, "AI parallel think:"+GeneralUtil.getONorOFF(aiParallelThink), cursor==7)
 
 		FontNormal.printFontGrid(1, 28, "A:OK B:CANCEL", COLOR.GREEN)
 	}
@@ -174,12 +178,12 @@ class StateConfigAISelect:BaseGameState() {
 		// Cursor movement
 		if(GameKey.gamekey[0].isMenuRepeatKey(GameKeyDummy.BUTTON_UP)) {
 			cursor--
-			if(cursor<0) cursor = 6
+			if(cursor<0) cursor = 7
 			ResourceHolder.soundManager.play("cursor")
 		}
 		if(GameKey.gamekey[0].isMenuRepeatKey(GameKeyDummy.BUTTON_DOWN)) {
 			cursor++
-			if(cursor>6) cursor = 0
+			if(cursor>7) cursor = 0
 			ResourceHolder.soundManager.play("cursor")
 		}
 
@@ -211,6 +215,7 @@ class StateConfigAISelect:BaseGameState() {
 				4 -> aiShowHint = !aiShowHint
 				5 -> aiPrethink = !aiPrethink
 				6 -> aiShowState = !aiShowState
+				7 -> aiParallelThink = !aiParallelThink
 			}
 		}
 
@@ -226,6 +231,7 @@ class StateConfigAISelect:BaseGameState() {
 			NullpoMinoSlick.propGlobal.setProperty("$player.aiShowHint", aiShowHint)
 			NullpoMinoSlick.propGlobal.setProperty("$player.aiPrethink", aiPrethink)
 			NullpoMinoSlick.propGlobal.setProperty("$player.aiShowState", aiShowState)
+			NullpoMinoSlick.propGlobal.setProperty("$player.aiParallelThink", aiParallelThink)
 			NullpoMinoSlick.saveConfig()
 
 			game.enterState(StateConfigMainMenu.ID)
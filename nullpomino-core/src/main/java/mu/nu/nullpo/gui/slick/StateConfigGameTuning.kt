@@ -203,6 +203,7 @@ class StateConfigGameTuning:BaseGameState() {
 					it.engine[i].aiShowHint = NullpoMinoSlick.propGlobal.getProperty("$i.aiShowHint", false)
 					it.engine[i].aiPrethink = NullpoMinoSlick.propGlobal.getProperty("$i.aiPrethink", false)
 					it.engine[i].aiShowState = NullpoMinoSlick.propGlobal.getProperty("$i.aiShowState", false)
+					it.engine[i].aiParallelThink = NullpoMinoSlick.propGlobal.getProperty("$i.aiParallelThink", false)
 				}
 				it.showInput = NullpoMinoSlick.propConfig.getProperty("option.showInput", false)
 
@@ -23,6 +23,7 @@
  * POSSIBILITY OF SUCH DAMAGE. */
 package mu.nu.nullpo.gui.slick
 
+import mu.nu.nullpo.game.component.ReplayData
 import mu.nu.nullpo.game.component.RuleOptions
 import mu.nu.nullpo.game.event.EventReceiver.COLOR
 import mu.nu.nullpo.game.play.GameManager
@@ -166,6 +167,7 @@ class StateInGame:BasicGameState() {
 					e.aiShowHint = NullpoMinoSlick.propGlobal.getProperty("$i.aiShowHint", false)
 					e.aiPrethink = NullpoMinoSlick.propGlobal.getProperty("$i.aiPrethink", false)
 					e.aiShowState = NullpoMinoSlick.propGlobal.getProperty("$i.aiShowState", false)
+					e.aiParallelThink = NullpoMinoSlick.propGlobal.getProperty("$i.aiParallelThink", false)
 				}
 				it.showInput = NullpoMinoSlick.propConfig.getProperty("option.showInput", false)
 
@@ -178,11 +180,13 @@ class StateInGame:BasicGameState() {
 
 	/** リプレイを読み込んで再生
 	 * @param prop リプレイ dataの入ったプロパティセット
+	 * @param inputs Input data of each player read from a binary replay
 	 */
-	fun startReplayGame(prop:CustomProperties) {
+	fun startReplayGame(prop:CustomProperties, inputs:Map<Int, ReplayData> = emptyMap()) {
 		gameManager = GameManager(RendererSlick()).also {
 			it.replayMode = true
 			it.replayProp = prop
+			it.replayInputs = inputs
 			pause = false
 
 			it.receiver.setGraphics(appContainer!!.graphics)
@@ -218,6 +222,7 @@ class StateInGame:BasicGameState() {
 					it.engine[i].aiShowHint = NullpoMinoSlick.propGlobal.getProperty("$i.aiShowHint", false)
 					it.engine[i].aiPrethink = NullpoMinoSlick.propGlobal.getProperty("$i.aiPrethink", false)
 					it.engine[i].aiShowState = NullpoMinoSlick.propGlobal.getProperty("$i.aiShowState", false)
+					it.engine[i].aiParallelThink = NullpoMinoSlick.propGlobal.getProperty("$i.aiParallelThink", false)
 				}
 				it.showInput = NullpoMinoSlick.propConfig.getProperty("option.showInput", false)
 
@@ -314,6 +314,7 @@ class StateNetGame:BasicGameState(), NetLobbyListener {
 						it.aiShowHint = NullpoMinoSlick.propGlobal.getProperty("0.aiShowHint", false)
 						it.aiPrethink = NullpoMinoSlick.propGlobal.getProperty("0.aiPrethink", false)
 						it.aiShowState = NullpoMinoSlick.propGlobal.getProperty("0.aiShowState", false)
+						it.aiParallelThink = NullpoMinoSlick.propGlobal.getProperty("0.aiParallelThink", false)
 					}
 				}
 				gm.showInput = NullpoMinoSlick.propConfig.getProperty("option.showInput", false)
@@ -23,11 +23,12 @@
  * POSSIBILITY OF SUCH DAMAGE. */
 package mu.nu.nullpo.gui.slick
 
+import mu.nu.nullpo.game.component.ReplayFile
+import mu.nu.nullpo.game.component.ReplayIndex
 import mu.nu.nullpo.game.component.Statistics
 import mu.nu.nullpo.game.event.EventReceiver.COLOR
 import mu.nu.nullpo.gui.slick.img.FontNano
 import mu.nu.nullpo.gui.slick.img.FontNormal
-import mu.nu.nullpo.util.CustomProperties
 import mu.nu.nullpo.util.GeneralUtil
 import org.apache.log4j.Logger
 import org.newdawn.slick.GameContainer
@@ -35,13 +36,23 @@ import org.newdawn.slick.Graphics
 import org.newdawn.slick.state.StateBasedGame
 import java.io.*
 import java.nio.file.Paths
-import java.util.zip.GZIPInputStream
 
 /** リプレイ選択画面のステート */
 class StateReplaySelect:DummyMenuScrollState() {
 	private var strCurrentFolder:String = ""
 	private var strPrevFolder:String = ""
-	private var fileList:Array<File> = emptyArray()
+
+	/** Sub folders */
+	private var folderList:List<String> = emptyList()
+
+	/** Index entries of the replay files */
+	private var entryList:List<ReplayIndex.Entry> = emptyList()
+
+	/** Sort order of the replay files */
+	private var sortType:Int = SORT_NAME
+
+	/** Mode whose replays are shown (null: every mode) */
+	private var modeFilter:String? = null
 
 	/** Mode name */
 	private var modenameList:Array<String> = emptyArray()
@@ -90,33 +101,26 @@ class StateReplaySelect:DummyMenuScrollState() {
 		}
 
 		val dir = File(d)
-		val fold:Array<File> = dir.listFiles(FileFilter {it.isDirectory})?.sortedBy {it.name}?.toTypedArray()
-			?: emptyArray()
-		fileList = dir.listFiles {i -> i.name.endsWith(".rep")}?.sortedBy {it.name}?.toTypedArray()
-			?: emptyArray()
-		val nF = fold.size
-		val nT = nF+fileList.size
-		list = (fold.map {it.name}+fileList.map {it.name}).toTypedArray()
-		modenameList = Array(nT) {""}
-		rulenameList = Array(nT) {""}
-		statsList = arrayOfNulls(nT)
-		fileList.forEachIndexed {i, it ->
-			val prop = CustomProperties()
-
-			try {
-				val `in` = GZIPInputStream(FileInputStream(it))
-				prop.load(`in`)
-				`in`.close()
-			} catch(e:IOException) {
-				log.error("Failed to load replay file (${it})", e)
-			}
-			modenameList[i+nF] = prop.getProperty("name.mode", "")
-			rulenameList[i+nF] = prop.getProperty("name.rule", "")
+		folderList = dir.listFiles(FileFilter {it.isDirectory})?.map {it.name}?.sorted() ?: emptyList()
+		entryList = ReplayIndex.list(dir)
+		if(entryList.none {it.mode==modeFilter}) modeFilter = null
+		sortList()
+	}
 
-			statsList[i+nF] = Statistics().apply {
-				readProperty(prop, 0)
-			}
+	/** Rebuild the list with the current filter and sort order. Folders always come first. */
+	private fun sortList() {
+		val shown = ReplayIndex.filter(entryList, ReplayIndex.Filter(mode = modeFilter))
+		val sorted = when(sortType) {
+			SORT_SCORE -> shown.sortedWith(compareByDescending<ReplayIndex.Entry> {it.statistics.score}.thenBy {it.name})
+			SORT_LINES -> shown.sortedWith(compareByDescending<ReplayIndex.Entry> {it.statistics.lines}.thenBy {it.name})
+			SORT_TIME -> shown.sortedWith(compareBy<ReplayIndex.Entry> {it.statistics.time}.thenBy {it.name})
+			SORT_MODE -> shown.sortedWith(compareBy<ReplayIndex.Entry> {it.mode}.thenBy {it.rule}.thenBy {it.name})
+			else -> shown.sortedBy {it.name}
 		}
+		list = (folderList+sorted.map {it.name}).toTypedArray()
+		modenameList = (folderList.map {""}+sorted.map {it.mode}).toTypedArray()
+		rulenameList = (folderList.map {""}+sorted.map {it.rule}).toTypedArray()
+		statsList = (folderList.map {null}+sorted.map {it.statistics}).toTypedArray()
 	}
 
 	override fun onRenderSuccess(container:GameContainer, game:StateBasedGame, graphics:Graphics) {
@@ -130,6 +134,8 @@ class StateReplaySelect:DummyMenuScrollState() {
 			FontNormal.printFontGrid(1, 26, "LEVEL:${it.level+it.levelDispAdd} TIME:${GeneralUtil.getTime(it.time)}", COLOR.CYAN)
 			FontNormal.printFontGrid(1, 27, "GAME RATE:${if(it.gamerate==0f) "UNKNOWN" else (100*it.gamerate).toString()+"%"}", COLOR.CYAN)
 		}
+		FontNormal.printFontGrid(1, 28, "D:SORT BY ${SORT_NAMES[sortType]}", COLOR.GREEN)
+		FontNormal.printFontGrid(1, 29, "E:MODE ${modeFilter ?: "ALL"}", COLOR.GREEN)
 	}
 
 	override fun onDecide(container:GameContainer, game:StateBasedGame, delta:Int):Boolean {
@@ -138,25 +144,36 @@ class StateReplaySelect:DummyMenuScrollState() {
 		if(statsList[cursor]==null) {
 			getReplayFileList((strCurrentFolder)+File.separator+list[cursor])
 		} else {
-			val prop = CustomProperties()
-
-			try {
-				val `in` = GZIPInputStream(FileInputStream(
-					"${NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay")}${strCurrentFolder}/${list[cursor]}"))
-				prop.load(`in`)
-				`in`.close()
-			} catch(e:IOException) {
-				log.error("Failed to load replay file from ${list[cursor]}", e)
-				return true
-			}
+			val replay = ReplayFile.load(File(
+				"${NullpoMinoSlick.propGlobal.getProperty("custom.replay.directory", "replay")}${strCurrentFolder}/${list[cursor]}"))
+				?: return true
 
-			NullpoMinoSlick.stateInGame.startReplayGame(prop)
+			NullpoMinoSlick.stateInGame.startReplayGame(replay.prop, replay.inputs)
 
 			game.enterState(StateInGame.ID)
 		}
 		return false
 	}
 
+	/* D button */
+	override fun onPushButtonD(container:GameContainer, game:StateBasedGame, delta:Int):Boolean {
+		ResourceHolder.soundManager.play("change")
+		sortType = (sortType+1)%SORT_NAMES.size
+		sortList()
+		return false
+	}
+
+	/* E button */
+	override fun onPushButtonE(container:GameContainer, game:StateBasedGame, delta:Int):Boolean {
+		ResourceHolder.soundManager.play("change")
+		// Cycle through the modes found in this folder
+		val modes = listOf<String?>(null)+entryList.map {it.mode}.distinct().sorted()
+		modeFilter = modes[(modes.indexOf(modeFilter)+1)%modes.size]
+		cursor = 0
+		sortList()
+		return false
+	}
+
 	override fun onCancel(container:GameContainer, game:StateBasedGame, delta:Int):Boolean {
 		if(strCurrentFolder.isEmpty()||strPrevFolder.isEmpty())
 			game.enterState(StateTitle.ID)
@@ -171,6 +188,16 @@ class StateReplaySelect:DummyMenuScrollState() {
 		/** 1画面に表示するMaximumファイルcount */
 		const val PAGE_HEIGHT = 20
 
+		/** Sort orders */
+		private const val SORT_NAME = 0
+		private const val SORT_SCORE = 1
+		private const val SORT_LINES = 2
+		private const val SORT_TIME = 3
+		private const val SORT_MODE = 4
+
+		/** Sort order names */
+		private val SORT_NAMES = listOf("NAME", "SCORE", "LINES", "TIME", "MODE")
+
 		/** Log */
 		internal val log = Logger.getLogger(StateReplaySelect::class.java)
 	}
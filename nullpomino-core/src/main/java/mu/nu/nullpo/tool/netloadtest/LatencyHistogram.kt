@@ -0,0 +1,99 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.tool.netloadtest
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/** Lock-free histogram of latencies in microseconds.
+ * Values under 64 have a bucket each; above that every power of two is split into 32 buckets,
+ * so a percentile is off by at most about 3%. */
+class LatencyHistogram {
+	private val buckets = AtomicLongArray(BUCKETS)
+
+	private val total = AtomicLong()
+
+	private val maxValue = AtomicLong()
+
+	/** Number of values recorded */
+	val count:Long get() = total.get()
+
+	/** Largest value recorded */
+	val max:Long get() = maxValue.get()
+
+	/** Record a value
+	 * @param micros Latency in microseconds (negative values count as 0)
+	 */
+	fun record(micros:Long) {
+		val v = maxOf(0L, micros)
+		buckets.incrementAndGet(index(v))
+		total.incrementAndGet()
+		maxValue.accumulateAndGet(v) {a, b -> maxOf(a, b)}
+	}
+
+	/** @param p Percentile (0-100)
+	 * @return Lower bound of the bucket holding the value at the percentile, 0 if empty
+	 */
+	fun percentile(p:Double):Long {
+		val n = count
+		if(n==0L) return 0
+		val rank = maxOf(1L, Math.ceil(n*p/100).toLong())
+		var seen = 0L
+		for(i in 0 until BUCKETS) {
+			seen += buckets.get(i)
+			if(seen>=rank) return minOf(lowerBound(i), max)
+		}
+		return max
+	}
+
+	/** Forget every value */
+	fun reset() {
+		for(i in 0 until BUCKETS) buckets.set(i, 0)
+		total.set(0)
+		maxValue.set(0)
+	}
+
+	companion object {
+		/** Values with a bucket each */
+		private const val LINEAR = 64
+
+		/** Buckets per power of two above [LINEAR] */
+		private const val SUB = 32
+
+		/** Number of buckets (covers up to about 2^62) */
+		private const val BUCKETS = LINEAR+SUB*57
+
+		private fun index(v:Long):Int {
+			if(v<LINEAR) return v.toInt()
+			val shift = 63-java.lang.Long.numberOfLeadingZeros(v)-5
+			return minOf(BUCKETS-1, (shift shl 5)+(v ushr shift).toInt())
+		}
+
+		private fun lowerBound(i:Int):Long {
+			if(i<LINEAR) return i.toLong()
+			val shift = i/SUB-1
+			return (i-shift*SUB).toLong() shl shift
+		}
+	}
+}
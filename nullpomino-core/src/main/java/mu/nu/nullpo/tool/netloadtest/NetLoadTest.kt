@@ -0,0 +1,351 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.tool.netloadtest
+
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.put
+import mu.nu.nullpo.game.component.Field
+import mu.nu.nullpo.game.net.NetBaseClient
+import mu.nu.nullpo.game.net.NetClientSelector
+import mu.nu.nullpo.game.net.NetMessageListener
+import mu.nu.nullpo.game.net.NetObserverClient
+import mu.nu.nullpo.game.net.NetPlayerClient
+import mu.nu.nullpo.game.net.NetRoomInfo
+import mu.nu.nullpo.game.net.NetServer
+import mu.nu.nullpo.game.net.NetUtil
+import org.apache.log4j.Logger
+import org.apache.log4j.PropertyConfigurator
+import java.io.File
+import java.io.IOException
+import java.io.PrintStream
+import java.lang.management.ManagementFactory
+import java.net.Socket
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.Deflater
+
+/** Headless load generator for NetServer.
+ * Logs in non-blocking [NetPlayerClient]s (and optionally [NetObserverClient]s), puts them into rooms with roomcreate
+ * and roomjoin, and has every seated bot send the piece movement and field messages a playing client sends.
+ * The sending time is appended to each message, so the bots that receive the relayed message measure its latency.
+ *
+ * Usage: NetLoadTest [-host H] [-port P] [-clients N] [-seats N] [-observers N] [-pps N] [-moves N]
+ * [-duration sec] [-warmup sec] [-selectors N] [-server] [-json] [-out file]
+ *
+ * Latencies are in microseconds, CPU usage is in percent of one core.
+ * With -server a NetServer is started in this JVM on the port, and the CPU time of its threads is reported too. */
+object NetLoadTest {
+	/** Log */
+	internal val log = Logger.getLogger(NetLoadTest::class.java)
+
+	/** Settings of a run */
+	class Options {
+		var host = "127.0.0.1"
+		var port = NetBaseClient.DEFAULT_PORT
+		/** Number of player bots */
+		var clients = 100
+		/** Players per room */
+		var seats = 2
+		/** Number of observers */
+		var observers = 0
+		/** Pieces per second per player */
+		var pps = 2.0
+		/** Piece movement messages per piece (a field message follows them) */
+		var moves = 4
+		/** Measured time in seconds */
+		var duration = 60
+		/** Time in seconds the bots play before the measurement starts */
+		var warmup = 5
+		/** Number of client I/O loops */
+		var selectors = 1
+		/** Start a server in this JVM */
+		var server = false
+	}
+
+	/** Result of a run */
+	class Report(val opt:Options, val seated:Int, val seconds:Double, val sent:Long, val received:Long,
+		val latency:LatencyHistogram, val serverCpuNanos:Long?, val processCpuNanos:Long?, val disconnects:Long) {
+		/** @return Names and values to print */
+		fun values():List<Pair<String, Any>> = listOf(
+			"clients" to opt.clients, "seated" to seated, "observers" to opt.observers, "seats" to opt.seats,
+			"pps" to opt.pps, "seconds" to "%.1f".format(seconds),
+			"sent/s" to (sent/seconds).toLong(), "received/s" to (received/seconds).toLong(),
+			"latency.count" to latency.count, "latency.p50.us" to latency.percentile(50.0),
+			"latency.p90.us" to latency.percentile(90.0), "latency.p99.us" to latency.percentile(99.0),
+			"latency.p999.us" to latency.percentile(99.9), "latency.max.us" to latency.max,
+			"server.cpu%" to (serverCpuNanos?.let {"%.1f".format(it/(seconds*1e7))} ?: "n/a"),
+			"process.cpu%" to (processCpuNanos?.let {"%.1f".format(it/(seconds*1e7))} ?: "n/a"),
+			"disconnects" to disconnects)
+	}
+
+	/** Shared state of the bots of a run */
+	private class Context(val opt:Options, val seatedLatch:CountDownLatch) {
+		val latency = LatencyHistogram()
+		val sent = AtomicLong()
+		val received = AtomicLong()
+		val disconnects = AtomicLong()
+		val selectors = List(maxOf(1, opt.selectors)) {i -> NetClientSelector("NetLoadTest-IO-$i").also {it.start()}}
+		val timer:ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor {r ->
+			Thread(r, "NetLoadTest-traffic").apply {isDaemon = true}
+		}
+		/** Compressed fields to send, made in advance */
+		val fields = List(64) {makeField()}
+
+		fun resetCounters() {
+			latency.reset()
+			sent.set(0)
+			received.set(0)
+		}
+	}
+
+	/** Bots sharing a room
+	 * @param name Room name
+	 */
+	private class Room(val name:String) {
+		/** Room ID (-1 until created) */
+		var id = -1
+		/** Bots logged in and waiting for the room to be created */
+		val waiting = ArrayList<Bot>()
+	}
+
+	/** One player
+	 * @param ctx Shared state
+	 * @param room Room of this bot
+	 * @param owner true if this bot creates the room
+	 */
+	private class Bot(val ctx:Context, val client:NetPlayerClient, val room:Room, val owner:Boolean):
+		NetMessageListener {
+		private var pieceCount = 0
+
+		override fun netOnMessage(client:NetBaseClient, message:Array<String>) {
+			when(message[0]) {
+				"loginsuccess" -> if(owner) {
+					val info = NetRoomInfo().apply {
+						strName = room.name
+						maxPlayers = ctx.opt.seats
+						strMode = "NET-VS-BATTLE"
+					}
+					client.send("roomcreate\t${NetUtil.urlEncode(info.strName)}\t${NetUtil.urlEncode(info.exportString())}\t"
+						+NetUtil.urlEncode(info.strMode)+"\n")
+				} else {
+					val id = synchronized(room) {room.id.also {if(it<0) room.waiting.add(this)}}
+					if(id>=0) join(id)
+				}
+				"roomcreatesuccess" -> {
+					val waiting = synchronized(room) {
+						room.id = message[1].toInt()
+						ArrayList(room.waiting).also {room.waiting.clear()}
+					}
+					waiting.forEach {it.join(room.id)}
+					seated(message[2].toInt())
+				}
+				"roomjoinsuccess" -> if(message[1].toInt()>=0) seated(message[2].toInt())
+				"game" -> {
+					//game\t[UID]\t[SEAT]\t[TYPE]\t...\t[SENT NANOTIME]
+					ctx.received.incrementAndGet()
+					message.last().toLongOrNull()?.let {ctx.latency.record((System.nanoTime()-it)/1000)}
+				}
+			}
+		}
+
+		override fun netOnDisconnect(client:NetBaseClient, ex:Throwable?) {
+			ctx.disconnects.incrementAndGet()
+		}
+
+		fun join(roomID:Int) {
+			client.send("roomjoin\t$roomID\tfalse\n")
+		}
+
+		/** Start sending game messages once seated */
+		private fun seated(seat:Int) {
+			if(seat<0) return
+			ctx.seatedLatch.countDown()
+			val period = (1e6/ctx.opt.pps).toLong()
+			ctx.timer.scheduleAtFixedRate({sendPiece()}, ThreadLocalRandom.current().nextLong(period), period,
+				TimeUnit.MICROSECONDS)
+		}
+
+		/** Send the messages of one piece: its movements, then the field after it is locked */
+		private fun sendPiece() {
+			if(!client.isConnected) return
+			val r = ThreadLocalRandom.current()
+			val id = r.nextInt(7)
+			for(i in 0 until ctx.opt.moves)
+				client.send("game\tpiece\t$id\t${r.nextInt(10)}\t${r.nextInt(20)}\t${r.nextInt(4)}\t19\t${id+1}\t0\tfalse\t"
+					+"${System.nanoTime()}\n")
+			val (strField, compressed) = ctx.fields[r.nextInt(ctx.fields.size)]
+			client.send("game\tfield\t0\t20\t$strField\t$compressed\t${++pieceCount}\t${System.nanoTime()}\n")
+			ctx.sent.addAndGet(ctx.opt.moves+1L)
+		}
+	}
+
+	/** Make a field of random garbage and compress it the way NetDummyMode does
+	 * @return Data to send and whether it is compressed
+	 */
+	private fun makeField():Pair<String, Boolean> {
+		val r = ThreadLocalRandom.current()
+		val field = Field(10, 20, 0)
+		val height = r.nextInt(16)
+		for(y in 20-height until 20)
+			for(x in 0 until 10) if(r.nextInt(10)!=0) field.setBlockColor(x, y, 1+r.nextInt(7))
+		val str = field.fieldToString()
+		val comp = NetUtil.compressString(str, Deflater.BEST_SPEED)
+		return if(comp.length<str.length) comp to true else str to false
+	}
+
+	/** Run a load test
+	 * @param opt Settings
+	 * @return Result
+	 */
+	fun run(opt:Options):Report {
+		if(opt.server) {
+			Thread({NetServer(opt.port).run()}, "NetServer-main").apply {isDaemon = true}.start()
+			waitForServer(opt)
+		}
+
+		val latch = CountDownLatch(opt.clients)
+		val ctx = Context(opt, latch)
+		val rooms = List((opt.clients+opt.seats-1)/opt.seats) {Room("LoadTest$it")}
+		val clients = ArrayList<NetBaseClient>()
+		try {
+			for(i in 0 until opt.clients) {
+				val client = NetPlayerClient(opt.host, opt.port, "LoadBot$i")
+				client.addListener(Bot(ctx, client, rooms[i/opt.seats], i%opt.seats==0))
+				client.startNonBlocking(ctx.selectors[i%ctx.selectors.size])
+				clients.add(client)
+			}
+			for(i in 0 until opt.observers) {
+				val client = NetObserverClient(opt.host, opt.port)
+				client.startNonBlocking(ctx.selectors[i%ctx.selectors.size])
+				clients.add(client)
+			}
+
+			if(!latch.await(60, TimeUnit.SECONDS))
+				log.warn("Only ${opt.clients-latch.count}/${opt.clients} bots were seated")
+			log.info("Warming up for ${opt.warmup}s")
+			Thread.sleep(opt.warmup*1000L)
+
+			// Measure
+			ctx.resetCounters()
+			val serverStart = serverCpuTime(opt)
+			val processStart = processCpuTime()
+			val start = System.nanoTime()
+			Thread.sleep(opt.duration*1000L)
+			val nanos = System.nanoTime()-start
+			val serverCpu = serverStart?.let {s -> serverCpuTime(opt)?.let {it-s}}
+			val processCpu = processStart?.let {s -> processCpuTime()?.let {it-s}}
+
+			return Report(opt, (opt.clients-latch.count).toInt(), nanos/1e9, ctx.sent.get(), ctx.received.get(),
+				ctx.latency, serverCpu, processCpu, ctx.disconnects.get())
+		} finally {
+			ctx.timer.shutdownNow()
+			clients.forEach {
+				if(it.isConnected) it.send("disconnect\n")
+				it.threadRunning = false
+			}
+			ctx.selectors.forEach {it.shutdown()}
+		}
+	}
+
+	/** Wait until the server started in this JVM accepts connections */
+	private fun waitForServer(opt:Options) {
+		var tries = 100
+		while(true)
+			try {
+				Socket(opt.host, opt.port).close()
+				return
+			} catch(e:IOException) {
+				if(--tries<=0) throw e
+				Thread.sleep(100)
+			}
+	}
+
+	/** @return Total CPU time of the threads of the NetServer in this JVM, null if there's none or it can't be
+	 * measured
+	 */
+	private fun serverCpuTime(opt:Options):Long? {
+		if(!opt.server) return null
+		val bean = ManagementFactory.getThreadMXBean()
+		if(!bean.isThreadCpuTimeSupported) return null
+		return Thread.getAllStackTraces().keys.filter {it.name.startsWith("NetServer")}
+			.sumOf {maxOf(0L, bean.getThreadCpuTime(it.id))}
+	}
+
+	/** @return CPU time of this process (server threads included with -server), null if it can't be measured */
+	private fun processCpuTime():Long? =
+		(ManagementFactory.getOperatingSystemMXBean() as? com.sun.management.OperatingSystemMXBean)
+			?.processCpuTime?.takeIf {it>=0}
+
+	@JvmStatic
+	fun main(args:Array<String>) {
+		PropertyConfigurator.configure("config/etc/log.cfg")
+		val opt = Options()
+		var json = false
+		var outFile:String? = null
+		var i = 0
+		while(i<args.size) {
+			when(args[i]) {
+				"-host" -> opt.host = args.getOrNull(++i) ?: opt.host
+				"-port" -> opt.port = args.getOrNull(++i)?.toIntOrNull() ?: opt.port
+				"-clients" -> opt.clients = args.getOrNull(++i)?.toIntOrNull() ?: opt.clients
+				"-seats" -> opt.seats = args.getOrNull(++i)?.toIntOrNull()?.coerceIn(1, 6) ?: opt.seats
+				"-observers" -> opt.observers = args.getOrNull(++i)?.toIntOrNull() ?: opt.observers
+				"-pps" -> opt.pps = args.getOrNull(++i)?.toDoubleOrNull()?.takeIf {it>0} ?: opt.pps
+				"-moves" -> opt.moves = args.getOrNull(++i)?.toIntOrNull() ?: opt.moves
+				"-duration" -> opt.duration = args.getOrNull(++i)?.toIntOrNull() ?: opt.duration
+				"-warmup" -> opt.warmup = args.getOrNull(++i)?.toIntOrNull() ?: opt.warmup
+				"-selectors" -> opt.selectors = args.getOrNull(++i)?.toIntOrNull() ?: opt.selectors
+				"-server" -> opt.server = true
+				"-json" -> json = true
+				"-out" -> outFile = args.getOrNull(++i)
+				else -> log.warn("Unknown option: ${args[i]}")
+			}
+			i++
+		}
+
+		log.info("${opt.clients} bots in rooms of ${opt.seats} on ${opt.host}:${opt.port}, ${opt.duration}s")
+		val report = run(opt)
+
+		val out = outFile?.let {PrintStream(File(it), "UTF-8")} ?: System.out
+		try {
+			if(json) out.println(buildJsonObject {
+				report.values().forEach {(k, v) ->
+					when(v) {
+						is Number -> put(k, JsonPrimitive(v))
+						else -> put(k, JsonPrimitive("$v"))
+					}
+				}
+			})
+			else report.values().forEach {(k, v) -> out.println("$k: $v")}
+		} finally {
+			if(out!==System.out) out.close() else out.flush()
+		}
+		System.exit(0)
+	}
+}
@@ -0,0 +1,151 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.tool.replaychecker
+
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.add
+import kotlinx.serialization.json.buildJsonArray
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.put
+import mu.nu.nullpo.game.component.ReplayFile
+import mu.nu.nullpo.game.play.ReplayRunner
+import org.apache.log4j.Logger
+import org.apache.log4j.PropertyConfigurator
+import java.io.File
+import java.io.PrintStream
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+/** Re-simulates every replay in the given files/folders on all cores and prints a summary.
+ *
+ * Usage: ReplayChecker [-json] [-threads N] [-out file] [file or folder ...] (default: replay)
+ *
+ * The summary is CSV unless -json is given. Exits with status 1 if any replay desynced. */
+object ReplayChecker {
+	/** Log */
+	internal val log = Logger.getLogger(ReplayChecker::class.java)
+
+	/** CSV columns */
+	private val columns = listOf("file", "mode", "rule", "score", "lines", "time", "desync", "frames", "fps", "error")
+
+	/** Result of one replay file
+	 * @param file Replay file
+	 * @param result Result of the run (null if the file couldn't be loaded)
+	 */
+	class Entry(val file:File, val result:ReplayRunner.Result?) {
+		val desync:Boolean get() = result?.desync ?: true
+		val error:String get() = result?.let {it.error ?: it.mismatches.joinToString("; ")} ?: "Couldn't load the file"
+
+		/** @return Values of [columns] */
+		fun values():List<Any> {
+			val s = result?.statistics?.firstOrNull()
+			return listOf(file.path, result?.mode ?: "", result?.rule ?: "", s?.score ?: 0, s?.lines ?: 0, s?.time ?: 0,
+				desync, result?.frames ?: 0, result?.fps?.toInt() ?: 0, if(desync) error else "")
+		}
+	}
+
+	/** Run every replay on a pool of worker threads
+	 * @param files Replay files
+	 * @param threads Number of worker threads
+	 * @param runner Runner shared by the workers
+	 * @return Results in the same order as files
+	 */
+	fun check(files:List<File>, threads:Int, runner:ReplayRunner = ReplayRunner(ReplayRunner.loadModeManager()))
+		:List<Entry> {
+		val pool = Executors.newFixedThreadPool(maxOf(1, threads)) {r ->
+			Thread(r, "ReplayChecker").apply {isDaemon = true}
+		}
+		try {
+			return pool.invokeAll(files.map {f ->
+				Callable {Entry(f, ReplayFile.load(f)?.let {runner.run(it.prop, it.inputs)})}
+			}).map {it.get()}
+		} finally {
+			pool.shutdown()
+		}
+	}
+
+	/** Write the results as CSV */
+	fun writeCSV(out:PrintStream, entries:List<Entry>) {
+		out.println(columns.joinToString(","))
+		entries.forEach {e ->
+			out.println(e.values().joinToString(",") {v ->
+				if(v is String&&v.any {it==','||it=='"'||it=='\n'}) "\"${v.replace("\"", "\"\"")}\"" else "$v"
+			})
+		}
+	}
+
+	/** Write the results as a JSON array */
+	fun writeJSON(out:PrintStream, entries:List<Entry>) {
+		out.println(buildJsonArray {
+			entries.forEach {e ->
+				add(buildJsonObject {
+					columns.zip(e.values()).forEach {(k, v) ->
+						when(v) {
+							is Boolean -> put(k, JsonPrimitive(v))
+							is Number -> put(k, JsonPrimitive(v))
+							else -> put(k, JsonPrimitive("$v"))
+						}
+					}
+				})
+			}
+		})
+	}
+
+	@JvmStatic
+	fun main(args:Array<String>) {
+		PropertyConfigurator.configure("config/etc/log.cfg")
+		var json = false
+		var threads = Runtime.getRuntime().availableProcessors()
+		var outFile:String? = null
+		val paths = ArrayList<String>()
+		var i = 0
+		while(i<args.size) {
+			when(args[i]) {
+				"-json" -> json = true
+				"-threads" -> threads = args.getOrNull(++i)?.toIntOrNull() ?: threads
+				"-out" -> outFile = args.getOrNull(++i)
+				else -> paths.add(args[i])
+			}
+			i++
+		}
+		if(paths.isEmpty()) paths.add("replay")
+
+		val files = paths.flatMap {p ->
+			File(p).walkTopDown().filter {it.isFile&&it.name.endsWith(".rep")}.sortedBy {it.path}.toList()
+		}
+		log.info("Checking ${files.size} replays on $threads threads")
+		val start = System.nanoTime()
+		val entries = check(files, threads)
+		val desyncs = entries.count {it.desync}
+		log.info("Done in ${(System.nanoTime()-start)/1000000}ms. Desync:$desyncs/${entries.size}")
+
+		val out = outFile?.let {PrintStream(File(it), "UTF-8")} ?: System.out
+		try {
+			if(json) writeJSON(out, entries) else writeCSV(out, entries)
+		} finally {
+			if(out!==System.out) out.close() else out.flush()
+		}
+		if(desyncs>0) System.exit(1)
+	}
+}
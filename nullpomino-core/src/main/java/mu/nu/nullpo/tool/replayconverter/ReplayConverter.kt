@@ -0,0 +1,64 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.tool.replayconverter
+
+import mu.nu.nullpo.game.component.ReplayFile
+import org.apache.log4j.Logger
+import org.apache.log4j.PropertyConfigurator
+import java.io.File
+
+/** Converts old gzipped replay files to the binary format of [ReplayFile], in place.
+ *
+ * Usage: ReplayConverter [file or folder ...] (default: replay) */
+object ReplayConverter {
+	/** Log */
+	internal val log = Logger.getLogger(ReplayConverter::class.java)
+
+	@JvmStatic
+	fun main(args:Array<String>) {
+		PropertyConfigurator.configure("config/etc/log.cfg")
+		var converted = 0
+		var skipped = 0
+		var failed = 0
+		var sizeBefore = 0L
+		var sizeAfter = 0L
+
+		(if(args.isEmpty()) arrayOf("replay") else args).forEach {path ->
+			File(path).walkTopDown().filter {it.isFile&&it.name.endsWith(".rep")}.forEach {
+				if(ReplayFile.isBinary(it)) skipped++
+				else {
+					val before = it.length()
+					if(ReplayFile.convert(it, it)) {
+						converted++
+						sizeBefore += before
+						sizeAfter += it.length()
+					} else failed++
+				}
+			}
+		}
+
+		log.info("Converted:$converted Skipped:$skipped Failed:$failed")
+		if(converted>0) log.info("Size: $sizeBefore -> $sizeAfter bytes")
+	}
+}
@@ -27,4 +27,5 @@ class BagBonusBagRandomizer:BagRandomizer {
 
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = BagBonusBagRandomizer()
 }
@@ -7,4 +7,5 @@ open class BagBonusRandomizer:BagRandomizer {
 
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = BagBonusRandomizer()
 }
@@ -5,4 +5,5 @@ class BagDoublesRandomizer:BagRandomizer {
 
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = BagDoublesRandomizer()
 }
@@ -10,4 +10,5 @@ class BagMinusRandomizer:BagRandomizer {
 
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = BagMinusRandomizer()
 }
@@ -9,4 +9,5 @@ class BagMinusTwoRandomizer:BagRandomizer {
 		}
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = BagMinusTwoRandomizer()
 }
@@ -4,4 +4,5 @@ class BagNoSZORandomizer:BagRandomizer {
 	override val noSZO = true
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = BagNoSZORandomizer()
 }
@@ -4,4 +4,5 @@ class BagNonuplesRandomizer:BagRandomizer {
 	override val baglen:Int get() = pieces.size*9
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = BagNonuplesRandomizer()
 }
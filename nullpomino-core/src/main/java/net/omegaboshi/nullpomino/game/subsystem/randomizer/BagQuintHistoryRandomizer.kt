@@ -8,4 +8,5 @@ class BagQuintHistoryRandomizer:BagRandomizer {
 
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = BagQuintHistoryRandomizer()
 }
@@ -15,6 +15,7 @@ open class BagRandomizer:Randomizer {
 
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = BagRandomizer()
 
 	override fun init() {
 		isfirst = true
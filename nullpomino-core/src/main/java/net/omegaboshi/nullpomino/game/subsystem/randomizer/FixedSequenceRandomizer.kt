@@ -10,6 +10,7 @@ class FixedSequenceRandomizer:Randomizer {
 
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = FixedSequenceRandomizer()
 
 	init {
 		val sequence = StringBuffer()
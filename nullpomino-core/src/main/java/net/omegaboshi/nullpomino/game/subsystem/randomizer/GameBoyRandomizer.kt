@@ -8,6 +8,7 @@ class GameBoyRandomizer:Randomizer {
 
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = GameBoyRandomizer()
 
 	override fun init() {
 		id = firstId
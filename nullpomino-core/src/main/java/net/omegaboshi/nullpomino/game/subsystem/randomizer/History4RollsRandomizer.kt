@@ -5,6 +5,7 @@ import mu.nu.nullpo.game.component.Piece
 class History4RollsRandomizer:LimitedHistoryRandomizer {
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = History4RollsRandomizer()
 
 	init {
 		numrolls = 4
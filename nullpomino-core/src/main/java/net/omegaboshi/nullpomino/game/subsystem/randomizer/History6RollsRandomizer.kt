@@ -5,6 +5,7 @@ import mu.nu.nullpo.game.component.Piece
 class History6RollsRandomizer:LimitedHistoryRandomizer {
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = History6RollsRandomizer()
 
 	init {
 		numrolls = 6
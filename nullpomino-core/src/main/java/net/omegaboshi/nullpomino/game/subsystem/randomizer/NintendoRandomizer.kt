@@ -6,6 +6,7 @@ class NintendoRandomizer:Randomizer {
 
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = NintendoRandomizer()
 
 	override fun init() {
 		prev = pieces.size
@@ -20,6 +20,11 @@ abstract class Randomizer {
 
 	abstract operator fun next():Int
 
+	/** Make another randomizer of the same kind, for a player that must not share this one's state
+	 * @return New randomizer, set up with [setState] before use
+	 */
+	abstract fun newInstance():Randomizer
+
 	fun setState(pieceEnable:BooleanArray, seed:Long) {
 		setPieceEnable(pieceEnable)
 		r = Random(seed)
@@ -5,6 +5,7 @@ import mu.nu.nullpo.game.component.Piece
 class StrictHistoryRandomizer:LimitedHistoryRandomizer {
 	constructor():super()
 	constructor(pieceEnable:BooleanArray, seed:Long):super(pieceEnable, seed)
+	override fun newInstance():Randomizer = StrictHistoryRandomizer()
 
 	init {
 		strict = true
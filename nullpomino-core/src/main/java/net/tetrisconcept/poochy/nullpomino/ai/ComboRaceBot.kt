@@ -131,11 +131,11 @@ class ComboRaceBot:DummyAI(), Runnable {
 		inARE = newInARE
 		if(inARE&&delay>=engine.aiMoveDelay) {
 			var input = 0
-			var nextPiece = engine.getNextObject(engine.nextPieceCount)
+			var nextPiece = engine.peekNextObject(engine.nextPieceCount)
 			if(bestHold&&thinkComplete) {
 				input = input or Controller.BUTTON_BIT_D
 				nextPiece = if(engine.holdPieceObject==null)
-					engine.getNextObject(engine.nextPieceCount+1)
+					engine.peekNextObject(engine.nextPieceCount+1)
 				else
 					engine.holdPieceObject
 			}
@@ -402,20 +402,21 @@ class ComboRaceBot:DummyAI(), Runnable {
 		var pieceHold = engine.holdPieceObject
 		val holdBoxEmpty = pieceHold==null
 		var nextIndex = engine.nextPieceCount
+		// Nothing to think about until the game has prepared the next pieces (they are made when a piece appears)
 		if(inARE||pieceNow==null) {
-			pieceNow = engine.getNextObjectCopy(nextIndex)
+			pieceNow = engine.peekNextObjectCopy(nextIndex) ?: return
 			nextIndex++
 		}
-		pieceHold = if(holdBoxEmpty)
-			engine.getNextObjectCopy(nextIndex)
-		else engine.getNextObjectCopy(engine.nextPieceCount)
+		pieceHold = (if(holdBoxEmpty)
+			engine.peekNextObjectCopy(nextIndex)
+		else engine.peekNextObjectCopy(engine.nextPieceCount)) ?: return
 		pieceNow = checkOffset(pieceNow, engine)
 		pieceHold = checkOffset(pieceHold, engine)
 		val holdOK = engine.isHoldOK
 		var holdID = -1
 		if(engine.holdPieceObject!=null) holdID = engine.holdPieceObject!!.id
 
-		nextQueueIDs = IntArray(MAX_THINK_DEPTH){engine.getNextID(nextIndex+it)}
+		nextQueueIDs = IntArray(MAX_THINK_DEPTH){engine.peekNextID(nextIndex+it)}
 
 		val state = fieldToIndex(fld)
 		if(state<0) {
@@ -470,12 +471,12 @@ class ComboRaceBot:DummyAI(), Runnable {
 				val newRt = (bestRt+bestRtSub+Piece.DIRECTION_COUNT)%Piece.DIRECTION_COUNT
 				if(pieceTemp.checkCollision(bestX, bestY, newRt, fld)&&engine.wallkick!=null&&
 					engine.ruleopt.rotateWallkick) {
-					val kick = engine.wallkick!!.executeWallkick(bestX, bestY, -1, bestRt, newRt,
-						engine.ruleopt.rotateMaxUpwardWallkick!=0, pieceTemp, fld, null!!)
+					val kick = engine.wallkick!!.probeWallkick(bestX, bestY, -1, bestRt, newRt,
+						engine.ruleopt.rotateMaxUpwardWallkick!=0, pieceTemp, fld, null)
 
-					if(kick!=null) {
-						bestX += kick.offsetX
-						bestY = pieceTemp.getBottom(bestX, bestY+kick.offsetY, newRt, fld)
+					if(kick!=WallkickResult.NONE) {
+						bestX += WallkickResult.offsetX(kick)
+						bestY = pieceTemp.getBottom(bestX, bestY+WallkickResult.offsetY(kick), newRt, fld)
 					}
 				}
 				bestRtSub = bestRt
@@ -549,7 +550,7 @@ class ComboRaceBot:DummyAI(), Runnable {
 					thinkComplete = true
 					//log.debug("ComboRaceBot: thinkBestPosition completed successfully");
 				} catch(e:Throwable) {
-					log.debug("ComboRaceBot: thinkBestPosition Failed", e)
+					log.error("ComboRaceBot: thinkBestPosition Failed", e)
 				}
 
 				thinking = false
@@ -626,10 +627,11 @@ class ComboRaceBot:DummyAI(), Runnable {
 
 							if(pieces[p].checkCollision(x, y, rot, fldTemp)&&engine.wallkick!=null&&
 								engine.ruleopt.rotateWallkick) {
-								engine.wallkick!!.executeWallkick(x, y, -1, rt, rot,
-									engine.ruleopt.rotateMaxUpwardWallkick!=0, pieces[p], fldTemp, null!!)?.let{kick->
-									newX = x+kick.offsetX
-									newY = pieces[p].getBottom(newX, y+kick.offsetY, rot, fldTemp)
+								val kick = engine.wallkick!!.probeWallkick(x, y, -1, rt, rot,
+									engine.ruleopt.rotateMaxUpwardWallkick!=0, pieces[p], fldTemp, null)
+								if(kick!=WallkickResult.NONE) {
+									newX = x+WallkickResult.offsetX(kick)
+									newY = pieces[p].getBottom(newX, y+WallkickResult.offsetY(kick), rot, fldTemp)
 								}
 							}
 							if(!pieces[p].checkCollision(newX, newY, rot, fldTemp)&&newY>pieces[p].getBottom(newX, 0, rot, fldTemp)) {
@@ -655,10 +657,11 @@ class ComboRaceBot:DummyAI(), Runnable {
 
 							if(pieces[p].checkCollision(x, y, rot, fldTemp)&&engine.wallkick!=null&&
 								engine.ruleopt.rotateWallkick) {
-								engine.wallkick!!.executeWallkick(x, y, 1, rt, rot,
-									engine.ruleopt.rotateMaxUpwardWallkick!=0, pieces[p], fldTemp, null!!)?.let{kick->
-									newX = x+kick.offsetX
-									newY = pieces[p].getBottom(newX, y+kick.offsetY, rot, fldTemp)
+								val kick = engine.wallkick!!.probeWallkick(x, y, 1, rt, rot,
+									engine.ruleopt.rotateMaxUpwardWallkick!=0, pieces[p], fldTemp, null)
+								if(kick!=WallkickResult.NONE) {
+									newX = x+WallkickResult.offsetX(kick)
+									newY = pieces[p].getBottom(newX, y+WallkickResult.offsetY(kick), rot, fldTemp)
 								}
 							}
 							if(!pieces[p].checkCollision(newX, newY, rot, fldTemp)&&newY>pieces[p].getBottom(newX, 0, rot, fldTemp)) {
@@ -2,6 +2,7 @@ package net.tetrisconcept.poochy.nullpomino.ai
 
 import mu.nu.nullpo.game.component.Field
 import mu.nu.nullpo.game.component.Piece
+import mu.nu.nullpo.game.component.WallkickResult
 import mu.nu.nullpo.game.play.GameEngine
 import mu.nu.nullpo.game.subsystem.ai.DummyAI
 import mu.nu.nullpo.game.subsystem.wallkick.StandardWallkick
@@ -242,9 +243,10 @@ open class ComboRaceSeedSearch:DummyAI() {
 
 							if(piece.checkCollision(x, y, rot, fldTemp)) {
 
-								wallkick.executeWallkick(x, y, -1, rt, rot, true, piece, fldTemp, null!!)?.let {kick ->
-									newX = x+kick.offsetX
-									newY = piece.getBottom(newX, y+kick.offsetY, rot, fldTemp)
+								val kick = wallkick.probeWallkick(x, y, -1, rt, rot, true, piece, fldTemp, null)
+								if(kick!=WallkickResult.NONE) {
+									newX = x+WallkickResult.offsetX(kick)
+									newY = piece.getBottom(newX, y+WallkickResult.offsetY(kick), rot, fldTemp)
 								}
 							}
 							if(!piece.checkCollision(newX, newY, rot, fldTemp)&&newY>piece.getBottom(newX, 0, rot, fldTemp)) {
@@ -267,9 +269,10 @@ open class ComboRaceSeedSearch:DummyAI() {
 							fldTemp.copy(fldBackup)
 
 							if(piece.checkCollision(x, y, rot, fldTemp)) {
-								wallkick.executeWallkick(x, y, 1, rt, rot, true, piece, fldTemp, null!!)?.let {kick ->
-									newX = x+kick.offsetX
-									newY = piece.getBottom(newX, y+kick.offsetY, rot, fldTemp)
+								val kick = wallkick.probeWallkick(x, y, 1, rt, rot, true, piece, fldTemp, null)
+								if(kick!=WallkickResult.NONE) {
+									newX = x+WallkickResult.offsetX(kick)
+									newY = piece.getBottom(newX, y+WallkickResult.offsetY(kick), rot, fldTemp)
 								}
 							}
 							if(!piece.checkCollision(newX, newY, rot, fldTemp)&&newY>piece.getBottom(newX, 0, rot, fldTemp)) {
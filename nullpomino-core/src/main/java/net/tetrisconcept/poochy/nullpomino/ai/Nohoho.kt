@@ -328,21 +328,20 @@ class Nohoho:DummyAI(), Runnable {
 		val holdOK = engine.isHoldOK
 		val nowX:Int
 		val nowY:Int
+		// Nothing to think about until the game has prepared the next pieces (they are made when a piece appears)
 		if(inARE||pieceNow==null) {
-			pieceNow = engine.getNextObjectCopy(engine.nextPieceCount)
+			pieceNow = engine.peekNextObjectCopy(engine.nextPieceCount) ?: return
 			nowX = engine.getSpawnPosX(fld, pieceNow)
 			nowY = engine.getSpawnPosY(pieceNow)
-			if(holdOK&&pieceHold==null) pieceHold = engine.getNextObjectCopy(engine.nextPieceCount+1)
+			if(holdOK&&pieceHold==null) pieceHold = engine.peekNextObjectCopy(engine.nextPieceCount+1)
 		} else {
 			nowX = engine.nowPieceX
 			nowY = engine.nowPieceY
-			if(holdOK&&pieceHold==null) pieceHold = engine.getNextObjectCopy(engine.nextPieceCount)
+			if(holdOK&&pieceHold==null) pieceHold = engine.peekNextObjectCopy(engine.nextPieceCount)
 		}
 		pieceNow = checkOffset(pieceNow, engine)
-		if(holdOK&&pieceHold==null) {
-			pieceHold = checkOffset(pieceHold, engine)
-			if(pieceHold.id==pieceNow.id) pieceHold = null
-		}
+		pieceHold = pieceHold?.let {checkOffset(it, engine)}
+		if(pieceHold?.id==pieceNow.id) pieceHold = null
 
 		var defcon = 5 //Defense condition. 1 = most defensive, 5 = least defensive.
 		val depths = getColumnDepths(fld)
@@ -585,7 +584,7 @@ class Nohoho:DummyAI(), Runnable {
 					thinkComplete = true
 					log.debug("Nohoho: thinkBestPosition completed successfully")
 				} catch(e:Throwable) {
-					log.debug("Nohoho: thinkBestPosition Failed", e)
+					log.error("Nohoho: thinkBestPosition Failed", e)
 				}
 
 				thinking = false
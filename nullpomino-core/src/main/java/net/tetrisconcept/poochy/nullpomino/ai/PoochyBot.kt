@@ -4,7 +4,10 @@ import mu.nu.nullpo.game.component.*
 import mu.nu.nullpo.game.event.EventReceiver.COLOR
 import mu.nu.nullpo.game.play.GameEngine
 import mu.nu.nullpo.game.play.GameManager
+import mu.nu.nullpo.game.subsystem.ai.AIExecutor
 import mu.nu.nullpo.game.subsystem.ai.DummyAI
+import mu.nu.nullpo.game.subsystem.ai.MoveGenerator
+import mu.nu.nullpo.game.subsystem.ai.TranspositionTable
 import mu.nu.nullpo.util.GeneralUtil
 import org.apache.log4j.Logger
 import kotlin.math.abs
@@ -37,21 +40,18 @@ open class PoochyBot:DummyAI(), Runnable {
 	/** The GameManager that owns this AI */
 	private var gManager:GameManager? = null
 
-	/** When true,To threadThink routineInstructing the execution of the */
-	private var thinkRequest:ThinkRequestMutex = ThinkRequestMutex()
+	/** Think routine requests handed to [AIExecutor] */
+	private val thinkRequest by lazy {AIExecutor.Request(name, this)}
 
-	/** true when thread is executing the think routine. */
-	private var thinking:Boolean = false
+	/** true when a worker is executing the think routine. */
+	@Volatile private var thinking:Boolean = false
 
-	/** To stop a thread time */
+	/** Delay before a requested think routine starts */
 	private var thinkDelay:Int = 0
 
-	/** When true,Running thread */
+	/** When true, think requests are accepted by the worker pool */
 	@Volatile var threadRunning:Boolean = false
 
-	/** Thread for executing the think routine */
-	var thread:Thread? = null
-
 	/** Number of frames for which piece has been stuck */
 	private var stuckDelay:Int = 0
 
@@ -77,6 +77,18 @@ open class PoochyBot:DummyAI(), Runnable {
 	/** Was the game in ARE as of the last frame? */
 	private var inARE:Boolean = false
 
+	/** Snapshot of the engine's field taken at the start of each think cycle */
+	private var fldBase:Field = Field()
+	/** Working field reused by every think cycle */
+	private var fldWork:Field = Field()
+	/** Scratch buffers for column depths and valleys, reused across thinkMain calls */
+	protected var depthsBeforeBuf:IntArray = IntArray(0)
+	protected var depthsAfterBuf:IntArray = IntArray(0)
+	protected val valleysBeforeBuf:IntArray = IntArray(3)
+	protected val valleysAfterBuf:IntArray = IntArray(3)
+	/** Scores of the placements already evaluated, shared by the hold and no-hold branches and every depth */
+	val evalCache = TranspositionTable()
+
 	/* AI's name */
 	override val name:String = "PoochyBot V1.25"
 
@@ -85,9 +97,10 @@ open class PoochyBot:DummyAI(), Runnable {
 		delay = 0
 		gEngine = engine
 		gManager = engine.owner
-		thinkRequest = ThinkRequestMutex()
+		thinkRequest.cancel()
 		thinking = false
 		threadRunning = false
+		evalCache.clear()
 		setDAS = 0
 
 		stuckDelay = 0
@@ -102,23 +115,20 @@ open class PoochyBot:DummyAI(), Runnable {
 		thinkSuccess = false
 		inARE = false
 
-		if((thread==null||!thread!!.isAlive)&&engine.aiUseThread) {
-			thread = Thread(this, "AI_$playerID")
-			thread!!.isDaemon = true
-			thread!!.start()
+		if(engine.aiUseThread) {
 			thinkDelay = engine.aiThinkDelay
 			thinkCurrentPieceNo = 0
 			thinkLastPieceNo = 0
+			thinkRequest.start(thinkDelay)
+			threadRunning = true
 		}
 	}
 
 	/* End processing */
 	override fun shutdown() {
-		if(thread!=null&&thread!!.isAlive) {
-			thread!!.interrupt()
-			threadRunning = false
-			thread = null
-		}
+		thinkRequest.cancel()
+		threadRunning = false
+		evalCache.clear()
 	}
 
 	/* Called whenever a new piece is spawned */
@@ -129,7 +139,7 @@ open class PoochyBot:DummyAI(), Runnable {
 			||engine.speed.are<=0||engine.speed.areLine<=0) {
 			thinkComplete = false
 			//thinkCurrentPieceNo++;
-			thinkRequest.newRequest()
+			thinkRequest.request()
 		}
 	}
 
@@ -141,16 +151,16 @@ open class PoochyBot:DummyAI(), Runnable {
 			&&(newInARE&&!inARE||!thinking&&!thinkSuccess)) {
 			if(DEBUG_ALL) log.debug("Begin pre-think of next piece.")
 			thinkComplete = false
-			thinkRequest.newRequest()
+			thinkRequest.request()
 		}
 		inARE = newInARE
 		if(inARE&&delay>=engine.aiMoveDelay) {
 			var input = 0
-			var nextPiece = engine.getNextObject(engine.nextPieceCount)
+			var nextPiece = engine.peekNextObject(engine.nextPieceCount)
 			if(bestHold&&thinkComplete) {
 				input = input or Controller.BUTTON_BIT_D
 				nextPiece = if(engine.holdPieceObject==null)
-					engine.getNextObject(engine.nextPieceCount+1)
+					engine.peekNextObject(engine.nextPieceCount+1)
 				else
 					engine.holdPieceObject
 			}
@@ -235,12 +245,12 @@ open class PoochyBot:DummyAI(), Runnable {
 				&&!fld.getBlockEmpty(pieceNow.maximumBlockX+nowX-1, pieceNow.maximumBlockY+nowY)) {
 				thinkComplete = false
 				if(DEBUG_ALL) log.debug("Needs rethink - L or J piece is stuck!")
-				thinkRequest.newRequest()
+				thinkRequest.request()
 			}
 			if(nowType==Piece.PIECE_O&&(bestX<nowX&&pieceNow.checkCollision(nowX-1, nowY, rt, fld)||bestX<nowX&&pieceNow.checkCollision(nowX-1, nowY, rt, fld))) {
 				thinkComplete = false
 				if(DEBUG_ALL) log.debug("Needs rethink - O piece is stuck!")
-				thinkRequest.newRequest()
+				thinkRequest.request()
 			}
 			if(pieceTouchGround&&rt==bestRt&&
 				(pieceNow.getMostMovableRight(nowX, nowY, rt, engine.field!!)<bestX||pieceNow.getMostMovableLeft(nowX, nowY, rt, engine.field!!)>bestX))
@@ -250,20 +260,20 @@ open class PoochyBot:DummyAI(), Runnable {
 			if(stuckDelay>4) {
 				thinkComplete = false
 				if(DEBUG_ALL) log.debug("Needs rethink - piece is stuck!")
-				thinkRequest.newRequest()
+				thinkRequest.request()
 			}
 			if(nowX==lastX&&nowY==lastY&&rt==lastRt&&lastInput!=0) {
 				sameStatusTime++
 				if(sameStatusTime>4) {
 					thinkComplete = false
 					if(DEBUG_ALL) log.debug("Needs rethink - piece is stuck, last inputs had no effect!")
-					thinkRequest.newRequest()
+					thinkRequest.request()
 				}
 			}
 			if(engine.nowPieceRotateCount>=8) {
 				thinkComplete = false
 				if(DEBUG_ALL) log.debug("Needs rethink - piece is stuck, too many rotations!")
-				thinkRequest.newRequest()
+				thinkRequest.request()
 			} else
 				sameStatusTime = 0
 			if(bestHold&&thinkComplete&&engine.isHoldOK) {
@@ -379,7 +389,7 @@ open class PoochyBot:DummyAI(), Runnable {
 					//thinkCurrentPieceNo++;
 					//System.out.println("rethink c:" + thinkCurrentPieceNo + " l:" + thinkLastPieceNo);
 					if(DEBUG_ALL) log.debug("Needs rethink - cannot reach desired position")
-					thinkRequest.newRequest()
+					thinkRequest.request()
 				} else {
 					// If you are able to reach
 					if(nowX==bestX&&pieceTouchGround)
@@ -657,11 +667,14 @@ open class PoochyBot:DummyAI(), Runnable {
 		bestRtSub = -1
 		bestPts = 0
 		thinkSuccess = false
+		evalCache.newSearch()
 
+		// Every candidate is placed on fld and then rolled back from fldBase, so nothing is allocated per candidate
+		engine.field?.let {fldBase.restore(it)}
 		val fld:Field = if(engine.stat===GameEngine.Status.READY)
 			Field(engine.fieldWidth, engine.fieldHeight, engine.fieldHiddenHeight, engine.ruleopt.fieldCeiling)
 		else
-			Field(engine.field)
+			fldWork.also {it.restore(fldBase)}
 		var pieceNow = engine.nowPieceObject
 		var pieceHold = engine.holdPieceObject
 		/* Piece pieceNow = null;
@@ -674,20 +687,21 @@ open class PoochyBot:DummyAI(), Runnable {
 		val nowY:Int
 		val nowRt:Int
 		if(inARE||pieceNow==null) {
-			pieceNow = engine.getNextObjectCopy(engine.nextPieceCount)
+			// Nothing to think about until the game has prepared the next pieces (they are made when a piece appears)
+			pieceNow = engine.peekNextObjectCopy(engine.nextPieceCount) ?: return
 			nowX = engine.getSpawnPosX(fld, pieceNow)
 			nowY = engine.getSpawnPosY(pieceNow)
-			nowRt = engine.ruleopt.pieceDefaultDirection[pieceNow!!.id]
-			if(pieceHold==null) pieceHold = engine.getNextObjectCopy(engine.nextPieceCount+1)
+			nowRt = engine.ruleopt.pieceDefaultDirection[pieceNow.id]
+			if(pieceHold==null) pieceHold = engine.peekNextObjectCopy(engine.nextPieceCount+1)
 		} else {
 			nowX = engine.nowPieceX
 			nowY = engine.nowPieceY
 			nowRt = pieceNow.direction
-			if(pieceHold==null) pieceHold = engine.getNextObjectCopy(engine.nextPieceCount)
+			if(pieceHold==null) pieceHold = engine.peekNextObjectCopy(engine.nextPieceCount)
 		}
 		pieceNow = checkOffset(pieceNow, engine)
-		pieceHold = checkOffset(pieceHold, engine)
-		if(pieceHold.id==pieceNow.id) pieceHold = null
+		pieceHold = pieceHold?.let {checkOffset(it, engine)}
+		if(pieceHold?.id==pieceNow.id) pieceHold = null
 		/* if (!pieceNow.offsetApplied)
 		 * pieceNow.applyOffsetArray(engine.ruleopt.pieceOffsetX[pieceNow.id],
 		 * engine.ruleopt.pieceOffsetY[pieceNow.id]);
@@ -707,390 +721,73 @@ open class PoochyBot:DummyAI(), Runnable {
 		else if(canFloorKickT&&!pieceNow.checkCollision(nowX+1, nowY, Piece.DIRECTION_UP, fld))
 			canFloorKickT = false
 
-		var move = 1
-		if(engine.big) move = 2
+		// Reachable placements, with the shift or rotation after the drop (the only one setControl makes)
+		val plans = moveGenerator.plans(engine, fld, pieceNow, nowX, nowY, nowRt).filter {it.isSingleMove}
+		val holdPlans = if(holdOK&&pieceHold!=null) moveGenerator.plans(engine, fld, pieceHold).filter {it.isSingleMove}
+		else emptyList()
+
+		//Bonus for holding an I piece, penalty for holding an S or Z.
+		var holdPts = 0
+		when(pieceHold?.id) {
+			Piece.PIECE_I -> holdPts -= 30
+			Piece.PIECE_S, Piece.PIECE_Z -> holdPts += 30
+			Piece.PIECE_O -> holdPts += 10
+		}
+		when(pieceNow.id) {
+			Piece.PIECE_I -> holdPts += 30
+			Piece.PIECE_S, Piece.PIECE_Z -> holdPts -= 30
+			Piece.PIECE_O -> holdPts -= 10
+		}
+
+		/* Evaluate a placement and keep it if it is the best so far.
+		 * Drops win ties, so that a shift or rotation on the ground is only used when it is better. */
+		fun offer(p:MoveGenerator.Plan, piece:Piece, hold:Boolean, depth:Int) {
+			fld.restore(fldBase)
+			var pts = when {
+				p.isDrop -> evaluate(p.x, p.y, p.rt, -1, fld, piece, depth)
+				p.rtSub!=-1 -> evaluate(p.xSub, p.ySub, p.rtSub, p.rt, fld, piece, depth)
+				else -> evaluate(p.xSub, p.ySub, p.rt, -1, fld, piece, depth)
+			}
+			if(hold&&pts>Integer.MIN_VALUE+30) pts += holdPts
+			if(if(p.isDrop) pts>=bestPts else pts>bestPts) {
+				bestHold = hold
+				bestX = p.x
+				bestY = p.y
+				bestRt = p.rt
+				bestXSub = p.xSub
+				bestYSub = p.ySub
+				bestRtSub = p.rtSub
+				bestPts = pts
+				if(DEBUG_ALL) logBest((if(p.isDrop) 1 else if(p.rtSub==-1) 2 else 4)+if(hold) 6 else 0)
+				thinkSuccess = true
+			}
+		}
 
 		for(depth in 0 until MAX_THINK_DEPTH) {
-			/* int dirCount = Piece.DIRECTION_COUNT;
-			 * if (pieceNow.id == Piece.PIECE_I || pieceNow.id == Piece.PIECE_S
-			 * || pieceNow.id == Piece.PIECE_Z)
-			 * dirCount = 2;
-			 * else if (pieceNow.id == Piece.PIECE_O)
-			 * dirCount = 1; */
 			for(rt in 0 until Piece.DIRECTION_COUNT) {
 				var tempY = nowY
 				if(canFloorKickI&&rt and 1==1)
 					tempY -= 2
 				else if(canFloorKickT&&rt==Piece.DIRECTION_UP) tempY--
 
-				val minX =
-					maxOf(mostMovableX(nowX, tempY, -1, engine, fld, pieceNow, rt), pieceNow.getMostMovableLeft(nowX, tempY, rt, engine.field!!))
-				val maxX =
-					minOf(mostMovableX(nowX, tempY, 1, engine, fld, pieceNow, rt), pieceNow.getMostMovableRight(nowX, tempY, rt, engine.field!!))
+				// The generator finds what can be reached; these bounds add how far the piece can get at high gravity
+				val minX = mostMovableX(nowX, tempY, -1, engine, fld, pieceNow, rt)
+				val maxX = mostMovableX(nowX, tempY, 1, engine, fld, pieceNow, rt)
 				var spawnOK = true
 				if(engine.stat===GameEngine.Status.ARE) {
 					val spawnX = engine.getSpawnPosX(fld, pieceNow)
 					val spawnY = engine.getSpawnPosY(pieceNow)
 					spawnOK = !pieceNow.checkCollision(spawnX, spawnY, fld)
 				}
-				run {
-					var x = minX
-					while(x<=maxX&&spawnOK) {
-						fld.copy(engine.field!!)
-						val y = pieceNow.getBottom(x, tempY, rt, fld)
-
-						if(!pieceNow.checkCollision(x, y, rt, fld)) {
-							// As it is
-							var pts = thinkMain(x, y, rt, -1, fld, pieceNow, depth)
-
-							if(pts>=bestPts) {
-								bestHold = false
-								bestX = x
-								bestY = y
-								bestRt = rt
-								bestXSub = x
-								bestYSub = y
-								bestRtSub = -1
-								bestPts = pts
-								if(DEBUG_ALL) logBest(1)
-								thinkSuccess = true
-							}
-							//Check regardless
-							//if((depth > 0) || (bestPts <= 10) || (pieceNow.id == Piece.PIECE_T)) {
-							// Left shift
-							fld.copy(engine.field!!)
-							if(!pieceNow.checkCollision(x-move, y, rt, fld)&&pieceNow.checkCollision(x-move, y-1, rt, fld)) {
-								pts = thinkMain(x-move, y, rt, -1, fld, pieceNow, depth)
-
-								if(pts>bestPts) {
-									bestHold = false
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = x-move
-									bestYSub = y
-									bestRtSub = -1
-									bestPts = pts
-									if(DEBUG_ALL) logBest(2)
-									thinkSuccess = true
-								}
-							}
-
-							// Right shift
-							fld.copy(engine.field!!)
-							if(!pieceNow.checkCollision(x+move, y, rt, fld)&&pieceNow.checkCollision(x+1, y-move, rt, fld)) {
-								pts = thinkMain(x+move, y, rt, -1, fld, pieceNow, depth)
-
-								if(pts>bestPts) {
-									bestHold = false
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = x+1
-									bestYSub = y
-									bestRtSub = -1
-									bestPts = pts
-									if(DEBUG_ALL) logBest(3)
-									thinkSuccess = true
-								}
-							}
-
-							// Left rotation
-							if(!engine.ruleopt.rotateButtonDefaultRight||engine.ruleopt.rotateButtonAllowReverse) {
-								val rot = pieceNow.getRotateDirection(-1, rt)
-								var newX = x
-								var newY = y
-								fld.copy(engine.field!!)
-								pts = Integer.MIN_VALUE
-
-								if(!pieceNow.checkCollision(x, y, rot, fld))
-									pts = thinkMain(x, y, rot, rt, fld, pieceNow, depth)
-								else if(engine.wallkick!=null&&engine.ruleopt.rotateWallkick) {
-									val allowUpward =
-										engine.ruleopt.rotateMaxUpwardWallkick<0||engine.nowUpwardWallkickCount<engine.ruleopt.rotateMaxUpwardWallkick
-									engine.wallkick!!.executeWallkick(x, y, -1, rt, rot, allowUpward, pieceNow, fld, null)?.let{kick->
-										newX = x+kick.offsetX
-										newY = y+kick.offsetY
-										pts = thinkMain(newX, newY, rot, rt, fld, pieceNow, depth)
-									}
-								}
-
-								if(pts>bestPts) {
-									bestHold = false
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = newX
-									bestYSub = newY
-									bestRtSub = rot
-									bestPts = pts
-									if(DEBUG_ALL) logBest(4)
-									thinkSuccess = true
-								}
-							}
-
-							// Right rotation
-							if(engine.ruleopt.rotateButtonDefaultRight||engine.ruleopt.rotateButtonAllowReverse) {
-								val rot = pieceNow.getRotateDirection(1, rt)
-								var newX = x
-								var newY = y
-								fld.copy(engine.field!!)
-								pts = Integer.MIN_VALUE
-
-								if(!pieceNow.checkCollision(x, y, rot, fld))
-									pts = thinkMain(x, y, rot, rt, fld, pieceNow, depth)
-								else if(engine.wallkick!=null&&engine.ruleopt.rotateWallkick) {
-									val allowUpward =
-										engine.ruleopt.rotateMaxUpwardWallkick<0||engine.nowUpwardWallkickCount<engine.ruleopt.rotateMaxUpwardWallkick
-									engine.wallkick!!.executeWallkick(x, y, 1, rt, rot, allowUpward, pieceNow, fld, null)?.let{kick->
-										newX = x+kick.offsetX
-										newY = y+kick.offsetY
-										pts = thinkMain(newX, newY, rot, rt, fld, pieceNow, depth)
-									}
-								}
-
-								if(pts>bestPts) {
-									bestHold = false
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = newX
-									bestYSub = newY
-									bestRtSub = rot
-									bestPts = pts
-									if(DEBUG_ALL) logBest(5)
-									thinkSuccess = true
-								}
-							}
-
-							// 180-degree rotation
-							if(engine.ruleopt.rotateButtonAllowDouble) {
-								val rot = pieceNow.getRotateDirection(2, rt)
-								var newX = x
-								var newY = y
-								fld.copy(engine.field!!)
-								pts = Integer.MIN_VALUE
-
-								if(!pieceNow.checkCollision(x, y, rot, fld))
-									pts = thinkMain(x, y, rot, rt, fld, pieceNow, depth)
-								else if(engine.wallkick!=null&&engine.ruleopt.rotateWallkick) {
-									val allowUpward =
-										engine.ruleopt.rotateMaxUpwardWallkick<0||engine.nowUpwardWallkickCount<engine.ruleopt.rotateMaxUpwardWallkick
-									engine.wallkick!!.executeWallkick(x, y, 2, rt, rot, allowUpward, pieceNow, fld, null)?.let{kick->
-										newX = x+kick.offsetX
-										newY = y+kick.offsetY
-										pts = thinkMain(newX, newY, rot, rt, fld, pieceNow, depth)
-									}
-								}
-
-								if(pts>bestPts) {
-									bestHold = false
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = newX
-									bestYSub = newY
-									bestRtSub = rot
-									bestPts = pts
-									if(DEBUG_ALL) logBest(6)
-									thinkSuccess = true
-								}
-							}
-							//}
-						}
-						x += move
-					}
-				}
+				if(spawnOK) for(p in plans) if(p.rt==rt&&p.x in minX..maxX) offer(p, pieceNow, false, depth)
 
 				// Hold piece
 				if(holdOK&&pieceHold!=null) {
-					val spawnX = engine.getSpawnPosX(engine.field, pieceHold)
+					val spawnX = engine.getSpawnPosX(fld, pieceHold)
 					val spawnY = engine.getSpawnPosY(pieceHold)
-					val minHoldX =
-						maxOf(mostMovableX(spawnX, spawnY, -1, engine, engine.field, pieceHold, rt), pieceHold.getMostMovableLeft(spawnX, spawnY, rt, engine.field!!))
-					val maxHoldX =
-						minOf(mostMovableX(spawnX, spawnY, 1, engine, engine.field, pieceHold, rt), pieceHold.getMostMovableRight(spawnX, spawnY, rt, engine.field!!))
-
-					//Bonus for holding an I piece, penalty for holding an S or Z.
-					val holdType = pieceHold.id
-					var holdPts = 0
-					if(holdType==Piece.PIECE_I)
-						holdPts -= 30
-					else if(holdType==Piece.PIECE_S||holdType==Piece.PIECE_Z)
-						holdPts += 30
-					else if(holdType==Piece.PIECE_O) holdPts += 10
-					val nowType = pieceNow.id
-					if(nowType==Piece.PIECE_I)
-						holdPts += 30
-					else if(nowType==Piece.PIECE_S||nowType==Piece.PIECE_Z)
-						holdPts -= 30
-					else if(nowType==Piece.PIECE_O) holdPts -= 10
-
-					var x = minHoldX
-					while(x<=maxHoldX) {
-						fld.copy(engine.field!!)
-						val y = pieceHold.getBottom(x, spawnY, rt, fld)
-
-						if(!pieceHold.checkCollision(x, y, rt, fld)) {
-							// As it is
-							var pts = thinkMain(x, y, rt, -1, fld, pieceHold, depth)
-							if(pts>Integer.MIN_VALUE+30) pts += holdPts
-							if(pts>=bestPts) {
-								bestHold = true
-								bestX = x
-								bestY = y
-								bestRt = rt
-								bestXSub = x
-								bestYSub = y
-								bestRtSub = -1
-								bestPts = pts
-								if(DEBUG_ALL) logBest(7)
-								thinkSuccess = true
-							}
-							//Check regardless
-							//if((depth > 0) || (bestPts <= 10) || (pieceHold.id == Piece.PIECE_T)) {
-							// Left shift
-							fld.copy(engine.field!!)
-							if(!pieceHold.checkCollision(x-move, y, rt, fld)&&pieceHold.checkCollision(x-move, y-1, rt, fld)) {
-								pts = thinkMain(x-move, y, rt, -1, fld, pieceHold, depth)
-								if(pts>Integer.MIN_VALUE+30) pts += holdPts
-								if(pts>bestPts) {
-									bestHold = true
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = x-move
-									bestYSub = y
-									bestRtSub = -1
-									bestPts = pts
-									if(DEBUG_ALL) logBest(8)
-									thinkSuccess = true
-								}
-							}
-
-							// Right shift
-							fld.copy(engine.field!!)
-							if(!pieceHold.checkCollision(x+move, y, rt, fld)&&pieceHold.checkCollision(x+move, y-1, rt, fld)) {
-								pts = thinkMain(x+move, y, rt, -1, fld, pieceHold, depth)
-								if(pts>Integer.MIN_VALUE+30) pts += holdPts
-								if(pts>bestPts) {
-									bestHold = true
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = x+move
-									bestYSub = y
-									bestRtSub = -1
-									bestPts = pts
-									if(DEBUG_ALL) logBest(9)
-									thinkSuccess = true
-								}
-							}
-
-							// Left rotation
-							if(!engine.ruleopt.rotateButtonDefaultRight||engine.ruleopt.rotateButtonAllowReverse) {
-								val rot = pieceHold.getRotateDirection(-1, rt)
-								var newX = x
-								var newY = y
-								fld.copy(engine.field!!)
-								pts = Integer.MIN_VALUE
-
-								if(!pieceHold.checkCollision(x, y, rot, fld))
-									pts = thinkMain(x, y, rot, rt, fld, pieceHold, depth)
-								else if(engine.wallkick!=null&&engine.ruleopt.rotateWallkick) {
-									val allowUpward =
-										engine.ruleopt.rotateMaxUpwardWallkick<0||engine.nowUpwardWallkickCount<engine.ruleopt.rotateMaxUpwardWallkick
-									engine.wallkick!!.executeWallkick(x, y, -1, rt, rot, allowUpward, pieceHold, fld, null)?.let{kick->
-										newX = x+kick.offsetX
-										newY = y+kick.offsetY
-										pts = thinkMain(newX, newY, rot, rt, fld, pieceHold, depth)
-									}
-								}
-								if(pts>Integer.MIN_VALUE+30) pts += holdPts
-								if(pts>bestPts) {
-									bestHold = true
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = newX
-									bestYSub = newY
-									bestRtSub = rot
-									bestPts = pts
-									if(DEBUG_ALL) logBest(10)
-									thinkSuccess = true
-								}
-							}
-
-							// Right rotation
-							if(engine.ruleopt.rotateButtonDefaultRight||engine.ruleopt.rotateButtonAllowReverse) {
-								val rot = pieceHold.getRotateDirection(1, rt)
-								var newX = x
-								var newY = y
-								fld.copy(engine.field!!)
-								pts = Integer.MIN_VALUE
-
-								if(!pieceHold.checkCollision(x, y, rot, fld))
-									pts = thinkMain(x, y, rot, rt, fld, pieceHold, depth)
-								else if(engine.wallkick!=null&&engine.ruleopt.rotateWallkick) {
-									val allowUpward =
-										engine.ruleopt.rotateMaxUpwardWallkick<0||engine.nowUpwardWallkickCount<engine.ruleopt.rotateMaxUpwardWallkick
-									engine.wallkick!!.executeWallkick(x, y, 1, rt, rot, allowUpward, pieceHold, fld, null)?.let{kick->
-										newX = x+kick.offsetX
-										newY = y+kick.offsetY
-										pts = thinkMain(newX, newY, rot, rt, fld, pieceHold, depth)
-									}
-								}
-								if(pts>Integer.MIN_VALUE+30) pts += holdPts
-								if(pts>bestPts) {
-									bestHold = true
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = newX
-									bestYSub = newY
-									bestRtSub = rot
-									bestPts = pts
-									if(DEBUG_ALL) logBest(11)
-									thinkSuccess = true
-								}
-							}
-
-							// 180-degree rotation
-							if(engine.ruleopt.rotateButtonAllowDouble) {
-								val rot = pieceHold.getRotateDirection(2, rt)
-								var newX = x
-								var newY = y
-								fld.copy(engine.field!!)
-								pts = Integer.MIN_VALUE
-
-								if(!pieceHold.checkCollision(x, y, rot, fld))
-									pts = thinkMain(x, y, rot, rt, fld, pieceHold, depth)
-								else if(engine.wallkick!=null&&engine.ruleopt.rotateWallkick) {
-									val allowUpward =
-										engine.ruleopt.rotateMaxUpwardWallkick<0||engine.nowUpwardWallkickCount<engine.ruleopt.rotateMaxUpwardWallkick
-									engine.wallkick!!.executeWallkick(x, y, 2, rt, rot, allowUpward, pieceHold, fld, null)?.let{kick->
-										newX = x+kick.offsetX
-										newY = y+kick.offsetY
-										pts = thinkMain(newX, newY, rot, rt, fld, pieceHold, depth)
-									}
-								}
-								if(pts>Integer.MIN_VALUE+30) pts += holdPts
-								if(pts>bestPts) {
-									bestHold = true
-									bestX = x
-									bestY = y
-									bestRt = rt
-									bestXSub = newX
-									bestYSub = newY
-									bestRtSub = rot
-									bestPts = pts
-									if(DEBUG_ALL) logBest(12)
-									thinkSuccess = true
-								}
-							}
-						}
-						x += move
-					}
+					val minHoldX = mostMovableX(spawnX, spawnY, -1, engine, fld, pieceHold, rt)
+					val maxHoldX = mostMovableX(spawnX, spawnY, 1, engine, fld, pieceHold, rt)
+					for(p in holdPlans) if(p.rt==rt&&p.x in minHoldX..maxHoldX) offer(p, pieceHold, true, depth)
 				}
 			}
 
@@ -1107,6 +804,26 @@ open class PoochyBot:DummyAI(), Runnable {
 		//thinkLastPieceNo++;
 
 		//System.out.println("X:" + bestX + " Y:" + bestY + " R:" + bestRt + " H:" + bestHold + " Pts:" + bestPts);
+		if(DEBUG_ALL) log.debug("Evaluation cache hit rate: ${evalCache.hitRate}")
+	}
+
+	/** Score a placement, reusing the score of an identical one evaluated before.
+	 * The key covers everything [thinkMain] reads: the field before placement, the piece, the position,
+	 * whether it was rotated (twist) and the compromise level.
+	 * @param x X-coordinate
+	 * @param y Y-coordinate
+	 * @param rt Direction
+	 * @param rtOld Direction before rotation (-1: None)
+	 * @param fld Field (Can be modified without problems)
+	 * @param piece Piece
+	 * @param depth Compromise level
+	 * @return Evaluation score
+	 */
+	private fun evaluate(x:Int, y:Int, rt:Int, rtOld:Int, fld:Field, piece:Piece?, depth:Int):Int {
+		if(piece==null) return thinkMain(x, y, rt, rtOld, fld, piece, depth)
+		val key = TranspositionTable.mix(TranspositionTable.placementKey(fld, piece, x, y, rt),
+			depth.toLong() shl 1 or (if(rtOld!=-1) 1L else 0L))
+		return evalCache.getOrPut(key) {thinkMain(x, y, rt, rtOld, fld, piece, depth)}
 	}
 
 	/**
@@ -1156,13 +873,13 @@ open class PoochyBot:DummyAI(), Runnable {
 			}
 		}
 		//Fetch depths and find valleys that require an I, J, or L.
-		val depthsBefore = getColumnDepths(fld)
+		val depthsBefore = getColumnDepths(fld, depthsBeforeBuf).also {depthsBeforeBuf = it}
 		var deepestY = -1
 		//int deepestX = -1;
 		for(i in 0 until width-1)
 			if(depthsBefore[i]>deepestY) deepestY = depthsBefore[i]
 		//deepestX = i;
-		val valleysBefore = calcValleys(depthsBefore, move)
+		val valleysBefore = calcValleys(depthsBefore, move, valleysBeforeBuf)
 
 		// Field height (before placement)
 		val heightBefore = fld.highestBlockY
@@ -1205,7 +922,7 @@ open class PoochyBot:DummyAI(), Runnable {
 		// Field height (after clears)
 		val heightAfter = fld.highestBlockY
 
-		val depthsAfter = getColumnDepths(fld)
+		val depthsAfter = getColumnDepths(fld, depthsAfterBuf).also {depthsAfterBuf = it}
 
 		// Danger flag
 		val danger = heightBefore<=4*(move+1)
@@ -1269,7 +986,7 @@ open class PoochyBot:DummyAI(), Runnable {
 			//int lidAfter = fld.getHowManyLidAboveHoles();
 
 			//Find valleys that need an I, J, or L.
-			val valleysAfter = calcValleys(depthsAfter, move)
+			val valleysAfter = calcValleys(depthsAfter, move, valleysAfterBuf)
 
 			if(holeAfter>holeBefore) {
 				// Demerits for new holes
@@ -1587,59 +1304,18 @@ open class PoochyBot:DummyAI(), Runnable {
 
 	}
 
-	/* Processing of the thread */
+	/* Think routine run by a worker of [AIExecutor] */
 	override fun run() {
-		log.info("PoochyBot: Thread start")
-		threadRunning = true
-
-		while(threadRunning) {
-			try {
-				synchronized(thinkRequest) {
-					if(!thinkRequest.active) thinkRequest.wait()
-				}
-			} catch(e:InterruptedException) {
-				log.debug("PoochyBot: InterruptedException waiting for thinkRequest signal")
-			}
-
-			if(thinkRequest.active) {
-				thinkRequest.active = false
-				thinking = true
-				try {
-					thinkBestPosition(gEngine, gEngine.playerID)
-					thinkComplete = true
-					log.debug("PoochyBot: thinkBestPosition completed successfully")
-				} catch(e:Throwable) {
-					log.debug("PoochyBot: thinkBestPosition Failed", e)
-				}
-
-				thinking = false
-			}
-
-			if(thinkDelay>0)
-				try {
-					Thread.sleep(thinkDelay.toLong())
-				} catch(e:InterruptedException) {
-					log.debug("PoochyBot: InterruptedException trying to sleep")
-				}
-
+		thinking = true
+		try {
+			thinkBestPosition(gEngine, gEngine.playerID)
+			thinkComplete = true
+			log.debug("PoochyBot: thinkBestPosition completed successfully")
+		} catch(e:Throwable) {
+			log.error("PoochyBot: thinkBestPosition Failed", e)
 		}
 
-		threadRunning = false
-		log.info("PoochyBot: Thread end")
-	}
-
-	//Wrapper for think requests
-	private class ThinkRequestMutex:java.lang.Object() {
-		var active:Boolean = false
-
-		init {
-			active = false
-		}
-
-		@Synchronized fun newRequest() {
-			active = true
-			notifyAll()
-		}
+		thinking = false
 	}
 
 	companion object {
@@ -1659,8 +1335,14 @@ open class PoochyBot:DummyAI(), Runnable {
 			return result
 		}
 
-		fun calcValleys(depths:IntArray, move:Int):IntArray {
-			val result = intArrayOf(0, 0, 0)
+		/**
+		 * @param depths Column depths
+		 * @param move 1, or 2 for Big
+		 * @param result Array of size 3 to write into
+		 * @return [result] holding the number of valleys needing an I, an L and a J
+		 */
+		fun calcValleys(depths:IntArray, move:Int, result:IntArray = IntArray(3)):IntArray {
+			result.fill(0)
 			if(depths[0]>depths[move]) result[0] = (depths[0]-depths[move])/3/move
 			if(move>=2&&depths[depths.size-1]>depths[depths.size-move-1])
 				result[0] = (depths[depths.size-1]-depths[depths.size-move-1])/3/move
@@ -1716,9 +1398,14 @@ open class PoochyBot:DummyAI(), Runnable {
 			return result
 		}
 
-		fun getColumnDepths(fld:Field):IntArray {
+		/**
+		 * @param fld Field
+		 * @param buf Array to reuse if it has the field's width
+		 * @return Y coord of highest block of each column
+		 */
+		fun getColumnDepths(fld:Field, buf:IntArray? = null):IntArray {
 			val width = fld.width
-			val result = IntArray(width)
+			val result = if(buf?.size==width) buf else IntArray(width)
 			for(x in 0 until width)
 				result[x] = fld.getHighestBlockY(x)
 			return result
@@ -37,7 +37,7 @@ class PoochyBotDefensive:PoochyBot() {
 		//int lidBefore = fld.getHowManyLidAboveHoles();
 
 		//Fetch depths.
-		val depthsBefore = getColumnDepths(fld)
+		val depthsBefore = getColumnDepths(fld, depthsBeforeBuf).also {depthsBeforeBuf = it}
 		var deepestY = -1
 		//int deepestX = -1;
 		for(i in 0 until width-1)
@@ -128,7 +128,7 @@ class PoochyBotDefensive:PoochyBot() {
 		// Field height (after clears)
 		val heightAfter = fld.highestBlockY
 
-		val depthsAfter = getColumnDepths(fld)
+		val depthsAfter = getColumnDepths(fld, depthsAfterBuf).also {depthsAfterBuf = it}
 
 		// Danger flag
 		//boolean danger = (heightBefore <= 8);
@@ -121,7 +121,7 @@ fun Field.delColor(color:Int):Int {
 		for(x in 0 until width) {
 			val c = getBlockColor(x, y)
 			if(c==color) {
-				getBlock(x, y)?.color = null
+				setBlockColor(x, y, Block.BLOCK_COLOR_NONE)
 				erased++
 			}
 		}
@@ -152,7 +152,7 @@ fun Field.shotgunField(random:Random) {
 				val blk = getBlock(x, y)
 				if(blk!=null) {
 					if(blk.color!=null) {
-						blk.color = null
+						setBlockColor(x, y, Block.BLOCK_COLOR_NONE)
 						break
 					}
 				}
@@ -34,6 +34,8 @@ class ColorPower:MarathonModeBase() {
 	private var nonRuleboundRandomiser:Random? = null
 	// Color history
 	private var colorHistory:IntArray = intArrayOf()
+	// Colors of the next pieces by position, drawn as the pieces are made
+	private val pieceColors = ArrayList<Int>()
 	// engine dif
 	private var defaultColors:IntArray = intArrayOf()
 	// Hm
@@ -229,38 +231,44 @@ class ColorPower:MarathonModeBase() {
 
 	private fun randomizeColors(engine:GameEngine, singlePiece:Boolean) {
 		if(singlePiece) {
-			var v = -1
-			for(j in 0..7) {
-				var flag = false
-				v = nonRuleboundRandomiser!!.nextInt(8)+1
-				for(elem in colorHistory) {
-					if(elem==v) {
-						flag = true
-						break
-					}
-				}
-				if(!flag) break
+			val pos = engine.nextPieceCount+engine.ruleopt.nextDisplay-1
+			val v = drawColor()
+			if(engine.nextPieceInit!=null) {
+				colorAt(pos)
+				pieceColors[pos] = v
 			}
-			appendToHistory(v)
-			engine.getNextObject(engine.nextPieceCount+engine.ruleopt.nextDisplay-1)?.setColor(v)
+			engine.getNextObject(pos)?.setColor(v)
+		} else if(engine.nextPieceArrayObject.isNotEmpty()) {
+			// Pieces made all at once (old replays)
+			for(i in 0 until engine.nextPieceArrayObject.size)
+				engine.nextPieceArrayObject[i]?.setColor(drawColor())
 		} else {
-			for(i in 0 until engine.nextPieceArrayObject.size) {
-				var v = -1
-				for(j in 0..7) {
-					var flag = false
-					v = nonRuleboundRandomiser!!.nextInt(8)+1
-					for(elem in colorHistory) {
-						if(elem==v) {
-							flag = true
-							break
-						}
-					}
-					if(!flag) break
+			// Color each piece as the engine makes it
+			pieceColors.clear()
+			engine.nextPieceInit = {pos, piece -> piece.setColor(colorAt(pos))}
+		}
+	}
+	// Color of the next piece at a position, drawing the colors up to it
+	private fun colorAt(pos:Int):Int {
+		while(pieceColors.size<=pos) pieceColors.add(drawColor())
+		return pieceColors[pos]
+	}
+	// Draw a color not in the history
+	private fun drawColor():Int {
+		var v = -1
+		for(j in 0..7) {
+			var flag = false
+			v = nonRuleboundRandomiser!!.nextInt(8)+1
+			for(elem in colorHistory) {
+				if(elem==v) {
+					flag = true
+					break
 				}
-				appendToHistory(v)
-				engine.nextPieceArrayObject[i]?.setColor(v)
 			}
+			if(!flag) break
 		}
+		appendToHistory(v)
+		return v
 	}
 	/*
      * Render the settings screen
@@ -300,6 +308,7 @@ class ColorPower:MarathonModeBase() {
 			if(!ruleboundMode) {
 				randomizeColors(engine, false)
 			} else {
+				engine.nextPieceInit = null
 				engine.ruleopt.pieceColor = defaultColors
 			}
 		}
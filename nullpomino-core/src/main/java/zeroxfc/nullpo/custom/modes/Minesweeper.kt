@@ -559,7 +559,7 @@ class Minesweeper:AbstractMode() {
 				val px = x+offsetX
 				val py = y+offsetY
 				if(engine.field?.getBlock(x, y)?.blockToChar()!=blockGrid[py][px]!!.blockToChar()) {
-					engine.field?.getBlock(x, y)?.copy(blockGrid[py][px])
+					engine.field?.setBlock(x, y, blockGrid[py][px])
 				}
 			}
 		}
@@ -4,6 +4,7 @@ import net.omegaboshi.nullpomino.game.subsystem.randomizer.Randomizer
 import mu.nu.nullpo.game.component.Piece
 
 class DroughtedPieceBiasRandomizer:Randomizer() {
+	override fun newInstance():Randomizer = DroughtedPieceBiasRandomizer()
 	var counters:IntArray = IntArray(pieces.size)
 	var history:MutableList<Int> = mutableListOf(Piece.PIECE_O, Piece.PIECE_S, Piece.PIECE_Z, Piece.PIECE_O)
 
@@ -4,6 +4,7 @@ import net.omegaboshi.nullpomino.game.subsystem.randomizer.Randomizer
 import mu.nu.nullpo.game.component.Piece
 
 class TerrorInstinctRandomizer:Randomizer() {
+	override fun newInstance():Randomizer = TerrorInstinctRandomizer()
 	private var piecePool:MutableList<Int> = mutableListOf()
 	private var history:MutableList<Int> = mutableListOf()
 	private var count = 0
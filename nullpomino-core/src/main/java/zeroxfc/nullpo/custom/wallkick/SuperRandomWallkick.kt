@@ -37,4 +37,11 @@ class SuperRandomWallkick:BaseStandardWallkick() {
 		}
 		return null
 	}
-}
\ No newline at end of file
+
+	/*
+     * Wallkick without a result object
+     */
+	override fun probeWallkick(x:Int, y:Int, rtDir:Int, rtOld:Int, rtNew:Int, allowUpward:Boolean, piece:Piece,
+		field:mu.nu.nullpo.game.component.Field, ctrl:mu.nu.nullpo.game.component.Controller?):Long =
+		WallkickResult.pack(executeWallkick(x, y, rtDir, rtOld, rtNew, allowUpward, piece, field, ctrl))
+}
@@ -0,0 +1,134 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.component
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+
+/** Occupancy bits and zobrist hash of [Field] */
+class FieldTest {
+	/** @return Field with blocks at the given (x, y) cells */
+	private fun field(vararg cells:Pair<Int, Int>):Field = Field(10, 20, 3).apply {
+		for((x, y) in cells) setBlock(x, y, Block(Block.BLOCK_COLOR_RED))
+	}
+
+	/** Check every row of [getRowBits][Field.getRowBits] against the Blocks,
+	 * and the hash against a field built from scratch with the same cells */
+	private fun assertConsistent(f:Field) {
+		val cells = ArrayList<Pair<Int, Int>>()
+		for(y in -f.hiddenHeight until f.height) {
+			var bits = 0L
+			for(x in 0 until f.width)
+				if(f.getBlock(x, y)?.isEmpty==false) {
+					bits = bits or (1L shl x)
+					cells.add(x to y)
+				}
+			assertEquals(bits, f.getRowBits(y), "row $y")
+		}
+		assertEquals(field(*cells.toTypedArray()).zobristHash, f.zobristHash)
+	}
+
+	@Test
+	fun setBlockUpdatesBits() {
+		val f = field(0 to 19, 9 to 19, 4 to -1)
+		assertEquals(1L or (1L shl 9), f.getRowBits(19))
+		assertEquals(1L shl 4, f.getRowBits(-1))
+		assertConsistent(f)
+
+		f.setBlock(0, 19, null)
+		assertEquals(1L shl 9, f.getRowBits(19))
+		assertConsistent(f)
+
+		f.setBlock(9, 19, Block())
+		f.setBlock(4, -1, null)
+		assertEquals(0L, f.getRowBits(19))
+		assertEquals(0L, f.zobristHash)
+	}
+
+	@Test
+	fun blockColorUpdatesBits() {
+		val f = field(3 to 10)
+		f.getBlock(3, 10)!!.color = null
+		assertEquals(0L, f.getRowBits(10))
+		f.getBlock(3, 10)!!.color = Block.COLOR.BLUE
+		assertEquals(1L shl 3, f.getRowBits(10))
+		assertConsistent(f)
+	}
+
+	@Test
+	fun hashDependsOnCellsOnly() {
+		val a = field(1 to 18, 2 to 19)
+		val b = field(2 to 19, 1 to 18)
+		assertEquals(a.zobristHash, b.zobristHash)
+		b.setBlockColor(2, 19, Block.BLOCK_COLOR_BLUE)
+		assertEquals(a.zobristHash, b.zobristHash)
+		assertNotEquals(a.zobristHash, field(1 to 18, 3 to 19).zobristHash)
+	}
+
+	@Test
+	fun clearLineUpdatesBits() {
+		val f = field(*Array(10) {it to 19}, 5 to 18, 6 to 17)
+		assertEquals(1, f.checkLine())
+		assertEquals(1, f.clearLine())
+		assertEquals(0L, f.getRowBits(19))
+		assertConsistent(f)
+
+		assertEquals(1, f.downFloatingBlocks())
+		assertEquals(1L shl 5, f.getRowBits(19))
+		assertEquals(1L shl 6, f.getRowBits(18))
+		assertEquals(0L, f.getRowBits(17))
+		assertConsistent(f)
+	}
+
+	@Test
+	fun flipUpdatesBits() {
+		val f = field(0 to 17, 1 to 18, 2 to 18, 3 to 19)
+		f.flipVertical()
+		assertEquals(1L, f.getRowBits(19))
+		assertEquals(0b110L, f.getRowBits(18))
+		assertEquals(1L shl 3, f.getRowBits(17))
+		assertConsistent(f)
+	}
+
+	@Test
+	fun copyKeepsBits() {
+		val f = field(0 to 19, 5 to -2)
+		val c = Field(f)
+		assertEquals(f.zobristHash, c.zobristHash)
+		assertConsistent(c)
+
+		// The copy has its own Blocks
+		c.getBlock(0, 19)!!.color = null
+		assertEquals(1L, f.getRowBits(19))
+		assertEquals(0L, c.getRowBits(19))
+		assertConsistent(f)
+		assertConsistent(c)
+
+		c.copy(f)
+		assertEquals(1L, c.getRowBits(19))
+		assertEquals(1L shl 5, c.getRowBits(-2))
+		assertConsistent(c)
+	}
+}
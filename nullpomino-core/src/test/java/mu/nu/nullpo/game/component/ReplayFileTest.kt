@@ -0,0 +1,142 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.component
+
+import mu.nu.nullpo.util.CustomProperties
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.GZIPOutputStream
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/** Saving and loading of [ReplayFile] */
+class ReplayFileTest {
+	/** @return Input data that changes every few frames */
+	private fun inputs(frames:Int, seed:Int):ReplayData = ReplayData().apply {
+		for(i in 0 until frames) setInputData((i/7+seed) and 0x3FF, i)
+	}
+
+	/** @return Replay properties of two players, with their input data written as properties */
+	private fun replay():CustomProperties = CustomProperties().apply {
+		setProperty("name.mode", "MARATHON")
+		setProperty("timestamp.date", "2021/07/07")
+		setProperty("version.core.major", 7)
+		setProperty("0.statistics.score", 12345)
+		setProperty("0.tuning.owSkin", -1)
+		setProperty("1.statistics.score", 678)
+		inputs(5000, 0).writeProperty(this, 0, -1)
+		inputs(300, 3).writeProperty(this, 1, -1)
+	}
+
+	private fun write(prop:CustomProperties, inputs:Map<Int, ReplayData> = emptyMap()):ByteArray =
+		ByteArrayOutputStream().also {ReplayFile.write(prop, it, inputs)}.toByteArray()
+
+	@Test
+	fun roundTrip() {
+		val prop = replay()
+		val r = ReplayFile.read(ByteArrayInputStream(write(prop)))
+
+		assertEquals(setOf(0, 1), r.inputs.keys)
+		assertEquals(inputs(5000, 0).inputDataArray, r.inputs[0]!!.inputDataArray)
+		assertEquals(inputs(300, 3).inputDataArray, r.inputs[1]!!.inputDataArray)
+		assertEquals(5000, r.prop.getProperty("0.r.max", 0))
+		assertEquals(300, r.prop.getProperty("1.r.max", 0))
+		// The input data stays in the ReplayData
+		assertNull(r.prop.getProperty("0.r.7"))
+		for(k in prop.stringPropertyNames().filterNot {it.contains(".r.")})
+			assertEquals(prop.getProperty(k), r.prop.getProperty(k), k)
+	}
+
+	@Test
+	fun inputsReplaceProperties() {
+		val prop = replay()
+		val r = ReplayFile.read(ByteArrayInputStream(write(prop, mapOf(0 to inputs(100, 9)))))
+		assertEquals(inputs(100, 9).inputDataArray, r.inputs[0]!!.inputDataArray)
+		assertEquals(inputs(300, 3).inputDataArray, r.inputs[1]!!.inputDataArray)
+	}
+
+	@Test
+	fun longValues() {
+		val prop = replay()
+		val ascii = "x".repeat(70000)
+		val wide = "あ".repeat(30000)
+		prop.setProperty("0.big.ascii", ascii)
+		prop.setProperty("name.wide", wide)
+		val r = ReplayFile.read(ByteArrayInputStream(write(prop)))
+		assertEquals(ascii, r.prop.getProperty("0.big.ascii"))
+		assertEquals(wide, r.prop.getProperty("name.wide"))
+	}
+
+	@Test
+	fun headerOnly() {
+		val header = ReplayFile.readHeader(ByteArrayInputStream(write(replay())))
+		assertEquals("MARATHON", header.getProperty("name.mode"))
+		assertEquals("2021/07/07", header.getProperty("timestamp.date"))
+		assertNull(header.getProperty("0.statistics.score"))
+		assertTrue(header.stringPropertyNames().all {ReplayFile.isHeaderKey(it)})
+	}
+
+	@Test
+	fun gzippedProperties() {
+		val prop = replay()
+		val bytes = ByteArrayOutputStream().also {out -> GZIPOutputStream(out).use {prop.store(it, null)}}.toByteArray()
+		val r = ReplayFile.read(ByteArrayInputStream(bytes))
+		assertTrue(r.inputs.isEmpty())
+		assertEquals(prop.stringPropertyNames(), r.prop.stringPropertyNames())
+		assertEquals(inputs(5000, 0).inputDataArray, ReplayData().apply {readProperty(r.prop, 0)}.inputDataArray)
+	}
+
+	@Test
+	fun version1() {
+		val bytes = ByteArrayOutputStream()
+		DataOutputStream(bytes).use {out ->
+			out.writeInt(ReplayFile.MAGIC)
+			out.writeByte(1)
+			val header = ByteArrayOutputStream()
+			DataOutputStream(header).use {
+				ReplayData.writeVarInt(it, 1)
+				it.writeUTF("name.mode")
+				it.writeUTF("MARATHON")
+			}
+			ReplayData.writeVarInt(out, header.size())
+			header.writeTo(out)
+			val body = DataOutputStream(DeflaterOutputStream(out))
+			ReplayData.writeVarInt(body, 1)
+			body.writeUTF("0.tuning.owSkin")
+			body.writeUTF("2")
+			ReplayData.writeVarInt(body, 1)
+			ReplayData.writeVarInt(body, 0)
+			inputs(50, 1).writeStream(body)
+			body.close()
+		}
+		val r = ReplayFile.read(ByteArrayInputStream(bytes.toByteArray()))
+		assertEquals("MARATHON", r.prop.getProperty("name.mode"))
+		assertEquals("2", r.prop.getProperty("0.tuning.owSkin"))
+		assertEquals(inputs(50, 1).inputDataArray, r.inputs[0]!!.inputDataArray)
+	}
+}
@@ -0,0 +1,126 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.net
+
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+/** Ranking order of [NetLeaderboard] */
+class NetLeaderboardTest {
+	private data class Entry(val name:String, val score:Int)
+
+	private fun board() = NetLeaderboard<Entry>({it.name}, compareByDescending {it.score})
+
+	/** Check every place of [board] against [expected] */
+	private fun assertRanks(expected:List<Entry>, board:NetLeaderboard<Entry>) {
+		assertEquals(expected, board.toList())
+		assertEquals(expected.size, board.size)
+		expected.forEachIndexed {i, e ->
+			assertEquals(e, board[i])
+			assertEquals(i, board.rankOf(e.name), e.name)
+			assertEquals(e, board.getByName(e.name))
+		}
+	}
+
+	@Test
+	fun putReturnsPlace() {
+		val b = board()
+		assertEquals(0, b.put(Entry("a", 100)))
+		assertEquals(0, b.put(Entry("b", 200)))
+		assertEquals(2, b.put(Entry("c", 50)))
+		assertEquals(1, b.put(Entry("d", 150)))
+		assertRanks(listOf(Entry("b", 200), Entry("d", 150), Entry("a", 100), Entry("c", 50)), b)
+	}
+
+	@Test
+	fun equalEntriesKeepOrder() {
+		val b = board()
+		b.put(Entry("a", 100))
+		b.put(Entry("b", 100))
+		assertEquals(2, b.put(Entry("c", 100)))
+		assertRanks(listOf(Entry("a", 100), Entry("b", 100), Entry("c", 100)), b)
+		// A new entry of a player goes after the entries that were already equal
+		assertEquals(2, b.put(Entry("a", 100)))
+		assertRanks(listOf(Entry("b", 100), Entry("c", 100), Entry("a", 100)), b)
+	}
+
+	@Test
+	fun putReplacesPlayer() {
+		val b = board()
+		b.put(Entry("a", 100))
+		b.put(Entry("b", 200))
+		assertEquals(0, b.put(Entry("a", 300)))
+		assertRanks(listOf(Entry("a", 300), Entry("b", 200)), b)
+	}
+
+	@Test
+	fun removeAndTrim() {
+		val b = board()
+		for(i in 0 until 10) b.put(Entry("p$i", i))
+		assertEquals(Entry("p4", 4), b.remove("p4"))
+		assertNull(b.remove("p4"))
+		assertEquals(-1, b.rankOf("p4"))
+		b.trim(5)
+		assertRanks((9 downTo 5).filter {it!=4}.map {Entry("p$it", it)}, b)
+		b.trim(-1)
+		assertEquals(5, b.size)
+		b.trim(0)
+		assertRanks(emptyList(), b)
+		assertEquals(0, b.put(Entry("p1", 1)))
+	}
+
+	@Test
+	fun matchesSortedList() {
+		val rnd = Random(1)
+		val b = board()
+		val expected = ArrayList<Entry>()
+		repeat(5000) {
+			val name = "p${rnd.nextInt(300)}"
+			when(rnd.nextInt(10)) {
+				0 -> {
+					expected.removeAll {it.name==name}
+					b.remove(name)
+				}
+				1 -> {
+					val max = rnd.nextInt(250)
+					while(expected.size>max) expected.removeAt(expected.lastIndex)
+					b.trim(max)
+				}
+				else -> {
+					val e = Entry(name, rnd.nextInt(50))
+					expected.removeAll {it.name==name}
+					var i = expected.indexOfFirst {it.score<e.score}
+					if(i<0) i = expected.size
+					expected.add(i, e)
+					assertEquals(i, b.put(e))
+				}
+			}
+		}
+		assertRanks(expected, b)
+		b.clear()
+		assertRanks(emptyList(), b)
+	}
+}
@@ -0,0 +1,151 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.subsystem.ai
+
+import mu.nu.nullpo.game.component.Block
+import mu.nu.nullpo.game.component.Field
+import mu.nu.nullpo.game.component.Piece
+import mu.nu.nullpo.game.play.GameEngine
+import mu.nu.nullpo.game.play.GameManager
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
+
+/** Reachable placements and their paths in [MoveGenerator] */
+class MoveGeneratorTest {
+	/** @return Engine with soft/hard drop and both rotations, without wallkicks */
+	private fun engine():GameEngine = GameEngine(GameManager(), 0).apply {
+		ruleopt.softdropEnable = true
+		ruleopt.harddropEnable = true
+		ruleopt.rotateButtonAllowReverse = true
+		ruleopt.rotateWallkick = false
+	}
+
+	/** @return Field with blocks in the given rows, except the given (x, y) cells */
+	private fun field(rows:IntRange, vararg holes:Pair<Int, Int>):Field = Field(10, 20, 3).apply {
+		for(y in rows) for(x in 0 until width)
+			if(x to y !in holes) setBlock(x, y, Block(Block.BLOCK_COLOR_RED))
+	}
+
+	/** @return Cells of a piece at a position */
+	private fun cells(piece:Piece, x:Int, y:Int, rt:Int):Set<Pair<Int, Int>> =
+		(0 until piece.maxBlock).map {x+piece.dataX[rt][it] to y+piece.dataY[rt][it]}.toSet()
+
+	/** Replay the moves of a placement from the spawn position, checking each position it passes */
+	private fun assertPath(engine:GameEngine, fld:Field, piece:Piece, p:MoveGenerator.Placement) {
+		var x = engine.getSpawnPosX(fld, piece)
+		var y = engine.getSpawnPosY(piece)
+		var rt = piece.direction
+		assertEquals(p.inputs.size*3, p.positions.size)
+		p.inputs.forEachIndexed {i, move ->
+			when(move) {
+				MoveGenerator.INPUT_LEFT -> x--
+				MoveGenerator.INPUT_RIGHT -> x++
+				MoveGenerator.INPUT_ROTATE_LEFT -> rt = piece.getRotateDirection(-1, rt)
+				MoveGenerator.INPUT_ROTATE_RIGHT -> rt = piece.getRotateDirection(1, rt)
+				MoveGenerator.INPUT_DOWN -> y++
+				MoveGenerator.INPUT_DROP -> y = piece.getBottom(x, y, rt, fld)
+			}
+			assertFalse(piece.checkCollision(x, y, rt, fld))
+			assertEquals(listOf(x, y, rt), p.positions.slice(i*3 until i*3+3))
+		}
+		assertEquals(listOf(p.x, p.y, p.rt), listOf(x, y, rt))
+		assertTrue(piece.checkCollision(x, y+1, rt, fld))
+	}
+
+	@Test
+	fun emptyFieldReachesEveryColumn() {
+		val engine = engine()
+		val fld = Field(10, 20, 3)
+		for(id in intArrayOf(Piece.PIECE_I, Piece.PIECE_O, Piece.PIECE_T)) {
+			val piece = Piece(id)
+			// Any position the piece fits at below the top of the field can be reached
+			val y = 2
+			val expected = HashSet<Triple<Int, Int, Int>>()
+			for(rt in 0 until Piece.DIRECTION_COUNT) for(x in -4..fld.width+4)
+				if(!piece.checkCollision(x, y, rt, fld)) expected.add(Triple(x, piece.getBottom(x, y, rt, fld), rt))
+
+			val found = MoveGenerator().generate(engine, fld, piece)
+			// Placements with the same cells are found once
+			assertEquals(expected.map {cells(piece, it.first, it.second, it.third)}.toSet(),
+				found.map {cells(piece, it.x, it.y, it.rt)}.toSet(), "piece $id")
+			for(p in found) assertPath(engine, fld, piece, p)
+		}
+	}
+
+	@Test
+	fun tuckUnderOverhang() {
+		val engine = engine()
+		// Ledge over the left 4 columns of the bottom 2 rows
+		val fld = Field(10, 20, 3).apply {for(x in 0..3) setBlock(x, 17, Block(Block.BLOCK_COLOR_RED))}
+		val piece = Piece(Piece.PIECE_O)
+		val gen = MoveGenerator()
+		val target = setOf(0 to 18, 1 to 18, 0 to 19, 1 to 19)
+
+		val p = assertNotNull(gen.generate(engine, fld, piece).find {cells(piece, it.x, it.y, it.rt)==target})
+		assertPath(engine, fld, piece, p)
+
+		// The plan drops the piece beside the ledge and carries every move after it
+		val plan = assertNotNull(gen.plans(engine, fld, piece).find {!it.isDrop&&it.xSub==p.x&&it.ySub==p.y})
+		assertFalse(plan.isSingleMove)
+		assertTrue(plan.path.all {it==MoveGenerator.INPUT_LEFT})
+		assertEquals(p.x, plan.x-plan.path.size)
+		assertEquals(p.y, plan.y)
+		assertTrue(piece.checkCollision(plan.x, plan.y+1, plan.rt, fld))
+		assertEquals(listOf(p.x, p.y, p.rt), plan.positions.takeLast(3))
+	}
+
+	@Test
+	fun enclosedHoleIsUnreachable() {
+		val engine = engine()
+		// A hole of 2x2 under a full row
+		val fld = field(15..19, 0 to 18, 1 to 18, 0 to 19, 1 to 19)
+		for(id in intArrayOf(Piece.PIECE_I, Piece.PIECE_O, Piece.PIECE_T)) {
+			val piece = Piece(id)
+			val found = MoveGenerator().generate(engine, fld, piece)
+			assertTrue(found.isNotEmpty())
+			for(p in found) {
+				assertTrue(cells(piece, p.x, p.y, p.rt).all {it.second<15}, "piece $id")
+				assertPath(engine, fld, piece, p)
+			}
+		}
+	}
+
+	@Test
+	fun memoizesSameField() {
+		val engine = engine()
+		val gen = MoveGenerator()
+		val piece = Piece(Piece.PIECE_T)
+		val a = gen.generate(engine, field(18..19, 4 to 19), piece)
+		val b = gen.generate(engine, field(18..19, 4 to 19), piece)
+		assertTrue(a===b)
+		assertEquals(1L, gen.memoHits)
+		assertEquals(1L, gen.memoMisses)
+		gen.clearMemo()
+		gen.generate(engine, field(18..19, 4 to 19), piece)
+		assertEquals(2L, gen.memoMisses)
+	}
+}
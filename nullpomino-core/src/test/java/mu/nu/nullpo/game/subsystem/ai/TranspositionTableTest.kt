@@ -0,0 +1,127 @@
+/* Copyright (c) 2010, NullNoname
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * Neither the name of NullNoname nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. */
+package mu.nu.nullpo.game.subsystem.ai
+
+import mu.nu.nullpo.game.component.Field
+import mu.nu.nullpo.game.component.Piece
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+
+/** Lookups, collisions and aging of [TranspositionTable] */
+class TranspositionTableTest {
+	@Test
+	fun getAndSet() {
+		val t = TranspositionTable(8)
+		assertEquals(256, t.capacity)
+		assertEquals(TranspositionTable.NONE, t[1L])
+		t[1L] = 42
+		t[0L] = -7
+		t[-1L] = Int.MIN_VALUE
+		assertEquals(42L, t[1L])
+		assertEquals(-7L, t[0L])
+		assertEquals(Int.MIN_VALUE.toLong(), t[-1L])
+		t[1L] = 43
+		assertEquals(43L, t[1L])
+	}
+
+	@Test
+	fun bucketHoldsTwoKeys() {
+		// A table of 2 entries puts every key in the same bucket
+		val t = TranspositionTable(1)
+		t[10L] = 1
+		t[20L] = 2
+		assertEquals(1L, t[10L])
+		assertEquals(2L, t[20L])
+		t[20L] = 3
+		assertEquals(1L, t[10L])
+		assertEquals(3L, t[20L])
+	}
+
+	@Test
+	fun oldestIsReplaced() {
+		val t = TranspositionTable(1)
+		t[10L] = 1
+		t.newSearch()
+		t[20L] = 2
+		t.newSearch()
+		t[30L] = 3
+		assertEquals(TranspositionTable.NONE, t[10L])
+		assertEquals(2L, t[20L])
+		assertEquals(3L, t[30L])
+	}
+
+	@Test
+	fun lookupKeepsEntry() {
+		val t = TranspositionTable(1)
+		t[10L] = 1
+		t[20L] = 2
+		t.newSearch()
+		// Used by the new search, so 20 is older now
+		assertEquals(1L, t[10L])
+		t[30L] = 3
+		assertEquals(1L, t[10L])
+		assertEquals(TranspositionTable.NONE, t[20L])
+		assertEquals(3L, t[30L])
+	}
+
+	@Test
+	fun generationWraps() {
+		val t = TranspositionTable(1)
+		t[10L] = 1
+		repeat(0x10000) {t.newSearch()}
+		t[20L] = 2
+		assertEquals(1L, t[10L])
+		assertEquals(2L, t[20L])
+	}
+
+	@Test
+	fun countersAndClear() {
+		val t = TranspositionTable(4)
+		var evals = 0
+		assertEquals(0.0, t.hitRate)
+		assertEquals(5, t.getOrPut(7L) {evals++; 5})
+		assertEquals(5, t.getOrPut(7L) {evals++; 6})
+		assertEquals(1, evals)
+		assertEquals(1L, t.hits)
+		assertEquals(1L, t.misses)
+		assertEquals(0.5, t.hitRate)
+		t.clear()
+		assertEquals(0L, t.hits)
+		assertEquals(0L, t.misses)
+		assertEquals(TranspositionTable.NONE, t[7L])
+	}
+
+	@Test
+	fun placementKeys() {
+		val piece = Piece(Piece.PIECE_T)
+		val key = TranspositionTable.placementKey(Field(10, 20, 3), piece, 4, 10, 0)
+		assertEquals(key, TranspositionTable.placementKey(Field(10, 20, 3), piece, 4, 10, 0))
+		assertNotEquals(key, TranspositionTable.placementKey(Field(10, 20, 3, true), piece, 4, 10, 0))
+		assertNotEquals(key, TranspositionTable.placementKey(Field(10, 22, 3), piece, 4, 10, 0))
+		assertNotEquals(key, TranspositionTable.placementKey(Field(10, 20, 3), piece, 5, 10, 0))
+		assertNotEquals(key, TranspositionTable.placementKey(Field(10, 20, 3), piece, 4, 10, 1))
+		assertNotEquals(key, TranspositionTable.placementKey(Field(10, 20, 3), Piece(Piece.PIECE_S), 4, 10, 0))
+	}
+}